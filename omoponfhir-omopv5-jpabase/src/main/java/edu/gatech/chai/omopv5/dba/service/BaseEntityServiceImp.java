@@ -20,23 +20,39 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import javax.persistence.AttributeNode;
+import javax.persistence.EntityGraph;
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 import javax.persistence.Table;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.JoinType;
 import javax.persistence.criteria.Order;
 import javax.persistence.criteria.Path;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
 
 import edu.gatech.chai.omopv5.jpa.dao.BaseEntityDao;
+import edu.gatech.chai.omopv5.jpa.utility.OmopPostgreSQLDialect;
+import edu.gatech.chai.omopv5.jpa.utility.QueryPlanEstimator;
 import edu.gatech.chai.omopv5.model.entity.BaseEntity;
 
 public abstract class BaseEntityServiceImp<T extends BaseEntity, V extends BaseEntityDao<T>>  implements IService<T> {
+	protected static final int ID_CHUNK_SIZE = 1000;
+	protected static final int STREAM_FETCH_SIZE = 500;
+	/** Suffix of the named entity graph that is the fetch plan of an entity. */
+	public static final String FETCH_PLAN_SUFFIX = ".fhir";
 
 	@Autowired
 	private V vDao;
@@ -78,6 +94,32 @@ public abstract class BaseEntityServiceImp<T extends BaseEntity, V extends BaseE
 		return retvals;	
 	}
 
+	/**
+	 * Loads all entities for the given ids with IN (...) queries. Ids are sent in
+	 * chunks to stay below the bind parameter limit of the database.
+	 */
+	@Transactional(readOnly = true)
+	public List<T> searchByIds(List<Long> ids) {
+		List<T> retvals = new ArrayList<T>();
+		if (ids == null || ids.isEmpty()) return retvals;
+
+		EntityManager em = vDao.getEntityManager();
+		CriteriaBuilder builder = em.getCriteriaBuilder();
+		for (int i = 0; i < ids.size(); i += ID_CHUNK_SIZE) {
+			List<Long> chunk = ids.subList(i, Math.min(i + ID_CHUNK_SIZE, ids.size()));
+
+			CriteriaQuery<T> query = builder.createQuery(entityClass);
+			Root<T> root = query.from(entityClass);
+			applyFetchPlan(em, root);
+			query.select(root);
+			query.where(root.get("id").in(chunk));
+
+			retvals.addAll(em.createQuery(query).getResultList());
+		}
+
+		return retvals;
+	}
+
 	@Transactional
 	public T create(T entity) {
 		vDao.add(entity);
@@ -133,7 +175,64 @@ public abstract class BaseEntityServiceImp<T extends BaseEntity, V extends BaseE
 		
 		return em.createQuery(query).getSingleResult();
 	}
+
+	/**
+	 * Estimates the number of entities without counting them.
+	 * 
+	 * Without parameters, the row estimate from the planner statistics
+	 * (pg_class.reltuples) is used. A view has no statistics of its own, so
+	 * it, and a search with parameters, is estimated by the planner from the
+	 * statistics of the tables (EXPLAIN). Returns null if there is no estimate.
+	 */
+	@Transactional(readOnly = true)
+	public Long getSizeEstimate(List<ParameterWrapper> paramList) {
+		EntityManager em = vDao.getEntityManager();
+		CriteriaBuilder builder = em.getCriteriaBuilder();
+		CriteriaQuery<Object> query = builder.createQuery(Object.class);
+		Root<T> root = query.from(entityClass);
+		query.select(root.get("id"));
+
+		if (paramList == null || paramList.isEmpty()) {
+			Long estimate = getTableRowEstimate();
+			if (estimate != null) return estimate;
+		} else {
+			List<Predicate> predicates = ParameterWrapper.constructPredicate(builder, paramList, root);
+			if (predicates == null || predicates.isEmpty()) return 0L;
+
+			query.where(builder.and(predicates.toArray(new Predicate[predicates.size()])));
+		}
+
+		return QueryPlanEstimator.estimateRows(em, em.createQuery(query));
+	}
+
+	protected Long getTableRowEstimate() {
+		Table t = entityClass.getAnnotation(Table.class);
+		if (t == null) return null;
+
+		EntityManager em = vDao.getEntityManager();
+		String queryString = "SELECT p.reltuples FROM pg_class p JOIN pg_namespace n ON n.oid = p.relnamespace "
+				+ "WHERE p.relname = :table_name AND n.nspname = ANY (current_schemas(false))";
+		Query query = em.createNativeQuery(queryString);
+		query = query.setParameter("table_name", t.name().toLowerCase());
+		List<?> results = query.getResultList();
+		if (results.isEmpty() || results.get(0) == null) return null;
+
+		long estimate = ((Number) results.get(0)).longValue();
+		if (estimate <= 0) return null;
+
+		return estimate;
+	}
 	
+	protected <Y> Path<Y> getPath(Root<T> root, String attributeName) {
+		String[] columnPath = attributeName.split("\\.");
+		Path<Y> path = root.get(columnPath[0]);
+		for (int i = 1; i < columnPath.length; i++) {
+			path = path.get(columnPath[i]);
+		}
+
+		return path;
+	}
+
 	protected List<Order> addSort (CriteriaBuilder builder, Root<T> root, String sort) {
 		List<Order> orders = new ArrayList<Order>();
 		if (sort != null && !sort.isEmpty()) {
@@ -141,9 +240,9 @@ public abstract class BaseEntityServiceImp<T extends BaseEntity, V extends BaseE
 			for (int i=0; i<sort_.length; i++) {
 				String[] items = sort_[i].split(" ");
 				if ("ASC".equals(items[1])) {
-					orders.add(builder.asc(root.get(items[0])));
+					orders.add(builder.asc(getPath(root, items[0])));
 				} else {
-					orders.add(builder.desc(root.get(items[0])));
+					orders.add(builder.desc(getPath(root, items[0])));
 				}
 			}
 		} else {
@@ -155,13 +254,23 @@ public abstract class BaseEntityServiceImp<T extends BaseEntity, V extends BaseE
 	
 	@Transactional(readOnly = true)
 	public List<T> searchWithoutParams(int fromIndex, int toIndex, String sort) {
+		return searchWithoutParams(fromIndex, toIndex, sort, null);
+	}
+
+	@Transactional(readOnly = true)
+	public List<T> searchWithoutParams(int fromIndex, int toIndex, String sort, KeysetCursor cursor) {
 		int length = toIndex - fromIndex;
+		if (cursor != null && length > 0 && KeysetCursor.parseSort(sort) != null) {
+			return searchWithKeyset(fromIndex, length, null, sort, cursor);
+		}
+
 		EntityManager em = vDao.getEntityManager();		
 		List<T> retvals = new ArrayList<T>();
 		
 		CriteriaBuilder builder = em.getCriteriaBuilder();
 		CriteriaQuery<T> query = builder.createQuery(entityClass);
 		Root<T> root = query.from(entityClass);
+		applyFetchPlan(em, root);
 		
 		query.select(root);
 		
@@ -182,11 +291,21 @@ public abstract class BaseEntityServiceImp<T extends BaseEntity, V extends BaseE
 
 	@Transactional(readOnly = true)
 	public List<T> searchWithParams(int fromIndex, int toIndex, List<ParameterWrapper> paramList, String sort) {
+		return searchWithParams(fromIndex, toIndex, paramList, sort, null);
+	}
+
+	@Transactional(readOnly = true)
+	public List<T> searchWithParams(int fromIndex, int toIndex, List<ParameterWrapper> paramList, String sort, KeysetCursor cursor) {
 		int length = toIndex - fromIndex;
+		if (cursor != null && length > 0 && KeysetCursor.parseSort(sort) != null) {
+			return searchWithKeyset(fromIndex, length, paramList, sort, cursor);
+		}
+
 		EntityManager em = vDao.getEntityManager();
 		CriteriaBuilder builder = em.getCriteriaBuilder();
 		CriteriaQuery<T> query = builder.createQuery(entityClass);
 		Root<T> root = query.from(entityClass);
+		applyFetchPlan(em, root);
 		
 		List<T> retvals = new ArrayList<T>();
 		
@@ -211,4 +330,340 @@ public abstract class BaseEntityServiceImp<T extends BaseEntity, V extends BaseE
 		return retvals;
 	}
 
+	/**
+	 * Searches one page and returns the total number of matches. The page is
+	 * added to the page list. An empty paramList means no filter.
+	 * 
+	 * With OmopPostgreSQLDialect, the total is read with the page by
+	 * COUNT(*) OVER (), so the filter is run once. Otherwise, or when the page is
+	 * past the last row, a separate count query is run.
+	 */
+	@Transactional(readOnly = true)
+	public Long searchWithCount(int fromIndex, int toIndex, List<ParameterWrapper> paramList, String sort, List<T> page) {
+		return searchWithCount(fromIndex, toIndex, paramList, sort, page, null);
+	}
+
+	/**
+	 * Same as above. If the cursor is given and the sort can be seeked, the
+	 * page is ordered as in keyset paging and the cursor is moved to its last
+	 * row, so the next page seeks instead of using OFFSET.
+	 */
+	@Transactional(readOnly = true)
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public Long searchWithCount(int fromIndex, int toIndex, List<ParameterWrapper> paramList, String sort, List<T> page,
+			KeysetCursor cursor) {
+		boolean noParams = paramList == null || paramList.isEmpty();
+		if (!isCountOverSupported()) {
+			if (noParams) {
+				page.addAll(searchWithoutParams(fromIndex, toIndex, sort, cursor));
+				return getSize();
+			}
+			page.addAll(searchWithParams(fromIndex, toIndex, paramList, sort, cursor));
+			return getSize(paramList);
+		}
+
+		int length = toIndex - fromIndex;
+		String[] sortItem = cursor != null && length > 0 ? KeysetCursor.parseSort(sort) : null;
+
+		EntityManager em = vDao.getEntityManager();
+		CriteriaBuilder builder = em.getCriteriaBuilder();
+		CriteriaQuery<Tuple> query = builder.createTupleQuery();
+		Root<T> root = query.from(entityClass);
+
+		if (!noParams) {
+			List<Predicate> predicates = ParameterWrapper.constructPredicate(builder, paramList, root);
+			if (predicates == null || predicates.isEmpty()) return 0L; // Nothing.
+			query.where(builder.and(predicates.toArray(new Predicate[predicates.size()])));
+		}
+
+		applyFetchPlan(em, root);
+		Expression<Long> countOver = builder.function(OmopPostgreSQLDialect.COUNT_OVER, Long.class);
+		if (sortItem == null) {
+			query.multiselect(root, countOver);
+			query.orderBy(addSort(builder, root, sort));
+		} else {
+			// Same order as searchWithKeyset: id is the tie breaker.
+			boolean ascending = "ASC".equals(sortItem[1]);
+			Path<Comparable> idPath = root.get(KeysetCursor.ID_ATTRIBUTE);
+			Path<Comparable> sortPath = KeysetCursor.ID_ATTRIBUTE.equals(sortItem[0]) ? idPath
+					: getPath(root, sortItem[0]);
+			query.multiselect(root, countOver, sortPath, idPath);
+
+			List<Order> orders = new ArrayList<Order>();
+			orders.add(ascending ? builder.asc(sortPath) : builder.desc(sortPath));
+			if (sortPath != idPath) {
+				orders.add(builder.asc(idPath));
+			}
+			query.orderBy(orders);
+		}
+
+		TypedQuery<Tuple> typedQuery = em.createQuery(query).setFirstResult(fromIndex);
+		if (length > 0) {
+			typedQuery.setMaxResults(length);
+		}
+
+		List<Tuple> results = typedQuery.getResultList();
+		if (results.isEmpty()) {
+			// No row to carry the total. It is 0 unless the page is past the end.
+			if (fromIndex == 0) return 0L;
+			return noParams ? getSize() : getSize(paramList);
+		}
+
+		for (Tuple result : results) {
+			page.add((T) result.get(0));
+		}
+
+		if (sortItem != null) {
+			Tuple last = results.get(results.size() - 1);
+			Object lastIdValue = last.get(3);
+			cursor.advance(sort, fromIndex + results.size(), last.get(2),
+					lastIdValue == null ? null : ((Number) lastIdValue).longValue());
+		}
+
+		return ((Number) results.get(0).get(1)).longValue();
+	}
+
+	/**
+	 * The fetch plan of the entity: its named entity graph with the
+	 * FETCH_PLAN_SUFFIX, such as FPerson.fhir, which lists the associations
+	 * that the FHIR mapper reads. null if the entity has none.
+	 */
+	protected EntityGraph<? super T> getFetchPlan(EntityManager em) {
+		String name = entityClass.getSimpleName() + FETCH_PLAN_SUFFIX;
+		for (EntityGraph<? super T> graph : em.getEntityGraphs(entityClass)) {
+			if (name.equals(graph.getName())) return graph;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Join fetches the associations of the fetch plan, so they are read with
+	 * the page rows instead of by one select per row. Only the top level
+	 * attributes of the graph are used. Associations of the fetched entities
+	 * are loaded as mapped, in batches of hibernate.default_batch_fetch_size.
+	 */
+	protected void applyFetchPlan(EntityManager em, Root<T> root) {
+		EntityGraph<? super T> plan = getFetchPlan(em);
+		if (plan == null) return;
+
+		for (AttributeNode<?> node : plan.getAttributeNodes()) {
+			root.fetch(node.getAttributeName(), JoinType.LEFT);
+		}
+	}
+
+	protected boolean isCountOverSupported() {
+		SessionFactoryImplementor sessionFactory = vDao.getEntityManager().getEntityManagerFactory()
+				.unwrap(SessionFactoryImplementor.class);
+		return sessionFactory.getSqlFunctionRegistry().findSQLFunction(OmopPostgreSQLDialect.COUNT_OVER) != null;
+	}
+
+	/**
+	 * Streams all entities that match paramList to the callback, in sort order.
+	 * 
+	 * Use this instead of searchWithParams(0, 0, ...) when the number of matching
+	 * rows is not bounded. Rows are read through a forward-only cursor,
+	 * STREAM_FETCH_SIZE rows per round trip. Entities are loaded read-only and
+	 * are detached after the callback, so memory does not grow with the number
+	 * of rows. If this is the only work in the persistence context, it is also
+	 * cleared every STREAM_FETCH_SIZE rows to drop the eagerly loaded
+	 * references.
+	 */
+	@Transactional(readOnly = true)
+	@SuppressWarnings("unchecked")
+	public void streamWithParams(List<ParameterWrapper> paramList, String sort, EntityCallback<T> callback) {
+		org.hibernate.query.Query<T> hibernateQuery = createStreamQuery(paramList, sort);
+		if (hibernateQuery == null) return; // Nothing.
+
+		Session session = vDao.getEntityManager().unwrap(Session.class);
+		// Do not clear entities that the caller's transaction is working on.
+		boolean clear = session.getStatistics().getEntityCount() == 0;
+
+		try (ScrollableResults results = hibernateQuery.scroll(ScrollMode.FORWARD_ONLY)) {
+			int count = 0;
+			while (results.next()) {
+				T entity = (T) results.get(0);
+				boolean more = callback.process(entity);
+
+				if (clear && ++count % STREAM_FETCH_SIZE == 0) {
+					session.clear();
+				} else {
+					session.detach(entity);
+				}
+
+				if (!more) break;
+			}
+		}
+	}
+
+	/**
+	 * Same as streamWithParams above, but the callback gets chunkSize entities
+	 * at a time, while they are still attached. They are detached (or the
+	 * persistence context is cleared) only after the callback returns, so the
+	 * callback can load lazy associations and map the whole chunk.
+	 */
+	@Transactional(readOnly = true)
+	@SuppressWarnings("unchecked")
+	public void streamWithParams(List<ParameterWrapper> paramList, String sort, int chunkSize,
+			EntityChunkCallback<T> callback) {
+		org.hibernate.query.Query<T> hibernateQuery = createStreamQuery(paramList, sort);
+		if (hibernateQuery == null) return; // Nothing.
+
+		Session session = vDao.getEntityManager().unwrap(Session.class);
+		// Do not clear entities that the caller's transaction is working on.
+		boolean clear = session.getStatistics().getEntityCount() == 0;
+
+		List<T> chunk = new ArrayList<T>(chunkSize);
+		try (ScrollableResults results = hibernateQuery.scroll(ScrollMode.FORWARD_ONLY)) {
+			boolean more = true;
+			while (more && results.next()) {
+				chunk.add((T) results.get(0));
+				if (chunk.size() >= chunkSize) {
+					more = callback.process(chunk);
+					release(session, chunk, clear);
+				}
+			}
+
+			if (more && !chunk.isEmpty()) {
+				callback.process(chunk);
+				release(session, chunk, clear);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private org.hibernate.query.Query<T> createStreamQuery(List<ParameterWrapper> paramList, String sort) {
+		EntityManager em = vDao.getEntityManager();
+		CriteriaBuilder builder = em.getCriteriaBuilder();
+		CriteriaQuery<T> query = builder.createQuery(entityClass);
+		Root<T> root = query.from(entityClass);
+
+		List<Predicate> predicates = ParameterWrapper.constructPredicate(builder, paramList, root);
+		if (predicates == null || predicates.isEmpty()) return null;
+
+		applyFetchPlan(em, root);
+		query.select(root);
+		query.where(builder.and(predicates.toArray(new Predicate[predicates.size()])));
+		query.orderBy(addSort(builder, root, sort));
+
+		org.hibernate.query.Query<T> hibernateQuery = em.createQuery(query).unwrap(org.hibernate.query.Query.class);
+		hibernateQuery.setFetchSize(STREAM_FETCH_SIZE);
+		hibernateQuery.setReadOnly(true);
+
+		return hibernateQuery;
+	}
+
+	private static <T> void release(Session session, List<T> chunk, boolean clear) {
+		if (clear) {
+			session.clear();
+		} else {
+			for (T entity : chunk) {
+				session.detach(entity);
+			}
+		}
+		chunk.clear();
+	}
+
+	/**
+	 * Keyset (seek) paging. If the cursor ended exactly at fromIndex, the page is
+	 * fetched with a seek predicate on (sort column, id). Otherwise, OFFSET is used
+	 * for this page. Either way, the cursor is moved to the end of this page.
+	 * 
+	 * paramList == null means search without parameters.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private List<T> searchWithKeyset(int fromIndex, int length, List<ParameterWrapper> paramList, String sort,
+			KeysetCursor cursor) {
+		EntityManager em = vDao.getEntityManager();
+		CriteriaBuilder builder = em.getCriteriaBuilder();
+		CriteriaQuery<Tuple> query = builder.createTupleQuery();
+		Root<T> root = query.from(entityClass);
+
+		List<T> retvals = new ArrayList<T>();
+
+		List<Predicate> predicates = new ArrayList<Predicate>();
+		if (paramList != null) {
+			List<Predicate> paramPredicates = ParameterWrapper.constructPredicate(builder, paramList, root);
+			if (paramPredicates == null || paramPredicates.isEmpty()) return retvals; // Nothing. return empty list
+			predicates.addAll(paramPredicates);
+		}
+
+		String[] sortItem = KeysetCursor.parseSort(sort);
+		boolean ascending = "ASC".equals(sortItem[1]);
+		boolean sortById = KeysetCursor.ID_ATTRIBUTE.equals(sortItem[0]);
+		Path<Comparable> idPath = root.get(KeysetCursor.ID_ATTRIBUTE);
+		Path<Comparable> sortPath = sortById ? idPath : getPath(root, sortItem[0]);
+
+		boolean seek;
+		Comparable lastSortValue;
+		Comparable lastId;
+		synchronized (cursor) {
+			seek = cursor.canSeek(fromIndex, sort);
+			lastSortValue = (Comparable) cursor.getLastSortValue();
+			lastId = cursor.getLastId();
+		}
+
+		if (seek) {
+			// JPA has no row value comparison. (sort, id) > (?, ?) is expanded to
+			// sort > ? OR (sort = ? AND id > ?). id is always ascending.
+			//
+			// PostgreSQL sorts NULLs last under ASC, so rows with a NULL sort value
+			// are still ahead and are added with OR sort IS NULL. Under DESC they
+			// sort first and have been passed already. The cursor only seeks from
+			// a non-NULL sort value.
+			Predicate seekWhere;
+			if (sortById) {
+				seekWhere = ascending ? builder.greaterThan(idPath, lastId) : builder.lessThan(idPath, lastId);
+			} else {
+				Predicate beyond = ascending ? builder.greaterThan(sortPath, lastSortValue)
+						: builder.lessThan(sortPath, lastSortValue);
+				seekWhere = builder.or(beyond,
+						builder.and(builder.equal(sortPath, lastSortValue), builder.greaterThan(idPath, lastId)));
+				if (ascending) {
+					seekWhere = builder.or(seekWhere, builder.isNull(sortPath));
+				}
+			}
+			predicates.add(seekWhere);
+		}
+
+		applyFetchPlan(em, root);
+		if (sortById) {
+			query.multiselect(root, idPath);
+		} else {
+			query.multiselect(root, sortPath, idPath);
+		}
+
+		if (!predicates.isEmpty()) {
+			query.where(builder.and(predicates.toArray(new Predicate[predicates.size()])));
+		}
+
+		// Sort. id is the tie breaker so that the order is deterministic.
+		List<Order> orders = new ArrayList<Order>();
+		orders.add(ascending ? builder.asc(sortPath) : builder.desc(sortPath));
+		if (!sortById) {
+			orders.add(builder.asc(idPath));
+		}
+		query.orderBy(orders);
+
+		TypedQuery<Tuple> typedQuery = em.createQuery(query).setMaxResults(length);
+		if (!seek) {
+			typedQuery.setFirstResult(fromIndex);
+		}
+
+		List<Tuple> results = typedQuery.getResultList();
+		for (Tuple result : results) {
+			retvals.add((T) result.get(0));
+		}
+
+		if (!results.isEmpty()) {
+			Tuple last = results.get(results.size() - 1);
+			Object lastValue = last.get(1);
+			Object lastIdValue = sortById ? last.get(1) : last.get(2);
+			cursor.advance(sort, fromIndex + results.size(), lastValue,
+					lastIdValue == null ? null : ((Number) lastIdValue).longValue());
+		}
+
+		return retvals;
+	}
+
 }
@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package edu.gatech.chai.omopv5.dba.service;
+
+import java.util.Collection;
+import java.util.List;
+
+import edu.gatech.chai.omopv5.model.entity.Concept;
+
+/**
+ * ConceptLookupService resolves OMOP concepts with exact (vocabulary_id,
+ * concept_code) matches. Results, including misses, are cached in memory.
+ */
+public interface ConceptLookupService {
+	public Concept findByVocabularyIdAndCode(String vocabularyId, String conceptCode);
+
+	/**
+	 * All concept_ids with the code in the vocabulary. Empty if there are none.
+	 * Used to filter fact tables on their concept_id columns. The code must
+	 * match exactly, case included, like the "=" code searches it replaces.
+	 */
+	public List<Long> findConceptIdsByVocabularyIdAndCode(String vocabularyId, String conceptCode);
+
+	/**
+	 * All concept_ids of the codes in the vocabulary, looked up in batches.
+	 * Used to compile value sets.
+	 */
+	public List<Long> findConceptIdsByVocabularyIdAndCodes(String vocabularyId, Collection<String> conceptCodes);
+
+	public void clearCache();
+}
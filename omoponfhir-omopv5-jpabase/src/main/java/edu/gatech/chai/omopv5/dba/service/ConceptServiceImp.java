@@ -17,76 +17,176 @@
 package edu.gatech.chai.omopv5.dba.service;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.persistence.EntityManager;
-import javax.persistence.TypedQuery;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import edu.gatech.chai.omopv5.dba.util.LongKeyCache;
 import edu.gatech.chai.omopv5.jpa.dao.ConceptDao;
 import edu.gatech.chai.omopv5.model.entity.Concept;
 
 @Service
 public class ConceptServiceImp extends BaseEntityServiceImp<Concept, ConceptDao> implements ConceptService {
-	public ConceptServiceImp() {
+	private static final long[] NO_INGREDIENTS = new long[0];
+
+	// RxNorm drug -> its RxNorm ingredients.
+	private static final String RXNORM_INGREDIENT_SQL = "SELECT ca.descendant_concept_id, c.concept_id "
+			+ "FROM concept_ancestor ca "
+			+ "JOIN concept c ON c.concept_id = ca.ancestor_concept_id "
+			+ "WHERE ca.descendant_concept_id IN (:ids) "
+			+ "AND c.vocabulary_id = 'RxNorm' "
+			+ "AND c.concept_class_id = 'Ingredient' "
+			+ "AND c.invalid_reason IS NULL";
+
+	// NDC drug -> standard RxNorm drug it maps to -> its RxNorm ingredients.
+	private static final String NDC_INGREDIENT_SQL = "SELECT cr.concept_id_1, c.concept_id "
+			+ "FROM concept_relationship cr "
+			+ "JOIN concept tar ON tar.concept_id = cr.concept_id_2 "
+			+ "AND tar.standard_concept = 'S' "
+			+ "AND tar.invalid_reason IS NULL "
+			+ "JOIN concept_ancestor ca ON ca.descendant_concept_id = tar.concept_id "
+			+ "JOIN concept c ON c.concept_id = ca.ancestor_concept_id "
+			+ "WHERE cr.concept_id_1 IN (:ids) "
+			+ "AND cr.relationship_id = 'Maps to' "
+			+ "AND cr.invalid_reason IS NULL "
+			+ "AND c.vocabulary_id = 'RxNorm' "
+			+ "AND c.concept_class_id = 'Ingredient'";
+
+	// Drug concept id -> ingredient concept ids. Ingredient concepts
+	// themselves come from the concept second-level cache.
+	private LongKeyCache<long[]> ingredientCache;
+
+	@Autowired
+	public ConceptServiceImp(@Value("${ingredient.cache.maxEntries:100000}") int maxEntries,
+			@Value("${ingredient.cache.ttlSeconds:0}") long ttlSeconds) {
 		super(Concept.class);
+		ingredientCache = new LongKeyCache<long[]>(maxEntries, ttlSeconds * 1000L);
 	}
 	
 	@Transactional(readOnly = true)
 	public List<Concept> getIngredient(Concept concept) {
+		List<Concept> concepts = getIngredients(Arrays.asList(concept)).get(concept.getId());
+		if (concepts == null) {
+			return new ArrayList<Concept>();
+		}
+
+		return concepts;
+	}
+
+	/**
+	 * Resolves the ingredients of a page of drug concepts. Drugs that are not
+	 * in the ingredient cache are resolved with one query per vocabulary, and
+	 * the ingredient concepts are loaded with one IN (...) query.
+	 */
+	@Transactional(readOnly = true)
+	public Map<Long, List<Concept>> getIngredients(List<Concept> concepts) {
+		Map<Long, long[]> ingredientIds = new HashMap<Long, long[]>();
+		List<Long> rxNormIds = new ArrayList<Long>();
+		List<Long> ndcIds = new ArrayList<Long>();
+
+		for (Concept concept : concepts) {
+			if (concept == null || concept.getId() == null || ingredientIds.containsKey(concept.getId())) continue;
+
+			long[] cached = ingredientCache.get(concept.getId());
+			if (cached != null) {
+				ingredientIds.put(concept.getId(), cached);
+				continue;
+			}
+
+			String vocabulary = concept.getVocabulary() == null ? null : concept.getVocabulary().getId();
+			if ("Ingredient".equals(concept.getConceptClass()) || concept.getInvalidReason() != null) {
+				// Ingredients and invalid drugs do not have ingredients.
+				ingredientIds.put(concept.getId(), NO_INGREDIENTS);
+			} else if ("RxNorm".equals(vocabulary)) {
+				rxNormIds.add(concept.getId());
+			} else if ("NDC".equals(vocabulary)) {
+				ndcIds.add(concept.getId());
+			} else {
+				ingredientIds.put(concept.getId(), NO_INGREDIENTS);
+			}
+		}
+
+		loadIngredientIds(RXNORM_INGREDIENT_SQL, rxNormIds, ingredientIds);
+		loadIngredientIds(NDC_INGREDIENT_SQL, ndcIds, ingredientIds);
+
+		// Load the ingredient concepts of the page at once.
+		Set<Long> allIngredientIds = new HashSet<Long>();
+		for (long[] ids : ingredientIds.values()) {
+			for (long id : ids) {
+				allIngredientIds.add(id);
+			}
+		}
+
+		Map<Long, Concept> ingredients = new HashMap<Long, Concept>();
+		for (Concept ingredient : searchByIds(new ArrayList<Long>(allIngredientIds))) {
+			ingredients.put(ingredient.getId(), ingredient);
+		}
+
+		Map<Long, List<Concept>> retv = new HashMap<Long, List<Concept>>();
+		for (Map.Entry<Long, long[]> entry : ingredientIds.entrySet()) {
+			List<Concept> drugIngredients = new ArrayList<Concept>();
+			for (long id : entry.getValue()) {
+				Concept ingredient = ingredients.get(id);
+				if (ingredient != null) {
+					drugIngredients.add(ingredient);
+				}
+			}
+			retv.put(entry.getKey(), drugIngredients);
+		}
+
+		return retv;
+	}
+
+	private void loadIngredientIds(String sql, List<Long> drugIds, Map<Long, long[]> ingredientIds) {
+		if (drugIds.isEmpty()) return;
+
 		EntityManager em = getEntityDao().getEntityManager();
-		
-		List<Concept> concepts = new ArrayList<Concept>();
-		
-		if ("Ingredient".equals(concept.getConceptClass())) {
-			// This is ingredient. Just return null
-			return concepts;
+		Map<Long, Set<Long>> found = new HashMap<Long, Set<Long>>();
+		for (int i = 0; i < drugIds.size(); i += ID_CHUNK_SIZE) {
+			List<Long> chunk = drugIds.subList(i, Math.min(i + ID_CHUNK_SIZE, drugIds.size()));
+
+			@SuppressWarnings("unchecked")
+			List<Object[]> rows = em.createNativeQuery(sql).setParameter("ids", chunk).getResultList();
+			for (Object[] row : rows) {
+				Long drugId = ((Number) row[0]).longValue();
+				Set<Long> ids = found.get(drugId);
+				if (ids == null) {
+					ids = new LinkedHashSet<Long>();
+					found.put(drugId, ids);
+				}
+				ids.add(((Number) row[1]).longValue());
+			}
 		}
-		
-		String sqlQuery = null;
-		if ("NDC".equals(concept.getVocabulary().getId())) {
-			// Use JPQL
-			sqlQuery = "select c "
-					+ "FROM Concept src "
-					+ "JOIN ConceptRelationship cr on src.id = cr.conceptId1 "
-			        + "AND cr.relationship_id = 'Maps to' "
-			        + "AND cr.invalid_reason is null "
-			        + "JOIN Concept tar on cr.conceptId2 = tar.id "
-			        + "AND tar.standardConcept = 'S' "
-			        + "AND tar.invalidReason is null "
-			        + "JOIN ConceptAncestor ca ON ca.ancestorConcept = tar.id "
-			        + "JOIN Concept c ON ca.ancestorConcept = c.id "
-			        + "WHERE src.conceptCode = :med_code "
-			        + "AND 'NDC' = src.vocabulary "
-			        + "AND c.vocabulary = 'RxNorm' "
-			        + "AND c.conceptClass = 'Ingredient' "
-			        + "AND src.invalidReason is null";
-		} else if ("RxNorm".equals(concept.getVocabulary().getId())) {
-			// when RxNorm.
-			sqlQuery = "select c "
-					+ "FROM Concept src " 
-					+ "JOIN ConceptAncestor ca ON ca.descendantConcept = src.id "
-					+ "JOIN Concept c ON ca.ancestorConcept = c.id "
-					+ "WHERE src.conceptCode = :med_code "
-					+ "AND 'RxNorm' = src.vocabulary "
-					+ "AND c.vocabulary = 'RxNorm' "
-					+ "AND c.conceptClass = 'Ingredient' "
-					+ "AND src.invalidReason is null "
-					+ "AND c.invalidReason is null";
-		} else {
-			return concepts;
+
+		// Drugs without any row are cached too, so they are not queried again.
+		for (Long drugId : drugIds) {
+			Set<Long> ids = found.get(drugId);
+			long[] closure = NO_INGREDIENTS;
+			if (ids != null) {
+				closure = new long[ids.size()];
+				int j = 0;
+				for (Long id : ids) {
+					closure[j++] = id;
+				}
+			}
+
+			ingredientCache.put(drugId, closure);
+			ingredientIds.put(drugId, closure);
 		}
-		
-		TypedQuery<Concept> query = em.createQuery(sqlQuery, Concept.class);
-		query = query.setParameter("med_code", concept.getConceptCode());
-		return query.getResultList();
-//		List<Concept> results = query.getResultList();
-//		if (results.size() > 0) {
-//			return results.get(0);
-//		} else {
-//			return null;
-//		}
+	}
+
+	public void clearIngredientCache() {
+		ingredientCache.clear();
 	}
 }
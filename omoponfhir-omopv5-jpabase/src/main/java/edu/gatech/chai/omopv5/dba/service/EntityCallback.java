@@ -0,0 +1,30 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package edu.gatech.chai.omopv5.dba.service;
+
+import edu.gatech.chai.omopv5.model.entity.BaseEntity;
+
+/**
+ * Receives the entities of a streamed search one at a time. Return false to
+ * stop the search.
+ *
+ * The entity is read-only and is detached after the call returns. Copy what is
+ * needed instead of keeping it.
+ */
+public interface EntityCallback<v extends BaseEntity> {
+	boolean process(v entity);
+}
@@ -12,6 +12,8 @@ public interface FactRelationshipService extends IService<FactRelationship> {
 
 	public List<Note> searchMeasurementContainsComments(Long conceptId);
 
+	public List<FactRelationship> searchMeasurementMethodsAndComments(List<Long> domainIds);
+
 	public List<FactRelationship> searchFactRelationship(Long domainConcept1, Long factId1, Long domainConcept2,
 			Long factId2, Long relationshipId);
 }
@@ -76,6 +76,43 @@ public class FactRelationshipServiceImp extends BaseEntityServiceImp<FactRelatio
 		return retVal;
 	}
 
+	/**
+	 * Loads "Using finding method" and "Contains" (comment) relationships of all
+	 * given measurements at once. This is used to map a page of measurements
+	 * without querying fact_relationship for every row.
+	 * 
+	 * fact_relationship has no real primary key (domain_concept_id_1 is mapped as
+	 * id), so rows are read as columns and returned as detached entities. Loading
+	 * them as managed entities would collapse all rows into one instance.
+	 */
+	@Transactional(readOnly = true)
+	public List<FactRelationship> searchMeasurementMethodsAndComments(List<Long> domainIds) {
+		List<FactRelationship> retVal = new ArrayList<FactRelationship>();
+		if (domainIds == null || domainIds.isEmpty()) return retVal;
+
+		EntityManager em = getEntityDao().getEntityManager();
+
+		// 44818800 = Using finding method, 44818721 = Contains
+		String query = "SELECT t.factId1, t.domainConcept2, t.factId2, t.relationshipConcept.id FROM FactRelationship t "
+				+ "WHERE t.domainConcept1 = 21 AND t.relationshipConcept.id IN (44818800L, 44818721L) AND t.factId1 IN :facts";
+		for (int i = 0; i < domainIds.size(); i += ID_CHUNK_SIZE) {
+			List<Long> chunk = domainIds.subList(i, Math.min(i + ID_CHUNK_SIZE, domainIds.size()));
+			List<Object[]> results = em.createQuery(query, Object[].class).setParameter("facts", chunk)
+					.getResultList();
+			for (Object[] result : results) {
+				FactRelationship factRelationship = new FactRelationship();
+				factRelationship.setDomainConcept1(21L);
+				factRelationship.setFactId1((Long) result[0]);
+				factRelationship.setDomainConcept2((Long) result[1]);
+				factRelationship.setFactId2((Long) result[2]);
+				factRelationship.setRelationshipConcept(new Concept((Long) result[3]));
+				retVal.add(factRelationship);
+			}
+		}
+
+		return retVal;
+	}
+
 	@Transactional(readOnly = true)
 	public List<FactRelationship> searchFactRelationship(Long domainConcept1, Long factId1, Long domainConcept2,
 			Long factId2, Long relationshipId) {
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package edu.gatech.chai.omopv5.dba.service;
+
+/**
+ * KeysetCursor remembers where the last page of a search ended.
+ *
+ * When the next page starts exactly where the previous one stopped, the search
+ * can seek with "WHERE (sortColumn, id) > (lastSortValue, lastId)" instead of
+ * OFFSET, so the cost of a page does not grow with its depth. Any other page
+ * request (jumping back, skipping ahead) falls back to OFFSET and re-anchors
+ * the cursor from that page.
+ *
+ * Only a single sort column (plus id as a tie breaker) can be seeked. Sorts on
+ * multiple columns always use OFFSET.
+ */
+public class KeysetCursor {
+	public static final String ID_ATTRIBUTE = "id";
+
+	private String sort;
+	private int nextIndex = -1;
+	private Object lastSortValue;
+	private Long lastId;
+
+	public KeysetCursor() {
+	}
+
+	/**
+	 * Returns the sort column and direction if the sort string can be used for
+	 * keyset paging. Returns null otherwise.
+	 */
+	public static String[] parseSort(String sort) {
+		if (sort == null || sort.trim().isEmpty()) {
+			return new String[] { ID_ATTRIBUTE, "ASC" };
+		}
+
+		if (sort.contains(",")) {
+			return null;
+		}
+
+		String[] items = sort.trim().split(" ");
+		if (items.length == 1) {
+			return new String[] { items[0], "ASC" };
+		}
+
+		return new String[] { items[0], "DESC".equalsIgnoreCase(items[1]) ? "DESC" : "ASC" };
+	}
+
+	public synchronized boolean canSeek(int fromIndex, String sort) {
+		if (lastId == null || lastSortValue == null || nextIndex != fromIndex) {
+			return false;
+		}
+
+		if (this.sort == null) {
+			return sort == null;
+		}
+
+		return this.sort.equals(sort);
+	}
+
+	public synchronized void advance(String sort, int nextIndex, Object lastSortValue, Long lastId) {
+		if (lastSortValue == null || lastId == null) {
+			// Nulls cannot be compared. Fall back to OFFSET for the next page.
+			reset();
+			return;
+		}
+
+		this.sort = sort;
+		this.nextIndex = nextIndex;
+		this.lastSortValue = lastSortValue;
+		this.lastId = lastId;
+	}
+
+	public synchronized void reset() {
+		this.sort = null;
+		this.nextIndex = -1;
+		this.lastSortValue = null;
+		this.lastId = null;
+	}
+
+	public synchronized String getSort() {
+		return sort;
+	}
+
+	public synchronized int getNextIndex() {
+		return nextIndex;
+	}
+
+	public synchronized Object getLastSortValue() {
+		return lastSortValue;
+	}
+
+	public synchronized Long getLastId() {
+		return lastId;
+	}
+}
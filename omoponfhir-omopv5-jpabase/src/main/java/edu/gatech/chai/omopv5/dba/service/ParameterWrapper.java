@@ -27,9 +27,12 @@ import javax.persistence.criteria.Path;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 
+import org.hibernate.query.criteria.internal.CriteriaBuilderImpl;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import edu.gatech.chai.omopv5.jpa.utility.OmopPostgreSQLDialect;
 import edu.gatech.chai.omopv5.model.entity.BaseEntity;
 
 /**
@@ -65,12 +68,19 @@ import edu.gatech.chai.omopv5.model.entity.BaseEntity;
  * The order should be parameter(left)-operator-value(right). So, put the
  * operator in this order.
  * 
+ * For numeric types, a single "in" operator compares the parameter with all
+ * values in one IN (...). eg) parameters: "drugConcept.id" values: "1127433",
+ * "1127078" operator: "in". No values match nothing. Integer values above
+ * IN_LIST_LIMIT are sent as one array with OmopPostgreSQLDialect, and as IN
+ * lists of IN_LIST_LIMIT values otherwise.
+ * 
  * @author mc142
  *
  */
 public class ParameterWrapper {
 
 	private static final Logger logger = LoggerFactory.getLogger(ParameterWrapper.class);
+	public static final int IN_LIST_LIMIT = 100;
 	private String parameterType;
 	private List<String> parameters;
 	private List<String> operators;
@@ -364,6 +374,15 @@ public class ParameterWrapper {
 		// so, get them now.
 		// for (String columnName : param.getParameters(),
 		// String oper: param.getOperators()) {
+		if (param.getOperators().size() == 1 && param.getOperators().get(0).equalsIgnoreCase("in")) {
+			Predicate in = numericInPredicate(builder, param, rootUser, paramType);
+			if (param.getRelationship() == null || param.getRelationship().equals("or")) {
+				return builder.or(subWhere, in);
+			} else {
+				return builder.and(subWhere, in);
+			}
+		}
+
 		String attributeName = null;
 		String valueName = null;
 		for (Iterator<String> attributeIter = param.getParameters().iterator(), operIter = param.getOperators()
@@ -441,4 +460,94 @@ public class ParameterWrapper {
 		return subWhere;
 	}
 
+	private static Predicate numericInPredicate(CriteriaBuilder builder, ParameterWrapper param,
+			Root<? extends BaseEntity> rootUser, String paramType) {
+		List<Number> values = numericValues(param.getValues(), paramType);
+
+		String attributeName = param.getParameters().get(0);
+		Path<Number> path;
+		String[] columnPath = attributeName.split("\\.");
+		if (columnPath.length == 2) {
+			path = rootUser.get(columnPath[0]).get(columnPath[1]);
+		} else if (columnPath.length == 3) {
+			path = rootUser.get(columnPath[0]).get(columnPath[1]).get(columnPath[2]);
+		} else {
+			path = rootUser.get(attributeName);
+		}
+
+		if (values.isEmpty()) return builder.disjunction();
+
+		if (values.size() > IN_LIST_LIMIT && useInArray(paramType, isInArraySupported(builder))) {
+			return builder.isTrue(builder.function(OmopPostgreSQLDialect.IN_ARRAY, Boolean.class, path,
+					builder.literal(toArrayLiteral(values))));
+		}
+
+		List<List<Number>> inLists = inLists(values);
+		if (inLists.size() == 1) return path.in(inLists.get(0));
+
+		Predicate in = builder.disjunction();
+		for (List<Number> inList : inLists) {
+			in = builder.or(in, path.in(inList));
+		}
+		return in;
+	}
+
+	static List<Number> numericValues(List<String> valueNames, String paramType) {
+		List<Number> values = new ArrayList<Number>();
+		for (String valueName : valueNames) {
+			if (paramType.equals("Short")) {
+				values.add(Short.valueOf(valueName));
+			} else if (paramType.equals("Long")) {
+				values.add(Long.valueOf(valueName));
+			} else if (paramType.equals("Double")) {
+				values.add(Double.valueOf(valueName));
+			} else {
+				values.add(Integer.valueOf(valueName));
+			}
+		}
+
+		return values;
+	}
+
+	/**
+	 * Whether more than IN_LIST_LIMIT values are sent as one in_array
+	 * parameter. The array is bigint[], so Double values are not.
+	 */
+	static boolean useInArray(String paramType, boolean inArraySupported) {
+		return inArraySupported && !paramType.equals("Double");
+	}
+
+	/**
+	 * The values as an array literal for in_array, such as {1,2,3}.
+	 */
+	static String toArrayLiteral(List<Number> values) {
+		StringBuilder array = new StringBuilder("{");
+		for (Number value : values) {
+			if (array.length() > 1) array.append(',');
+			array.append(value);
+		}
+		array.append('}');
+
+		return array.toString();
+	}
+
+	/**
+	 * The values split into IN lists of at most IN_LIST_LIMIT values.
+	 */
+	static List<List<Number>> inLists(List<Number> values) {
+		List<List<Number>> inLists = new ArrayList<List<Number>>();
+		for (int i = 0; i < values.size(); i += IN_LIST_LIMIT) {
+			inLists.add(values.subList(i, Math.min(i + IN_LIST_LIMIT, values.size())));
+		}
+
+		return inLists;
+	}
+
+	private static boolean isInArraySupported(CriteriaBuilder builder) {
+		if (!(builder instanceof CriteriaBuilderImpl)) return false;
+
+		return ((CriteriaBuilderImpl) builder).getEntityManagerFactory().getSqlFunctionRegistry()
+				.findSQLFunction(OmopPostgreSQLDialect.IN_ARRAY) != null;
+	}
+
 }
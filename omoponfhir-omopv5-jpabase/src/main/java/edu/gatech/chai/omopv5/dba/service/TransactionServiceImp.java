@@ -16,28 +16,54 @@
  *******************************************************************************/
 package edu.gatech.chai.omopv5.dba.service;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javax.persistence.EntityManager;
 
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import edu.gatech.chai.omopv5.jpa.dao.ConditionOccurrenceDao;
 import edu.gatech.chai.omopv5.jpa.dao.FPersonDao;
 import edu.gatech.chai.omopv5.jpa.dao.MeasurementDao;
 import edu.gatech.chai.omopv5.jpa.dao.ObservationDao;
 import edu.gatech.chai.omopv5.jpa.dao.ProcedureOccurrenceDao;
+import edu.gatech.chai.omopv5.jpa.utility.BlockSequenceGenerator;
 import edu.gatech.chai.omopv5.model.entity.BaseEntity;
 import edu.gatech.chai.omopv5.model.entity.FPerson;
 import edu.gatech.chai.omopv5.model.entity.Measurement;
 import edu.gatech.chai.omopv5.model.entity.Observation;
 
+/**
+ * Writes transaction bundles in one database transaction.
+ *
+ * Entities are grouped by table and written table by table, with their ids
+ * reserved in one block per sequence, so that Hibernate can send the inserts
+ * of each table as JDBC batches (hibernate.jdbc.batch_size with
+ * hibernate.order_inserts).
+ *
+ * bulkInsert does the same for bulk loads of new rows, in JDBC batches as
+ * large as the load. With reWriteBatchedInserts, the PostgreSQL driver sends
+ * each batch as multi-row inserts.
+ */
 @Service
 public class TransactionServiceImp implements TransactionService {
 
+	private static final Logger logger = LoggerFactory.getLogger(TransactionServiceImp.class);
+
 //	@Autowired
 //	private TransactionDao transactionDao;
 	
@@ -58,95 +84,154 @@ public class TransactionServiceImp implements TransactionService {
 	
 	@Transactional
 	public int writeTransaction(Map<String, List<BaseEntity>> transactionMap) {
-//		EntityManager em = transactionDao.getEntityManager();
+		List<FPerson> fPersons = new ArrayList<FPerson>();
+		List<Measurement> measurements = new ArrayList<Measurement>();
+		List<Observation> observations = new ArrayList<Observation>();
 
-		System.out.println("At the writeTransaction");
-		// It's not efficient. But, we need to process patients first. so...
+		// Group by table. Everything is checked before anything is written.
 		for (String key : transactionMap.keySet()) {
 			String[] keyInfo = key.split("\\^");
-			System.out.println("working on patient key=" + key + " with keyInfo length=" + keyInfo.length);
 			if (keyInfo.length != 2) {
 				// something is wrong.
+				logger.warn("Invalid transaction key=" + key);
 				return -1;
 			}
-			String entityName = keyInfo[1];
-			if (entityName.equals("FPerson")) {
-				// process it.
-				List<BaseEntity> entityClasses = transactionMap.get(key);
-				if (entityClasses != null) {
-					// We have patients, process this. 
-					for (BaseEntity entity : entityClasses) {
-						FPerson fPerson = (FPerson) entity;
-						System.out.println("Writing fPerson name="+fPerson.getFamilyName()+", "+fPerson.getGivenName1());
-						fPersonDao.add(fPerson);
-					}
-				}
 
-			} else {
+			List<BaseEntity> entities = transactionMap.get(key);
+			if (entities == null) {
+				logger.debug("null entities for transaction key=" + key);
 				continue;
-			}			
-		}
-		
-		for (String key : transactionMap.keySet()) {
-			String[] keyInfo = key.split("\\^");
-			System.out.println("working on key=" + key + " with keyInfo length=" + keyInfo.length);
-			if (keyInfo.length != 2) {
-				// something is wrong.
-				return -1;
 			}
+
 			// 2nd part of keyInfo should be the entity table name.
 			String entityName = keyInfo[1];
 			if (entityName.equals("FPerson")) {
-				// we have alreay done this.
+				for (BaseEntity entity : entities) {
+					fPersons.add((FPerson) entity);
+				}
 				continue;
 			}
-			
-			List<BaseEntity> entities = transactionMap.get(key);
-			if (entities == null) {
-				System.out.println("null entities for transactionMap.....");
+
+			if (!entityName.equals("Measurement") && !entityName.equals("Observation")) {
 				continue;
 			}
-			System.out.println("About to process " + entityName + " from Service");
-			
-			String subjectKey = keyInfo[0]+"^"+"FPerson";
-			
-			// list of the entity classes
-			try {
-				for (BaseEntity entity : entities) {
-					if (entityName.equals("Measurement")) {
-						System.out.println("Adding Measurement with subjectKey ("+key+") to OMOP");
-						// Get patient information from subject key.
-						FPerson subjectEntity = (FPerson) transactionMap.get(subjectKey).get(0);
-						if (subjectEntity == null) {
-							// This is an error. We must have subject.
-							System.out.println("FPerson info not available for the Measurement");
-							throw new Exception("FPerson info not available for the Measurement");
-						}
-						
-						Measurement measurement = (Measurement) entity;
-						measurement.setFPerson(subjectEntity);
-						
-						measurementDao.add(measurement);
-					} else if (entityName.equals("Observation")) {
-						System.out.println("Adding Observation to OMOP");
-						FPerson subjectEntity = (FPerson) transactionMap.get(subjectKey).get(0);
-						if (subjectEntity == null) {
-							// This is an error. We must have subject.
-							System.out.println("FPerson info not available for the Observation");
-							throw new Exception("FPerson info not available for the Observation");
-						}
-						
-						Observation observation = (Observation) entity;
-						observation.setFPerson(subjectEntity);
-
-						observationDao.add(observation);
-					}
-				}
-			} catch (Exception ex) {
-				ex.printStackTrace();
+
+			// Get patient information from subject key. We must have subject.
+			String subjectKey = keyInfo[0] + "^" + "FPerson";
+			List<BaseEntity> subjects = transactionMap.get(subjectKey);
+			if (subjects == null || subjects.isEmpty() || subjects.get(0) == null) {
+				logger.warn("FPerson info not available for the " + entityName);
 				return -1;
 			}
+			FPerson subjectEntity = (FPerson) subjects.get(0);
+
+			for (BaseEntity entity : entities) {
+				if (entityName.equals("Measurement")) {
+					Measurement measurement = (Measurement) entity;
+					measurement.setFPerson(subjectEntity);
+					measurements.add(measurement);
+				} else {
+					Observation observation = (Observation) entity;
+					observation.setFPerson(subjectEntity);
+					observations.add(observation);
+				}
+			}
 		}
+
+		reserveIds(FPerson.class, fPersons.size());
+		reserveIds(Measurement.class, measurements.size());
+		reserveIds(Observation.class, observations.size());
+
+		// Patients first, since the others refer to them.
+		EntityManager em = fPersonDao.getEntityManager();
+		for (FPerson fPerson : fPersons) {
+			fPersonDao.add(fPerson);
+		}
+		em.flush();
+
+		for (Measurement measurement : measurements) {
+			measurementDao.add(measurement);
+		}
+		for (Observation observation : observations) {
+			observationDao.add(observation);
+		}
+		em.flush();
+
 		return 0;
-	}	
-}
\ No newline at end of file
+	}
+
+	/**
+	 * Runs work in one database transaction. Services called from work join it,
+	 * so their writes are committed or rolled back together.
+	 */
+	@Transactional(rollbackFor = Exception.class)
+	public <T> T runInTransaction(Callable<T> work) throws Exception {
+		return work.call();
+	}
+
+	/**
+	 * Reserves count ids for entityClass in one query, if its id comes from a
+	 * BlockSequenceGenerator. Entities persisted later in this transaction use
+	 * them. Ids that are not used are released when the transaction ends.
+	 */
+	@Transactional
+	public void reserveIds(Class<? extends BaseEntity> entityClass, int count) {
+		if (count <= 0) return;
+
+		EntityManager em = fPersonDao.getEntityManager();
+		IdentifierGenerator generator = em.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class)
+				.getMetamodel().entityPersister(entityClass).getIdentifierGenerator();
+		if (!(generator instanceof BlockSequenceGenerator)) return;
+
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int status) {
+					BlockSequenceGenerator.release();
+				}
+			});
+		}
+
+		((BlockSequenceGenerator) generator).reserve(em.unwrap(SharedSessionContractImplementor.class), count);
+	}
+
+	/**
+	 * Inserts new entities in one transaction. Entities are written table by
+	 * table, in the order their tables first appear, with their ids reserved
+	 * in one block per table. They are detached once written.
+	 */
+	@Transactional
+	public void bulkInsert(List<? extends BaseEntity> entities) {
+		if (entities.isEmpty()) return;
+
+		Map<Class<? extends BaseEntity>, List<BaseEntity>> tables = new LinkedHashMap<Class<? extends BaseEntity>, List<BaseEntity>>();
+		for (BaseEntity entity : entities) {
+			List<BaseEntity> table = tables.get(entity.getClass());
+			if (table == null) {
+				table = new ArrayList<BaseEntity>();
+				tables.put(entity.getClass(), table);
+			}
+			table.add(entity);
+		}
+
+		EntityManager em = fPersonDao.getEntityManager();
+		Session session = em.unwrap(Session.class);
+		Integer jdbcBatchSize = session.getJdbcBatchSize();
+		session.setJdbcBatchSize(entities.size());
+		try {
+			for (Map.Entry<Class<? extends BaseEntity>, List<BaseEntity>> table : tables.entrySet()) {
+				reserveIds(table.getKey(), table.getValue().size());
+				for (BaseEntity entity : table.getValue()) {
+					em.persist(entity);
+				}
+				em.flush();
+			}
+		} finally {
+			session.setJdbcBatchSize(jdbcBatchSize);
+		}
+
+		for (BaseEntity entity : entities) {
+			em.detach(entity);
+		}
+	}
+}
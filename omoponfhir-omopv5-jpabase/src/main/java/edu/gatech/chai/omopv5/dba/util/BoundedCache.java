@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package edu.gatech.chai.omopv5.dba.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small thread-safe LRU cache with an optional time to live.
+ *
+ * maxEntries bounds the number of entries. When it's full, the least recently
+ * used entry is evicted. ttlMillis <= 0 means entries do not expire. An entry
+ * can also be put with its own expiration time.
+ *
+ * Values cannot be null. To cache a miss, use a value that means "not found"
+ * such as Optional.empty().
+ */
+public class BoundedCache<K, V> {
+	private final int maxEntries;
+	private final long ttlMillis;
+	private final LinkedHashMap<K, CacheEntry<V>> entries;
+
+	private long hitCount = 0;
+	private long missCount = 0;
+	private long evictionCount = 0;
+
+	public BoundedCache(int maxEntries, long ttlMillis) {
+		this.maxEntries = maxEntries;
+		this.ttlMillis = ttlMillis;
+		this.entries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+				if (size() > BoundedCache.this.maxEntries) {
+					evictionCount++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public synchronized V get(K key) {
+		CacheEntry<V> entry = entries.get(key);
+		if (entry == null) {
+			missCount++;
+			return null;
+		}
+
+		if (entry.expiresAt > 0 && entry.expiresAt < System.currentTimeMillis()) {
+			entries.remove(key);
+			missCount++;
+			return null;
+		}
+
+		hitCount++;
+		return entry.value;
+	}
+
+	public synchronized void put(K key, V value) {
+		long expiresAt = 0;
+		if (ttlMillis > 0) {
+			expiresAt = System.currentTimeMillis() + ttlMillis;
+		}
+		put(key, value, expiresAt);
+	}
+
+	/**
+	 * Puts an entry that expires at the given time (in milliseconds). This is
+	 * capped by the time to live of the cache.
+	 */
+	public synchronized void put(K key, V value, long expiresAt) {
+		if (ttlMillis > 0) {
+			long maxExpiresAt = System.currentTimeMillis() + ttlMillis;
+			if (expiresAt <= 0 || expiresAt > maxExpiresAt) {
+				expiresAt = maxExpiresAt;
+			}
+		}
+		entries.put(key, new CacheEntry<V>(value, expiresAt));
+	}
+
+	public synchronized void remove(K key) {
+		entries.remove(key);
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	private static class CacheEntry<V> {
+		final V value;
+		final long expiresAt;
+
+		CacheEntry(V value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package edu.gatech.chai.omopv5.jpa.utility;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+
+/**
+ * Sequence generator for the OMOP id sequences that can hand out ids reserved
+ * in advance.
+ *
+ * The OMOP sequences increment by 1, so Hibernate's pooled optimizers can't be
+ * used without changing the schema. Instead, reserve() takes a block of ids in
+ * one query (nextval over generate_series) and keeps them for the current
+ * thread. generate() uses reserved ids first, and falls back to one nextval
+ * per row as before. release() drops what is left.
+ */
+public class BlockSequenceGenerator extends SequenceStyleGenerator {
+	public static final String STRATEGY = "edu.gatech.chai.omopv5.jpa.utility.BlockSequenceGenerator";
+
+	// Sequence name -> reserved ids. Keyed by sequence since person and
+	// f_person share one.
+	private static final ThreadLocal<Map<String, Deque<Long>>> reserved = new ThreadLocal<Map<String, Deque<Long>>>();
+
+	@Override
+	public Serializable generate(SharedSessionContractImplementor session, Object object) {
+		Map<String, Deque<Long>> reservedIds = reserved.get();
+		if (reservedIds != null) {
+			Deque<Long> ids = reservedIds.get(getSequenceName());
+			if (ids != null && !ids.isEmpty()) {
+				return ids.poll();
+			}
+		}
+
+		return super.generate(session, object);
+	}
+
+	public String getSequenceName() {
+		return getDatabaseStructure().getName();
+	}
+
+	/**
+	 * Reserves count more ids from the sequence for this thread, in one round
+	 * trip.
+	 */
+	public void reserve(SharedSessionContractImplementor session, int count) {
+		if (count <= 0) return;
+
+		@SuppressWarnings("unchecked")
+		List<Number> ids = session
+				.createNativeQuery("SELECT nextval('" + getSequenceName() + "') FROM generate_series(1, :count)")
+				.setParameter("count", count).getResultList();
+
+		Map<String, Deque<Long>> reservedIds = reserved.get();
+		if (reservedIds == null) {
+			reservedIds = new HashMap<String, Deque<Long>>();
+			reserved.set(reservedIds);
+		}
+		Deque<Long> queue = reservedIds.get(getSequenceName());
+		if (queue == null) {
+			queue = new ArrayDeque<Long>(ids.size());
+			reservedIds.put(getSequenceName(), queue);
+		}
+		for (Number id : ids) {
+			queue.add(id.longValue());
+		}
+	}
+
+	/**
+	 * Drops the ids reserved by this thread. Unused ids are left as gaps in the
+	 * sequence.
+	 */
+	public static void release() {
+		reserved.remove();
+	}
+}
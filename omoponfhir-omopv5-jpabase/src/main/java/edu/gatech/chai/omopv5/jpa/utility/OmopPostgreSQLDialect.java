@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package edu.gatech.chai.omopv5.jpa.utility;
+
+import org.hibernate.dialect.PostgreSQL94Dialect;
+import org.hibernate.dialect.function.SQLFunctionTemplate;
+import org.hibernate.type.StandardBasicTypes;
+
+/**
+ * PostgreSQL dialect with the SQL functions that JPQL and Criteria queries
+ * cannot express.
+ *
+ * count_over() is COUNT(*) OVER (), the number of rows that match the query
+ * before OFFSET and LIMIT. It lets a page and the total be read in one query.
+ *
+ * in_array(column, '{1,2,3}') is column = ANY(CAST(? AS bigint[])). A long
+ * list of ids is sent as one array parameter instead of an IN list.
+ */
+public class OmopPostgreSQLDialect extends PostgreSQL94Dialect {
+	public static final String COUNT_OVER = "count_over";
+	public static final String IN_ARRAY = "in_array";
+
+	public OmopPostgreSQLDialect() {
+		super();
+		registerFunction(COUNT_OVER, new SQLFunctionTemplate(StandardBasicTypes.LONG, "count(*) over ()"));
+		registerFunction(IN_ARRAY,
+				new SQLFunctionTemplate(StandardBasicTypes.BOOLEAN, "(?1 = any(cast(?2 as bigint[])))"));
+	}
+}
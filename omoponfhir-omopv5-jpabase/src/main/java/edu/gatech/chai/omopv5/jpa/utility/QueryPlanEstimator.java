@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package edu.gatech.chai.omopv5.jpa.utility;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Parameter;
+import javax.persistence.TypedQuery;
+
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.hql.spi.NamedParameterInformation;
+import org.hibernate.hql.spi.ParameterTranslations;
+import org.hibernate.hql.spi.QueryTranslator;
+import org.hibernate.type.Type;
+
+/**
+ * Row estimate of a JPA query from the PostgreSQL planner, without running the
+ * query.
+ *
+ * The query is translated to SQL as Hibernate would run it, and its
+ * parameters are bound to EXPLAIN (FORMAT JSON). The estimate is the "Plan
+ * Rows" of the top plan node. The planner works from the table statistics, so
+ * this costs about as much as planning the query, however many rows match.
+ * For a view, the estimate comes from the statistics of its tables.
+ */
+public class QueryPlanEstimator {
+	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(QueryPlanEstimator.class);
+
+	// PostgreSQL writes the keys of a node before its sub plans, so the first
+	// "Plan Rows" is the one of the top node.
+	private static final Pattern PLAN_ROWS = Pattern.compile("\"Plan Rows\"\\s*:\\s*([0-9.eE+]+)");
+
+	/**
+	 * The planner's row estimate for query, or null if there is none. A query
+	 * that can't be explained returns null and leaves the transaction usable.
+	 */
+	public static Long estimateRows(EntityManager em, TypedQuery<?> typedQuery) {
+		try {
+			org.hibernate.query.Query<?> query = typedQuery.unwrap(org.hibernate.query.Query.class);
+			String hql = query.getQueryString();
+
+			// Collection values (IN lists) are expanded into one parameter per
+			// element, as Hibernate does when it runs the query.
+			Map<String, Object> values = new LinkedHashMap<String, Object>();
+			for (Parameter<?> parameter : query.getParameters()) {
+				String name = parameter.getName();
+				if (name == null) return null;
+
+				Object value = query.getParameterValue(name);
+				if (value instanceof Collection) {
+					Collection<?> elements = (Collection<?>) value;
+					if (elements.isEmpty()) return null;
+
+					List<String> expanded = new ArrayList<String>();
+					for (Object element : elements) {
+						String elementName = name + "_" + expanded.size();
+						expanded.add(":" + elementName);
+						values.put(elementName, element);
+					}
+					hql = hql.replaceAll(":" + Pattern.quote(name) + "\\b",
+							Matcher.quoteReplacement(String.join(", ", expanded)));
+				} else {
+					values.put(name, value);
+				}
+			}
+
+			SessionFactoryImplementor factory = em.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class);
+			QueryTranslator translator = factory.getQueryPlanCache()
+					.getHQLQueryPlan(hql, false, Collections.emptyMap()).getTranslators()[0];
+			String sql = "EXPLAIN (FORMAT JSON) " + translator.getSQLString();
+			ParameterTranslations translations = translator.getParameterTranslations();
+			SharedSessionContractImplementor session = em.unwrap(SharedSessionContractImplementor.class);
+
+			String plan = em.unwrap(Session.class).doReturningWork(connection -> {
+				// A failed statement aborts a PostgreSQL transaction. Roll back
+				// to here instead, so the search can go on.
+				Savepoint savepoint = connection.getAutoCommit() ? null : connection.setSavepoint();
+				try (PreparedStatement statement = connection.prepareStatement(sql)) {
+					for (Map.Entry<String, Object> value : values.entrySet()) {
+						NamedParameterInformation information = translations.getNamedParameterInformation(value.getKey());
+						for (int location : information.getSourceLocations()) {
+							bind(statement, location + 1, value.getValue(), information.getExpectedType(), session);
+						}
+					}
+
+					String json = null;
+					try (ResultSet resultSet = statement.executeQuery()) {
+						if (resultSet.next()) {
+							json = resultSet.getString(1);
+						}
+					}
+					if (savepoint != null) {
+						connection.releaseSavepoint(savepoint);
+					}
+
+					return json;
+				} catch (SQLException e) {
+					if (savepoint != null) {
+						connection.rollback(savepoint);
+					}
+					throw e;
+				}
+			});
+
+			if (plan == null) return null;
+
+			Matcher matcher = PLAN_ROWS.matcher(plan);
+			if (!matcher.find()) return null;
+
+			return (long) Double.parseDouble(matcher.group(1));
+		} catch (RuntimeException e) {
+			logger.debug("No plan estimate for the query: " + e.getMessage());
+			return null;
+		}
+	}
+
+	private static void bind(PreparedStatement statement, int index, Object value, Type type,
+			SharedSessionContractImplementor session) throws SQLException {
+		if (type != null) {
+			type.nullSafeSet(statement, value, index, session);
+		} else if (value instanceof Date && !(value instanceof java.sql.Date) && !(value instanceof Timestamp)) {
+			statement.setTimestamp(index, new Timestamp(((Date) value).getTime()));
+		} else {
+			statement.setObject(index, value);
+		}
+	}
+}
@@ -25,12 +25,18 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
-import javax.persistence.SequenceGenerator;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
+import edu.gatech.chai.omopv5.jpa.utility.BlockSequenceGenerator;
 
 @Entity
 @Table(name="care_site")
+@NamedEntityGraph(name="CareSite.fhir", attributeNodes={ @NamedAttributeNode("location") })
 //@NamedQueries(value={
 //		@NamedQuery(name="loadCareSiteReference", query="select c.id from CareSite c WHERE c.organization.id = :serviceProvider AND c.location.id = :location")
 //})
@@ -38,7 +44,7 @@ public class CareSite extends BaseEntity {
 	
 	@Id
 	@GeneratedValue(strategy=GenerationType.SEQUENCE, generator="caresite_seq_gen")
-	@SequenceGenerator(name="caresite_seq_gen", sequenceName="caresite_id_seq", allocationSize=1)
+	@GenericGenerator(name="caresite_seq_gen", strategy=BlockSequenceGenerator.STRATEGY, parameters=@Parameter(name="sequence_name", value="caresite_id_seq"))
 	@Column(name="care_site_id")
 	@Access(AccessType.PROPERTY)
 	private Long id;
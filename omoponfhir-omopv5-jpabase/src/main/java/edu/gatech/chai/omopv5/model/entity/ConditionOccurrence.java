@@ -28,16 +28,23 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
-import javax.persistence.SequenceGenerator;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
+import edu.gatech.chai.omopv5.jpa.utility.BlockSequenceGenerator;
+
 @Entity
 @Table(name="condition_occurrence")
+@NamedEntityGraph(name="ConditionOccurrence.fhir", attributeNodes={ @NamedAttributeNode("fPerson"), @NamedAttributeNode("provider"), @NamedAttributeNode("visitOccurrence") })
 public class ConditionOccurrence extends BaseEntity{
 	
 	@Id
 	@GeneratedValue(strategy=GenerationType.SEQUENCE, generator="condition_occurrence_id_seq_gen")
-	@SequenceGenerator(name="condition_occurrence_id_seq_gen", sequenceName="condition_occurrence_id_seq", allocationSize=1)
+	@GenericGenerator(name="condition_occurrence_id_seq_gen", strategy=BlockSequenceGenerator.STRATEGY, parameters=@Parameter(name="sequence_name", value="condition_occurrence_id_seq"))
 	@Column(name="condition_occurrence_id", nullable = false)
 	@Access(AccessType.PROPERTY)
 	private Long id;
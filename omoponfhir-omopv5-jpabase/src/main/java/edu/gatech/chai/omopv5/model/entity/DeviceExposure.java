@@ -22,20 +22,28 @@ import javax.persistence.Access;
 import javax.persistence.AccessType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
-import javax.persistence.SequenceGenerator;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
+import edu.gatech.chai.omopv5.jpa.utility.BlockSequenceGenerator;
+
 @Entity
 @Table(name="device_exposure")
+@NamedEntityGraph(name="DeviceExposure.fhir", attributeNodes={ @NamedAttributeNode("fPerson"), @NamedAttributeNode("provider") })
 public class DeviceExposure extends BaseEntity {
 	@Id
 	@GeneratedValue(strategy=GenerationType.SEQUENCE, generator="device_exposure_seq_gen")
-	@SequenceGenerator(name="device_exposure_seq_gen", sequenceName="device_exposure_id_seq", allocationSize=1)
+	@GenericGenerator(name="device_exposure_seq_gen", strategy=BlockSequenceGenerator.STRATEGY, parameters=@Parameter(name="sequence_name", value="device_exposure_id_seq"))
 	@Column(name="device_exposure_id", updatable= false)
 	@Access(AccessType.PROPERTY)
 	private Long id;
@@ -57,7 +65,7 @@ public class DeviceExposure extends BaseEntity {
 	@Column(name="unique_device_id", nullable=false)
 	private String uniqueDeviceId;
 	
-	@ManyToOne
+	@ManyToOne(fetch=FetchType.LAZY)
 	@JoinColumn(name="device_type_concept_id", nullable=false)
 	private Concept deviceTypeConcept;
 
@@ -69,7 +77,7 @@ public class DeviceExposure extends BaseEntity {
 	@JoinColumn(name="visit_occurrence_id")
 	private VisitOccurrence visitOccurrence;
 	
-	@ManyToOne
+	@ManyToOne(fetch=FetchType.LAZY)
 	@JoinColumn(name="device_source_concept_id")
 	private Concept deviceSourceConcept;
 	
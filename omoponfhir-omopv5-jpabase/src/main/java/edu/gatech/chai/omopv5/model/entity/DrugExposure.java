@@ -22,20 +22,28 @@ import javax.persistence.Access;
 import javax.persistence.AccessType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
-import javax.persistence.SequenceGenerator;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
+import edu.gatech.chai.omopv5.jpa.utility.BlockSequenceGenerator;
+
 @Entity
 @Table(name="drug_exposure")
+@NamedEntityGraph(name="DrugExposure.fhir", attributeNodes={ @NamedAttributeNode("fPerson"), @NamedAttributeNode("provider"), @NamedAttributeNode("visitOccurrence") })
 public class DrugExposure extends BaseEntity {
 	@Id
 	@GeneratedValue(strategy=GenerationType.SEQUENCE, generator="drug_exposure_seq_gen")
-	@SequenceGenerator(name="drug_exposure_seq_gen", sequenceName="drug_exposure_id_seq", allocationSize=1)
+	@GenericGenerator(name="drug_exposure_seq_gen", strategy=BlockSequenceGenerator.STRATEGY, parameters=@Parameter(name="sequence_name", value="drug_exposure_id_seq"))
 	@Column(name="drug_exposure_id", updatable= false)
 	@Access(AccessType.PROPERTY)
 	private Long id;
@@ -71,7 +79,7 @@ public class DrugExposure extends BaseEntity {
 	@Column(name = "drug_source_value")
 	private String drugSourceValue;
 	
-	@ManyToOne
+	@ManyToOne(fetch=FetchType.LAZY)
 	@JoinColumn(name = "drug_source_concept_id")
 	private Concept drugSourceConcept;
 	
@@ -28,6 +28,8 @@ import javax.persistence.FetchType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
@@ -37,6 +39,7 @@ import net.jcip.annotations.Immutable;
 @Entity
 @Immutable
 @Table(name="f_observation_view")
+@NamedEntityGraph(name="FObservationView.fhir", attributeNodes={ @NamedAttributeNode("fPerson"), @NamedAttributeNode("provider"), @NamedAttributeNode("visitOccurrence") })
 public class FObservationView extends BaseEntity {
 	@Id
 	@Column(name="observation_id")
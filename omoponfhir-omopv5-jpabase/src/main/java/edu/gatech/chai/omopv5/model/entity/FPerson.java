@@ -18,6 +18,8 @@ package edu.gatech.chai.omopv5.model.entity;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
 import javax.persistence.PrimaryKeyJoinColumn;
 import javax.persistence.Table;
 
@@ -28,6 +30,7 @@ import javax.persistence.Table;
  */
 @Entity
 @Table(name="f_person")
+@NamedEntityGraph(name="FPerson.fhir", attributeNodes={ @NamedAttributeNode("location"), @NamedAttributeNode("provider"), @NamedAttributeNode("careSite") })
 @PrimaryKeyJoinColumn(name="person_id")
 public class FPerson extends Person {
 	@Column(name="family_name")
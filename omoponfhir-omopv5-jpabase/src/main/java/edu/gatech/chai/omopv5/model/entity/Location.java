@@ -25,9 +25,13 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.Inheritance;
 import javax.persistence.InheritanceType;
-import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
+import edu.gatech.chai.omopv5.jpa.utility.BlockSequenceGenerator;
+
 @Entity
 @Table(name="location")
 @Inheritance(strategy=InheritanceType.JOINED)
@@ -35,7 +39,7 @@ public class Location extends BaseEntity {
 	
 	@Id
 	@GeneratedValue(strategy=GenerationType.SEQUENCE, generator="location_seq_gen")
-	@SequenceGenerator(name="location_seq_gen", sequenceName="location_id_seq", allocationSize=1)
+	@GenericGenerator(name="location_seq_gen", strategy=BlockSequenceGenerator.STRATEGY, parameters=@Parameter(name="sequence_name", value="location_id_seq"))
 	@Column(name="location_id")
 	@Access(AccessType.PROPERTY)
 	private Long id;
@@ -30,11 +30,15 @@ import javax.persistence.Id;
 import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
-import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
+import edu.gatech.chai.omopv5.jpa.utility.BlockSequenceGenerator;
+
 @Entity
 @Table(
 		name="measurement",
@@ -46,7 +50,7 @@ import javax.persistence.TemporalType;
 public class Measurement extends BaseEntity {
 	@Id
 	@GeneratedValue(strategy=GenerationType.SEQUENCE, generator="measurement_occurrence_seq_gen")
-	@SequenceGenerator(name="measurement_occurrence_seq_gen", sequenceName="measurement_occurrence_id_seq", allocationSize=1)
+	@GenericGenerator(name="measurement_occurrence_seq_gen", strategy=BlockSequenceGenerator.STRATEGY, parameters=@Parameter(name="sequence_name", value="measurement_occurrence_id_seq"))
 	@Column(name = "measurement_id")
 	@Access(AccessType.PROPERTY)
 	private Long id;
@@ -58,7 +62,7 @@ public class Measurement extends BaseEntity {
 	@Column(name="measurement_source_value")
 	private String sourceValue; 
 
-	@ManyToOne
+	@ManyToOne(fetch=FetchType.LAZY)
 	@JoinColumn(name="measurement_source_concept_id")
 	private Concept sourceValueConcept; 
 
@@ -76,7 +80,7 @@ public class Measurement extends BaseEntity {
 	@Column(name="value_source_value")
 	private String valueSourceValue;
 	
-	@ManyToOne
+	@ManyToOne(fetch=FetchType.LAZY)
 	@JoinColumn(name = "operator_concept_id")
 	private Concept operatorConcept;
 
@@ -27,17 +27,24 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
-import javax.persistence.SequenceGenerator;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
+import edu.gatech.chai.omopv5.jpa.utility.BlockSequenceGenerator;
+
 @Entity
 @Table(name="note")
+@NamedEntityGraph(name="Note.fhir", attributeNodes={ @NamedAttributeNode("fPerson"), @NamedAttributeNode("provider"), @NamedAttributeNode("visitOccurrence") })
 public class Note extends BaseEntity {
 	@Id
 	@GeneratedValue(strategy=GenerationType.SEQUENCE, generator="note_seq_gen")
-	@SequenceGenerator(name="note_seq_gen", sequenceName="note_id_seq", allocationSize=1)
+	@GenericGenerator(name="note_seq_gen", strategy=BlockSequenceGenerator.STRATEGY, parameters=@Parameter(name="sequence_name", value="note_id_seq"))
 	@Column(name="note_id")
 	@Access(AccessType.PROPERTY)
 	private Long id;
@@ -30,9 +30,13 @@ import javax.persistence.Inheritance;
 import javax.persistence.InheritanceType;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
-import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
+import edu.gatech.chai.omopv5.jpa.utility.BlockSequenceGenerator;
+
 @Entity
 @Table(
 		name="person",
@@ -46,7 +50,7 @@ public class Person extends BaseEntity {
 
 	@Id
 	@GeneratedValue(strategy=GenerationType.SEQUENCE, generator="person_id_seq")
-	@SequenceGenerator(name="person_id_seq", sequenceName="person_id_seq", allocationSize=1)
+	@GenericGenerator(name="person_id_seq", strategy=BlockSequenceGenerator.STRATEGY, parameters=@Parameter(name="sequence_name", value="person_id_seq"))
 	@Column(name="person_id", nullable = false)
 	@Access(AccessType.PROPERTY)
 	private Long id;
@@ -93,21 +97,21 @@ public class Person extends BaseEntity {
 	@Column(name="gender_source_value")
 	private String genderSourceValue;
 	
-	@ManyToOne
+	@ManyToOne(fetch=FetchType.LAZY)
 	@JoinColumn(name="gender_source_concept_id")
 	private Concept genderSourceConcept;
 	
 	@Column(name="race_source_value")
 	private String raceSourceValue;
 	
-	@ManyToOne
+	@ManyToOne(fetch=FetchType.LAZY)
 	@JoinColumn(name="race_source_concept_id")
 	private Concept raceSourceConcept;
 
 	@Column(name="ethnicity_source_value")
 	private String ethnicitySourceValue;
 	
-	@ManyToOne
+	@ManyToOne(fetch=FetchType.LAZY)
 	@JoinColumn(name="ethnicity_source_concept_id")
 	private Concept ethnicitySourceConcept;
 
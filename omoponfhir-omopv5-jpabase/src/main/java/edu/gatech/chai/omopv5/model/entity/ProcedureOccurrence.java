@@ -22,17 +22,24 @@ import javax.persistence.Access;
 import javax.persistence.AccessType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
-import javax.persistence.SequenceGenerator;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
+import edu.gatech.chai.omopv5.jpa.utility.BlockSequenceGenerator;
+
 @Entity
 @Table(
 		name="procedure_occurrence",
@@ -41,11 +48,12 @@ import javax.persistence.TemporalType;
 				@Index(name = "idx_procedure_fperson_id", columnList = "person_id")
 				}
 		)
+@NamedEntityGraph(name="ProcedureOccurrence.fhir", attributeNodes={ @NamedAttributeNode("fPerson"), @NamedAttributeNode("provider"), @NamedAttributeNode("visitOccurrence") })
 public class ProcedureOccurrence extends BaseEntity {
 
 	@Id
 	@GeneratedValue(strategy=GenerationType.SEQUENCE, generator="procedure_occurrence_seq_gen")
-	@SequenceGenerator(name="procedure_occurrence_seq_gen", sequenceName="procedure_occurrence_id_seq", allocationSize=1)
+	@GenericGenerator(name="procedure_occurrence_seq_gen", strategy=BlockSequenceGenerator.STRATEGY, parameters=@Parameter(name="sequence_name", value="procedure_occurrence_id_seq"))
 	@Column(name = "procedure_occurrence_id")
 	@Access(AccessType.PROPERTY)
 	private Long id;
@@ -67,7 +75,7 @@ public class ProcedureOccurrence extends BaseEntity {
 	@JoinColumn(name = "procedure_type_concept_id")
 	private Concept procedureTypeConcept;
 
-	@ManyToOne
+	@ManyToOne(fetch=FetchType.LAZY)
 	@JoinColumn(name = "modifier_concept_id")
 	private Concept modifierConcept;
 	
@@ -85,7 +93,7 @@ public class ProcedureOccurrence extends BaseEntity {
 	@Column(name = "procedure_source_value")
 	private String procedureSourceValue;
 
-	@ManyToOne
+	@ManyToOne(fetch=FetchType.LAZY)
 	@JoinColumn(name = "procedure_source_concept_id")
 	private Concept procedureSourceConcept;
 
@@ -20,6 +20,7 @@ import javax.persistence.Access;
 import javax.persistence.AccessType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
@@ -27,17 +28,24 @@ import javax.persistence.Inheritance;
 import javax.persistence.InheritanceType;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
-import javax.persistence.SequenceGenerator;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
+import edu.gatech.chai.omopv5.jpa.utility.BlockSequenceGenerator;
+
 @Entity
 @Table(name="provider")
+@NamedEntityGraph(name="Provider.fhir", attributeNodes={ @NamedAttributeNode("careSite") })
 @Inheritance(strategy=InheritanceType.JOINED)
 public class Provider extends BaseEntity {
 
 	@Id
 	@GeneratedValue(strategy=GenerationType.SEQUENCE, generator="provider_seq_gen")
-	@SequenceGenerator(name="provider_seq_gen", sequenceName="provider_id_seq", allocationSize=1)
+	@GenericGenerator(name="provider_seq_gen", strategy=BlockSequenceGenerator.STRATEGY, parameters=@Parameter(name="sequence_name", value="provider_id_seq"))
 
 	@Column(name="provider_id")
 	@Access(AccessType.PROPERTY)
@@ -73,14 +81,14 @@ public class Provider extends BaseEntity {
 	@Column(name="specialty_source_value", length = 50)
 	private String specialtySourceValue;
 	
-	@ManyToOne
+	@ManyToOne(fetch=FetchType.LAZY)
 	@JoinColumn(name="specialty_source_concept_id")
 	private Concept specialtySourceConcept;
 
 	@Column(name="gender_source_value", length = 50)
 	private String genderSourceValue;
 	
-	@ManyToOne
+	@ManyToOne(fetch=FetchType.LAZY)
 	@JoinColumn(name="gender_source_concept_id")
 	private Concept genderSourceConcept;
 
@@ -22,21 +22,28 @@ import javax.persistence.Access;
 import javax.persistence.AccessType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
-import javax.persistence.SequenceGenerator;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
+import edu.gatech.chai.omopv5.jpa.utility.BlockSequenceGenerator;
 
 @Entity
 @Table(name="visit_occurrence")
+@NamedEntityGraph(name="VisitOccurrence.fhir", attributeNodes={ @NamedAttributeNode("fPerson"), @NamedAttributeNode("provider"), @NamedAttributeNode("careSite") })
 public class VisitOccurrence extends BaseEntity {
 	@Id
 	@GeneratedValue(strategy=GenerationType.SEQUENCE, generator="visit_seq_gen")
-	@SequenceGenerator(name="visit_seq_gen", sequenceName="visit_occurrence_id_seq", allocationSize=1)
+	@GenericGenerator(name="visit_seq_gen", strategy=BlockSequenceGenerator.STRATEGY, parameters=@Parameter(name="sequence_name", value="visit_occurrence_id_seq"))
 	@Column(name="visit_occurrence_id", nullable=false)
 	@Access(AccessType.PROPERTY)
 	private Long id;
@@ -61,7 +68,7 @@ public class VisitOccurrence extends BaseEntity {
 	@Column(name="visit_end_time")
 	private String endTime;
 	
-	@ManyToOne
+	@ManyToOne(fetch=FetchType.LAZY)
 	@JoinColumn(name="visit_type_concept_id")
 	private Concept visitTypeConcept;
 	
@@ -76,7 +83,7 @@ public class VisitOccurrence extends BaseEntity {
 	@Column(name="visit_source_value")
 	private String visitSourceValue;
 	
-	@ManyToOne
+	@ManyToOne(fetch=FetchType.LAZY)
 	@JoinColumn(name="visit_source_concept_id")
 	private Concept visitSourceConcept;
 	
@@ -18,6 +18,7 @@ package edu.gatech.chai.omopv5.model.entity;
 
 import javax.persistence.Access;
 import javax.persistence.AccessType;
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
@@ -27,11 +28,16 @@ import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 /**
  * 
  * @author Myung Choi
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_ONLY, region = "vocabulary")
 @Table(name="vocabulary")
 @NamedQueries(value = { @NamedQuery( name = "findReferenceById", query = "select v.vocabularyReference from Vocabulary v where v.id like :value")})
 public class Vocabulary extends BaseEntity {
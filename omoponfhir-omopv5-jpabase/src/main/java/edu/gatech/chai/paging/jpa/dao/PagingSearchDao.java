@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package edu.gatech.chai.paging.jpa.dao;
+
+import java.sql.Timestamp;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+
+import org.springframework.stereotype.Repository;
+
+import edu.gatech.chai.paging.jpa.entity.PagingSearch;
+
+@Repository
+public class PagingSearchDao {
+
+	@PersistenceContext
+	private EntityManager em;
+
+	public EntityManager getEntityManager() {
+		return em;
+	}
+
+	public PagingSearch findOne(String searchId) {
+		return em.find(PagingSearch.class, searchId);
+	}
+
+	public void save(PagingSearch entity) {
+		em.persist(entity);
+	}
+
+	public int touch(String searchId, Timestamp lastAccess, String searchState) {
+		if (searchState == null) {
+			Query q = em.createQuery("UPDATE PagingSearch s SET s.lastAccess = :lastAccess WHERE s.searchId = :searchId");
+			q.setParameter("lastAccess", lastAccess);
+			q.setParameter("searchId", searchId);
+			return q.executeUpdate();
+		}
+
+		Query q = em.createQuery("UPDATE PagingSearch s SET s.lastAccess = :lastAccess, s.searchState = :searchState "
+				+ "WHERE s.searchId = :searchId");
+		q.setParameter("lastAccess", lastAccess);
+		q.setParameter("searchState", searchState);
+		q.setParameter("searchId", searchId);
+		return q.executeUpdate();
+	}
+
+	public int deleteNotAccessedSince(Timestamp since) {
+		Query q = em.createQuery("DELETE FROM PagingSearch s WHERE s.lastAccess < :since OR s.lastAccess is NULL");
+		q.setParameter("since", since);
+		return q.executeUpdate();
+	}
+}
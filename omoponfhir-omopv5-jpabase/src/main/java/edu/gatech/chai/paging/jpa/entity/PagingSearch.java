@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package edu.gatech.chai.paging.jpa.entity;
+
+import java.io.Serializable;
+import java.sql.Timestamp;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import edu.gatech.chai.omopv5.model.entity.BaseEntity;
+
+/**
+ * The persistent class for the paging_search database table. Each row is a
+ * search that can be paged from any server node.
+ */
+@Entity
+@Table(name="paging_search")
+public class PagingSearch extends BaseEntity implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	@Id
+	@Column(name="search_id", length=64)
+	private String searchId;
+
+	@Column(name="resource_type")
+	private String resourceType;
+
+	@Column(name="search_state", columnDefinition="text")
+	private String searchState;
+
+	@Column(name="created_at")
+	private Timestamp createdAt;
+
+	@Column(name="last_access")
+	private Timestamp lastAccess;
+
+	public PagingSearch() {
+	}
+
+	public String getSearchId() {
+		return this.searchId;
+	}
+
+	public void setSearchId(String searchId) {
+		this.searchId = searchId;
+	}
+
+	public String getResourceType() {
+		return this.resourceType;
+	}
+
+	public void setResourceType(String resourceType) {
+		this.resourceType = resourceType;
+	}
+
+	public String getSearchState() {
+		return this.searchState;
+	}
+
+	public void setSearchState(String searchState) {
+		this.searchState = searchState;
+	}
+
+	public Timestamp getCreatedAt() {
+		return this.createdAt;
+	}
+
+	public void setCreatedAt(Timestamp createdAt) {
+		this.createdAt = createdAt;
+	}
+
+	public Timestamp getLastAccess() {
+		return this.lastAccess;
+	}
+
+	public void setLastAccess(Timestamp lastAccess) {
+		this.lastAccess = lastAccess;
+	}
+}
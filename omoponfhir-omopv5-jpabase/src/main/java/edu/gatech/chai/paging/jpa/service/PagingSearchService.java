@@ -0,0 +1,26 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package edu.gatech.chai.paging.jpa.service;
+
+import edu.gatech.chai.paging.jpa.entity.PagingSearch;
+
+public interface PagingSearchService {
+	public PagingSearch getSearch(String searchId);
+	public void saveSearch(PagingSearch search);
+	public boolean touchSearch(String searchId, String searchState);
+	public int deleteExpired(long ttlMillis);
+}
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package edu.gatech.chai.paging.jpa.service;
+
+import java.sql.Timestamp;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import edu.gatech.chai.paging.jpa.dao.PagingSearchDao;
+import edu.gatech.chai.paging.jpa.entity.PagingSearch;
+
+/**
+ * Searches are saved while a FHIR read is served, which may run in a read-only
+ * request transaction. So every method runs in its own transaction.
+ */
+@Service
+public class PagingSearchServiceImp implements PagingSearchService {
+
+	@Autowired
+	private PagingSearchDao vDao;
+
+	public PagingSearchDao getEntityDao() {
+		return vDao;
+	}
+
+	/**
+	 * Returns the search and marks it as accessed now. Returns null if there is
+	 * no such search.
+	 */
+	@Transactional(propagation = Propagation.REQUIRES_NEW)
+	public PagingSearch getSearch(String searchId) {
+		PagingSearch search = vDao.findOne(searchId);
+		if (search != null) {
+			search.setLastAccess(new Timestamp(System.currentTimeMillis()));
+		}
+
+		return search;
+	}
+
+	@Transactional(propagation = Propagation.REQUIRES_NEW)
+	public void saveSearch(PagingSearch search) {
+		Timestamp now = new Timestamp(System.currentTimeMillis());
+		search.setCreatedAt(now);
+		search.setLastAccess(now);
+		vDao.save(search);
+	}
+
+	/**
+	 * Marks the search as accessed now and replaces its state, unless
+	 * searchState is null. Returns false if there is no such search.
+	 */
+	@Transactional(propagation = Propagation.REQUIRES_NEW)
+	public boolean touchSearch(String searchId, String searchState) {
+		return vDao.touch(searchId, new Timestamp(System.currentTimeMillis()), searchState) > 0;
+	}
+
+	@Transactional(propagation = Propagation.REQUIRES_NEW)
+	public int deleteExpired(long ttlMillis) {
+		return vDao.deleteNotAccessedSince(new Timestamp(System.currentTimeMillis() - ttlMillis));
+	}
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package edu.gatech.chai.omopv5.dba.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Timestamp;
+
+import org.junit.Test;
+
+public class KeysetCursorTest {
+	private static final String SORT = "date DESC";
+
+	@Test
+	public void newCursorUsesOffset() {
+		KeysetCursor cursor = new KeysetCursor();
+		assertFalse(cursor.canSeek(0, SORT));
+		assertFalse(cursor.canSeek(0, null));
+		assertEquals(-1, cursor.getNextIndex());
+	}
+
+	@Test
+	public void advanceSeeksFromTheNextIndex() {
+		KeysetCursor cursor = new KeysetCursor();
+		Timestamp last = Timestamp.valueOf("2019-03-01 10:00:00.123456");
+		cursor.advance(SORT, 50, last, 1234L);
+
+		assertTrue(cursor.canSeek(50, SORT));
+		assertEquals(50, cursor.getNextIndex());
+		assertEquals(last, cursor.getLastSortValue());
+		assertEquals(Long.valueOf(1234L), cursor.getLastId());
+		assertEquals(SORT, cursor.getSort());
+	}
+
+	@Test
+	public void advanceMovesTheCursorPageByPage() {
+		KeysetCursor cursor = new KeysetCursor();
+		cursor.advance(null, 50, 50L, 50L);
+		cursor.advance(null, 100, 100L, 100L);
+
+		assertFalse(cursor.canSeek(50, null));
+		assertTrue(cursor.canSeek(100, null));
+		assertEquals(Long.valueOf(100L), cursor.getLastId());
+	}
+
+	@Test
+	public void jumpingToAnotherPageFallsBackToOffset() {
+		KeysetCursor cursor = new KeysetCursor();
+		cursor.advance(SORT, 50, Timestamp.valueOf("2019-03-01 10:00:00"), 1234L);
+
+		assertFalse(cursor.canSeek(0, SORT));
+		assertFalse(cursor.canSeek(100, SORT));
+	}
+
+	@Test
+	public void anotherSortFallsBackToOffset() {
+		KeysetCursor cursor = new KeysetCursor();
+		cursor.advance(SORT, 50, Timestamp.valueOf("2019-03-01 10:00:00"), 1234L);
+
+		assertFalse(cursor.canSeek(50, "date ASC"));
+		assertFalse(cursor.canSeek(50, null));
+	}
+
+	@Test
+	public void cursorWithoutSortOnlySeeksWithoutSort() {
+		KeysetCursor cursor = new KeysetCursor();
+		cursor.advance(null, 50, 1234L, 1234L);
+
+		assertTrue(cursor.canSeek(50, null));
+		assertFalse(cursor.canSeek(50, "id ASC"));
+	}
+
+	@Test
+	public void nullSortValueFallsBackToOffset() {
+		KeysetCursor cursor = new KeysetCursor();
+		cursor.advance(SORT, 50, Timestamp.valueOf("2019-03-01 10:00:00"), 1234L);
+		cursor.advance(SORT, 100, null, 5678L);
+
+		assertFalse(cursor.canSeek(100, SORT));
+		assertEquals(-1, cursor.getNextIndex());
+		assertNull(cursor.getLastSortValue());
+		assertNull(cursor.getLastId());
+	}
+
+	@Test
+	public void nullIdFallsBackToOffset() {
+		KeysetCursor cursor = new KeysetCursor();
+		cursor.advance(SORT, 50, Timestamp.valueOf("2019-03-01 10:00:00"), null);
+
+		assertFalse(cursor.canSeek(50, SORT));
+	}
+
+	@Test
+	public void offsetPageAnchorsTheCursorAgain() {
+		KeysetCursor cursor = new KeysetCursor();
+		cursor.advance(SORT, 100, null, 5678L);
+		assertFalse(cursor.canSeek(100, SORT));
+
+		// The page at 100 is read with OFFSET and moves the cursor to its end.
+		cursor.advance(SORT, 150, Timestamp.valueOf("2019-02-01 10:00:00"), 9012L);
+		assertTrue(cursor.canSeek(150, SORT));
+	}
+
+	@Test
+	public void resetFallsBackToOffset() {
+		KeysetCursor cursor = new KeysetCursor();
+		cursor.advance(SORT, 50, Timestamp.valueOf("2019-03-01 10:00:00"), 1234L);
+		cursor.reset();
+
+		assertFalse(cursor.canSeek(50, SORT));
+		assertNull(cursor.getSort());
+	}
+
+	@Test
+	public void parseSortDefaultsToIdAscending() {
+		assertArrayEquals(new String[] { "id", "ASC" }, KeysetCursor.parseSort(null));
+		assertArrayEquals(new String[] { "id", "ASC" }, KeysetCursor.parseSort(" "));
+	}
+
+	@Test
+	public void parseSortReadsTheDirection() {
+		assertArrayEquals(new String[] { "date", "ASC" }, KeysetCursor.parseSort("date"));
+		assertArrayEquals(new String[] { "date", "DESC" }, KeysetCursor.parseSort("date desc"));
+		assertArrayEquals(new String[] { "fPerson.id", "ASC" }, KeysetCursor.parseSort("fPerson.id ASC"));
+	}
+
+	@Test
+	public void multiColumnSortCannotSeek() {
+		assertNull(KeysetCursor.parseSort("date DESC,id ASC"));
+	}
+}
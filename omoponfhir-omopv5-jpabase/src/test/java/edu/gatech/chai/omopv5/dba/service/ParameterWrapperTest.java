@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package edu.gatech.chai.omopv5.dba.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ParameterWrapperTest {
+	private static List<String> ids(int count) {
+		List<String> ids = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			ids.add(String.valueOf(1000 + i));
+		}
+
+		return ids;
+	}
+
+	private static List<Number> values(String paramType, int count) {
+		return ParameterWrapper.numericValues(ids(count), paramType);
+	}
+
+	@Test
+	public void numericValuesFollowTheParamType() {
+		assertEquals(Arrays.<Number>asList(1L, 2L), ParameterWrapper.numericValues(Arrays.asList("1", "2"), "Long"));
+		assertEquals(Arrays.<Number>asList((short) 1), ParameterWrapper.numericValues(Arrays.asList("1"), "Short"));
+		assertEquals(Arrays.<Number>asList(1.5d), ParameterWrapper.numericValues(Arrays.asList("1.5"), "Double"));
+		assertEquals(Arrays.<Number>asList(1), ParameterWrapper.numericValues(Arrays.asList("1"), "Integer"));
+	}
+
+	@Test
+	public void numericInWithoutValuesHasNoInList() {
+		assertEquals(Collections.emptyList(), ParameterWrapper.inLists(values("Long", 0)));
+	}
+
+	@Test
+	public void numericInAtTheLimitIsOneInList() {
+		List<Number> values = values("Long", ParameterWrapper.IN_LIST_LIMIT);
+		List<List<Number>> inLists = ParameterWrapper.inLists(values);
+
+		assertEquals(1, inLists.size());
+		assertEquals(values, inLists.get(0));
+	}
+
+	@Test
+	public void numericInIsSplitAboveTheLimit() {
+		int count = ParameterWrapper.IN_LIST_LIMIT + 1;
+		List<List<Number>> inLists = ParameterWrapper.inLists(values("Long", count));
+
+		assertEquals(2, inLists.size());
+		assertEquals(ParameterWrapper.IN_LIST_LIMIT, inLists.get(0).size());
+		assertEquals(Arrays.<Number>asList(1000L + count - 1), inLists.get(1));
+	}
+
+	@Test
+	public void numericInSplitKeepsEveryValueInOrder() {
+		int count = 2 * ParameterWrapper.IN_LIST_LIMIT + 1;
+		List<Number> values = values("Long", count);
+		List<List<Number>> inLists = ParameterWrapper.inLists(values);
+
+		assertEquals(3, inLists.size());
+		List<Number> joined = new ArrayList<Number>();
+		for (List<Number> inList : inLists) {
+			assertTrue(inList.size() <= ParameterWrapper.IN_LIST_LIMIT);
+			joined.addAll(inList);
+		}
+		assertEquals(values, joined);
+	}
+
+	@Test
+	public void numericInUsesInArrayWhenTheDialectHasIt() {
+		assertTrue(ParameterWrapper.useInArray("Long", true));
+		assertTrue(ParameterWrapper.useInArray("Integer", true));
+		assertFalse(ParameterWrapper.useInArray("Long", false));
+	}
+
+	@Test
+	public void numericInNeverSendsDoublesAsInArray() {
+		assertFalse(ParameterWrapper.useInArray("Double", true));
+	}
+
+	@Test
+	public void inArrayLiteralListsEveryValue() {
+		assertEquals("{1000,1001,1002}", ParameterWrapper.toArrayLiteral(values("Long", 3)));
+		assertEquals("{}", ParameterWrapper.toArrayLiteral(values("Long", 0)));
+
+		int count = ParameterWrapper.IN_LIST_LIMIT + 1;
+		String literal = ParameterWrapper.toArrayLiteral(values("Long", count));
+		assertTrue(literal.startsWith("{1000,1001,"));
+		assertTrue(literal.endsWith("," + (1000 + count - 1) + "}"));
+		assertEquals(count, literal.split(",").length);
+	}
+}
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package edu.gatech.chai.omopv5.dba.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LongKeyCacheTest {
+	@Test
+	public void getReturnsWhatWasPut() {
+		LongKeyCache<String> cache = new LongKeyCache<String>(100, 0);
+		cache.put(1L, "a");
+		cache.put(-7L, "b");
+		cache.put(Long.MAX_VALUE, "c");
+
+		assertEquals("a", cache.get(1L));
+		assertEquals("b", cache.get(-7L));
+		assertEquals("c", cache.get(Long.MAX_VALUE));
+		assertNull(cache.get(2L));
+		assertEquals(3, cache.size());
+	}
+
+	@Test
+	public void putReplacesTheValueOfAKey() {
+		LongKeyCache<String> cache = new LongKeyCache<String>(100, 0);
+		cache.put(1L, "a");
+		cache.put(1L, "b");
+
+		assertEquals("b", cache.get(1L));
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void sizeStaysWithinMaxEntries() {
+		LongKeyCache<Long> cache = new LongKeyCache<Long>(64, 0);
+		for (long i = 0; i < 10000; i++) {
+			cache.put(i, i);
+		}
+
+		assertTrue(cache.size() <= 64);
+
+		// Whatever is left is still found under its own key.
+		int found = 0;
+		for (long i = 0; i < 10000; i++) {
+			Long value = cache.get(i);
+			if (value != null) {
+				assertEquals(i, value.longValue());
+				found++;
+			}
+		}
+		assertEquals(cache.size(), found);
+	}
+
+	@Test
+	public void recentlyReadEntriesAreKept() {
+		LongKeyCache<Long> cache = new LongKeyCache<Long>(1, 0);
+		cache.put(1L, 1L);
+		cache.get(1L);
+		cache.put(2L, 2L);
+
+		assertEquals(1, cache.size());
+		assertNull(cache.get(1L));
+		assertEquals(Long.valueOf(2L), cache.get(2L));
+	}
+
+	@Test
+	public void expiredEntriesAreNotReturned() throws InterruptedException {
+		LongKeyCache<String> cache = new LongKeyCache<String>(100, 1);
+		cache.put(1L, "a");
+		Thread.sleep(10);
+
+		assertNull(cache.get(1L));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void clearRemovesEverything() {
+		LongKeyCache<String> cache = new LongKeyCache<String>(100, 0);
+		for (long i = 0; i < 50; i++) {
+			cache.put(i, "v" + i);
+		}
+		cache.clear();
+
+		assertEquals(0, cache.size());
+		assertNull(cache.get(10L));
+	}
+
+	@Test
+	public void noEntriesAreKeptWithoutRoom() {
+		LongKeyCache<String> cache = new LongKeyCache<String>(0, 0);
+		cache.put(1L, "a");
+
+		assertNull(cache.get(1L));
+		assertEquals(0, cache.size());
+	}
+}
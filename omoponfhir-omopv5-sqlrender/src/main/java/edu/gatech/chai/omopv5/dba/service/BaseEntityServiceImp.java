@@ -18,42 +18,48 @@ package edu.gatech.chai.omopv5.dba.service;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-
-import javax.persistence.EntityManager;
-import javax.persistence.Query;
-import javax.persistence.Table;
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.Order;
-import javax.persistence.criteria.Path;
-import javax.persistence.criteria.Predicate;
-import javax.persistence.criteria.Root;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.transaction.annotation.Transactional;
 
 import edu.gatech.chai.omopv5.model.entity.BaseEntity;
 import edu.gatech.chai.omopv5.sqlrender.dao.BaseEntityDao;
+import edu.gatech.chai.omopv5.sqlrender.dao.TableMapping;
 
+/**
+ * IService on plain JDBC. ParameterWrapper lists are compiled to SQL with bind
+ * parameters by ParameterWrapper.constructWhere(), and rows are mapped by the
+ * DAO. Entities are plain objects: nothing is tracked after a query returns.
+ */
 public abstract class BaseEntityServiceImp<T extends BaseEntity, V extends BaseEntityDao<T>>  implements IService<T> {
+	protected static final int STREAM_FETCH_SIZE = 500;
+	protected static final String ALIAS = BaseEntityDao.ALIAS;
+	protected static final int ID_CHUNK_SIZE = BaseEntityDao.ID_CHUNK_SIZE;
 
 	@Autowired
 	private V vDao;
 	private Class<T> entityClass;
-	
+
+	@Value("${sqlrender.dialect:postgresql}")
+	private String dialect;
+
 	public BaseEntityServiceImp(Class<T> entityClass) {
 		this.entityClass = entityClass;
 	}
-	
+
 	public V getEntityDao() {
 		return vDao;
 	}
-	
+
 	public Class<T> getEntityClass() {
 		return this.entityClass;
 	}
-	
+
+	protected TableMapping getMapping() {
+		return vDao.getMapping();
+	}
+
 	@Transactional(readOnly = true)
 	public T findById(Long id) {
 		return vDao.findById(entityClass, id);
@@ -61,21 +67,20 @@ public abstract class BaseEntityServiceImp<T extends BaseEntity, V extends BaseE
 
 	@Transactional(readOnly = true)
 	public List<T> searchByColumnString(String column, String value) {
-		EntityManager em = vDao.getEntityManager();
-		List<T> retvals = new ArrayList<T>();
-		
-		CriteriaBuilder builder = em.getCriteriaBuilder();
-		CriteriaQuery<T> query = builder.createQuery(entityClass);
-		Root<T> root = query.from(entityClass);
-		
-		Path<String> path = root.get(column);
-		Predicate where = builder.like(builder.lower(path), value.toLowerCase());
-
-		query.select(root);
-		query.where(where);
-		
-		retvals = em.createQuery(query).getResultList();
-		return retvals;	
+		List<Object> args = new ArrayList<Object>();
+		args.add(value.toLowerCase());
+		String where = "LOWER(" + getMapping().qualify(ALIAS, column) + ") LIKE ?";
+
+		return vDao.select(where, args, null, 0, 0);
+	}
+
+	/**
+	 * Loads all entities for the given ids with IN (...) queries. Ids are sent in
+	 * chunks to stay below the bind parameter limit of the database.
+	 */
+	@Transactional(readOnly = true)
+	public List<T> searchByIds(List<Long> ids) {
+		return vDao.findByIds(ids);
 	}
 
 	@Transactional
@@ -83,7 +88,7 @@ public abstract class BaseEntityServiceImp<T extends BaseEntity, V extends BaseE
 		vDao.add(entity);
 		return entity;
 	}
-	
+
 	@Transactional
 	public Long removeById(Long id) {
 		return vDao.delete(entityClass, id);
@@ -94,120 +99,321 @@ public abstract class BaseEntityServiceImp<T extends BaseEntity, V extends BaseE
 		vDao.merge(entity);
 		return entity;
 	}
-	
+
 	@Transactional(readOnly = true)
 	public Long getSize() {
-		EntityManager em = vDao.getEntityManager();
-		CriteriaBuilder builder = em.getCriteriaBuilder();
-
-//		Table t = entityClass.getAnnotation(Table.class);
-//		if (t != null) {
-//			String tableName = t.name();
-//			String queryString = "SELECT p.reltuples AS approximate_row_count FROM pg_class p WHERE p.relname = :table_name";
-//			Query query = em.createNativeQuery(queryString);
-//			query = query.setParameter("table_name", tableName);
-//			float res = (float) query.getSingleResult();
-//			return (long) res;
-//		} else {
-			CriteriaQuery<Long> query = builder.createQuery(Long.class);
-			Root<T> root = query.from(entityClass);
-	
-			query.select(builder.count(root));		
-			return em.createQuery(query).getSingleResult();		
-//		}
+		return vDao.count(null, null);
 	}
 
 	@Transactional(readOnly = true)
 	public Long getSize(List<ParameterWrapper> paramList) {
-		// Construct predicate from this map.
-		EntityManager em = vDao.getEntityManager();
-		CriteriaBuilder builder = em.getCriteriaBuilder();
-		CriteriaQuery<Long> query = builder.createQuery(Long.class);
-		Root<T> root = query.from(entityClass);
-
-		List<Predicate> predicates = ParameterWrapper.constructPredicate(builder, paramList, root);		
-		if (predicates == null || predicates.isEmpty()) return 0L;
-
-		query.select(builder.count(root));
-		query.where(builder.and(predicates.toArray(new Predicate[predicates.size()])));
-		
-		return em.createQuery(query).getSingleResult();
-	}
-	
-	protected List<Order> addSort (CriteriaBuilder builder, Root<T> root, String sort) {
-		List<Order> orders = new ArrayList<Order>();
+		List<Object> args = new ArrayList<Object>();
+		String where = constructWhere(paramList, args);
+		if (where == null) return 0L;
+
+		return vDao.count(where, args);
+	}
+
+	/**
+	 * Estimates the number of entities without counting them.
+	 *
+	 * Without parameters, the row estimate from the planner statistics
+	 * (pg_class.reltuples) is used on PostgreSQL. A view has no statistics of
+	 * its own, so it, and a search with parameters, is estimated by the planner
+	 * from the statistics of the tables (EXPLAIN). Returns null if there is no
+	 * estimate, which is always the case on other dialects.
+	 */
+	@Transactional(readOnly = true)
+	public Long getSizeEstimate(List<ParameterWrapper> paramList) {
+		if (paramList == null || paramList.isEmpty()) {
+			Long estimate = getTableRowEstimate();
+			if (estimate != null) return estimate;
+
+			return vDao.estimateRows(null, null);
+		}
+
+		List<Object> args = new ArrayList<Object>();
+		String where = constructWhere(paramList, args);
+		if (where == null) return 0L;
+
+		return vDao.estimateRows(where, args);
+	}
+
+	protected Long getTableRowEstimate() {
+		if (!"postgresql".equals(dialect)) return null;
+
+		String queryString = "SELECT p.reltuples FROM pg_class p JOIN pg_namespace n ON n.oid = p.relnamespace "
+				+ "WHERE p.relname = ? AND n.nspname = ANY (current_schemas(false))";
+		List<Number> results = vDao.getJdbcTemplate().queryForList(queryString, Number.class,
+				getMapping().getTable().toLowerCase());
+		if (results.isEmpty() || results.get(0) == null) return null;
+
+		long estimate = results.get(0).longValue();
+		if (estimate <= 0) return null;
+
+		return estimate;
+	}
+
+	protected String constructWhere(List<ParameterWrapper> paramList, List<Object> args) {
+		return ParameterWrapper.constructWhere(paramList, getMapping(), vDao.getSchemaPrefix(), ALIAS, dialect, args);
+	}
+
+	protected String addSort(String sort) {
+		TableMapping mapping = getMapping();
+		List<String> orders = new ArrayList<String>();
 		if (sort != null && !sort.isEmpty()) {
 			String[] sort_ = sort.split(",");
 			for (int i=0; i<sort_.length; i++) {
 				String[] items = sort_[i].split(" ");
+				String expression = mapping.expression(vDao.getSchemaPrefix(), ALIAS, items[0]);
 				if ("ASC".equals(items[1])) {
-					orders.add(builder.asc(root.get(items[0])));
+					orders.add(expression + " ASC");
 				} else {
-					orders.add(builder.desc(root.get(items[0])));
+					orders.add(expression + " DESC");
 				}
 			}
+		} else if (mapping.getIdColumn() != null) {
+			orders.add(mapping.qualify(ALIAS, TableMapping.ID_ATTRIBUTE) + " ASC");
 		} else {
-			orders.add(builder.asc(root.get("id")));
+			return null;
 		}
-		
-		return orders;
+
+		return String.join(", ", orders);
 	}
-	
+
 	@Transactional(readOnly = true)
 	public List<T> searchWithoutParams(int fromIndex, int toIndex, String sort) {
+		return searchWithoutParams(fromIndex, toIndex, sort, null);
+	}
+
+	@Transactional(readOnly = true)
+	public List<T> searchWithoutParams(int fromIndex, int toIndex, String sort, KeysetCursor cursor) {
 		int length = toIndex - fromIndex;
-		EntityManager em = vDao.getEntityManager();		
-		List<T> retvals = new ArrayList<T>();
-		
-		CriteriaBuilder builder = em.getCriteriaBuilder();
-		CriteriaQuery<T> query = builder.createQuery(entityClass);
-		Root<T> root = query.from(entityClass);
-		
-		query.select(root);
-		
-		// Sort		
-		query.orderBy(addSort(builder, root, sort));
-		
+		if (canUseKeyset(cursor, length, sort)) {
+			return searchWithKeyset(fromIndex, length, null, sort, cursor);
+		}
+
 		if (length <= 0) {
-			retvals = em.createQuery(query)
-					.getResultList();
-		} else {
-			retvals = em.createQuery(query)
-					.setFirstResult(fromIndex)
-					.setMaxResults(length)
-					.getResultList();
+			return vDao.select(null, null, addSort(sort), 0, 0);
 		}
-		return retvals;	
+		return vDao.select(null, null, addSort(sort), fromIndex, length);
 	}
 
 	@Transactional(readOnly = true)
 	public List<T> searchWithParams(int fromIndex, int toIndex, List<ParameterWrapper> paramList, String sort) {
+		return searchWithParams(fromIndex, toIndex, paramList, sort, null);
+	}
+
+	@Transactional(readOnly = true)
+	public List<T> searchWithParams(int fromIndex, int toIndex, List<ParameterWrapper> paramList, String sort, KeysetCursor cursor) {
 		int length = toIndex - fromIndex;
-		EntityManager em = vDao.getEntityManager();
-		CriteriaBuilder builder = em.getCriteriaBuilder();
-		CriteriaQuery<T> query = builder.createQuery(entityClass);
-		Root<T> root = query.from(entityClass);
-		
-		List<T> retvals = new ArrayList<T>();
-		
-		List<Predicate> predicates = ParameterWrapper.constructPredicate(builder, paramList, root);		
-		if (predicates == null || predicates.isEmpty()) return retvals; // Nothing. return empty list
-	
-		query.select(root);
-		query.where(builder.and(predicates.toArray(new Predicate[predicates.size()])));
-
-		// Sort		
-		query.orderBy(addSort(builder, root, sort));
+		if (canUseKeyset(cursor, length, sort)) {
+			return searchWithKeyset(fromIndex, length, paramList, sort, cursor);
+		}
+
+		List<Object> args = new ArrayList<Object>();
+		String where = constructWhere(paramList, args);
+		if (where == null) return new ArrayList<T>(); // Nothing. return empty list
 
 		if (length <= 0) {
-			retvals = em.createQuery(query)
-					.getResultList();			
+			return vDao.select(where, args, addSort(sort), 0, 0);
+		}
+		return vDao.select(where, args, addSort(sort), fromIndex, length);
+	}
+
+	/**
+	 * Searches one page and returns the total number of matches. The page is
+	 * added to the page list. An empty paramList means no filter.
+	 *
+	 * The total is read with the page by COUNT(*) OVER (), so the filter is run
+	 * once. A separate count query is run only when the page is past the last
+	 * row.
+	 */
+	@Transactional(readOnly = true)
+	public Long searchWithCount(int fromIndex, int toIndex, List<ParameterWrapper> paramList, String sort, List<T> page) {
+		return searchWithCount(fromIndex, toIndex, paramList, sort, page, null);
+	}
+
+	/**
+	 * Same as above. If the cursor can be used, the page is ordered as in
+	 * keyset paging and the cursor is moved to its last row, so the next page
+	 * seeks instead of using OFFSET.
+	 */
+	@Transactional(readOnly = true)
+	public Long searchWithCount(int fromIndex, int toIndex, List<ParameterWrapper> paramList, String sort, List<T> page,
+			KeysetCursor cursor) {
+		List<Object> args = new ArrayList<Object>();
+		String where = null;
+		if (paramList != null && !paramList.isEmpty()) {
+			where = constructWhere(paramList, args);
+			if (where == null) return 0L; // Nothing.
+		}
+
+		int length = toIndex - fromIndex;
+		Long total;
+		if (canUseKeyset(cursor, length, sort)) {
+			String[] sortItem = KeysetCursor.parseSort(sort);
+			String[] keyColumns = new String[] { getMapping().getColumnName(sortItem[0]), getMapping().getIdColumn() };
+			List<Object[]> keys = new ArrayList<Object[]>();
+			total = vDao.selectWithCount(where, args, keysetOrderBy(sortItem), fromIndex, length, page, keyColumns,
+					keys);
+			if (!keys.isEmpty()) {
+				Object[] last = keys.get(keys.size() - 1);
+				cursor.advance(sort, fromIndex + keys.size(), last[0],
+						last[1] == null ? null : ((Number) last[1]).longValue());
+			}
 		} else {
-			retvals = em.createQuery(query)
-					.setFirstResult(fromIndex)
-					.setMaxResults(length)
-					.getResultList();
+			total = vDao.selectWithCount(where, args, addSort(sort), fromIndex, length, page);
+		}
+		if (total == null) {
+			// No row to carry the total. It is 0 unless the page is past the end.
+			if (fromIndex == 0) return 0L;
+			return vDao.count(where, args);
+		}
+
+		return total;
+	}
+
+	/**
+	 * Streams all entities that match paramList to the callback, in sort order.
+	 * Use this instead of searchWithParams(0, 0, ...) when the number of matching
+	 * rows is not bounded. At most STREAM_FETCH_SIZE entities are held at a time.
+	 */
+	@Transactional(readOnly = true)
+	public void streamWithParams(List<ParameterWrapper> paramList, String sort, EntityCallback<T> callback) {
+		List<Object> args = new ArrayList<Object>();
+		String where = constructWhere(paramList, args);
+		if (where == null) return; // Nothing.
+
+		vDao.stream(where, args, addSort(sort), STREAM_FETCH_SIZE, callback);
+	}
+
+	/**
+	 * Same as streamWithParams above, but the callback gets chunkSize entities
+	 * at a time.
+	 */
+	@Transactional(readOnly = true)
+	public void streamWithParams(List<ParameterWrapper> paramList, String sort, int chunkSize,
+			EntityChunkCallback<T> callback) {
+		List<Object> args = new ArrayList<Object>();
+		String where = constructWhere(paramList, args);
+		if (where == null) return; // Nothing.
+
+		List<T> chunk = new ArrayList<T>(chunkSize);
+		boolean[] more = { true };
+		vDao.stream(where, args, addSort(sort), STREAM_FETCH_SIZE, new EntityCallback<T>() {
+			@Override
+			public boolean process(T entity) {
+				chunk.add(entity);
+				if (chunk.size() >= chunkSize) {
+					more[0] = callback.process(chunk);
+					chunk.clear();
+				}
+				return more[0];
+			}
+		});
+
+		if (more[0] && !chunk.isEmpty()) {
+			callback.process(chunk);
 		}
+	}
+
+	/**
+	 * ORDER BY of keyset paging. id is the tie breaker so that the order is
+	 * deterministic.
+	 */
+	private String keysetOrderBy(String[] sortItem) {
+		TableMapping mapping = getMapping();
+		String orderBy = mapping.qualify(ALIAS, sortItem[0]) + ("ASC".equals(sortItem[1]) ? " ASC" : " DESC");
+		if (!KeysetCursor.ID_ATTRIBUTE.equals(sortItem[0])) {
+			orderBy += ", " + mapping.qualify(ALIAS, TableMapping.ID_ATTRIBUTE) + " ASC";
+		}
+
+		return orderBy;
+	}
+
+	private boolean canUseKeyset(KeysetCursor cursor, int length, String sort) {
+		if (cursor == null || length <= 0 || getMapping().getIdColumn() == null) return false;
+
+		// The sort value is read back from the row, so it must be a column of this table.
+		String[] sortItem = KeysetCursor.parseSort(sort);
+		return sortItem != null && getMapping().hasAttribute(sortItem[0]);
+	}
+
+	/**
+	 * Whether NULLs sort after the other values in this direction. PostgreSQL
+	 * and Oracle treat NULL as the largest value, sql server as the smallest.
+	 */
+	private boolean nullsLast(boolean ascending) {
+		boolean nullIsLargest = "postgresql".equals(dialect) || "oracle".equals(dialect);
+		return nullIsLargest == ascending;
+	}
+
+	/**
+	 * Keyset (seek) paging. If the cursor ended exactly at fromIndex, the page is
+	 * fetched with a seek condition on (sort column, id). Otherwise, OFFSET is used
+	 * for this page. Either way, the cursor is moved to the end of this page.
+	 *
+	 * paramList == null means search without parameters.
+	 */
+	private List<T> searchWithKeyset(int fromIndex, int length, List<ParameterWrapper> paramList, String sort,
+			KeysetCursor cursor) {
+		TableMapping mapping = getMapping();
+		List<Object> args = new ArrayList<Object>();
+		List<String> conditions = new ArrayList<String>();
+		if (paramList != null) {
+			String where = constructWhere(paramList, args);
+			if (where == null) return new ArrayList<T>(); // Nothing. return empty list
+			conditions.add(where);
+		}
+
+		String[] sortItem = KeysetCursor.parseSort(sort);
+		boolean ascending = "ASC".equals(sortItem[1]);
+		boolean sortById = KeysetCursor.ID_ATTRIBUTE.equals(sortItem[0]);
+		String idColumn = mapping.qualify(ALIAS, TableMapping.ID_ATTRIBUTE);
+		String sortColumn = mapping.qualify(ALIAS, sortItem[0]);
+
+		boolean seek;
+		Object lastSortValue;
+		Long lastId;
+		synchronized (cursor) {
+			seek = cursor.canSeek(fromIndex, sort);
+			lastSortValue = cursor.getLastSortValue();
+			lastId = cursor.getLastId();
+		}
+
+		if (seek) {
+			// (sort, id) > (?, ?) is expanded to sort > ? OR (sort = ? AND id > ?)
+			// so that it works on every dialect. id is always ascending.
+			//
+			// Rows with a NULL sort value are added with OR sort IS NULL when the
+			// dialect sorts NULLs after the others in this direction. Otherwise
+			// they have been passed already. The cursor only seeks from a non-NULL
+			// sort value.
+			if (sortById) {
+				conditions.add(idColumn + (ascending ? " > ?" : " < ?"));
+				args.add(lastId);
+			} else {
+				conditions.add("(" + sortColumn + (ascending ? " > ?" : " < ?") + " OR (" + sortColumn + " = ? AND "
+						+ idColumn + " > ?)" + (nullsLast(ascending) ? " OR " + sortColumn + " IS NULL" : "") + ")");
+				args.add(lastSortValue);
+				args.add(lastSortValue);
+				args.add(lastId);
+			}
+		}
+
+		String orderBy = keysetOrderBy(sortItem);
+		String[] keyColumns = new String[] { mapping.getColumnName(sortItem[0]), mapping.getIdColumn() };
+		List<Object[]> keys = new ArrayList<Object[]>();
+		List<T> retvals = vDao.select(conditions.isEmpty() ? null : String.join(" AND ", conditions), args, orderBy,
+				seek ? 0 : fromIndex, length, keyColumns, keys);
+
+		if (!keys.isEmpty()) {
+			Object[] last = keys.get(keys.size() - 1);
+			cursor.advance(sort, fromIndex + retvals.size(), last[0],
+					last[1] == null ? null : ((Number) last[1]).longValue());
+		}
+
 		return retvals;
 	}
 
@@ -16,11 +16,9 @@
  *******************************************************************************/
 package edu.gatech.chai.omopv5.dba.service;
 
+import java.util.ArrayList;
 import java.util.List;
 
-import javax.persistence.EntityManager;
-import javax.persistence.TypedQuery;
-
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -37,10 +35,11 @@ public class CareSiteServiceImp extends BaseEntityServiceImp<CareSite, CareSiteD
 	
 	@Transactional(readOnly = true)
 	public CareSite searchByLocation(Location location) {
-		EntityManager em = getEntityDao().getEntityManager();
-		String query = "SELECT t FROM CareSite t WHERE location_id like :value";
-		List<? extends CareSite> results = em.createQuery(query, CareSite.class)
-				.setParameter("value",location.getId()).getResultList();
+		List<Object> args = new ArrayList<Object>();
+		args.add(location.getId());
+		String where = getMapping().qualify(ALIAS, "location") + " = ?";
+
+		List<CareSite> results = getEntityDao().select(where, args, null, 0, 1);
 		if (results.size() > 0) {
 			return results.get(0);
 		} else
@@ -49,29 +48,22 @@ public class CareSiteServiceImp extends BaseEntityServiceImp<CareSite, CareSiteD
 
 	@Transactional(readOnly = true)
 	public CareSite searchByNameAndLocation(String careSiteName, Location location) {
-		EntityManager em = getEntityDao().getEntityManager();
-		String queryString = "SELECT t FROM CareSite t WHERE";
-		
 		// Construct where clause here.
-		String where_clause = "";
+		List<String> conditions = new ArrayList<String>();
+		List<Object> args = new ArrayList<Object>();
 		if (careSiteName != null)  {
-			where_clause = "careSiteName like :cName";
+			conditions.add(getMapping().qualify(ALIAS, "careSiteName") + " LIKE ?");
+			args.add(careSiteName);
 		}
 		
 		if (location != null) {
-			if (where_clause == "") where_clause = "location = :location";
-			else where_clause += " AND location = :location";
+			conditions.add(getMapping().qualify(ALIAS, "location") + " = ?");
+			args.add(location.getId());
 		}
 		
-		queryString += " "+where_clause;
-		System.out.println("Query for FPerson"+queryString);
-		
-		TypedQuery<? extends CareSite> query = em.createQuery(queryString, CareSite.class);
-		if (careSiteName != null) query = query.setParameter("cName", careSiteName);
-		if (location != null) query = query.setParameter("location", location);
-		
-		System.out.println("cName:"+careSiteName);
-		List<? extends CareSite> results = query.getResultList();
+		if (conditions.isEmpty()) return null;
+
+		List<CareSite> results = getEntityDao().select(String.join(" AND ", conditions), args, null, 0, 1);
 		if (results.size() > 0) {
 			return results.get(0);
 		} else {
@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package edu.gatech.chai.omopv5.dba.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import edu.gatech.chai.omopv5.dba.util.BoundedCache;
+import edu.gatech.chai.omopv5.model.entity.Concept;
+import edu.gatech.chai.omopv5.sqlrender.dao.BaseEntityDao;
+import edu.gatech.chai.omopv5.sqlrender.dao.ConceptDao;
+import edu.gatech.chai.omopv5.sqlrender.dao.TableMapping;
+
+/**
+ * ConceptLookupService on plain JDBC. Same lookups and caches as the jpabase
+ * one: exact (vocabulary_id, concept_code) matches, so the index on those
+ * columns is used.
+ */
+@Service
+public class ConceptLookupServiceImp implements ConceptLookupService {
+	private static final Logger logger = LoggerFactory.getLogger(ConceptLookupServiceImp.class);
+	private static final int CODE_CHUNK_SIZE = 1000;
+
+	@Autowired
+	private ConceptDao conceptDao;
+
+	private BoundedCache<String, Optional<Concept>> conceptCache;
+	private BoundedCache<String, List<Long>> conceptIdCache;
+
+	@Autowired
+	public ConceptLookupServiceImp(@Value("${concept.cache.maxEntries:100000}") int maxEntries,
+			@Value("${concept.cache.ttlSeconds:0}") long ttlSeconds) {
+		conceptCache = new BoundedCache<String, Optional<Concept>>(maxEntries, ttlSeconds * 1000L);
+		conceptIdCache = new BoundedCache<String, List<Long>>(maxEntries, ttlSeconds * 1000L);
+	}
+
+	@Transactional(readOnly = true)
+	public Concept findByVocabularyIdAndCode(String vocabularyId, String conceptCode) {
+		if (vocabularyId == null || conceptCode == null) return null;
+
+		String key = vocabularyId + "|" + conceptCode;
+		Optional<Concept> cached = conceptCache.get(key);
+		if (cached != null) {
+			return cached.orElse(null);
+		}
+
+		List<Object> args = new ArrayList<Object>();
+		args.add(vocabularyId);
+		args.add(conceptCode);
+		List<Concept> concepts = conceptDao.select(vocabularyAndCode(BaseEntityDao.ALIAS) + " = ?", args, null, 0, 1);
+
+		Concept concept = null;
+		if (!concepts.isEmpty()) {
+			concept = concepts.get(0);
+		} else {
+			logger.debug("Concept not found for " + key);
+		}
+
+		conceptCache.put(key, Optional.ofNullable(concept));
+		return concept;
+	}
+
+	@Transactional(readOnly = true)
+	public List<Long> findConceptIdsByVocabularyIdAndCode(String vocabularyId, String conceptCode) {
+		if (vocabularyId == null || conceptCode == null) return Collections.emptyList();
+
+		String key = vocabularyId + "|" + conceptCode;
+		List<Long> cached = conceptIdCache.get(key);
+		if (cached != null) {
+			return cached;
+		}
+
+		TableMapping mapping = conceptDao.getMapping();
+		String sql = "SELECT " + mapping.qualify("c", TableMapping.ID_ATTRIBUTE) + " FROM "
+				+ mapping.from(conceptDao.getSchemaPrefix(), "c") + " WHERE " + vocabularyAndCode("c") + " = ?";
+		List<Long> conceptIds = conceptDao.getJdbcTemplate().queryForList(sql, Long.class, vocabularyId, conceptCode);
+
+		conceptIds = Collections.unmodifiableList(conceptIds);
+		conceptIdCache.put(key, conceptIds);
+		return conceptIds;
+	}
+
+	@Transactional(readOnly = true)
+	public List<Long> findConceptIdsByVocabularyIdAndCodes(String vocabularyId, Collection<String> conceptCodes) {
+		List<Long> conceptIds = new ArrayList<Long>();
+		if (vocabularyId == null || conceptCodes == null) return conceptIds;
+
+		List<String> misses = new ArrayList<String>();
+		for (String conceptCode : new LinkedHashSet<String>(conceptCodes)) {
+			if (conceptCode == null) continue;
+
+			List<Long> cached = conceptIdCache.get(vocabularyId + "|" + conceptCode);
+			if (cached != null) {
+				conceptIds.addAll(cached);
+			} else {
+				misses.add(conceptCode);
+			}
+		}
+		if (misses.isEmpty()) return conceptIds;
+
+		Map<String, List<Long>> found = findConceptIds(vocabularyId, misses);
+
+		for (String conceptCode : misses) {
+			List<Long> ids = found.get(conceptCode);
+			ids = ids == null ? Collections.<Long>emptyList() : Collections.unmodifiableList(ids);
+
+			conceptIdCache.put(vocabularyId + "|" + conceptCode, ids);
+			conceptIds.addAll(ids);
+		}
+
+		return conceptIds;
+	}
+
+	/**
+	 * Runs the (concept code, concept id) query for the codes, in chunks to stay
+	 * below the bind parameter limit. Ids are grouped by code.
+	 */
+	private Map<String, List<Long>> findConceptIds(String vocabularyId, List<String> conceptCodes) {
+		TableMapping mapping = conceptDao.getMapping();
+		String select = "SELECT " + mapping.qualify("c", "conceptCode") + ", "
+				+ mapping.qualify("c", TableMapping.ID_ATTRIBUTE) + " FROM "
+				+ mapping.from(conceptDao.getSchemaPrefix(), "c") + " WHERE "
+				+ mapping.qualify("c", "vocabulary") + " = ? AND " + mapping.qualify("c", "conceptCode") + " IN (";
+
+		final Map<String, List<Long>> found = new HashMap<String, List<Long>>();
+		for (int i = 0; i < conceptCodes.size(); i += CODE_CHUNK_SIZE) {
+			List<String> chunk = conceptCodes.subList(i, Math.min(i + CODE_CHUNK_SIZE, conceptCodes.size()));
+			List<Object> args = new ArrayList<Object>();
+			args.add(vocabularyId);
+			args.addAll(chunk);
+
+			String sql = select + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+			conceptDao.getJdbcTemplate().query(sql, args.toArray(), rs -> {
+				String conceptCode = rs.getString(1);
+				List<Long> ids = found.get(conceptCode);
+				if (ids == null) {
+					ids = new ArrayList<Long>();
+					found.put(conceptCode, ids);
+				}
+				ids.add(rs.getLong(2));
+			});
+		}
+
+		return found;
+	}
+
+	/**
+	 * "vocabulary_id = ? AND concept_code" on the given alias. The caller adds
+	 * the comparison of the code.
+	 */
+	private String vocabularyAndCode(String alias) {
+		TableMapping mapping = conceptDao.getMapping();
+		return mapping.qualify(alias, "vocabulary") + " = ? AND " + mapping.qualify(alias, "conceptCode");
+	}
+
+	public void clearCache() {
+		conceptCache.clear();
+		conceptIdCache.clear();
+	}
+}
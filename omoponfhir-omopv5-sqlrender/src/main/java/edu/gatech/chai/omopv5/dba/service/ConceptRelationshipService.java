@@ -14,19 +14,10 @@
  * limitations under the License.
  *
  *******************************************************************************/
-package edu.gatech.chai.omopv5.sqlrender.dao;
+package edu.gatech.chai.omopv5.dba.service;
 
-import javax.persistence.EntityManager;
-import javax.persistence.PersistenceContext;
+import edu.gatech.chai.omopv5.model.entity.ConceptRelationship;
 
-import org.springframework.stereotype.Repository;
+public interface ConceptRelationshipService extends IService<ConceptRelationship> {
 
-@Repository
-public class TransactionDao {
-	@PersistenceContext
-	private EntityManager em;
-
-	public EntityManager getEntityManager() {
-		return em;
-	}
 }
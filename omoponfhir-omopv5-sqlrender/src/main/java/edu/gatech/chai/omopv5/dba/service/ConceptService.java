@@ -17,9 +17,11 @@
 package edu.gatech.chai.omopv5.dba.service;
 
 import java.util.List;
+import java.util.Map;
 
 import edu.gatech.chai.omopv5.model.entity.Concept;
 
 public interface ConceptService extends IService<Concept> {
 	public List<Concept> getIngredient(Concept concept);
+	public Map<Long, List<Concept>> getIngredients(List<Concept> concepts);
 }
@@ -16,19 +16,16 @@
  *******************************************************************************/
 package edu.gatech.chai.omopv5.dba.service;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
-import javax.persistence.EntityManager;
-import javax.persistence.TypedQuery;
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.Root;
-
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import edu.gatech.chai.omopv5.model.entity.FObservationView;
 import edu.gatech.chai.omopv5.sqlrender.dao.FObservationViewDao;
+import edu.gatech.chai.omopv5.sqlrender.dao.TableMapping;
 
 @Service
 public class FObservationViewServiceImp extends BaseEntityServiceImp<FObservationView, FObservationViewDao> implements FObservationViewService {
@@ -37,19 +34,20 @@ public class FObservationViewServiceImp extends BaseEntityServiceImp<FObservatio
 		super(FObservationView.class);
 	}
 	
+	@Transactional(readOnly = true)
 	public FObservationView findDiastolic(Long conceptId, Long personId, Date date, String time) {
-		EntityManager em = getEntityDao().getEntityManager();
-		CriteriaBuilder builder = em.getCriteriaBuilder();
-		CriteriaQuery<FObservationView> criteria = builder.createQuery(FObservationView.class);
-		Root<FObservationView> from = criteria.from(FObservationView.class);
-		criteria.select(from).where(
-				builder.equal(from.get("observationConcept").get("id"), conceptId),
-				builder.equal(from.get("fPerson").get("id"), personId),
-				builder.equal(from.get("date"), date),
-				builder.equal(from.get("time"),  time)
-				);
-		TypedQuery<FObservationView> query = em.createQuery(criteria);
-		List<FObservationView> results = query.getResultList();
+		TableMapping mapping = getMapping();
+		String where = mapping.qualify(ALIAS, "observationConcept") + " = ?"
+				+ " AND " + mapping.qualify(ALIAS, "fPerson") + " = ?"
+				+ " AND " + mapping.qualify(ALIAS, "date") + " = ?"
+				+ " AND " + mapping.qualify(ALIAS, "time") + " = ?";
+		List<Object> args = new ArrayList<Object>();
+		args.add(conceptId);
+		args.add(personId);
+		args.add(date);
+		args.add(time);
+
+		List<FObservationView> results = getEntityDao().select(where, args, null, 0, 1);
 		if (results.size() > 0) {
 			return results.get(0);				
 		} else {
@@ -19,15 +19,9 @@ package edu.gatech.chai.omopv5.dba.service;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.persistence.EntityManager;
-import javax.persistence.TypedQuery;
-
-import org.ohdsi.sql.SqlRender;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import com.fasterxml.jackson.annotation.JsonProperty;
-
 import edu.gatech.chai.omopv5.model.entity.FPerson;
 import edu.gatech.chai.omopv5.model.entity.Location;
 import edu.gatech.chai.omopv5.sqlrender.dao.FPersonDao;
@@ -39,48 +33,34 @@ public class FPersonServiceImp extends BaseEntityServiceImp<FPerson, FPersonDao>
 		super(FPerson.class);
 	}
 	
+	@Transactional(readOnly = true)
 	public FPerson searchByNameAndLocation(String familyName, String given1Name, String given2Name, Location location) {
-		String queryString = "SELECT t FROM "+FPerson.tableName+" t WHERE";
-		
 		// Construct where clause here.
-		String where_clause = "";
-		List<String> parameters = new ArrayList<String>();
-		List<String> values = new ArrayList<String>();
+		List<String> conditions = new ArrayList<String>();
+		List<Object> args = new ArrayList<Object>();
 		
 		if (familyName != null)  {
-			String column = FPerson.class.getField(familyName).getAnnotation(JsonProperty.class).value();
-			where_clause = column+" like @familyName";
-			
+			conditions.add(getMapping().qualify(ALIAS, "familyName") + " LIKE ?");
+			args.add(familyName);
 		}
 		
 		if (given1Name != null) {
-			if (where_clause == "") where_clause = "givenName1 like :gname1";
-			else where_clause += " AND givenName1 like :gname1";
+			conditions.add(getMapping().qualify(ALIAS, "givenName1") + " LIKE ?");
+			args.add(given1Name);
 		}
 		if (given2Name != null) {
-			if (where_clause == "") where_clause = "givenName2 like :gname2";
-			else where_clause += " AND givenName2 like :gname2";
+			conditions.add(getMapping().qualify(ALIAS, "givenName2") + " LIKE ?");
+			args.add(given2Name);
 		}
 		
 		if (location != null) {
-			if (where_clause == "") where_clause = "location = :location";
-			else where_clause += " AND location = :location";
+			conditions.add(getMapping().qualify(ALIAS, "location") + " = ?");
+			args.add(location.getId());
 		}
 		
-		queryString += " "+where_clause;
-		
-		SqlRender.renderSql(queryString, parameters, values);
+		if (conditions.isEmpty()) return null;
 
-		System.out.println("Query for FPerson"+queryString);
-		
-		TypedQuery<? extends FPerson> query = em.createQuery(queryString, FPerson.class);
-		if (familyName != null) query = query.setParameter("fname", familyName);
-		if (given1Name != null) query = query.setParameter("gname1", given1Name);
-		if (given2Name != null) query = query.setParameter("gname2", given2Name);
-		if (location != null) query = query.setParameter("location", location);
-		
-		System.out.println("family:"+familyName+" gname1:"+given1Name+" gname2"+given2Name);
-		List<? extends FPerson> results = query.getResultList();
+		List<FPerson> results = getEntityDao().select(String.join(" AND ", conditions), args, null, 0, 1);
 		if (results.size() > 0) {
 			return results.get(0);
 		} else
@@ -1,10 +1,9 @@
 package edu.gatech.chai.omopv5.dba.service;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
-import javax.persistence.EntityManager;
-
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -13,6 +12,7 @@ import edu.gatech.chai.omopv5.model.entity.Concept;
 import edu.gatech.chai.omopv5.model.entity.FactRelationship;
 import edu.gatech.chai.omopv5.model.entity.Note;
 import edu.gatech.chai.omopv5.sqlrender.dao.FactRelationshipDao;
+import edu.gatech.chai.omopv5.sqlrender.dao.TableMapping;
 
 @Service
 public class FactRelationshipServiceImp extends BaseEntityServiceImp<FactRelationship, FactRelationshipDao>
@@ -26,16 +26,18 @@ public class FactRelationshipServiceImp extends BaseEntityServiceImp<FactRelatio
 	public <V extends BaseEntity> List<V> searchMeasurementUsingMethod(Long domainId) {
 		List<V> retVal = new ArrayList<V>();
 
-		EntityManager em = getEntityDao().getEntityManager();
-
 		// Concept ID:
 		// 21 = Measurement, 27 = Observation,
 		// 44818800 = Using finding method
 		// 58 = Type Concept, 26 = Note Type
 		// 44818721 = Contains
-		String query = "SELECT t FROM FactRelationship t WHERE domain_concept_id_1 = 21 AND relationship_concept_id = 44818800 AND fact_id_1 = :fact1";
-		List<FactRelationship> results = em.createQuery(query, FactRelationship.class).setParameter("fact1", domainId)
-				.getResultList();
+		TableMapping mapping = getMapping();
+		String where = mapping.qualify(ALIAS, "domainConcept1") + " = 21 AND "
+				+ mapping.qualify(ALIAS, "relationshipConcept") + " = 44818800 AND "
+				+ mapping.qualify(ALIAS, "factId1") + " = ?";
+		List<Object> args = new ArrayList<Object>();
+		args.add(domainId);
+		List<FactRelationship> results = getEntityDao().select(where, args, null, 0, 0);
 
 		if (results.size() > 0) {
 			for (FactRelationship result : results) {
@@ -60,12 +62,15 @@ public class FactRelationshipServiceImp extends BaseEntityServiceImp<FactRelatio
 	public List<Note> searchMeasurementContainsComments(Long domainId) {
 		List<Note> retVal = new ArrayList<Note>();
 
-		EntityManager em = getEntityDao().getEntityManager();
-
 		// 44818721 = Contains
-		String query = "SELECT t FROM FactRelationship t WHERE domain_concept_id_1 = 21 AND fact_id_1 = :fact1 AND domain_concept_id_2 = 26 AND relationship_concept_id = 44818721";
-		List<FactRelationship> results = em.createQuery(query, FactRelationship.class).setParameter("fact1", domainId)
-				.getResultList();
+		TableMapping mapping = getMapping();
+		String where = mapping.qualify(ALIAS, "domainConcept1") + " = 21 AND "
+				+ mapping.qualify(ALIAS, "factId1") + " = ? AND "
+				+ mapping.qualify(ALIAS, "domainConcept2") + " = 26 AND "
+				+ mapping.qualify(ALIAS, "relationshipConcept") + " = 44818721";
+		List<Object> args = new ArrayList<Object>();
+		args.add(domainId);
+		List<FactRelationship> results = getEntityDao().select(where, args, null, 0, 0);
 		if (results.size() > 0) {
 			for (FactRelationship result : results) {
 				Long fact2 = result.getFactId2();
@@ -76,28 +81,51 @@ public class FactRelationshipServiceImp extends BaseEntityServiceImp<FactRelatio
 		return retVal;
 	}
 
+	/**
+	 * Loads the method (44818800 = Using finding method) and comment (44818721 =
+	 * Contains) relationships of the given measurements with IN (...) queries.
+	 * This is used to map a page of measurements without querying
+	 * fact_relationship for every row.
+	 */
+	@Transactional(readOnly = true)
+	public List<FactRelationship> searchMeasurementMethodsAndComments(List<Long> domainIds) {
+		List<FactRelationship> retVal = new ArrayList<FactRelationship>();
+		if (domainIds == null || domainIds.isEmpty()) return retVal;
+
+		TableMapping mapping = getMapping();
+		String where = mapping.qualify(ALIAS, "domainConcept1") + " = 21 AND "
+				+ mapping.qualify(ALIAS, "relationshipConcept") + " IN (44818800, 44818721) AND "
+				+ mapping.qualify(ALIAS, "factId1") + " IN (";
+		for (int i = 0; i < domainIds.size(); i += ID_CHUNK_SIZE) {
+			List<Long> chunk = domainIds.subList(i, Math.min(i + ID_CHUNK_SIZE, domainIds.size()));
+			String chunkWhere = where + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+			retVal.addAll(getEntityDao().select(chunkWhere, new ArrayList<Object>(chunk), null, 0, 0));
+		}
+
+		return retVal;
+	}
+
 	@Transactional(readOnly = true)
 	public List<FactRelationship> searchFactRelationship(Long domainConcept1, Long factId1, Long domainConcept2,
 			Long factId2, Long relationshipId) {
 
-		EntityManager em = getEntityDao().getEntityManager();
-
-		String query;
-		List<FactRelationship> factRelationships;
+		TableMapping mapping = getMapping();
+		String where = mapping.qualify(ALIAS, "domainConcept1") + " = ? AND "
+				+ mapping.qualify(ALIAS, "factId1") + " = ? AND "
+				+ mapping.qualify(ALIAS, "domainConcept2") + " = ? AND "
+				+ mapping.qualify(ALIAS, "relationshipConcept") + " = ?";
+		List<Object> args = new ArrayList<Object>();
+		args.add(domainConcept1);
+		args.add(factId1);
+		args.add(domainConcept2);
+		args.add(relationshipId);
 		if (factId2 != null) {
-			query = "SELECT t FROM FactRelationship t WHERE domain_concept_id_1 = :domain1 AND fact_id_1 = :fact1 AND domain_concept_id_2 = :domain2 AND fact_id_2 = :fact2 AND relationship_concept_id = :relationship";
-			factRelationships = em.createQuery(query, FactRelationship.class)
-					.setParameter("domain1", domainConcept1.intValue()).setParameter("domain2", domainConcept2.intValue())
-					.setParameter("fact1", factId1.intValue()).setParameter("fact2", factId2.intValue())
-					.setParameter("relationship", relationshipId.intValue()).getResultList();
-		} else {
-			query = "SELECT t FROM FactRelationship t WHERE domain_concept_id_1 = :domain1 AND fact_id_1 = :fact1 AND domain_concept_id_2 = :domain2 AND relationship_concept_id = :relationship";
-			factRelationships = em.createQuery(query, FactRelationship.class)
-					.setParameter("domain1", domainConcept1.intValue()).setParameter("domain2", domainConcept2.intValue())
-					.setParameter("fact1", factId1.intValue())
-					.setParameter("relationship", relationshipId.intValue()).getResultList();
+			where += " AND " + mapping.qualify(ALIAS, "factId2") + " = ?";
+			args.add(factId2);
 		}
 
+		List<FactRelationship> factRelationships = getEntityDao().select(where, args, null, 0, 0);
+
 		return factRelationships;
 	}
 
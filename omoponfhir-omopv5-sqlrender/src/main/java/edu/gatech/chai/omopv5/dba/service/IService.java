@@ -26,10 +26,18 @@ public interface IService<v extends BaseEntity> {
 	v findById (Long id);
 	public Long removeById (Long id);
 	List<v> searchByColumnString (String column, String value);
+	public List<v> searchByIds(List<Long> ids);
 	public List<v> searchWithParams(int fromIndex, int toIndex, List<ParameterWrapper> paramList, String sort);
+	public List<v> searchWithParams(int fromIndex, int toIndex, List<ParameterWrapper> paramList, String sort, KeysetCursor cursor);
 	public List<v> searchWithoutParams(int fromIndex, int toIndex, String sort);
+	public List<v> searchWithoutParams(int fromIndex, int toIndex, String sort, KeysetCursor cursor);
+	public void streamWithParams(List<ParameterWrapper> paramList, String sort, EntityCallback<v> callback);
+	public void streamWithParams(List<ParameterWrapper> paramList, String sort, int chunkSize, EntityChunkCallback<v> callback);
+	public Long searchWithCount(int fromIndex, int toIndex, List<ParameterWrapper> paramList, String sort, List<v> page);
+	public Long searchWithCount(int fromIndex, int toIndex, List<ParameterWrapper> paramList, String sort, List<v> page, KeysetCursor cursor);
 	v create(v entity);
 	v update(v entity);
 	Long getSize();
 	Long getSize(List<ParameterWrapper> paramList);
+	Long getSizeEstimate(List<ParameterWrapper> paramList);
 }
@@ -16,15 +16,15 @@
  *******************************************************************************/
 package edu.gatech.chai.omopv5.dba.service;
 
+import java.util.ArrayList;
 import java.util.List;
 
-import javax.persistence.EntityManager;
-
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import edu.gatech.chai.omopv5.model.entity.Location;
 import edu.gatech.chai.omopv5.sqlrender.dao.LocationDao;
+import edu.gatech.chai.omopv5.sqlrender.dao.TableMapping;
 
 @Service
 public class LocationServiceImp extends BaseEntityServiceImp<Location, LocationDao> implements LocationService {
@@ -35,30 +35,22 @@ public class LocationServiceImp extends BaseEntityServiceImp<Location, LocationD
 	
 	@Transactional(readOnly = true)
 	public Location searchByAddress(String line1, String line2, String city, String state, String zipCode) {
-		EntityManager em = getEntityDao().getEntityManager();
-		String query;
-		List<Location> results;
-		
+		TableMapping mapping = getMapping();
+		List<Object> args = new ArrayList<Object>();
+		String where = mapping.qualify(ALIAS, "address1") + " LIKE ?";
+		args.add(line1);
 		if (line2 != null) {
-			query = "SELECT t FROM Location t WHERE address1 LIKE :line1 AND address2 LIKE :line2 AND city LIKE :city AND state LIKE :state AND zipCode LIKE :zip";
-			results = em.createQuery(query, Location.class)
-					.setParameter("line1", line1)
-					.setParameter("line2", line2)
-					.setParameter("city", city)
-					.setParameter("state", state)
-					.setParameter("zip", zipCode)
-					.getResultList();
-		} else { 
-			query = "SELECT t FROM Location t WHERE address1 LIKE :line1 AND city LIKE :city AND state LIKE :state AND zipCode LIKE :zip";
-			results = em.createQuery(query, Location.class)
-					.setParameter("line1", line1)
-					.setParameter("city", city)
-					.setParameter("state", state)
-					.setParameter("zip", zipCode)
-					.getResultList();
+			where += " AND " + mapping.qualify(ALIAS, "address2") + " LIKE ?";
+			args.add(line2);
 		}
-
-		System.out.println("loadEntityByLocaiton:"+query+" result size:"+results.size());
+		where += " AND " + mapping.qualify(ALIAS, "city") + " LIKE ?"
+				+ " AND " + mapping.qualify(ALIAS, "state") + " LIKE ?"
+				+ " AND " + mapping.qualify(ALIAS, "zipCode") + " LIKE ?";
+		args.add(city);
+		args.add(state);
+		args.add(zipCode);
+
+		List<Location> results = getEntityDao().select(where, args, null, 0, 1);
 		if (results.size() > 0)
 			return results.get(0);
 		else
@@ -16,27 +16,28 @@
  *******************************************************************************/
 package edu.gatech.chai.omopv5.dba.service;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.Path;
-import javax.persistence.criteria.Predicate;
-import javax.persistence.criteria.Root;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import edu.gatech.chai.omopv5.model.entity.BaseEntity;
+import edu.gatech.chai.omopv5.sqlrender.dao.TableMapping;
 
 /**
  * ParameterWrapper for database operations.
  * 
  * paramterType stores variable type such as String, Short, etc.
- * constructPredicate() method should convert this to appropriate type for the
+ * constructWhere() method should convert this to appropriate type for the
  * database.
  * 
  * parameters store column name(s).
@@ -65,12 +66,34 @@ import edu.gatech.chai.omopv5.model.entity.BaseEntity;
  * The order should be parameter(left)-operator-value(right). So, put the
  * operator in this order.
  * 
+ * For numeric types, a single "in" operator compares the parameter with all
+ * values in one IN (...). eg) parameters: "drugConcept.id" values: "1127433",
+ * "1127078" operator: "in". No values match nothing. Integer values above
+ * IN_LIST_LIMIT are sent as one array on postgresql, and as IN lists of
+ * IN_LIST_LIMIT values otherwise.
+ * 
+ * For Code:In, an "in" operator compares its parameter with its value and all
+ * values after it. eg) parameters: "drugConcept.vocabulary.id",
+ * "drugConcept.conceptCode" values: "RxNorm", "1049502", "1049640" operators:
+ * "=", "in".
+ * 
  * @author mc142
  *
  */
 public class ParameterWrapper {
 
 	private static final Logger logger = LoggerFactory.getLogger(ParameterWrapper.class);
+	public static final int IN_LIST_LIMIT = 100;
+	private static final Set<String> PARAMETER_TYPES = new HashSet<String>(
+			Arrays.asList("String", "Code:In", "Date", "Short", "Long", "Double", "Integer"));
+	private static final Map<String, Class<?>> NUMBER_TYPES = new HashMap<String, Class<?>>();
+	static {
+		NUMBER_TYPES.put("Short", Short.class);
+		NUMBER_TYPES.put("Long", Long.class);
+		NUMBER_TYPES.put("Double", Double.class);
+		NUMBER_TYPES.put("Integer", Integer.class);
+	}
+
 	private String parameterType;
 	private List<String> parameters;
 	private List<String> operators;
@@ -139,22 +162,37 @@ public class ParameterWrapper {
 		this.upperRelationship = upperRelationship;
 	}
 
-	public static List<Predicate> constructPredicate(CriteriaBuilder builder, List<ParameterWrapper> paramList,
-			Root<? extends BaseEntity> rootUser) {
-		List<Predicate> predicates = new ArrayList<Predicate>();
-		Predicate where = null;
+	/**
+	 * Builds the SQL condition for paramList on the table of the mapping. This
+	 * has the same semantics as constructPredicate() in jpabase: parameters are
+	 * combined with relationship, and parameter groups with upperRelationship.
+	 * 
+	 * Values are not put in the SQL. They are added to args in the order of the
+	 * ? placeholders. The SQL only depends on the shape of the parameters, and
+	 * on the dialect for large numeric "in" lists.
+	 * 
+	 * Returns null if paramList is empty.
+	 */
+	public static String constructWhere(List<ParameterWrapper> paramList, TableMapping mapping, String schemaPrefix,
+			String alias, String dialect, List<Object> args) {
+		String where = null;
 
 		// paramList has FHIR parameters mapped Omop parameters (or columns).
 		for (ParameterWrapper param : paramList) {
-			Predicate subWhere;
-			if (param.getRelationship() == null || param.getRelationship().equalsIgnoreCase("or"))
-				subWhere = builder.disjunction();
-			else
-				subWhere = builder.conjunction();
-
-			switch (param.getParameterType()) {
-			case "String":
-				logger.debug("String parameter type found.");
+			boolean or = param.getRelationship() == null || param.getRelationship().equalsIgnoreCase("or");
+			List<String> conditions = new ArrayList<String>();
+
+			String paramType = param.getParameterType();
+			if (NUMBER_TYPES.containsKey(paramType) && param.getOperators().size() == 1
+					&& param.getOperators().get(0).equalsIgnoreCase("in")) {
+				logger.debug(paramType + " parameter type found.");
+				List<Object> values = toColumnType(param.getValues(), NUMBER_TYPES.get(paramType));
+				boolean array = values.size() > IN_LIST_LIMIT && !paramType.equals("Double")
+						&& "postgresql".equals(dialect);
+				conditions.add(mapping.condition(schemaPrefix, alias, param.getParameters().get(0),
+						(column, type) -> array ? arrayCondition(column, values, args) : inCondition(column, values, args)));
+			} else if (PARAMETER_TYPES.contains(paramType)) {
+				logger.debug(paramType + " parameter type found.");
 				String attributeName = null;
 				String valueName = null;
 				for (Iterator<String> attributeIter = param.getParameters().iterator(), operIter = param.getOperators()
@@ -169,276 +207,167 @@ public class ParameterWrapper {
 					logger.debug("--- Attribute name:" + attributeName);
 					logger.debug("--- value:" + valueName);
 					logger.debug("--- operator:" + oper);
-					Path<String> path;
-					String[] columnPath = attributeName.split("\\.");
-					if (columnPath.length == 2) {
-						path = rootUser.get(columnPath[0]).get(columnPath[1]);
-					} else if (columnPath.length == 3) {
-						path = rootUser.get(columnPath[0]).get(columnPath[1]).get(columnPath[2]);
-					} else {
-						path = rootUser.get(attributeName);
-					}
 
-					if (oper.equalsIgnoreCase("like")) {
-						if (param.getRelationship() == null || param.getRelationship().equals("or")) {
-							subWhere = builder.or(subWhere, builder.like(builder.lower(path), valueName.toLowerCase()));
-						} else {
-							subWhere = builder.and(subWhere, builder.like(builder.lower(path), valueName.toLowerCase()));
-						}
-					} else if (oper.equalsIgnoreCase("=")) {
-						if (param.getRelationship() == null || param.getRelationship().equals("or")) {
-							subWhere = builder.or(subWhere, builder.equal(path, valueName));
-						} else {
-							subWhere = builder.and(subWhere, builder.equal(path, valueName));
-						}
-					} else if (oper.equalsIgnoreCase("!=")) {
-						if (param.getRelationship() == null || param.getRelationship().equals("or")) {
-							subWhere = builder.or(subWhere, builder.notEqual(path, valueName));
-						} else {
-							subWhere = builder.and(subWhere, builder.notEqual(path, valueName));
+					if (paramType.equals("Code:In") && oper.equalsIgnoreCase("in")) {
+						List<String> codes = new ArrayList<String>();
+						codes.add(valueName);
+						while (valueIter.hasNext()) {
+							codes.add(valueIter.next());
 						}
-					} else {
-						if (param.getRelationship() == null || param.getRelationship().equals("or")) {
-							subWhere = builder.or(subWhere, builder.notLike(builder.lower(path), valueName.toLowerCase()));
-						} else {
-							subWhere = builder.and(subWhere, builder.notLike(builder.lower(path), valueName.toLowerCase()));
-						}
-					}
-				}
-				break;
-			case "Code:In":
-				logger.debug("Code:In parameter type found.");
-				attributeName = null;
-				valueName = null;
-				for (Iterator<String> attributeIter = param.getParameters().iterator(), operIter = param.getOperators()
-						.iterator(), valueIter = param.getValues()
-								.iterator(); (attributeIter.hasNext() || valueIter.hasNext()) && operIter.hasNext();) {
-
-					if (attributeIter.hasNext())
-						attributeName = attributeIter.next();
-					if (valueIter.hasNext())
-						valueName = valueIter.next();
-					String oper = operIter.next();
-					logger.debug("--- Attribute name:" + attributeName);
-					logger.debug("--- value:" + valueName);
-					logger.debug("--- operator:" + oper);
-					Path<String> path;
-					String[] columnPath = attributeName.split("\\.");
-					if (columnPath.length == 2) {
-						path = rootUser.get(columnPath[0]).get(columnPath[1]);
-					} else if (columnPath.length == 3) {
-						path = rootUser.get(columnPath[0]).get(columnPath[1]).get(columnPath[2]);
-					} else {
-						path = rootUser.get(attributeName);
+						conditions.add(mapping.condition(schemaPrefix, alias, attributeName,
+								(column, type) -> inCondition(column, toColumnType(codes, type), args)));
+						continue;
 					}
 
-					if (oper.equalsIgnoreCase("like")) {
-						if (param.getRelationship() == null || param.getRelationship().equals("or")) {
-							subWhere = builder.or(subWhere, builder.like(path, valueName));
-						} else {
-							subWhere = builder.and(subWhere, builder.like(path, valueName));
-						}
-					} else if (oper.equalsIgnoreCase("=")) {
-						if (param.getRelationship() == null || param.getRelationship().equals("or")) {
-							subWhere = builder.or(subWhere, builder.equal(path, valueName));
-						} else {
-							subWhere = builder.and(subWhere, builder.equal(path, valueName));
-						}
-					} else if (oper.equalsIgnoreCase("!=")) {
-						if (param.getRelationship() == null || param.getRelationship().equals("or")) {
-							subWhere = builder.or(subWhere, builder.notEqual(path, valueName));
-						} else {
-							subWhere = builder.and(subWhere, builder.notEqual(path, valueName));
-						}
-					} else if (oper.equalsIgnoreCase("in")) {
-						if (param.getRelationship() == null || param.getRelationship().equals("or")) {
-							subWhere = builder.or(subWhere, builder.notLike(path, valueName));
-						} else {
-							subWhere = builder.and(subWhere, builder.notLike(path, valueName));
-						}
-					} else {
-						if (param.getRelationship() == null || param.getRelationship().equals("or")) {
-							subWhere = builder.or(subWhere, builder.notLike(path, valueName));
-						} else {
-							subWhere = builder.and(subWhere, builder.notLike(path, valueName));
-						}
-					}
+					final String value = valueName;
+					conditions.add(mapping.condition(schemaPrefix, alias, attributeName,
+							(column, type) -> constructCondition(paramType, column, type, oper, value, args)));
 				}
-				break;
-			case "Date":
-				logger.debug("Numeric parameter type found.");
-				attributeName = null;
-				valueName = null;
-				for (Iterator<String> attributeIter = param.getParameters().iterator(), operIter = param.getOperators()
-						.iterator(), valueIter = param.getValues()
-								.iterator(); (attributeIter.hasNext() || valueIter.hasNext()) && operIter.hasNext();) {
-
-					if (attributeIter.hasNext())
-						attributeName = attributeIter.next();
-					if (valueIter.hasNext())
-						valueName = valueIter.next();
-					String oper = operIter.next();
-					logger.debug("--- Attribute name:" + attributeName);
-					logger.debug("--- value:" + valueName);
-					logger.debug("--- operator:" + oper);
-					Long dateInMili = Long.valueOf(valueName);
-					Date value = new Date(dateInMili);
-
-					Path<Date> path;
-					String[] columnPath = attributeName.split("\\.");
-					if (columnPath.length == 2) {
-						path = rootUser.get(columnPath[0]).get(columnPath[1]);
-					} else if (columnPath.length == 3) {
-						path = rootUser.get(columnPath[0]).get(columnPath[1]).get(columnPath[2]);
-					} else {
-						path = rootUser.get(attributeName);
-					}
+			}
 
-					if (oper.equalsIgnoreCase("=")) {
-						if (param.getRelationship() == null || param.getRelationship().equals("or")) {
-							subWhere = builder.or(subWhere, builder.equal(path, value));
-						} else {
-							subWhere = builder.and(subWhere, builder.equal(path, value));
-						}
-					} else if (oper.equalsIgnoreCase("!=")) {
-						if (param.getRelationship() == null || param.getRelationship().equals("or")) {
-							subWhere = builder.or(subWhere, builder.notEqual(path, value));
-						} else {
-							subWhere = builder.and(subWhere, builder.notEqual(path, value));
-						}
-					} else if (oper.equalsIgnoreCase("<"))
-						if (param.getRelationship() == null || param.getRelationship().equals("or")) {
-							subWhere = builder.or(subWhere, builder.lessThan(path, value));
-						} else {
-							subWhere = builder.and(subWhere, builder.lessThan(path, value));
-						}
-					else if (oper.equalsIgnoreCase("<="))
-						if (param.getRelationship() == null || param.getRelationship().equals("or")) {
-							subWhere = builder.or(subWhere, builder.lessThanOrEqualTo(path, value));
-						} else {
-							subWhere = builder.and(subWhere, builder.lessThanOrEqualTo(path, value));
-						}
-					else if (oper.equalsIgnoreCase(">")) {
-						if (param.getRelationship() == null || param.getRelationship().equals("or")) {
-							subWhere = builder.or(subWhere, builder.greaterThan(path, value));
-						} else {
-							subWhere = builder.and(subWhere, builder.greaterThan(path, value));
-						}
-					} else { // (param.getOperator().equalsIgnoreCase(">="))
-						if (param.getRelationship() == null || param.getRelationship().equals("or")) {
-							subWhere = builder.or(subWhere, builder.greaterThanOrEqualTo(path, value));
-						} else {
-							subWhere = builder.and(subWhere, builder.greaterThanOrEqualTo(path, value));
-						}
-					}
-				}
-				break;
-			case "Short":
-			case "Long":
-			case "Double":
-			case "Integer":
-				subWhere = numbericPredicateBuidler(builder, param, rootUser, subWhere, param.getParameterType());
-				break;
+			String subWhere;
+			if (conditions.isEmpty()) {
+				// Empty disjunction is false, empty conjunction is true.
+				subWhere = or ? "1=0" : "1=1";
+			} else if (conditions.size() == 1) {
+				subWhere = conditions.get(0);
+			} else {
+				subWhere = "(" + String.join(or ? " OR " : " AND ", conditions) + ")";
 			}
 
-			if (param.getUpperRelationship() != null && param.getUpperRelationship().equalsIgnoreCase("or")) {
-				if (where == null) where = builder.disjunction();
-				where = builder.or(where, subWhere);
+			if (where == null) {
+				where = subWhere;
+			} else if (param.getUpperRelationship() != null && param.getUpperRelationship().equalsIgnoreCase("or")) {
+				where = "(" + where + " OR " + subWhere + ")";
 			} else {
-				if (where == null) where = builder.conjunction();
-				where = builder.and(where, subWhere);
+				where = "(" + where + " AND " + subWhere + ")";
 			}
 		}
 
-		if (where == null)
-			return null;
-		
-		predicates.add(where);
-		return predicates;
+		return where;
 	}
 
-	public static Predicate numbericPredicateBuidler(CriteriaBuilder builder, ParameterWrapper param,
-			Root<? extends BaseEntity> rootUser, Predicate subWhere, String paramType) {
-		logger.debug("Numeric parameter type found.");
-		// We may have multiple columns to compare with 'or'. If
-		// so, get them now.
-		// for (String columnName : param.getParameters(),
-		// String oper: param.getOperators()) {
-		String attributeName = null;
-		String valueName = null;
-		for (Iterator<String> attributeIter = param.getParameters().iterator(), operIter = param.getOperators()
-				.iterator(), valueIter = param.getValues().iterator(); (attributeIter.hasNext() || valueIter.hasNext())
-						&& operIter.hasNext();) {
-
-			if (attributeIter.hasNext())
-				attributeName = attributeIter.next();
-			if (valueIter.hasNext())
-				valueName = valueIter.next();
-			String oper = operIter.next();
-			logger.debug("--- Attribute name:" + attributeName);
-			logger.debug("--- value:" + valueName);
-			logger.debug("--- operator:" + oper);
-			Number value;
-			if (paramType.equals("Short")) {
-				value = Short.valueOf(valueName);
-			} else if (paramType.equals("Long")) {
-				value = Long.valueOf(valueName);
-			} else if (paramType.equals("Double")) {
-				value = Double.valueOf(valueName);
+	private static String constructCondition(String paramType, String column, Class<?> columnType, String oper,
+			String valueName, List<Object> args) {
+		switch (paramType) {
+		case "String":
+			if (oper.equalsIgnoreCase("like")) {
+				args.add(valueName.toLowerCase());
+				return "LOWER(" + column + ") LIKE ?";
+			} else if (oper.equalsIgnoreCase("=")) {
+				args.add(toColumnType(valueName, columnType));
+				return column + " = ?";
+			} else if (oper.equalsIgnoreCase("!=")) {
+				args.add(toColumnType(valueName, columnType));
+				return column + " <> ?";
 			} else {
-				value = Integer.valueOf(valueName);
+				args.add(valueName.toLowerCase());
+				return "LOWER(" + column + ") NOT LIKE ?";
 			}
-
-			Path<Number> path;
-			String[] columnPath = attributeName.split("\\.");
-			if (columnPath.length == 2) {
-				path = rootUser.get(columnPath[0]).get(columnPath[1]);
-			} else if (columnPath.length == 3) {
-				path = rootUser.get(columnPath[0]).get(columnPath[1]).get(columnPath[2]);
+		case "Code:In":
+			if (oper.equalsIgnoreCase("like")) {
+				args.add(valueName);
+				return column + " LIKE ?";
+			} else if (oper.equalsIgnoreCase("=")) {
+				args.add(toColumnType(valueName, columnType));
+				return column + " = ?";
+			} else if (oper.equalsIgnoreCase("!=")) {
+				args.add(toColumnType(valueName, columnType));
+				return column + " <> ?";
 			} else {
-				path = rootUser.get(attributeName);
+				args.add(valueName);
+				return column + " NOT LIKE ?";
 			}
+		case "Date":
+			args.add(new Date(Long.valueOf(valueName)));
+			return column + " " + comparison(oper) + " ?";
+		default:
+			args.add(toColumnType(valueName, NUMBER_TYPES.get(paramType)));
+			return column + " " + comparison(oper) + " ?";
+		}
+	}
 
-			if (oper.equalsIgnoreCase("=")) {
-				if (param.getRelationship() == null || param.getRelationship().equals("or")) {
-					subWhere = builder.or(subWhere, builder.equal(path, value));
-				} else {
-					subWhere = builder.and(subWhere, builder.equal(path, value));
-				}
-			} else if (oper.equalsIgnoreCase("!=")) {
-				if (param.getRelationship() == null || param.getRelationship().equals("or")) {
-					subWhere = builder.or(subWhere, builder.notEqual(path, value));
-				} else {
-					subWhere = builder.and(subWhere, builder.notEqual(path, value));
-				}
-			} else if (oper.equalsIgnoreCase("<"))
-				if (param.getRelationship() == null || param.getRelationship().equals("or")) {
-					subWhere = builder.or(subWhere, builder.lt(path, value));
-				} else {
-					subWhere = builder.and(subWhere, builder.lt(path, value));
-				}
-			else if (oper.equalsIgnoreCase("<="))
-				if (param.getRelationship() == null || param.getRelationship().equals("or")) {
-					subWhere = builder.or(subWhere, builder.le(path, value));
-				} else {
-					subWhere = builder.and(subWhere, builder.le(path, value));
-				}
-			else if (oper.equalsIgnoreCase(">")) {
-				if (param.getRelationship() == null || param.getRelationship().equals("or")) {
-					subWhere = builder.or(subWhere, builder.gt(path, value));
-				} else {
-					subWhere = builder.and(subWhere, builder.gt(path, value));
-				}
-			} else { // (param.getOperator().equalsIgnoreCase(">="))
-				if (param.getRelationship() == null || param.getRelationship().equals("or")) {
-					subWhere = builder.or(subWhere, builder.ge(path, value));
-				} else {
-					subWhere = builder.and(subWhere, builder.ge(path, value));
-				}
-			}
+	/**
+	 * column IN (?, ...), or an OR of IN lists of IN_LIST_LIMIT values when
+	 * there are more. No values match nothing.
+	 */
+	private static String inCondition(String column, List<?> values, List<Object> args) {
+		if (values.isEmpty()) return "1=0";
+
+		List<String> inLists = new ArrayList<String>();
+		for (int i = 0; i < values.size(); i += IN_LIST_LIMIT) {
+			List<?> chunk = values.subList(i, Math.min(i + IN_LIST_LIMIT, values.size()));
+			args.addAll(chunk);
+			inLists.add(column + " IN (" + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")");
+		}
+
+		return inLists.size() == 1 ? inLists.get(0) : "(" + String.join(" OR ", inLists) + ")";
+	}
+
+	/**
+	 * column = ANY(CAST(? AS BIGINT[])) with the values bound as one array
+	 * literal, so the statement has a single parameter however many values
+	 * there are. PostgreSQL only.
+	 */
+	private static String arrayCondition(String column, List<?> values, List<Object> args) {
+		StringBuilder array = new StringBuilder("{");
+		for (Object value : values) {
+			if (array.length() > 1) array.append(',');
+			array.append(value);
+		}
+		array.append('}');
+
+		args.add(array.toString());
+		return column + " = ANY(CAST(? AS BIGINT[]))";
+	}
+
+	private static String comparison(String oper) {
+		if (oper.equalsIgnoreCase("=")) {
+			return "=";
+		} else if (oper.equalsIgnoreCase("!=")) {
+			return "<>";
+		} else if (oper.equalsIgnoreCase("<")) {
+			return "<";
+		} else if (oper.equalsIgnoreCase("<=")) {
+			return "<=";
+		} else if (oper.equalsIgnoreCase(">")) {
+			return ">";
+		} else { // (param.getOperator().equalsIgnoreCase(">="))
+			return ">=";
+		}
+	}
+
+	private static List<Object> toColumnType(List<String> values, Class<?> type) {
+		List<Object> converted = new ArrayList<Object>();
+		for (String value : values) {
+			converted.add(toColumnType(value, type));
+		}
+
+		return converted;
+	}
+
+	/**
+	 * Converts a value to the Java type of the column it is compared to, as JPA
+	 * does for a typed path.
+	 */
+	private static Object toColumnType(String value, Class<?> type) {
+		if (value == null || type == null || type == String.class) {
+			return value;
+		} else if (type == Long.class) {
+			return Long.valueOf(value);
+		} else if (type == Integer.class) {
+			return Integer.valueOf(value);
+		} else if (type == Short.class) {
+			return Short.valueOf(value);
+		} else if (type == Double.class) {
+			return Double.valueOf(value);
+		} else if (type == BigDecimal.class) {
+			return new BigDecimal(value);
+		} else if (type == Date.class) {
+			return new Date(Long.valueOf(value));
 		}
 
-		return subWhere;
+		return value;
 	}
 
 }
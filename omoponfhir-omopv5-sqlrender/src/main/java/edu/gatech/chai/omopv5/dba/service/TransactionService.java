@@ -18,9 +18,13 @@ package edu.gatech.chai.omopv5.dba.service;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import edu.gatech.chai.omopv5.model.entity.BaseEntity;
 
 public interface TransactionService {
 	public int writeTransaction (Map<String, List<BaseEntity>> transactionMap);
+	public <T> T runInTransaction(Callable<T> work) throws Exception;
+	public void reserveIds(Class<? extends BaseEntity> entityClass, int count);
+	public void bulkInsert(List<? extends BaseEntity> entities);
 }
@@ -16,10 +16,11 @@
  *******************************************************************************/
 package edu.gatech.chai.omopv5.dba.service;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-
-import javax.persistence.EntityManager;
+import java.util.concurrent.Callable;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -29,12 +30,19 @@ import edu.gatech.chai.omopv5.model.entity.BaseEntity;
 import edu.gatech.chai.omopv5.model.entity.FPerson;
 import edu.gatech.chai.omopv5.model.entity.Measurement;
 import edu.gatech.chai.omopv5.model.entity.Observation;
+import edu.gatech.chai.omopv5.sqlrender.dao.BaseEntityDao;
 import edu.gatech.chai.omopv5.sqlrender.dao.ConditionOccurrenceDao;
+import edu.gatech.chai.omopv5.sqlrender.dao.DaoRegistry;
 import edu.gatech.chai.omopv5.sqlrender.dao.FPersonDao;
 import edu.gatech.chai.omopv5.sqlrender.dao.MeasurementDao;
 import edu.gatech.chai.omopv5.sqlrender.dao.ObservationDao;
 import edu.gatech.chai.omopv5.sqlrender.dao.ProcedureOccurrenceDao;
 
+/**
+ * Writes transaction bundles in one database transaction. Entities are
+ * grouped by table and each table is written with JDBC batches, with its ids
+ * reserved from the sequence in one block.
+ */
 @Service
 public class TransactionServiceImp implements TransactionService {
 
@@ -51,6 +59,8 @@ public class TransactionServiceImp implements TransactionService {
 	private MeasurementDao measurementDao;
 	@Autowired
 	private ObservationDao observationDao;
+	@Autowired
+	private DaoRegistry daoRegistry;
 
 //	public TransactionDao getEntityDao() {
 //		return transactionDao;
@@ -58,95 +68,102 @@ public class TransactionServiceImp implements TransactionService {
 	
 	@Transactional
 	public int writeTransaction(Map<String, List<BaseEntity>> transactionMap) {
-//		EntityManager em = transactionDao.getEntityManager();
+		List<FPerson> fPersons = new ArrayList<FPerson>();
+		List<Measurement> measurements = new ArrayList<Measurement>();
+		List<Observation> observations = new ArrayList<Observation>();
 
-		System.out.println("At the writeTransaction");
-		// It's not efficient. But, we need to process patients first. so...
+		// Group by table. Everything is checked before anything is written.
 		for (String key : transactionMap.keySet()) {
 			String[] keyInfo = key.split("\\^");
-			System.out.println("working on patient key=" + key + " with keyInfo length=" + keyInfo.length);
 			if (keyInfo.length != 2) {
 				// something is wrong.
 				return -1;
 			}
-			String entityName = keyInfo[1];
-			if (entityName.equals("FPerson")) {
-				// process it.
-				List<BaseEntity> entityClasses = transactionMap.get(key);
-				if (entityClasses != null) {
-					// We have patients, process this. 
-					for (BaseEntity entity : entityClasses) {
-						FPerson fPerson = (FPerson) entity;
-						System.out.println("Writing fPerson name="+fPerson.getFamilyName()+", "+fPerson.getGivenName1());
-						fPersonDao.add(fPerson);
-					}
-				}
 
-			} else {
+			List<BaseEntity> entities = transactionMap.get(key);
+			if (entities == null) {
 				continue;
-			}			
-		}
-		
-		for (String key : transactionMap.keySet()) {
-			String[] keyInfo = key.split("\\^");
-			System.out.println("working on key=" + key + " with keyInfo length=" + keyInfo.length);
-			if (keyInfo.length != 2) {
-				// something is wrong.
-				return -1;
 			}
+
 			// 2nd part of keyInfo should be the entity table name.
 			String entityName = keyInfo[1];
 			if (entityName.equals("FPerson")) {
-				// we have alreay done this.
+				for (BaseEntity entity : entities) {
+					fPersons.add((FPerson) entity);
+				}
 				continue;
 			}
-			
-			List<BaseEntity> entities = transactionMap.get(key);
-			if (entities == null) {
-				System.out.println("null entities for transactionMap.....");
+
+			if (!entityName.equals("Measurement") && !entityName.equals("Observation")) {
 				continue;
 			}
-			System.out.println("About to process " + entityName + " from Service");
-			
-			String subjectKey = keyInfo[0]+"^"+"FPerson";
-			
-			// list of the entity classes
-			try {
-				for (BaseEntity entity : entities) {
-					if (entityName.equals("Measurement")) {
-						System.out.println("Adding Measurement with subjectKey ("+key+") to OMOP");
-						// Get patient information from subject key.
-						FPerson subjectEntity = (FPerson) transactionMap.get(subjectKey).get(0);
-						if (subjectEntity == null) {
-							// This is an error. We must have subject.
-							System.out.println("FPerson info not available for the Measurement");
-							throw new Exception("FPerson info not available for the Measurement");
-						}
-						
-						Measurement measurement = (Measurement) entity;
-						measurement.setFPerson(subjectEntity);
-						
-						measurementDao.add(measurement);
-					} else if (entityName.equals("Observation")) {
-						System.out.println("Adding Observation to OMOP");
-						FPerson subjectEntity = (FPerson) transactionMap.get(subjectKey).get(0);
-						if (subjectEntity == null) {
-							// This is an error. We must have subject.
-							System.out.println("FPerson info not available for the Observation");
-							throw new Exception("FPerson info not available for the Observation");
-						}
-						
-						Observation observation = (Observation) entity;
-						observation.setFPerson(subjectEntity);
-
-						observationDao.add(observation);
-					}
-				}
-			} catch (Exception ex) {
-				ex.printStackTrace();
+
+			// Get patient information from subject key. We must have subject.
+			String subjectKey = keyInfo[0] + "^" + "FPerson";
+			List<BaseEntity> subjects = transactionMap.get(subjectKey);
+			if (subjects == null || subjects.isEmpty() || subjects.get(0) == null) {
 				return -1;
 			}
+			FPerson subjectEntity = (FPerson) subjects.get(0);
+
+			for (BaseEntity entity : entities) {
+				if (entityName.equals("Measurement")) {
+					Measurement measurement = (Measurement) entity;
+					measurement.setFPerson(subjectEntity);
+					measurements.add(measurement);
+				} else {
+					Observation observation = (Observation) entity;
+					observation.setFPerson(subjectEntity);
+					observations.add(observation);
+				}
+			}
 		}
+
+		// Patients first, since the others refer to them.
+		fPersonDao.addAll(fPersons);
+		measurementDao.addAll(measurements);
+		observationDao.addAll(observations);
+
 		return 0;
-	}	
-}
\ No newline at end of file
+	}
+
+	/**
+	 * Runs work in one database transaction. Services called from work join it,
+	 * so their writes are committed or rolled back together.
+	 */
+	@Transactional(rollbackFor = Exception.class)
+	public <T> T runInTransaction(Callable<T> work) throws Exception {
+		return work.call();
+	}
+
+	/**
+	 * Reserves count ids of the table of entityClass for this transaction, in
+	 * one query.
+	 */
+	@Transactional
+	public void reserveIds(Class<? extends BaseEntity> entityClass, int count) {
+		daoRegistry.getDao(entityClass).reserveIds(count);
+	}
+
+	/**
+	 * Inserts new entities in one transaction, table by table in the order
+	 * their tables first appear. Each table is one JDBC batch.
+	 */
+	@Transactional
+	@SuppressWarnings("unchecked")
+	public void bulkInsert(List<? extends BaseEntity> entities) {
+		Map<Class<?>, List<BaseEntity>> tables = new LinkedHashMap<Class<?>, List<BaseEntity>>();
+		for (BaseEntity entity : entities) {
+			List<BaseEntity> table = tables.get(entity.getClass());
+			if (table == null) {
+				table = new ArrayList<BaseEntity>();
+				tables.put(entity.getClass(), table);
+			}
+			table.add(entity);
+		}
+
+		for (Map.Entry<Class<?>, List<BaseEntity>> table : tables.entrySet()) {
+			((BaseEntityDao<BaseEntity>) daoRegistry.getDao(table.getKey())).addAll(table.getValue());
+		}
+	}
+}
@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package edu.gatech.chai.omopv5.dba.util;
+
+import java.util.Arrays;
+
+/**
+ * Thread-safe cache keyed by long ids, with an optional time to live.
+ *
+ * Keys are kept as primitive longs in open-addressing tables, so lookups do
+ * not box. The cache is split into stripes by key hash, each with its own
+ * lock, so concurrent lookups of different keys rarely wait for each other.
+ *
+ * maxEntries bounds the number of entries, spread over the stripes. When a
+ * stripe is full, an entry that was not read since the clock hand last passed
+ * it is evicted (CLOCK, an approximation of LRU). ttlMillis <= 0 means entries
+ * do not expire.
+ *
+ * Values cannot be null.
+ */
+public class LongKeyCache<V> {
+	private static final int MAX_STRIPES = 16;
+
+	private final Stripe<V>[] stripes;
+	private final long ttlMillis;
+
+	@SuppressWarnings("unchecked")
+	public LongKeyCache(int maxEntries, long ttlMillis) {
+		this.ttlMillis = ttlMillis;
+
+		int stripeCount = 1;
+		while (stripeCount < MAX_STRIPES && stripeCount * 2 <= maxEntries) {
+			stripeCount *= 2;
+		}
+
+		int total = Math.max(maxEntries, 0);
+		stripes = new Stripe[stripeCount];
+		for (int i = 0; i < stripeCount; i++) {
+			// The stripes hold maxEntries together.
+			stripes[i] = new Stripe<V>(total / stripeCount + (i < total % stripeCount ? 1 : 0));
+		}
+	}
+
+	public V get(long key) {
+		long hash = hash(key);
+		return stripeFor(hash).get(key, hash);
+	}
+
+	public void put(long key, V value) {
+		if (value == null) throw new NullPointerException("value");
+
+		long expiresAt = 0;
+		if (ttlMillis > 0) {
+			expiresAt = System.currentTimeMillis() + ttlMillis;
+		}
+
+		long hash = hash(key);
+		stripeFor(hash).put(key, hash, value, expiresAt);
+	}
+
+	public void clear() {
+		for (Stripe<V> stripe : stripes) {
+			stripe.clear();
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for (Stripe<V> stripe : stripes) {
+			size += stripe.size();
+		}
+		return size;
+	}
+
+	private Stripe<V> stripeFor(long hash) {
+		// The low bits pick the slot, so the stripe comes from the high bits.
+		return stripes[(int) (hash >>> 48) & (stripes.length - 1)];
+	}
+
+	private static long hash(long key) {
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return hash ^ (hash >>> 29);
+	}
+
+	private static class Stripe<V> {
+		private final int maxEntries;
+		private final int mask;
+		private final long[] keys;
+		private final Object[] values;
+		private final long[] expiresAt;
+		private final boolean[] referenced;
+		private int size = 0;
+		private int hand = 0;
+
+		Stripe(int maxEntries) {
+			this.maxEntries = maxEntries;
+
+			// At most half full, so probe sequences stay short.
+			int capacity = 2;
+			while (capacity < maxEntries * 2) {
+				capacity *= 2;
+			}
+			mask = capacity - 1;
+			keys = new long[capacity];
+			values = new Object[capacity];
+			expiresAt = new long[capacity];
+			referenced = new boolean[capacity];
+		}
+
+		@SuppressWarnings("unchecked")
+		synchronized V get(long key, long hash) {
+			int slot = find(key, hash);
+			if (slot < 0) return null;
+
+			if (expiresAt[slot] > 0 && expiresAt[slot] < System.currentTimeMillis()) {
+				delete(slot);
+				return null;
+			}
+
+			referenced[slot] = true;
+			return (V) values[slot];
+		}
+
+		synchronized void put(long key, long hash, V value, long expires) {
+			if (maxEntries == 0) return;
+
+			int slot = find(key, hash);
+			if (slot < 0) {
+				if (size >= maxEntries) {
+					evict();
+				}
+
+				slot = (int) hash & mask;
+				while (values[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = key;
+				size++;
+			}
+
+			values[slot] = value;
+			expiresAt[slot] = expires;
+			referenced[slot] = false;
+		}
+
+		synchronized void clear() {
+			Arrays.fill(values, null);
+			Arrays.fill(referenced, false);
+			size = 0;
+			hand = 0;
+		}
+
+		synchronized int size() {
+			return size;
+		}
+
+		private int find(long key, long hash) {
+			int slot = (int) hash & mask;
+			while (values[slot] != null) {
+				if (keys[slot] == key) return slot;
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		private void evict() {
+			while (true) {
+				if (values[hand] != null) {
+					if (!referenced[hand]) {
+						// The entry shifted into this slot is looked at next.
+						delete(hand);
+						return;
+					}
+					referenced[hand] = false;
+				}
+				hand = (hand + 1) & mask;
+			}
+		}
+
+		/**
+		 * Removes the entry at the slot, and shifts back the entries after it
+		 * that could not be found anymore otherwise.
+		 */
+		private void delete(int slot) {
+			int hole = slot;
+			int next = slot;
+			while (true) {
+				next = (next + 1) & mask;
+				if (values[next] == null) break;
+
+				int home = (int) hash(keys[next]) & mask;
+				boolean stays = hole <= next ? (hole < home && home <= next) : (hole < home || home <= next);
+				if (stays) continue;
+
+				keys[hole] = keys[next];
+				values[hole] = values[next];
+				expiresAt[hole] = expiresAt[next];
+				referenced[hole] = referenced[next];
+				hole = next;
+			}
+
+			values[hole] = null;
+			referenced[hole] = false;
+			size--;
+		}
+	}
+}
@@ -19,20 +19,9 @@ package edu.gatech.chai.omopv5.model.entity;
 import java.io.Serializable;
 import java.util.Date;
 
-import javax.persistence.Column;
-import javax.persistence.Entity;
-import javax.persistence.Id;
-import javax.persistence.Inheritance;
-import javax.persistence.InheritanceType;
-import javax.persistence.JoinColumn;
-import javax.persistence.ManyToOne;
-import javax.persistence.Table;
-
 import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
-import net.jcip.annotations.Immutable;
-
 public class ConceptRelationship extends BaseEntity implements Serializable {
 	/**
 	 * 
@@ -40,14 +29,7 @@ public class ConceptRelationship extends BaseEntity implements Serializable {
 	private static final long serialVersionUID = 1L;
 	public static String tableName = "concept_relationship";
 
-	@JsonProperty("concept_id_1")
-	private Concept concept1;
-	
-	@JsonProperty("concept_id_2")
-	private Concept concept2;
-	
-	@JsonProperty("relationship_id")
-	private String relationshipId;
+	private ConceptRelationshipPK id;
 	
 	@JsonProperty("valid_start_date")
 	private Date validStartDate;
@@ -63,8 +45,42 @@ public class ConceptRelationship extends BaseEntity implements Serializable {
 
 	@Override
 	public Long getIdAsLong() {
-		// TODO Auto-generated method stub
 		return null;
 	}
+	
+	public ConceptRelationshipPK getId() {
+		return this.id;
+	}
+	
+	public void setId(ConceptRelationshipPK id) {
+		this.id = id;
+	}
 
+	public ConceptRelationship() {
+		super();
+	}
+	
+	public Date getValidStartDate() {
+		return this.validStartDate;
+	}
+	
+	public void setValidStartDate(Date validStartDate) {
+		this.validStartDate = validStartDate;
+	}
+	
+	public Date getValidEndDate() {
+		return this.validEndDate;
+	}
+	
+	public void setValidEndDate(Date validEndDate) {
+		this.validEndDate = validEndDate;
+	}
+	
+	public String getInvalidReason() {
+		return this.invalidReason;
+	}
+	
+	public void setInvalidReason(String invalidReason) {
+		this.invalidReason = invalidReason;
+	}
 }
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package edu.gatech.chai.omopv5.model.entity;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Key of concept_relationship: (concept_id_1, concept_id_2, relationship_id).
+ */
+public class ConceptRelationshipPK implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	@JsonProperty("concept_id_1")
+	private Long concept1;
+	
+	@JsonProperty("concept_id_2")
+	private Long concept2;
+	
+	@JsonProperty("relationship_id")
+	private String relationshipId;
+	
+	public ConceptRelationshipPK() {
+	}
+	
+	public Long getConcept1() {
+		return this.concept1;
+	}
+	
+	public void setConcept1(Long concept1) {
+		this.concept1 = concept1;
+	}
+
+	public Long getConcept2() {
+		return this.concept2;
+	}
+	
+	public void setConcept2(Long concept2) {
+		this.concept2 = concept2;
+	}
+	
+	public String getRelationshipId() {
+		return relationshipId;
+	}
+	
+	public void setRelationshipId(String relationshipId) {
+		this.relationshipId = relationshipId;
+	}
+	
+	@Override
+	public int hashCode() {
+		return Objects.hash(concept1, concept2, relationshipId);
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null || getClass() != obj.getClass())
+			return false;
+		ConceptRelationshipPK other = (ConceptRelationshipPK) obj;
+		return Objects.equals(concept1, other.concept1) && Objects.equals(concept2, other.concept2)
+				&& Objects.equals(relationshipId, other.relationshipId);
+	}
+}
@@ -27,7 +27,7 @@ public class Person extends BaseEntity {
 	@JsonProperty("person_id")
 	private Long id;
 	
-	@JsonProperty("gender_concpet_id")
+	@JsonProperty("gender_concept_id")
 	private Concept genderConcept;
 	
 	@JsonProperty("year_of_birth")
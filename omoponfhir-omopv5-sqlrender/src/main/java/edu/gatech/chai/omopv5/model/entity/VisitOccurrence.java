@@ -39,7 +39,7 @@ import com.fasterxml.jackson.annotation.ObjectIdGenerators;
 		generator = ObjectIdGenerators.PropertyGenerator.class,
 		property = "visit_occurrence_id")
 public class VisitOccurrence extends BaseEntity {
-	public static String tableName = "vocabulary";
+	public static String tableName = "visit_occurrence";
 
 	@JsonProperty("visit_occurrence_id")
 	private Long id;
@@ -15,47 +15,837 @@
  *******************************************************************************/
 package edu.gatech.chai.omopv5.sqlrender.dao;
 
+import java.math.BigDecimal;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-import javax.persistence.EntityManager;
-import javax.persistence.PersistenceContext;
+import javax.annotation.PostConstruct;
 import javax.sql.DataSource;
 
+import org.ohdsi.sql.SqlRender;
+import org.ohdsi.sql.SqlTranslate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Component;
-import org.springframework.stereotype.Repository;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import edu.gatech.chai.omopv5.dba.service.EntityCallback;
 import edu.gatech.chai.omopv5.model.entity.BaseEntity;
 
+/**
+ * Plain JDBC access to one OMOP table.
+ *
+ * The SQL statements are written once in OHDSI SQL, rendered with the table
+ * mapping and translated to the target dialect (sqlrender.dialect) by SqlRender
+ * when the DAO starts. Search conditions built from ParameterWrapper only use
+ * portable SQL (comparisons, LIKE, LOWER, IN), so they are appended to the
+ * translated statements with bind parameters and are not translated per
+ * request.
+ *
+ * Each DAO maps rows by hand (mapRow) and returns the values to write in the
+ * column order of its TableMapping (getValues). References are loaded in
+ * batches by a ReferenceResolver after the rows of a query are read.
+ *
+ * Connections come from DataSourceUtils, so the DAOs join the Spring
+ * transaction of the service method.
+ */
 @Component
 public abstract class BaseEntityDao<T extends BaseEntity> implements IDao<T> {
+	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(BaseEntityDao.class);
+
+	public static final String ALIAS = "t";
+	public static final int ID_CHUNK_SIZE = 1000;
+
+	private static final Pattern PLAN_ROWS = Pattern.compile("\"Plan Rows\"\\s*:\\s*([0-9.eE+]+)");
+
+	private static final String SELECT_TEMPLATE = "SELECT @columns FROM @from";
+	private static final String COUNT_TEMPLATE = "SELECT COUNT_BIG(*) FROM @from";
+	private static final String SELECT_WITH_COUNT_TEMPLATE = "SELECT @columns, COUNT_BIG(*) OVER () AS row_total FROM @from";
+	private static final String INSERT_TEMPLATE = "INSERT INTO @table (@columns) VALUES (@values);";
+	private static final String UPDATE_TEMPLATE = "UPDATE @table SET @assignments WHERE @id_column = ?;";
+	private static final String DELETE_TEMPLATE = "DELETE FROM @table WHERE @id_column = ?;";
+
 	@Autowired
 	private DataSource ds;
 
+	@Autowired
+	private DaoRegistry daoRegistry;
+
+	@Value("${sqlrender.dialect:postgresql}")
+	private String dialect;
+
+	@Value("${sqlrender.schema:}")
+	private String schema;
+
+	private final Class<T> entityClass;
+	private JdbcTemplate jdbcTemplate;
+	private String schemaPrefix;
+	private boolean limitOffset;
+
+	private String selectSql;
+	private String countSql;
+	private String selectWithCountSql;
+	private String insertSql;
+	private String insertWithoutIdSql;
+	private String joinInsertSql;
+	private String updateSql;
+	private String joinUpdateSql;
+	private String deleteSql;
+	private String joinDeleteSql;
+	private String nextIdSql;
+	private String nextIdsSql;
+
+	// Ids reserved by reserveIds() for the current thread's transaction.
+	private final ThreadLocal<Deque<Long>> reservedIds = new ThreadLocal<Deque<Long>>();
+
+	protected BaseEntityDao(Class<T> entityClass) {
+		this.entityClass = entityClass;
+	}
+
+	/**
+	 * Table mapping of the entity. Attribute names are the entity field names.
+	 */
+	public abstract TableMapping getMapping();
+
+	/**
+	 * Maps the current row. Columns are read by name. References are registered
+	 * in the resolver with the setter to call.
+	 */
+	protected abstract T mapRow(ResultSet rs, ReferenceResolver references) throws SQLException;
+
+	/**
+	 * Values to write, in the column order of the mapping, without the id.
+	 */
+	protected abstract Object[] getValues(T entity);
+
+	protected abstract void setId(T entity, Long id);
+
+	public Object getId(T entity) {
+		return entity.getIdAsLong();
+	}
+
+	@PostConstruct
+	public void init() {
+		jdbcTemplate = new JdbcTemplate(ds);
+		schemaPrefix = (schema == null || schema.trim().isEmpty()) ? "" : schema.trim() + ".";
+		limitOffset = !("sql server".equals(dialect) || "pdw".equals(dialect) || "oracle".equals(dialect));
+
+		TableMapping mapping = getMapping();
+		String from = mapping.from(schemaPrefix, ALIAS);
+		selectSql = render(SELECT_TEMPLATE, new String[] { "columns", "from" },
+				new String[] { mapping.selectList(ALIAS), from });
+		countSql = render(COUNT_TEMPLATE, new String[] { "from" }, new String[] { from });
+		selectWithCountSql = render(SELECT_WITH_COUNT_TEMPLATE, new String[] { "columns", "from" },
+				new String[] { mapping.selectList(ALIAS), from });
+
+		String table = schemaPrefix + mapping.getTable();
+		List<String> columns = mapping.getWriteColumns(false);
+		insertWithoutIdSql = renderInsert(table, columns);
+		if (mapping.getIdColumn() == null) {
+			insertSql = insertWithoutIdSql;
+			return;
+		}
+
+		List<String> columnsWithId = new ArrayList<String>(columns);
+		columnsWithId.add(0, mapping.getIdColumn());
+		insertSql = renderInsert(table, columnsWithId);
+		updateSql = renderUpdate(table, columns, mapping.getIdColumn());
+		deleteSql = render(DELETE_TEMPLATE, new String[] { "table", "id_column" },
+				new String[] { table, mapping.getIdColumn() });
+
+		if (mapping.getJoinTable() != null) {
+			String joinTable = schemaPrefix + mapping.getJoinTable();
+			List<String> joinColumns = mapping.getWriteColumns(true);
+			List<String> joinColumnsWithId = new ArrayList<String>(joinColumns);
+			joinColumnsWithId.add(0, mapping.getIdColumn());
+			joinInsertSql = renderInsert(joinTable, joinColumnsWithId);
+			joinUpdateSql = renderUpdate(joinTable, joinColumns, mapping.getIdColumn());
+			joinDeleteSql = render(DELETE_TEMPLATE, new String[] { "table", "id_column" },
+					new String[] { joinTable, mapping.getIdColumn() });
+		}
+
+		if (mapping.getSequence() != null) {
+			nextIdSql = nextIdSql(schemaPrefix + mapping.getSequence());
+			nextIdsSql = nextIdsSql(schemaPrefix + mapping.getSequence());
+		}
+	}
+
+	private String render(String template, String[] names, String[] values) {
+		String sql = SqlTranslate.translateSql(SqlRender.renderSql(template, names, values), dialect).trim();
+		// Statements are sent one at a time. Drop the terminating semicolon.
+		if (sql.endsWith(";")) {
+			sql = sql.substring(0, sql.length() - 1).trim();
+		}
+
+		return sql;
+	}
+
+	private String renderInsert(String table, List<String> columns) {
+		return render(INSERT_TEMPLATE, new String[] { "table", "columns", "values" },
+				new String[] { table, String.join(", ", columns), String.join(", ", Collections.nCopies(columns.size(), "?")) });
+	}
+
+	private String renderUpdate(String table, List<String> columns, String idColumn) {
+		List<String> assignments = new ArrayList<String>();
+		for (String column : columns) {
+			assignments.add(column + " = ?");
+		}
+
+		return render(UPDATE_TEMPLATE, new String[] { "table", "assignments", "id_column" },
+				new String[] { table, String.join(", ", assignments), idColumn });
+	}
+
+	/**
+	 * OHDSI SQL has no sequences, so this one is written per dialect.
+	 */
+	private String nextIdSql(String sequence) {
+		if ("oracle".equals(dialect)) {
+			return "SELECT " + sequence + ".NEXTVAL FROM dual";
+		} else if ("sql server".equals(dialect) || "pdw".equals(dialect)) {
+			return "SELECT NEXT VALUE FOR " + sequence;
+		}
+
+		return "SELECT nextval('" + sequence + "')";
+	}
+
+	/**
+	 * Statement that returns ? values of the sequence in one round trip, or
+	 * null if the dialect has none.
+	 */
+	private String nextIdsSql(String sequence) {
+		if ("postgresql".equals(dialect)) {
+			return "SELECT nextval('" + sequence + "') FROM generate_series(1, ?)";
+		} else if ("oracle".equals(dialect)) {
+			return "SELECT " + sequence + ".NEXTVAL FROM dual CONNECT BY LEVEL <= ?";
+		}
+
+		return null;
+	}
+
+	public Class<T> getEntityClass() {
+		return entityClass;
+	}
+
 	public DataSource getDataSource() {
 		return ds;
 	}
-	
+
+	/**
+	 * Connection of the current transaction, if there is one. Release it with
+	 * releaseConnection().
+	 */
 	public Connection getConnection() throws SQLException {
-		return ds.getConnection();
+		return DataSourceUtils.getConnection(ds);
 	}
-	
-	public void add(T baseEntity) {
+
+	public void releaseConnection(Connection connection) {
+		DataSourceUtils.releaseConnection(connection, ds);
 	}
-	
+
+	public JdbcTemplate getJdbcTemplate() {
+		return jdbcTemplate;
+	}
+
+	public String getSchemaPrefix() {
+		return schemaPrefix;
+	}
+
+	public ReferenceResolver newReferenceResolver() {
+		return new ReferenceResolver(daoRegistry);
+	}
+
+	/**
+	 * Runs a select for this table. where may be null. orderBy is a list of
+	 * qualified columns with directions, or null. limit <= 0 means no limit.
+	 */
+	public List<T> select(String where, List<Object> args, String orderBy, int offset, int limit) {
+		return select(where, args, orderBy, offset, limit, null, null);
+	}
+
+	/**
+	 * Same as above. For each row, the values of keyColumns (column names of
+	 * this table) are also added to keys. This is used for keyset paging.
+	 */
+	public List<T> select(String where, List<Object> args, String orderBy, int offset, int limit,
+			String[] keyColumns, List<Object[]> keys) {
+		List<Object> allArgs = new ArrayList<Object>(args == null ? Collections.<Object>emptyList() : args);
+		String sql = selectSql;
+		if (where != null) {
+			sql += " WHERE " + where;
+		}
+		if (limit > 0) {
+			sql = page(sql, allArgs, orderBy, offset, limit);
+		} else if (orderBy != null) {
+			sql += " ORDER BY " + orderBy;
+		}
+
+		ReferenceResolver references = newReferenceResolver();
+		List<T> rows = query(sql, allArgs, references, keyColumns, keys);
+		references.resolve();
+
+		return rows;
+	}
+
+	/**
+	 * Runs a select that returns the columns of this table (built from
+	 * getSelectSql()) and loads the references of the rows.
+	 */
+	public List<T> query(String sql, List<Object> args) {
+		ReferenceResolver references = newReferenceResolver();
+		List<T> rows = query(sql, args, references, null, null);
+		references.resolve();
+
+		return rows;
+	}
+
+	private List<T> query(String sql, List<Object> args, final ReferenceResolver references,
+			final String[] keyColumns, final List<Object[]> keys) {
+		return jdbcTemplate.query(sql, toJdbc(args), new RowMapper<T>() {
+			@Override
+			public T mapRow(ResultSet rs, int rowNum) throws SQLException {
+				T row = BaseEntityDao.this.mapRow(rs, references);
+				if (keyColumns != null) {
+					Object[] key = new Object[keyColumns.length];
+					for (int i = 0; i < keyColumns.length; i++) {
+						key[i] = rs.getObject(keyColumns[i]);
+					}
+					keys.add(key);
+				}
+				return row;
+			}
+		});
+	}
+
+	/**
+	 * Streams the rows of a select to the callback through a forward-only
+	 * result set that reads fetchSize rows per round trip. Rows are mapped
+	 * fetchSize at a time so that their references are loaded in batches.
+	 * Stops when the callback returns false.
+	 *
+	 * PostgreSQL only honors the fetch size inside a transaction.
+	 */
+	public void stream(String where, List<Object> args, String orderBy, final int fetchSize,
+			final EntityCallback<T> callback) {
+		String sql = selectSql;
+		if (where != null) {
+			sql += " WHERE " + where;
+		}
+		if (orderBy != null) {
+			sql += " ORDER BY " + orderBy;
+		}
+
+		final String streamSql = sql;
+		final Object[] jdbcArgs = toJdbc(args);
+		jdbcTemplate.query(new PreparedStatementCreator() {
+			@Override
+			public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
+				PreparedStatement ps = connection.prepareStatement(streamSql, ResultSet.TYPE_FORWARD_ONLY,
+						ResultSet.CONCUR_READ_ONLY);
+				ps.setFetchSize(fetchSize);
+				for (int i = 0; i < jdbcArgs.length; i++) {
+					ps.setObject(i + 1, jdbcArgs[i]);
+				}
+				return ps;
+			}
+		}, new ResultSetExtractor<Void>() {
+			@Override
+			public Void extractData(ResultSet rs) throws SQLException {
+				List<T> chunk = new ArrayList<T>();
+				ReferenceResolver references = newReferenceResolver();
+				while (rs.next()) {
+					chunk.add(mapRow(rs, references));
+					if (chunk.size() >= fetchSize) {
+						if (!dispatch(chunk, references, callback)) return null;
+						chunk = new ArrayList<T>();
+						references = newReferenceResolver();
+					}
+				}
+				dispatch(chunk, references, callback);
+				return null;
+			}
+		});
+	}
+
+	private boolean dispatch(List<T> chunk, ReferenceResolver references, EntityCallback<T> callback) {
+		references.resolve();
+		for (T entity : chunk) {
+			if (!callback.process(entity)) return false;
+		}
+
+		return true;
+	}
+
+	public Long count(String where, List<Object> args) {
+		String sql = countSql;
+		if (where != null) {
+			sql += " WHERE " + where;
+		}
+
+		Number count = jdbcTemplate.queryForObject(sql, toJdbc(args), Number.class);
+		return count == null ? 0L : count.longValue();
+	}
+
+	/**
+	 * Row estimate of the PostgreSQL planner for the rows that match where
+	 * (EXPLAIN), without running the query. Returns null on other dialects, or
+	 * if the query can't be explained.
+	 */
+	public Long estimateRows(String where, List<Object> args) {
+		if (!"postgresql".equals(dialect)) return null;
+
+		String sql = "EXPLAIN (FORMAT JSON) " + selectSql;
+		if (where != null) {
+			sql += " WHERE " + where;
+		}
+		final String explainSql = sql;
+		final Object[] values = toJdbc(args);
+
+		String plan;
+		try {
+			plan = jdbcTemplate.execute((ConnectionCallback<String>) connection -> {
+				// A failed statement aborts a PostgreSQL transaction. Roll back to
+				// here instead, so the search can go on.
+				Savepoint savepoint = connection.getAutoCommit() ? null : connection.setSavepoint();
+				try (PreparedStatement statement = connection.prepareStatement(explainSql)) {
+					new ArgumentPreparedStatementSetter(values).setValues(statement);
+
+					String json = null;
+					try (ResultSet rs = statement.executeQuery()) {
+						if (rs.next()) {
+							json = rs.getString(1);
+						}
+					}
+					if (savepoint != null) {
+						connection.releaseSavepoint(savepoint);
+					}
+
+					return json;
+				} catch (SQLException e) {
+					if (savepoint != null) {
+						connection.rollback(savepoint);
+					}
+					throw e;
+				}
+			});
+		} catch (DataAccessException e) {
+			logger.debug("No plan estimate for " + getMapping().getTable() + ": " + e.getMessage());
+			return null;
+		}
+		if (plan == null) return null;
+
+		// PostgreSQL writes the keys of a node before its sub plans, so the
+		// first "Plan Rows" is the one of the top node.
+		Matcher matcher = PLAN_ROWS.matcher(plan);
+		if (!matcher.find()) return null;
+
+		return (long) Double.parseDouble(matcher.group(1));
+	}
+
+	/**
+	 * Reads one page into page together with the number of rows that match
+	 * where, in one query (COUNT(*) OVER ()). The window is computed before
+	 * the paging clause, so every row carries the total. Returns null when
+	 * the page is empty, since the total is then unknown.
+	 */
+	public Long selectWithCount(String where, List<Object> args, String orderBy, int offset, int limit,
+			final List<T> page) {
+		return selectWithCount(where, args, orderBy, offset, limit, page, null, null);
+	}
+
+	/**
+	 * Same as above. For each row, the values of keyColumns are also added to
+	 * keys, as in select().
+	 */
+	public Long selectWithCount(String where, List<Object> args, String orderBy, int offset, int limit,
+			final List<T> page, final String[] keyColumns, final List<Object[]> keys) {
+		List<Object> allArgs = new ArrayList<Object>(args == null ? Collections.<Object>emptyList() : args);
+		String sql = selectWithCountSql;
+		if (where != null) {
+			sql += " WHERE " + where;
+		}
+		if (limit > 0) {
+			sql = page(sql, allArgs, orderBy, offset, limit);
+		} else if (orderBy != null) {
+			sql += " ORDER BY " + orderBy;
+		}
+
+		final ReferenceResolver references = newReferenceResolver();
+		final Long[] total = new Long[1];
+		jdbcTemplate.query(sql, toJdbc(allArgs), new RowCallbackHandler() {
+			@Override
+			public void processRow(ResultSet rs) throws SQLException {
+				page.add(mapRow(rs, references));
+				total[0] = rs.getLong("row_total");
+				if (keyColumns != null) {
+					Object[] key = new Object[keyColumns.length];
+					for (int i = 0; i < keyColumns.length; i++) {
+						key[i] = rs.getObject(keyColumns[i]);
+					}
+					keys.add(key);
+				}
+			}
+		});
+		references.resolve();
+
+		return total[0];
+	}
+
+	/**
+	 * Adds ORDER BY orderBy (may be null), then the dialect's paging clause and
+	 * its bind parameters. OFFSET ... FETCH needs an ORDER BY on sql server and
+	 * pages are not stable without one, so without orderBy the rows are ordered
+	 * by the id column.
+	 */
+	public String page(String sql, List<Object> args, String orderBy, int offset, int limit) {
+		if (orderBy != null) {
+			sql += " ORDER BY " + orderBy;
+		}
+
+		if (limitOffset) {
+			args.add(limit);
+			args.add(offset);
+			return sql + " LIMIT ? OFFSET ?";
+		}
+
+		if (orderBy == null) {
+			if (getMapping().getIdColumn() != null) {
+				sql += " ORDER BY " + getMapping().qualify(ALIAS, TableMapping.ID_ATTRIBUTE);
+			} else if (!"oracle".equals(dialect)) {
+				// No id column (fact_relationship). Any order will do.
+				sql += " ORDER BY (SELECT NULL)";
+			}
+		}
+
+		args.add(offset);
+		args.add(limit);
+		return sql + " OFFSET ? ROWS FETCH NEXT ? ROWS ONLY";
+	}
+
+	public String getSelectSql() {
+		return selectSql;
+	}
+
+	public String getCountSql() {
+		return countSql;
+	}
+
 	public T findById(Class<T> entityClass, Long id) {
-		return null;
+		if (id == null || getMapping().getIdColumn() == null) return null;
+
+		List<Object> args = new ArrayList<Object>();
+		args.add(id);
+		List<T> rows = select(getMapping().qualify(ALIAS, TableMapping.ID_ATTRIBUTE) + " = ?", args, null, 0, 0);
+		return rows.isEmpty() ? null : rows.get(0);
 	}
-	
+
+	/**
+	 * Loads the rows with the given ids. References are registered in the given
+	 * resolver but not resolved.
+	 */
+	public List<T> findByIds(List<?> ids, ReferenceResolver references) {
+		List<T> rows = new ArrayList<T>();
+		if (ids == null || ids.isEmpty()) return rows;
+
+		String idColumn = getMapping().qualify(ALIAS, TableMapping.ID_ATTRIBUTE);
+		for (int i = 0; i < ids.size(); i += ID_CHUNK_SIZE) {
+			List<?> chunk = ids.subList(i, Math.min(i + ID_CHUNK_SIZE, ids.size()));
+			String sql = selectSql + " WHERE " + idColumn + " IN ("
+					+ String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+			rows.addAll(query(sql, new ArrayList<Object>(chunk), references, null, null));
+		}
+
+		return rows;
+	}
+
+	public List<T> findByIds(List<?> ids) {
+		ReferenceResolver references = newReferenceResolver();
+		List<T> rows = findByIds(ids, references);
+		references.resolve();
+
+		return rows;
+	}
+
+	/**
+	 * Reserves count ids of this table's sequence for the current transaction.
+	 * add() and addAll() use them before asking the sequence again. Ids not
+	 * used by the end of the transaction are dropped.
+	 */
+	public void reserveIds(int count) {
+		if (count <= 0 || nextIdSql == null) return;
+
+		Deque<Long> reserved = reservedIds.get();
+		if (reserved == null) {
+			reserved = new ArrayDeque<Long>();
+			reservedIds.set(reserved);
+			if (TransactionSynchronizationManager.isSynchronizationActive()) {
+				TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+					@Override
+					public void afterCompletion(int status) {
+						reservedIds.remove();
+					}
+				});
+			}
+		}
+
+		if (nextIdsSql != null) {
+			reserved.addAll(jdbcTemplate.queryForList(nextIdsSql, Long.class, count));
+		} else {
+			for (int i = 0; i < count; i++) {
+				reserved.add(jdbcTemplate.queryForObject(nextIdSql, Long.class));
+			}
+		}
+	}
+
+	private Long nextId() {
+		Deque<Long> reserved = reservedIds.get();
+		if (reserved != null && !reserved.isEmpty()) {
+			return reserved.poll();
+		}
+
+		return jdbcTemplate.queryForObject(nextIdSql, Long.class);
+	}
+
+	public void add(T baseEntity) {
+		TableMapping mapping = getMapping();
+		Object[] values = getValues(baseEntity);
+		List<Boolean> joined = mapping.getWriteColumnTables();
+
+		Long id = baseEntity.getIdAsLong();
+		if (mapping.getIdColumn() != null && id == null && nextIdSql != null) {
+			id = nextId();
+			setId(baseEntity, id);
+		}
+
+		if (mapping.getIdColumn() != null && id == null) {
+			// No sequence. Let the database generate the id.
+			final Object[] args = toJdbc(split(values, joined, false, null));
+			KeyHolder keyHolder = new GeneratedKeyHolder();
+			final String idColumn = mapping.getIdColumn();
+			jdbcTemplate.update(new PreparedStatementCreator() {
+				@Override
+				public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
+					PreparedStatement ps = connection.prepareStatement(insertWithoutIdSql, new String[] { idColumn });
+					for (int i = 0; i < args.length; i++) {
+						ps.setObject(i + 1, args[i]);
+					}
+					return ps;
+				}
+			}, keyHolder);
+			if (keyHolder.getKey() != null) {
+				setId(baseEntity, keyHolder.getKey().longValue());
+			}
+			return;
+		}
+
+		if (joinInsertSql != null) {
+			jdbcTemplate.update(joinInsertSql, toJdbc(split(values, joined, true, id)));
+		}
+		jdbcTemplate.update(insertSql, toJdbc(split(values, joined, false, mapping.getIdColumn() == null ? null : id)));
+	}
+
+	/**
+	 * Inserts entities with JDBC batches. Missing ids are reserved from the
+	 * sequence in one block first. Tables without a sequence fall back to
+	 * add() per entity, since the generated ids have to be read back.
+	 */
+	public void addAll(List<T> entities) {
+		if (entities.isEmpty()) return;
+
+		TableMapping mapping = getMapping();
+		if (mapping.getIdColumn() != null && nextIdSql == null) {
+			for (T entity : entities) {
+				add(entity);
+			}
+			return;
+		}
+
+		if (mapping.getIdColumn() != null) {
+			int missing = 0;
+			for (T entity : entities) {
+				if (entity.getIdAsLong() == null) missing++;
+			}
+			Deque<Long> reserved = reservedIds.get();
+			reserveIds(missing - (reserved == null ? 0 : reserved.size()));
+			for (T entity : entities) {
+				if (entity.getIdAsLong() == null) {
+					setId(entity, nextId());
+				}
+			}
+		}
+
+		List<Boolean> joined = mapping.getWriteColumnTables();
+		final List<Object[]> joinArgs = new ArrayList<Object[]>(entities.size());
+		final List<Object[]> args = new ArrayList<Object[]>(entities.size());
+		for (T entity : entities) {
+			Object[] values = getValues(entity);
+			Long id = entity.getIdAsLong();
+			if (joinInsertSql != null) {
+				joinArgs.add(toJdbc(split(values, joined, true, id)));
+			}
+			args.add(toJdbc(split(values, joined, false, mapping.getIdColumn() == null ? null : id)));
+		}
+
+		if (joinInsertSql != null) {
+			batchUpdate(joinInsertSql, joinArgs);
+		}
+		batchUpdate(insertSql, args);
+	}
+
+	private void batchUpdate(String sql, final List<Object[]> rows) {
+		jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+			@Override
+			public void setValues(PreparedStatement ps, int i) throws SQLException {
+				Object[] row = rows.get(i);
+				for (int j = 0; j < row.length; j++) {
+					ps.setObject(j + 1, row[j]);
+				}
+			}
+
+			@Override
+			public int getBatchSize() {
+				return rows.size();
+			}
+		});
+	}
+
 	public void merge(T baseEntity) {
+		if (updateSql == null) {
+			throw new UnsupportedOperationException(getMapping().getTable() + " has no id. It cannot be updated.");
+		}
+
+		Object[] values = getValues(baseEntity);
+		List<Boolean> joined = getMapping().getWriteColumnTables();
+		Long id = baseEntity.getIdAsLong();
+
+		if (joinUpdateSql != null) {
+			List<Object> args = split(values, joined, true, null);
+			args.add(id);
+			jdbcTemplate.update(joinUpdateSql, toJdbc(args));
+		}
+
+		List<Object> args = split(values, joined, false, null);
+		args.add(id);
+		jdbcTemplate.update(updateSql, toJdbc(args));
 	}
 
+	/**
+	 * Marks the current transaction rollback-only.
+	 */
 	public void rollback() {
+		if (TransactionSynchronizationManager.isActualTransactionActive()) {
+			TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+		}
+	}
+
+	public Long delete(Class<T> entityClass, Long id) {
+		if (deleteSql == null || id == null) return 0L;
+
+		int deleted = jdbcTemplate.update(deleteSql, id);
+		if (joinDeleteSql != null) {
+			deleted += jdbcTemplate.update(joinDeleteSql, id);
+		}
+
+		return deleted > 0 ? id : 0L;
+	}
+
+	private List<Object> split(Object[] values, List<Boolean> joined, boolean joinedTable, Long id) {
+		List<Object> args = new ArrayList<Object>();
+		if (id != null) {
+			args.add(id);
+		}
+		for (int i = 0; i < values.length; i++) {
+			if (joined.get(i) == joinedTable) {
+				args.add(values[i]);
+			}
+		}
+
+		return args;
+	}
+
+	private static Object[] toJdbc(List<Object> args) {
+		if (args == null) return new Object[0];
+
+		Object[] jdbcArgs = new Object[args.size()];
+		for (int i = 0; i < jdbcArgs.length; i++) {
+			jdbcArgs[i] = toJdbc(args.get(i));
+		}
+
+		return jdbcArgs;
+	}
+
+	private static Object toJdbc(Object value) {
+		if (value instanceof Date && !(value instanceof java.sql.Date) && !(value instanceof Timestamp)) {
+			return new Timestamp(((Date) value).getTime());
+		} else if (value instanceof Character) {
+			return value.toString();
+		}
+
+		return value;
+	}
+
+	// Row mapping helpers. JDBC returns 0 for null numbers, so check wasNull().
+
+	protected static Long getLong(ResultSet rs, String column) throws SQLException {
+		long value = rs.getLong(column);
+		return rs.wasNull() ? null : value;
+	}
+
+	protected static Integer getInteger(ResultSet rs, String column) throws SQLException {
+		int value = rs.getInt(column);
+		return rs.wasNull() ? null : value;
+	}
+
+	protected static Short getShort(ResultSet rs, String column) throws SQLException {
+		short value = rs.getShort(column);
+		return rs.wasNull() ? null : value;
+	}
+
+	protected static Double getDouble(ResultSet rs, String column) throws SQLException {
+		double value = rs.getDouble(column);
+		return rs.wasNull() ? null : value;
+	}
+
+	protected static BigDecimal getBigDecimal(ResultSet rs, String column) throws SQLException {
+		return rs.getBigDecimal(column);
+	}
+
+	protected static Date getDate(ResultSet rs, String column) throws SQLException {
+		Timestamp value = rs.getTimestamp(column);
+		return value == null ? null : new Date(value.getTime());
+	}
+
+	protected static Character getCharacter(ResultSet rs, String column) throws SQLException {
+		String value = rs.getString(column);
+		return (value == null || value.isEmpty()) ? null : value.charAt(0);
 	}
 
-	public Long delete(Class<T> entityClass, Long id) {		
-		return 0L;
+	protected static Long id(BaseEntity entity) {
+		return entity == null ? null : entity.getIdAsLong();
 	}
-	
 }
@@ -16,11 +16,59 @@
  *******************************************************************************/
 package edu.gatech.chai.omopv5.sqlrender.dao;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
 import org.springframework.stereotype.Repository;
 
 import edu.gatech.chai.omopv5.model.entity.CareSite;
+import edu.gatech.chai.omopv5.model.entity.Concept;
+import edu.gatech.chai.omopv5.model.entity.Location;
 
 @Repository
 public class CareSiteDao extends BaseEntityDao<CareSite> {
+	public static final TableMapping MAPPING = new TableMapping("care_site", "care_site_id", Long.class, "caresite_id_seq")
+			.reference("location", "location_id", LocationDao.MAPPING)
+			.reference("placeOfServiceConcept", "place_of_service_concept_id", ConceptDao.MAPPING)
+			.column("careSiteName", "care_site_name", String.class)
+			.column("careSiteSourceValue", "care_site_source_value", String.class)
+			.column("placeOfServiceSourceValue", "place_of_service_source_value", String.class);
+
+	public CareSiteDao() {
+		super(CareSite.class);
+	}
+
+	@Override
+	public TableMapping getMapping() {
+		return MAPPING;
+	}
+
+	@Override
+	protected CareSite mapRow(ResultSet rs, ReferenceResolver references) throws SQLException {
+		CareSite careSite = new CareSite();
+		careSite.setId(getLong(rs, "care_site_id"));
+		references.add(Location.class, getLong(rs, "location_id"), careSite::setLocation);
+		references.add(Concept.class, getLong(rs, "place_of_service_concept_id"), careSite::setPlaceOfServiceConcept);
+		careSite.setCareSiteName(rs.getString("care_site_name"));
+		careSite.setCareSiteSourceValue(rs.getString("care_site_source_value"));
+		careSite.setPlaceOfServiceSourceValue(rs.getString("place_of_service_source_value"));
+
+		return careSite;
+	}
+
+	@Override
+	protected Object[] getValues(CareSite careSite) {
+		return new Object[] {
+				id(careSite.getLocation()),
+				id(careSite.getPlaceOfServiceConcept()),
+				careSite.getCareSiteName(),
+				careSite.getCareSiteSourceValue(),
+				careSite.getPlaceOfServiceSourceValue()
+		};
+	}
 
+	@Override
+	protected void setId(CareSite careSite, Long id) {
+		careSite.setId(id);
+	}
 }
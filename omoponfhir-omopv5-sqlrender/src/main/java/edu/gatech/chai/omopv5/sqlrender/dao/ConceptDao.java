@@ -16,11 +16,71 @@
  *******************************************************************************/
 package edu.gatech.chai.omopv5.sqlrender.dao;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+
 import org.springframework.stereotype.Repository;
 
 import edu.gatech.chai.omopv5.model.entity.Concept;
+import edu.gatech.chai.omopv5.model.entity.Vocabulary;
 
 @Repository
 public class ConceptDao extends BaseEntityDao<Concept> {
+	public static final TableMapping MAPPING = new TableMapping("concept", "concept_id", Long.class, null)
+			.column("name", "concept_name", String.class)
+			.column("domain", "domain_id", String.class)
+			.column("conceptClass", "concept_class_id", String.class)
+			.column("standardConcept", "standard_concept", String.class)
+			.reference("vocabulary", "vocabulary_id", VocabularyDao.MAPPING)
+			.column("conceptCode", "concept_code", String.class)
+			.column("validStartDate", "valid_start_date", Date.class)
+			.column("validEndDate", "valid_end_date", Date.class)
+			.column("invalidReason", "invalid_reason", String.class);
+
+	public ConceptDao() {
+		super(Concept.class);
+	}
+
+	@Override
+	public TableMapping getMapping() {
+		return MAPPING;
+	}
+
+	@Override
+	protected Concept mapRow(ResultSet rs, ReferenceResolver references) throws SQLException {
+		Concept concept = new Concept();
+		concept.setId(getLong(rs, "concept_id"));
+		concept.setName(rs.getString("concept_name"));
+		concept.setDomain(rs.getString("domain_id"));
+		concept.setConceptClass(rs.getString("concept_class_id"));
+		concept.setStandardConcept(getCharacter(rs, "standard_concept"));
+		references.add(Vocabulary.class, rs.getString("vocabulary_id"), concept::setVocabulary);
+		concept.setConceptCode(rs.getString("concept_code"));
+		concept.setValidStartDate(getDate(rs, "valid_start_date"));
+		concept.setValidEndDate(getDate(rs, "valid_end_date"));
+		concept.setInvalidReason(rs.getString("invalid_reason"));
+
+		return concept;
+	}
+
+	@Override
+	protected Object[] getValues(Concept concept) {
+		return new Object[] {
+				concept.getName(),
+				concept.getDomain(),
+				concept.getConceptClass(),
+				concept.getStandardConcept(),
+				concept.getVocabulary() == null ? null : concept.getVocabulary().getId(),
+				concept.getConceptCode(),
+				concept.getValidStartDate(),
+				concept.getValidEndDate(),
+				concept.getInvalidReason()
+		};
+	}
 
+	@Override
+	protected void setId(Concept concept, Long id) {
+		concept.setId(id);
+	}
 }
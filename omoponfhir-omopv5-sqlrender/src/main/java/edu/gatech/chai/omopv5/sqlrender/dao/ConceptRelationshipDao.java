@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package edu.gatech.chai.omopv5.sqlrender.dao;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+
+import org.springframework.stereotype.Repository;
+
+import edu.gatech.chai.omopv5.model.entity.ConceptRelationship;
+import edu.gatech.chai.omopv5.model.entity.ConceptRelationshipPK;
+
+/**
+ * concept_relationship has a composite key and no id column. Its key columns
+ * are mapped as "id.concept1", "id.concept2" and "id.relationshipId", the
+ * same paths as the embedded id in jpabase.
+ */
+@Repository
+public class ConceptRelationshipDao extends BaseEntityDao<ConceptRelationship> {
+	public static final TableMapping MAPPING = new TableMapping("concept_relationship", null, Long.class, null)
+			.column("id.concept1", "concept_id_1", Long.class)
+			.column("id.concept2", "concept_id_2", Long.class)
+			.column("id.relationshipId", "relationship_id", String.class)
+			.column("validStartDate", "valid_start_date", Date.class)
+			.column("validEndDate", "valid_end_date", Date.class)
+			.column("invalidReason", "invalid_reason", String.class);
+
+	public ConceptRelationshipDao() {
+		super(ConceptRelationship.class);
+	}
+
+	@Override
+	public TableMapping getMapping() {
+		return MAPPING;
+	}
+
+	@Override
+	protected ConceptRelationship mapRow(ResultSet rs, ReferenceResolver references) throws SQLException {
+		ConceptRelationshipPK id = new ConceptRelationshipPK();
+		id.setConcept1(getLong(rs, "concept_id_1"));
+		id.setConcept2(getLong(rs, "concept_id_2"));
+		id.setRelationshipId(rs.getString("relationship_id"));
+
+		ConceptRelationship conceptRelationship = new ConceptRelationship();
+		conceptRelationship.setId(id);
+		conceptRelationship.setValidStartDate(getDate(rs, "valid_start_date"));
+		conceptRelationship.setValidEndDate(getDate(rs, "valid_end_date"));
+		conceptRelationship.setInvalidReason(rs.getString("invalid_reason"));
+
+		return conceptRelationship;
+	}
+
+	@Override
+	protected Object[] getValues(ConceptRelationship conceptRelationship) {
+		ConceptRelationshipPK id = conceptRelationship.getId();
+		return new Object[] {
+				id == null ? null : id.getConcept1(),
+				id == null ? null : id.getConcept2(),
+				id == null ? null : id.getRelationshipId(),
+				conceptRelationship.getValidStartDate(),
+				conceptRelationship.getValidEndDate(),
+				conceptRelationship.getInvalidReason()
+		};
+	}
+
+	@Override
+	protected void setId(ConceptRelationship conceptRelationship, Long id) {
+		// The key is the three key columns. It is never generated.
+	}
+}
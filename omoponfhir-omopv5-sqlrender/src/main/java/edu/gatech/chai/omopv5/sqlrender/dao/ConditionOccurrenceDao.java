@@ -16,11 +16,77 @@
  *******************************************************************************/
 package edu.gatech.chai.omopv5.sqlrender.dao;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+
 import org.springframework.stereotype.Repository;
 
+import edu.gatech.chai.omopv5.model.entity.Concept;
 import edu.gatech.chai.omopv5.model.entity.ConditionOccurrence;
+import edu.gatech.chai.omopv5.model.entity.FPerson;
+import edu.gatech.chai.omopv5.model.entity.Provider;
+import edu.gatech.chai.omopv5.model.entity.VisitOccurrence;
 
 @Repository
-public class ConditionOccurrenceDao extends BaseEntityDao<ConditionOccurrence>{
+public class ConditionOccurrenceDao extends BaseEntityDao<ConditionOccurrence> {
+	public static final TableMapping MAPPING = new TableMapping("condition_occurrence", "condition_occurrence_id", Long.class, "condition_occurrence_id_seq")
+			.reference("fPerson", "person_id", FPersonDao.MAPPING)
+			.reference("conceptId", "condition_concept_id", ConceptDao.MAPPING)
+			.column("startDate", "condition_start_date", Date.class)
+			.column("endDate", "condition_end_date", Date.class)
+			.reference("typeConceptId", "condition_type_concept_id", ConceptDao.MAPPING)
+			.column("stopReason", "stop_reason", String.class)
+			.reference("provider", "provider_id", ProviderDao.MAPPING)
+			.reference("visitOccurrence", "visit_occurrence_id", VisitOccurrenceDao.MAPPING)
+			.column("conditionSourceValue", "condition_source_value", String.class)
+			.reference("sourceConceptId", "condition_source_concept_id", ConceptDao.MAPPING);
+
+	public ConditionOccurrenceDao() {
+		super(ConditionOccurrence.class);
+	}
+
+	@Override
+	public TableMapping getMapping() {
+		return MAPPING;
+	}
+
+	@Override
+	protected ConditionOccurrence mapRow(ResultSet rs, ReferenceResolver references) throws SQLException {
+		ConditionOccurrence conditionOccurrence = new ConditionOccurrence();
+		conditionOccurrence.setId(getLong(rs, "condition_occurrence_id"));
+		references.add(FPerson.class, getLong(rs, "person_id"), conditionOccurrence::setFPerson);
+		references.add(Concept.class, getLong(rs, "condition_concept_id"), conditionOccurrence::setConceptId);
+		conditionOccurrence.setStartDate(getDate(rs, "condition_start_date"));
+		conditionOccurrence.setEndDate(getDate(rs, "condition_end_date"));
+		references.add(Concept.class, getLong(rs, "condition_type_concept_id"), conditionOccurrence::setTypeConceptId);
+		conditionOccurrence.setStopReason(rs.getString("stop_reason"));
+		references.add(Provider.class, getLong(rs, "provider_id"), conditionOccurrence::setProvider);
+		references.add(VisitOccurrence.class, getLong(rs, "visit_occurrence_id"), conditionOccurrence::setVisitOccurrence);
+		conditionOccurrence.setConditionSourceValue(rs.getString("condition_source_value"));
+		references.add(Concept.class, getLong(rs, "condition_source_concept_id"), conditionOccurrence::setSourceConceptId);
+
+		return conditionOccurrence;
+	}
+
+	@Override
+	protected Object[] getValues(ConditionOccurrence conditionOccurrence) {
+		return new Object[] {
+				id(conditionOccurrence.getFPerson()),
+				id(conditionOccurrence.getConceptId()),
+				conditionOccurrence.getStartDate(),
+				conditionOccurrence.getEndDate(),
+				id(conditionOccurrence.getTypeConceptId()),
+				conditionOccurrence.getStopReason(),
+				id(conditionOccurrence.getProvider()),
+				id(conditionOccurrence.getVisitOccurrence()),
+				conditionOccurrence.getConditionSourceValue(),
+				id(conditionOccurrence.getSourceConceptId())
+		};
+	}
 
-}
\ No newline at end of file
+	@Override
+	protected void setId(ConditionOccurrence conditionOccurrence, Long id) {
+		conditionOccurrence.setId(id);
+	}
+}
@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package edu.gatech.chai.omopv5.sqlrender.dao;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import edu.gatech.chai.omopv5.model.entity.BaseEntity;
+
+/**
+ * Finds the DAO of an entity class. This is used to load references.
+ */
+@Component
+public class DaoRegistry {
+	@Autowired
+	private List<BaseEntityDao<? extends BaseEntity>> daos;
+
+	private final Map<Class<?>, BaseEntityDao<? extends BaseEntity>> daosByClass = new HashMap<Class<?>, BaseEntityDao<? extends BaseEntity>>();
+
+	@PostConstruct
+	public void init() {
+		for (BaseEntityDao<? extends BaseEntity> dao : daos) {
+			daosByClass.put(dao.getEntityClass(), dao);
+		}
+	}
+
+	public BaseEntityDao<? extends BaseEntity> getDao(Class<?> entityClass) {
+		BaseEntityDao<? extends BaseEntity> dao = daosByClass.get(entityClass);
+		if (dao == null) {
+			throw new IllegalArgumentException("No DAO for " + entityClass.getName());
+		}
+
+		return dao;
+	}
+}
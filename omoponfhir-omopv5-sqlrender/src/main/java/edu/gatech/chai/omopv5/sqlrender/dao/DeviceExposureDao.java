@@ -16,11 +16,80 @@
  *******************************************************************************/
 package edu.gatech.chai.omopv5.sqlrender.dao;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+
 import org.springframework.stereotype.Repository;
 
+import edu.gatech.chai.omopv5.model.entity.Concept;
 import edu.gatech.chai.omopv5.model.entity.DeviceExposure;
+import edu.gatech.chai.omopv5.model.entity.FPerson;
+import edu.gatech.chai.omopv5.model.entity.Provider;
+import edu.gatech.chai.omopv5.model.entity.VisitOccurrence;
 
 @Repository
 public class DeviceExposureDao extends BaseEntityDao<DeviceExposure> {
+	public static final TableMapping MAPPING = new TableMapping("device_exposure", "device_exposure_id", Long.class, "device_exposure_id_seq")
+			.reference("fPerson", "person_id", FPersonDao.MAPPING)
+			.reference("deviceConcept", "device_concept_id", ConceptDao.MAPPING)
+			.column("deviceExposureStartDate", "device_exposure_start_date", Date.class)
+			.column("deviceExposureEndDate", "device_exposure_end_date", Date.class)
+			.column("uniqueDeviceId", "unique_device_id", String.class)
+			.reference("deviceTypeConcept", "device_type_concept_id", ConceptDao.MAPPING)
+			.reference("provider", "provider_id", ProviderDao.MAPPING)
+			.reference("visitOccurrence", "visit_occurrence_id", VisitOccurrenceDao.MAPPING)
+			.reference("deviceSourceConcept", "device_source_concept_id", ConceptDao.MAPPING)
+			.column("deviceSourceValue", "device_source_value", String.class)
+			.column("quantity", "quantity", Integer.class);
+
+	public DeviceExposureDao() {
+		super(DeviceExposure.class);
+	}
+
+	@Override
+	public TableMapping getMapping() {
+		return MAPPING;
+	}
+
+	@Override
+	protected DeviceExposure mapRow(ResultSet rs, ReferenceResolver references) throws SQLException {
+		DeviceExposure deviceExposure = new DeviceExposure();
+		deviceExposure.setId(getLong(rs, "device_exposure_id"));
+		references.add(FPerson.class, getLong(rs, "person_id"), deviceExposure::setFPerson);
+		references.add(Concept.class, getLong(rs, "device_concept_id"), deviceExposure::setDeviceConcept);
+		deviceExposure.setDeviceExposureStartDate(getDate(rs, "device_exposure_start_date"));
+		deviceExposure.setDeviceExposureEndDate(getDate(rs, "device_exposure_end_date"));
+		deviceExposure.setUniqueDeviceId(rs.getString("unique_device_id"));
+		references.add(Concept.class, getLong(rs, "device_type_concept_id"), deviceExposure::setDeviceTypeConcept);
+		references.add(Provider.class, getLong(rs, "provider_id"), deviceExposure::setProvider);
+		references.add(VisitOccurrence.class, getLong(rs, "visit_occurrence_id"), deviceExposure::setVisitOccurrence);
+		references.add(Concept.class, getLong(rs, "device_source_concept_id"), deviceExposure::setDeviceSourceConcept);
+		deviceExposure.setDeviceSourceValue(rs.getString("device_source_value"));
+		deviceExposure.setQuantity(getInteger(rs, "quantity"));
+
+		return deviceExposure;
+	}
+
+	@Override
+	protected Object[] getValues(DeviceExposure deviceExposure) {
+		return new Object[] {
+				id(deviceExposure.getFPerson()),
+				id(deviceExposure.getDeviceConcept()),
+				deviceExposure.getDeviceExposureStartDate(),
+				deviceExposure.getDeviceExposureEndDate(),
+				deviceExposure.getUniqueDeviceId(),
+				id(deviceExposure.getDeviceTypeConcept()),
+				id(deviceExposure.getProvider()),
+				id(deviceExposure.getVisitOccurrence()),
+				id(deviceExposure.getDeviceSourceConcept()),
+				deviceExposure.getDeviceSourceValue(),
+				deviceExposure.getQuantity()
+		};
+	}
 
+	@Override
+	protected void setId(DeviceExposure deviceExposure, Long id) {
+		deviceExposure.setId(id);
+	}
 }
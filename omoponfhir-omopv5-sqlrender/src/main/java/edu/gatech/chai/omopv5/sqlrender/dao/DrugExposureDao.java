@@ -16,11 +16,107 @@
  *******************************************************************************/
 package edu.gatech.chai.omopv5.sqlrender.dao;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+
 import org.springframework.stereotype.Repository;
 
+import edu.gatech.chai.omopv5.model.entity.Concept;
 import edu.gatech.chai.omopv5.model.entity.DrugExposure;
+import edu.gatech.chai.omopv5.model.entity.FPerson;
+import edu.gatech.chai.omopv5.model.entity.Provider;
+import edu.gatech.chai.omopv5.model.entity.VisitOccurrence;
 
 @Repository
 public class DrugExposureDao extends BaseEntityDao<DrugExposure> {
+	public static final TableMapping MAPPING = new TableMapping("drug_exposure", "drug_exposure_id", Long.class, "drug_exposure_id_seq")
+			.reference("fPerson", "person_id", FPersonDao.MAPPING)
+			.reference("drugConcept", "drug_concept_id", ConceptDao.MAPPING)
+			.column("drugExposureStartDate", "drug_exposure_start_date", Date.class)
+			.column("drugExposureEndDate", "drug_exposure_end_date", Date.class)
+			.reference("drugTypeConcept", "drug_type_concept_id", ConceptDao.MAPPING)
+			.column("stopReason", "stop_reason", String.class)
+			.column("refills", "refills", Integer.class)
+			.column("quantity", "quantity", Double.class)
+			.column("daysSupply", "days_supply", Integer.class)
+			.column("sig", "sig", String.class)
+			.reference("routeConcept", "route_concept_id", ConceptDao.MAPPING)
+			.column("effectiveDrugDose", "effective_drug_dose", Double.class)
+			.reference("doseUnitConcept", "dose_unit_concept_id", ConceptDao.MAPPING)
+			.column("lotNumber", "lot_number", String.class)
+			.reference("provider", "provider_id", ProviderDao.MAPPING)
+			.reference("visitOccurrence", "visit_occurrence_id", VisitOccurrenceDao.MAPPING)
+			.column("drugSourceValue", "drug_source_value", String.class)
+			.reference("drugSourceConcept", "drug_source_concept_id", ConceptDao.MAPPING)
+			.column("routeSourceValue", "route_source_value", String.class)
+			.column("doseUnitSourceValue", "dose_unit_source_value", String.class);
+
+	public DrugExposureDao() {
+		super(DrugExposure.class);
+	}
+
+	@Override
+	public TableMapping getMapping() {
+		return MAPPING;
+	}
+
+	@Override
+	protected DrugExposure mapRow(ResultSet rs, ReferenceResolver references) throws SQLException {
+		DrugExposure drugExposure = new DrugExposure();
+		drugExposure.setId(getLong(rs, "drug_exposure_id"));
+		references.add(FPerson.class, getLong(rs, "person_id"), drugExposure::setFPerson);
+		references.add(Concept.class, getLong(rs, "drug_concept_id"), drugExposure::setDrugConcept);
+		drugExposure.setDrugExposureStartDate(getDate(rs, "drug_exposure_start_date"));
+		drugExposure.setDrugExposureEndDate(getDate(rs, "drug_exposure_end_date"));
+		references.add(Concept.class, getLong(rs, "drug_type_concept_id"), drugExposure::setDrugTypeConcept);
+		drugExposure.setStopReason(rs.getString("stop_reason"));
+		drugExposure.setRefills(getInteger(rs, "refills"));
+		drugExposure.setQuantity(getDouble(rs, "quantity"));
+		drugExposure.setDaysSupply(getInteger(rs, "days_supply"));
+		drugExposure.setSig(rs.getString("sig"));
+		references.add(Concept.class, getLong(rs, "route_concept_id"), drugExposure::setRouteConcept);
+		drugExposure.setEffectiveDrugDose(getDouble(rs, "effective_drug_dose"));
+		references.add(Concept.class, getLong(rs, "dose_unit_concept_id"), drugExposure::setDoseUnitConcept);
+		drugExposure.setLotNumber(rs.getString("lot_number"));
+		references.add(Provider.class, getLong(rs, "provider_id"), drugExposure::setProvider);
+		references.add(VisitOccurrence.class, getLong(rs, "visit_occurrence_id"), drugExposure::setVisitOccurrence);
+		drugExposure.setDrugSourceValue(rs.getString("drug_source_value"));
+		references.add(Concept.class, getLong(rs, "drug_source_concept_id"), drugExposure::setDrugSourceConcpet);
+		drugExposure.setRouteSourceValue(rs.getString("route_source_value"));
+		drugExposure.setDoseUnitSourceValue(rs.getString("dose_unit_source_value"));
+
+		return drugExposure;
+	}
+
+	@Override
+	protected Object[] getValues(DrugExposure drugExposure) {
+		return new Object[] {
+				id(drugExposure.getFPerson()),
+				id(drugExposure.getDrugConcept()),
+				drugExposure.getDrugExposureStartDate(),
+				drugExposure.getDrugExposureEndDate(),
+				id(drugExposure.getDrugTypeConcept()),
+				drugExposure.getStopReason(),
+				drugExposure.getRefills(),
+				drugExposure.getQuantity(),
+				drugExposure.getDaysSupply(),
+				drugExposure.getSig(),
+				id(drugExposure.getRouteConcept()),
+				drugExposure.getEffectiveDrugDose(),
+				id(drugExposure.getDoseUnitConcept()),
+				drugExposure.getLotNumber(),
+				id(drugExposure.getProvider()),
+				id(drugExposure.getVisitOccurrence()),
+				drugExposure.getDrugSourceValue(),
+				id(drugExposure.getDrugSourceConcept()),
+				drugExposure.getRouteSourceValue(),
+				drugExposure.getDoseUnitSourceValue()
+		};
+	}
 
+	@Override
+	protected void setId(DrugExposure drugExposure, Long id) {
+		drugExposure.setId(id);
+	}
 }
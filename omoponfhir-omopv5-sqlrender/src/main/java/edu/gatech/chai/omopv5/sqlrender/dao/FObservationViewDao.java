@@ -16,11 +16,108 @@
  *******************************************************************************/
 package edu.gatech.chai.omopv5.sqlrender.dao;
 
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+
 import org.springframework.stereotype.Repository;
 
+import edu.gatech.chai.omopv5.model.entity.Concept;
 import edu.gatech.chai.omopv5.model.entity.FObservationView;
+import edu.gatech.chai.omopv5.model.entity.FPerson;
+import edu.gatech.chai.omopv5.model.entity.Provider;
+import edu.gatech.chai.omopv5.model.entity.VisitOccurrence;
 
 @Repository
 public class FObservationViewDao extends BaseEntityDao<FObservationView> {
+	public static final TableMapping MAPPING = new TableMapping("f_observation_view", "observation_id", Long.class, null)
+			.reference("fPerson", "person_id", FPersonDao.MAPPING)
+			.reference("observationConcept", "observation_concept_id", ConceptDao.MAPPING)
+			.column("date", "observation_date", Date.class)
+			.column("time", "observation_time", String.class)
+			.column("valueAsString", "value_as_string", String.class)
+			.column("valueAsNumber", "value_as_number", Double.class)
+			.reference("valueAsConcept", "value_as_concept_id", ConceptDao.MAPPING)
+			.reference("typeConcept", "observation_type_concept_id", ConceptDao.MAPPING)
+			.reference("provider", "provider_id", ProviderDao.MAPPING)
+			.reference("visitOccurrence", "visit_occurrence_id", VisitOccurrenceDao.MAPPING)
+			.column("sourceValue", "source_value", String.class)
+			.reference("sourceConcept", "source_concept_id", ConceptDao.MAPPING)
+			.reference("qualifierConcept", "qualifier_concept_id", ConceptDao.MAPPING)
+			.column("qualifierSourceValue", "qualifier_source_value", String.class)
+			.reference("unitConcept", "unit_concept_id", ConceptDao.MAPPING)
+			.column("unitSourceValue", "unit_source_value", String.class)
+			.column("rangeLow", "range_low", BigDecimal.class)
+			.column("rangeHigh", "range_high", BigDecimal.class)
+			.column("valueSourceValue", "value_source_value", String.class)
+			.reference("operatorConcept", "observation_operator_concept_id", ConceptDao.MAPPING);
+
+	public FObservationViewDao() {
+		super(FObservationView.class);
+	}
+
+	@Override
+	public TableMapping getMapping() {
+		return MAPPING;
+	}
+
+	@Override
+	protected FObservationView mapRow(ResultSet rs, ReferenceResolver references) throws SQLException {
+		FObservationView fObservationView = new FObservationView();
+		fObservationView.setId(getLong(rs, "observation_id"));
+		references.add(FPerson.class, getLong(rs, "person_id"), fObservationView::setFPerson);
+		references.add(Concept.class, getLong(rs, "observation_concept_id"), fObservationView::setObservationConcept);
+		fObservationView.setDate(getDate(rs, "observation_date"));
+		fObservationView.setTime(rs.getString("observation_time"));
+		fObservationView.setValueAsString(rs.getString("value_as_string"));
+		fObservationView.setValueAsNumber(getDouble(rs, "value_as_number"));
+		references.add(Concept.class, getLong(rs, "value_as_concept_id"), fObservationView::setValueAsConcept);
+		references.add(Concept.class, getLong(rs, "observation_type_concept_id"), fObservationView::setTypeConcept);
+		references.add(Provider.class, getLong(rs, "provider_id"), fObservationView::setProvider);
+		references.add(VisitOccurrence.class, getLong(rs, "visit_occurrence_id"), fObservationView::setVisitOccurrence);
+		fObservationView.setSourceValue(rs.getString("source_value"));
+		references.add(Concept.class, getLong(rs, "source_concept_id"), fObservationView::setSourceConcept);
+		references.add(Concept.class, getLong(rs, "qualifier_concept_id"), fObservationView::setQualifierConcept);
+		fObservationView.setQualifierSourceValue(rs.getString("qualifier_source_value"));
+		references.add(Concept.class, getLong(rs, "unit_concept_id"), fObservationView::setUnitConcept);
+		fObservationView.setUnitSourceValue(rs.getString("unit_source_value"));
+		fObservationView.setRangeLow(getBigDecimal(rs, "range_low"));
+		fObservationView.setRangeHigh(getBigDecimal(rs, "range_high"));
+		fObservationView.setValueSourceValue(rs.getString("value_source_value"));
+		references.add(Concept.class, getLong(rs, "observation_operator_concept_id"), fObservationView::setOperatorConcept);
+
+		return fObservationView;
+	}
+
+	@Override
+	protected Object[] getValues(FObservationView fObservationView) {
+		return new Object[] {
+				id(fObservationView.getFPerson()),
+				id(fObservationView.getObservationConcept()),
+				fObservationView.getDate(),
+				fObservationView.getTime(),
+				fObservationView.getValueAsString(),
+				fObservationView.getValueAsNumber(),
+				id(fObservationView.getValueAsConcept()),
+				id(fObservationView.getTypeConcept()),
+				id(fObservationView.getProvider()),
+				id(fObservationView.getVisitOccurrence()),
+				fObservationView.getSourceValue(),
+				id(fObservationView.getSourceConcept()),
+				id(fObservationView.getQualifierConcept()),
+				fObservationView.getQualifierSourceValue(),
+				id(fObservationView.getUnitConcept()),
+				fObservationView.getUnitSourceValue(),
+				fObservationView.getRangeLow(),
+				fObservationView.getRangeHigh(),
+				fObservationView.getValueSourceValue(),
+				id(fObservationView.getOperatorConcept())
+		};
+	}
 
+	@Override
+	protected void setId(FObservationView fObservationView, Long id) {
+		fObservationView.setId(id);
+	}
 }
@@ -16,16 +16,134 @@
  *******************************************************************************/
 package edu.gatech.chai.omopv5.sqlrender.dao;
 
-import javax.persistence.EntityManager;
-import javax.persistence.PersistenceContext;
-import javax.persistence.PersistenceContextType;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 
 import org.springframework.stereotype.Repository;
 
+import edu.gatech.chai.omopv5.model.entity.CareSite;
+import edu.gatech.chai.omopv5.model.entity.Concept;
 import edu.gatech.chai.omopv5.model.entity.FPerson;
+import edu.gatech.chai.omopv5.model.entity.Location;
+import edu.gatech.chai.omopv5.model.entity.Provider;
 
 @Repository
 public class FPersonDao extends BaseEntityDao<FPerson> {
-	@PersistenceContext(type=PersistenceContextType.EXTENDED)
-	private EntityManager em;
+	public static final TableMapping MAPPING = new TableMapping("f_person", "person_id", Long.class, "person_id_seq")
+			.join("person")
+			.joinedReference("genderConcept", "gender_concept_id", ConceptDao.MAPPING)
+			.joinedColumn("yearOfBirth", "year_of_birth", Integer.class)
+			.joinedColumn("monthOfBirth", "month_of_birth", Integer.class)
+			.joinedColumn("dayOfBirth", "day_of_birth", Integer.class)
+			.joinedColumn("timeOfBirth", "time_of_birth", String.class)
+			.joinedReference("raceConcept", "race_concept_id", ConceptDao.MAPPING)
+			.joinedReference("ethnicityConcept", "ethnicity_concept_id", ConceptDao.MAPPING)
+			.joinedReference("location", "location_id", LocationDao.MAPPING)
+			.joinedReference("provider", "provider_id", ProviderDao.MAPPING)
+			.joinedReference("careSite", "care_site_id", CareSiteDao.MAPPING)
+			.joinedColumn("personSourceValue", "person_source_value", String.class)
+			.joinedColumn("genderSourceValue", "gender_source_value", String.class)
+			.joinedReference("genderSourceConcept", "gender_source_concept_id", ConceptDao.MAPPING)
+			.joinedColumn("raceSourceValue", "race_source_value", String.class)
+			.joinedReference("raceSourceConcept", "race_source_concept_id", ConceptDao.MAPPING)
+			.joinedColumn("ethnicitySourceValue", "ethnicity_source_value", String.class)
+			.joinedReference("ethnicitySourceConcept", "ethnicity_source_concept_id", ConceptDao.MAPPING)
+			.column("familyName", "family_name", String.class)
+			.column("givenName1", "given1_name", String.class)
+			.column("givenName2", "given2_name", String.class)
+			.column("prefixName", "prefix_name", String.class)
+			.column("suffixName", "suffix_name", String.class)
+			.column("preferredLanguage", "preferred_language", String.class)
+			.column("ssn", "ssn", String.class)
+			.column("maritalStatus", "maritalstatus", String.class)
+			.column("active", "active", Short.class)
+			.column("contactPoint1", "contact_point1", String.class)
+			.column("contactPoint2", "contact_point2", String.class)
+			.column("contactPoint3", "contact_point3", String.class);
+
+	public FPersonDao() {
+		super(FPerson.class);
+	}
+
+	@Override
+	public TableMapping getMapping() {
+		return MAPPING;
+	}
+
+	@Override
+	protected FPerson mapRow(ResultSet rs, ReferenceResolver references) throws SQLException {
+		FPerson fPerson = new FPerson();
+		fPerson.setId(getLong(rs, "person_id"));
+		references.add(Concept.class, getLong(rs, "gender_concept_id"), fPerson::setGenderConcept);
+		fPerson.setYearOfBirth(getInteger(rs, "year_of_birth"));
+		fPerson.setMonthOfBirth(getInteger(rs, "month_of_birth"));
+		fPerson.setDayOfBirth(getInteger(rs, "day_of_birth"));
+		fPerson.setTimeOfBirth(rs.getString("time_of_birth"));
+		references.add(Concept.class, getLong(rs, "race_concept_id"), fPerson::setRaceConcept);
+		references.add(Concept.class, getLong(rs, "ethnicity_concept_id"), fPerson::setEthnicityConcept);
+		references.add(Location.class, getLong(rs, "location_id"), fPerson::setLocation);
+		references.add(Provider.class, getLong(rs, "provider_id"), fPerson::setProvider);
+		references.add(CareSite.class, getLong(rs, "care_site_id"), fPerson::setCareSite);
+		fPerson.setPersonSourceValue(rs.getString("person_source_value"));
+		fPerson.setGenderSourceValue(rs.getString("gender_source_value"));
+		references.add(Concept.class, getLong(rs, "gender_source_concept_id"), fPerson::setGenderSourceConcept);
+		fPerson.setRaceSourceValue(rs.getString("race_source_value"));
+		references.add(Concept.class, getLong(rs, "race_source_concept_id"), fPerson::setRaceSourceConcept);
+		fPerson.setEthnicitySourceValue(rs.getString("ethnicity_source_value"));
+		references.add(Concept.class, getLong(rs, "ethnicity_source_concept_id"), fPerson::setEthnicitySourceConcept);
+		fPerson.setFamilyName(rs.getString("family_name"));
+		fPerson.setGivenName1(rs.getString("given1_name"));
+		fPerson.setGivenName2(rs.getString("given2_name"));
+		fPerson.setPrefixName(rs.getString("prefix_name"));
+		fPerson.setSuffixName(rs.getString("suffix_name"));
+		fPerson.setPreferredLanguage(rs.getString("preferred_language"));
+		fPerson.setSsn(rs.getString("ssn"));
+		fPerson.setMaritalStatus(rs.getString("maritalstatus"));
+		fPerson.setActive(getShort(rs, "active"));
+		fPerson.setContactPoint1(rs.getString("contact_point1"));
+		fPerson.setContactPoint2(rs.getString("contact_point2"));
+		fPerson.setContactPoint3(rs.getString("contact_point3"));
+
+		return fPerson;
+	}
+
+	@Override
+	protected Object[] getValues(FPerson fPerson) {
+		return new Object[] {
+				id(fPerson.getGenderConcept()),
+				fPerson.getYearOfBirth(),
+				fPerson.getMonthOfBirth(),
+				fPerson.getDayOfBirth(),
+				fPerson.getTimeOfBirth(),
+				id(fPerson.getRaceConcept()),
+				id(fPerson.getEthnicityConcept()),
+				id(fPerson.getLocation()),
+				id(fPerson.getProvider()),
+				id(fPerson.getCareSite()),
+				fPerson.getPersonSourceValue(),
+				fPerson.getGenderSourceValue(),
+				id(fPerson.getGenderSourceConcept()),
+				fPerson.getRaceSourceValue(),
+				id(fPerson.getRaceSourceConcept()),
+				fPerson.getEthnicitySourceValue(),
+				id(fPerson.getEthnicitySourceConcept()),
+				fPerson.getFamilyName(),
+				fPerson.getGivenName1(),
+				fPerson.getGivenName2(),
+				fPerson.getPrefixName(),
+				fPerson.getSuffixName(),
+				fPerson.getPreferredLanguage(),
+				fPerson.getSsn(),
+				fPerson.getMaritalStatus(),
+				fPerson.getActive(),
+				fPerson.getContactPoint1(),
+				fPerson.getContactPoint2(),
+				fPerson.getContactPoint3()
+		};
+	}
+
+	@Override
+	protected void setId(FPerson fPerson, Long id) {
+		fPerson.setId(id);
+	}
 }
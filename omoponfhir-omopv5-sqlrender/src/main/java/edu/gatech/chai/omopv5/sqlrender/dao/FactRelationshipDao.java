@@ -1,10 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
 package edu.gatech.chai.omopv5.sqlrender.dao;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
 import org.springframework.stereotype.Repository;
 
+import edu.gatech.chai.omopv5.model.entity.Concept;
 import edu.gatech.chai.omopv5.model.entity.FactRelationship;
 
 @Repository
 public class FactRelationshipDao extends BaseEntityDao<FactRelationship> {
+	public static final TableMapping MAPPING = new TableMapping("fact_relationship", null, Long.class, null)
+			.column("domainConcept1", "domain_concept_id_1", Long.class)
+			.column("factId1", "fact_id_1", Long.class)
+			.column("domainConcept2", "domain_concept_id_2", Long.class)
+			.column("factId2", "fact_id_2", Long.class)
+			.reference("relationshipConcept", "relationship_concept_id", ConceptDao.MAPPING);
+
+	public FactRelationshipDao() {
+		super(FactRelationship.class);
+	}
+
+	@Override
+	public TableMapping getMapping() {
+		return MAPPING;
+	}
+
+	@Override
+	protected FactRelationship mapRow(ResultSet rs, ReferenceResolver references) throws SQLException {
+		FactRelationship factRelationship = new FactRelationship();
+		factRelationship.setDomainConcept1(getLong(rs, "domain_concept_id_1"));
+		factRelationship.setFactId1(getLong(rs, "fact_id_1"));
+		factRelationship.setDomainConcept2(getLong(rs, "domain_concept_id_2"));
+		factRelationship.setFactId2(getLong(rs, "fact_id_2"));
+		references.add(Concept.class, getLong(rs, "relationship_concept_id"), factRelationship::setRelationshipConcept);
+
+		return factRelationship;
+	}
+
+	@Override
+	protected Object[] getValues(FactRelationship factRelationship) {
+		return new Object[] {
+				factRelationship.getDomainConcept1(),
+				factRelationship.getFactId1(),
+				factRelationship.getDomainConcept2(),
+				factRelationship.getFactId2(),
+				id(factRelationship.getRelationshipConcept())
+		};
+	}
 
+	@Override
+	protected void setId(FactRelationship factRelationship, Long id) {
+		// fact_relationship has no id column.
+	}
 }
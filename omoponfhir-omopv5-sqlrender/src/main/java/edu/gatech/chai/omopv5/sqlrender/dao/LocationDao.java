@@ -16,11 +16,60 @@
  *******************************************************************************/
 package edu.gatech.chai.omopv5.sqlrender.dao;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
 import org.springframework.stereotype.Repository;
 
 import edu.gatech.chai.omopv5.model.entity.Location;
 
 @Repository
 public class LocationDao extends BaseEntityDao<Location> {
-	
+	public static final TableMapping MAPPING = new TableMapping("location", "location_id", Long.class, "location_id_seq")
+			.column("address1", "address_1", String.class)
+			.column("address2", "address_2", String.class)
+			.column("city", "city", String.class)
+			.column("state", "state", String.class)
+			.column("zipCode", "zip", String.class)
+			.column("locationSourceValue", "location_source_value", String.class);
+
+	public LocationDao() {
+		super(Location.class);
+	}
+
+	@Override
+	public TableMapping getMapping() {
+		return MAPPING;
+	}
+
+	@Override
+	protected Location mapRow(ResultSet rs, ReferenceResolver references) throws SQLException {
+		Location location = new Location();
+		location.setId(getLong(rs, "location_id"));
+		location.setAddress1(rs.getString("address_1"));
+		location.setAddress2(rs.getString("address_2"));
+		location.setCity(rs.getString("city"));
+		location.setState(rs.getString("state"));
+		location.setZipCode(rs.getString("zip"));
+		location.setLocationSourceValue(rs.getString("location_source_value"));
+
+		return location;
+	}
+
+	@Override
+	protected Object[] getValues(Location location) {
+		return new Object[] {
+				location.getAddress1(),
+				location.getAddress2(),
+				location.getCity(),
+				location.getState(),
+				location.getZipCode(),
+				location.getLocationSourceValue()
+		};
+	}
+
+	@Override
+	protected void setId(Location location, Long id) {
+		location.setId(id);
+	}
 }
@@ -16,11 +16,98 @@
  *******************************************************************************/
 package edu.gatech.chai.omopv5.sqlrender.dao;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+
 import org.springframework.stereotype.Repository;
 
+import edu.gatech.chai.omopv5.model.entity.Concept;
+import edu.gatech.chai.omopv5.model.entity.FPerson;
 import edu.gatech.chai.omopv5.model.entity.Measurement;
+import edu.gatech.chai.omopv5.model.entity.Provider;
+import edu.gatech.chai.omopv5.model.entity.VisitOccurrence;
 
 @Repository
 public class MeasurementDao extends BaseEntityDao<Measurement> {
+	public static final TableMapping MAPPING = new TableMapping("measurement", "measurement_id", Long.class, "measurement_occurrence_id_seq")
+			.reference("fPerson", "person_id", FPersonDao.MAPPING)
+			.reference("measurementConcept", "measurement_concept_id", ConceptDao.MAPPING)
+			.column("date", "measurement_date", Date.class)
+			.column("time", "measurement_time", String.class)
+			.reference("type", "measurement_type_concept_id", ConceptDao.MAPPING)
+			.reference("operatorConcept", "operator_concept_id", ConceptDao.MAPPING)
+			.column("valueAsNumber", "value_as_number", Double.class)
+			.reference("valueAsConcept", "value_as_concept_id", ConceptDao.MAPPING)
+			.reference("unitConcept", "unit_concept_id", ConceptDao.MAPPING)
+			.column("rangeLow", "range_low", Double.class)
+			.column("rangeHigh", "range_high", Double.class)
+			.reference("provider", "provider_id", ProviderDao.MAPPING)
+			.reference("visitOccurrence", "visit_occurrence_id", VisitOccurrenceDao.MAPPING)
+			.column("sourceValue", "measurement_source_value", String.class)
+			.reference("sourceValueConcept", "measurement_source_concept_id", ConceptDao.MAPPING)
+			.column("unitSourceValue", "unit_source_value", String.class)
+			.column("valueSourceValue", "value_source_value", String.class);
+
+	public MeasurementDao() {
+		super(Measurement.class);
+	}
+
+	@Override
+	public TableMapping getMapping() {
+		return MAPPING;
+	}
+
+	@Override
+	protected Measurement mapRow(ResultSet rs, ReferenceResolver references) throws SQLException {
+		Measurement measurement = new Measurement();
+		measurement.setId(getLong(rs, "measurement_id"));
+		references.add(FPerson.class, getLong(rs, "person_id"), measurement::setFPerson);
+		references.add(Concept.class, getLong(rs, "measurement_concept_id"), measurement::setMeasurementConcept);
+		measurement.setDate(getDate(rs, "measurement_date"));
+		measurement.setTime(rs.getString("measurement_time"));
+		references.add(Concept.class, getLong(rs, "measurement_type_concept_id"), measurement::setType);
+		references.add(Concept.class, getLong(rs, "operator_concept_id"), measurement::setOperationConcept);
+		measurement.setValueAsNumber(getDouble(rs, "value_as_number"));
+		references.add(Concept.class, getLong(rs, "value_as_concept_id"), measurement::setValueAsConcept);
+		references.add(Concept.class, getLong(rs, "unit_concept_id"), measurement::setUnitConcept);
+		measurement.setRangeLow(getDouble(rs, "range_low"));
+		measurement.setRangeHigh(getDouble(rs, "range_high"));
+		references.add(Provider.class, getLong(rs, "provider_id"), measurement::setProvider);
+		references.add(VisitOccurrence.class, getLong(rs, "visit_occurrence_id"), measurement::setVisitOccurrence);
+		measurement.setSourceValue(rs.getString("measurement_source_value"));
+		references.add(Concept.class, getLong(rs, "measurement_source_concept_id"), measurement::setSourceValueConcept);
+		measurement.setUnitSourceValue(rs.getString("unit_source_value"));
+		measurement.setValueSourceValue(rs.getString("value_source_value"));
+
+		return measurement;
+	}
+
+	@Override
+	protected Object[] getValues(Measurement measurement) {
+		return new Object[] {
+				id(measurement.getFPerson()),
+				id(measurement.getMeasurementConcept()),
+				measurement.getDate(),
+				measurement.getTime(),
+				id(measurement.getType()),
+				id(measurement.getOperatorConcept()),
+				measurement.getValueAsNumber(),
+				id(measurement.getValueAsConcept()),
+				id(measurement.getUnitConcept()),
+				measurement.getRangeLow(),
+				measurement.getRangeHigh(),
+				id(measurement.getProvider()),
+				id(measurement.getVisitOccurrence()),
+				measurement.getSourceValue(),
+				id(measurement.getSourceValueConcept()),
+				measurement.getUnitSourceValue(),
+				measurement.getValueSourceValue()
+		};
+	}
 
+	@Override
+	protected void setId(Measurement measurement, Long id) {
+		measurement.setId(id);
+	}
 }
@@ -16,11 +16,71 @@
  *******************************************************************************/
 package edu.gatech.chai.omopv5.sqlrender.dao;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+
 import org.springframework.stereotype.Repository;
 
+import edu.gatech.chai.omopv5.model.entity.Concept;
+import edu.gatech.chai.omopv5.model.entity.FPerson;
 import edu.gatech.chai.omopv5.model.entity.Note;
+import edu.gatech.chai.omopv5.model.entity.Provider;
+import edu.gatech.chai.omopv5.model.entity.VisitOccurrence;
 
 @Repository
 public class NoteDao extends BaseEntityDao<Note> {
+	public static final TableMapping MAPPING = new TableMapping("note", "note_id", Long.class, "note_id_seq")
+			.reference("fPerson", "person_id", FPersonDao.MAPPING)
+			.column("date", "note_date", Date.class)
+			.column("time", "note_time", String.class)
+			.reference("typeConcept", "note_type_concept_id", ConceptDao.MAPPING)
+			.column("noteText", "note_text", String.class)
+			.reference("provider", "provider_id", ProviderDao.MAPPING)
+			.reference("visitOccurrence", "visit_occurrence_id", VisitOccurrenceDao.MAPPING)
+			.column("noteSourceValue", "note_source_value", String.class);
+
+	public NoteDao() {
+		super(Note.class);
+	}
+
+	@Override
+	public TableMapping getMapping() {
+		return MAPPING;
+	}
+
+	@Override
+	protected Note mapRow(ResultSet rs, ReferenceResolver references) throws SQLException {
+		Note note = new Note();
+		note.setId(getLong(rs, "note_id"));
+		references.add(FPerson.class, getLong(rs, "person_id"), note::setFPerson);
+		note.setDate(getDate(rs, "note_date"));
+		note.setTime(rs.getString("note_time"));
+		references.add(Concept.class, getLong(rs, "note_type_concept_id"), note::setType);
+		note.setNoteText(rs.getString("note_text"));
+		references.add(Provider.class, getLong(rs, "provider_id"), note::setProvider);
+		references.add(VisitOccurrence.class, getLong(rs, "visit_occurrence_id"), note::setVisitOccurrence);
+		note.setNoteSourceValue(rs.getString("note_source_value"));
+
+		return note;
+	}
+
+	@Override
+	protected Object[] getValues(Note note) {
+		return new Object[] {
+				id(note.getFPerson()),
+				note.getDate(),
+				note.getTime(),
+				id(note.getType()),
+				note.getNoteText(),
+				id(note.getProvider()),
+				id(note.getVisitOccurrence()),
+				note.getNoteSourceValue()
+		};
+	}
 
+	@Override
+	protected void setId(Note note, Long id) {
+		note.setId(id);
+	}
 }
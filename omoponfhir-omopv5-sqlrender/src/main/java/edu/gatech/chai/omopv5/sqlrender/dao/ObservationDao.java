@@ -16,11 +16,95 @@
  *******************************************************************************/
 package edu.gatech.chai.omopv5.sqlrender.dao;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+
 import org.springframework.stereotype.Repository;
 
+import edu.gatech.chai.omopv5.model.entity.Concept;
+import edu.gatech.chai.omopv5.model.entity.FPerson;
 import edu.gatech.chai.omopv5.model.entity.Observation;
+import edu.gatech.chai.omopv5.model.entity.Provider;
+import edu.gatech.chai.omopv5.model.entity.VisitOccurrence;
 
 @Repository
 public class ObservationDao extends BaseEntityDao<Observation> {
+	public static final TableMapping MAPPING = new TableMapping("observation", "observation_id", Long.class, "observation_occurrence_id_seq")
+			.reference("fPerson", "person_id", FPersonDao.MAPPING)
+			.reference("observationConcept", "observation_concept_id", ConceptDao.MAPPING)
+			.column("date", "observation_date", Date.class)
+			.column("time", "observation_time", String.class)
+			.column("valueAsString", "value_as_string", String.class)
+			.column("valueAsNumber", "value_as_number", Double.class)
+			.reference("valueAsConcept", "value_as_concept_id", ConceptDao.MAPPING)
+			.reference("typeConcept", "observation_type_concept_id", ConceptDao.MAPPING)
+			.reference("provider", "provider_id", ProviderDao.MAPPING)
+			.reference("visitOccurrence", "visit_occurrence_id", VisitOccurrenceDao.MAPPING)
+			.column("sourceValue", "observation_source_value", String.class)
+			.reference("sourceConcept", "observation_source_concept_id", ConceptDao.MAPPING)
+			.reference("qualifierConcept", "qualifier_concept_id", ConceptDao.MAPPING)
+			.column("qualifierSourceValue", "qualifier_source_value", String.class)
+			.reference("unitConcept", "unit_concept_id", ConceptDao.MAPPING)
+			.column("unitSourceValue", "unit_source_value", String.class);
+
+	public ObservationDao() {
+		super(Observation.class);
+	}
+
+	@Override
+	public TableMapping getMapping() {
+		return MAPPING;
+	}
+
+	@Override
+	protected Observation mapRow(ResultSet rs, ReferenceResolver references) throws SQLException {
+		Observation observation = new Observation();
+		observation.setId(getLong(rs, "observation_id"));
+		references.add(FPerson.class, getLong(rs, "person_id"), observation::setFPerson);
+		references.add(Concept.class, getLong(rs, "observation_concept_id"), observation::setObservationConcept);
+		observation.setDate(getDate(rs, "observation_date"));
+		observation.setTime(rs.getString("observation_time"));
+		observation.setValueAsString(rs.getString("value_as_string"));
+		observation.setValueAsNumber(getDouble(rs, "value_as_number"));
+		references.add(Concept.class, getLong(rs, "value_as_concept_id"), observation::setValueAsConcept);
+		references.add(Concept.class, getLong(rs, "observation_type_concept_id"), observation::setTypeConcept);
+		references.add(Provider.class, getLong(rs, "provider_id"), observation::setProvider);
+		references.add(VisitOccurrence.class, getLong(rs, "visit_occurrence_id"), observation::setVisitOccurrence);
+		observation.setSourceValue(rs.getString("observation_source_value"));
+		references.add(Concept.class, getLong(rs, "observation_source_concept_id"), observation::setSourceConcept);
+		references.add(Concept.class, getLong(rs, "qualifier_concept_id"), observation::setQualifierConcept);
+		observation.setQualifierSourceValue(rs.getString("qualifier_source_value"));
+		references.add(Concept.class, getLong(rs, "unit_concept_id"), observation::setUnitConcept);
+		observation.setUnitSourceValue(rs.getString("unit_source_value"));
+
+		return observation;
+	}
+
+	@Override
+	protected Object[] getValues(Observation observation) {
+		return new Object[] {
+				id(observation.getFPerson()),
+				id(observation.getObservationConcept()),
+				observation.getDate(),
+				observation.getTime(),
+				observation.getValueAsString(),
+				observation.getValueAsNumber(),
+				id(observation.getValueAsConcept()),
+				id(observation.getTypeConcept()),
+				id(observation.getProvider()),
+				id(observation.getVisitOccurrence()),
+				observation.getSourceValue(),
+				id(observation.getSourceConcept()),
+				id(observation.getQualifierConcept()),
+				observation.getQualifierSourceValue(),
+				id(observation.getUnitConcept()),
+				observation.getUnitSourceValue()
+		};
+	}
 
+	@Override
+	protected void setId(Observation observation, Long id) {
+		observation.setId(id);
+	}
 }
@@ -16,11 +16,80 @@
  *******************************************************************************/
 package edu.gatech.chai.omopv5.sqlrender.dao;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+
 import org.springframework.stereotype.Repository;
 
+import edu.gatech.chai.omopv5.model.entity.Concept;
+import edu.gatech.chai.omopv5.model.entity.FPerson;
 import edu.gatech.chai.omopv5.model.entity.ProcedureOccurrence;
+import edu.gatech.chai.omopv5.model.entity.Provider;
+import edu.gatech.chai.omopv5.model.entity.VisitOccurrence;
 
 @Repository
 public class ProcedureOccurrenceDao extends BaseEntityDao<ProcedureOccurrence> {
+	public static final TableMapping MAPPING = new TableMapping("procedure_occurrence", "procedure_occurrence_id", Long.class, "procedure_occurrence_id_seq")
+			.reference("fPerson", "person_id", FPersonDao.MAPPING)
+			.reference("procedureConcept", "procedure_concept_id", ConceptDao.MAPPING)
+			.column("procedureDate", "procedure_date", Date.class)
+			.reference("procedureTypeConcept", "procedure_type_concept_id", ConceptDao.MAPPING)
+			.reference("modifierConcept", "modifier_concept_id", ConceptDao.MAPPING)
+			.column("quantity", "quantity", Long.class)
+			.reference("provider", "provider_id", ProviderDao.MAPPING)
+			.reference("visitOccurrence", "visit_occurrence_id", VisitOccurrenceDao.MAPPING)
+			.column("procedureSourceValue", "procedure_source_value", String.class)
+			.reference("procedureSourceConcept", "procedure_source_concept_id", ConceptDao.MAPPING)
+			.column("qualifierSourceValue", "qualifier_source_value", String.class);
+
+	public ProcedureOccurrenceDao() {
+		super(ProcedureOccurrence.class);
+	}
+
+	@Override
+	public TableMapping getMapping() {
+		return MAPPING;
+	}
+
+	@Override
+	protected ProcedureOccurrence mapRow(ResultSet rs, ReferenceResolver references) throws SQLException {
+		ProcedureOccurrence procedureOccurrence = new ProcedureOccurrence();
+		procedureOccurrence.setId(getLong(rs, "procedure_occurrence_id"));
+		references.add(FPerson.class, getLong(rs, "person_id"), procedureOccurrence::setFPerson);
+		references.add(Concept.class, getLong(rs, "procedure_concept_id"), procedureOccurrence::setProcedureConcept);
+		procedureOccurrence.setProcedureDate(getDate(rs, "procedure_date"));
+		references.add(Concept.class, getLong(rs, "procedure_type_concept_id"), procedureOccurrence::setProcedureTypeConcept);
+		references.add(Concept.class, getLong(rs, "modifier_concept_id"), procedureOccurrence::setModifierConcept);
+		procedureOccurrence.setQuantity(getLong(rs, "quantity"));
+		references.add(Provider.class, getLong(rs, "provider_id"), procedureOccurrence::setProvider);
+		references.add(VisitOccurrence.class, getLong(rs, "visit_occurrence_id"), procedureOccurrence::setVisitOccurrence);
+		procedureOccurrence.setProcedureSourceValue(rs.getString("procedure_source_value"));
+		references.add(Concept.class, getLong(rs, "procedure_source_concept_id"), procedureOccurrence::setProcedureSourceConcept);
+		procedureOccurrence.setQualifierSourceValue(rs.getString("qualifier_source_value"));
+
+		return procedureOccurrence;
+	}
+
+	@Override
+	protected Object[] getValues(ProcedureOccurrence procedureOccurrence) {
+		return new Object[] {
+				id(procedureOccurrence.getFPerson()),
+				id(procedureOccurrence.getProcedureConcept()),
+				procedureOccurrence.getProcedureDate(),
+				id(procedureOccurrence.getProcedureTypeConcept()),
+				id(procedureOccurrence.getModifierConcept()),
+				procedureOccurrence.getQuantity(),
+				id(procedureOccurrence.getProvider()),
+				id(procedureOccurrence.getVisitOccurrence()),
+				procedureOccurrence.getProcedureSourceValue(),
+				id(procedureOccurrence.getProcedureSourceConcept()),
+				procedureOccurrence.getQualifierSourceValue()
+		};
+	}
 
+	@Override
+	protected void setId(ProcedureOccurrence procedureOccurrence, Long id) {
+		procedureOccurrence.setId(id);
+	}
 }
@@ -16,11 +16,80 @@
  *******************************************************************************/
 package edu.gatech.chai.omopv5.sqlrender.dao;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
 import org.springframework.stereotype.Repository;
 
+import edu.gatech.chai.omopv5.model.entity.CareSite;
+import edu.gatech.chai.omopv5.model.entity.Concept;
 import edu.gatech.chai.omopv5.model.entity.Provider;
 
 @Repository
 public class ProviderDao extends BaseEntityDao<Provider> {
+	public static final TableMapping MAPPING = new TableMapping("provider", "provider_id", Long.class, "provider_id_seq")
+			.column("providerName", "provider_name", String.class)
+			.column("npi", "npi", String.class)
+			.column("dea", "dea", String.class)
+			.reference("specialtyConcept", "specialty_concept_id", ConceptDao.MAPPING)
+			.reference("careSite", "care_site_id", CareSiteDao.MAPPING)
+			.column("yearOfBirth", "year_of_birth", Integer.class)
+			.reference("genderConcept", "gender_concept_id", ConceptDao.MAPPING)
+			.column("providerSourceValue", "provider_source_value", String.class)
+			.column("specialtySourceValue", "specialty_source_value", String.class)
+			.reference("specialtySourceConcept", "specialty_source_concept_id", ConceptDao.MAPPING)
+			.column("genderSourceValue", "gender_source_value", String.class)
+			.reference("genderSourceConcept", "gender_source_concept_id", ConceptDao.MAPPING);
+
+	public ProviderDao() {
+		super(Provider.class);
+	}
+
+	@Override
+	public TableMapping getMapping() {
+		return MAPPING;
+	}
+
+	@Override
+	protected Provider mapRow(ResultSet rs, ReferenceResolver references) throws SQLException {
+		Provider provider = new Provider();
+		provider.setId(getLong(rs, "provider_id"));
+		provider.setProviderName(rs.getString("provider_name"));
+		provider.setNpi(rs.getString("npi"));
+		provider.setDea(rs.getString("dea"));
+		references.add(Concept.class, getLong(rs, "specialty_concept_id"), provider::setSpecialtyConcept);
+		references.add(CareSite.class, getLong(rs, "care_site_id"), provider::setCareSite);
+		provider.setYearOfBirth(getInteger(rs, "year_of_birth"));
+		references.add(Concept.class, getLong(rs, "gender_concept_id"), provider::setGenderConcept);
+		provider.setProviderSourceValue(rs.getString("provider_source_value"));
+		provider.setSpecialtySourceValue(rs.getString("specialty_source_value"));
+		references.add(Concept.class, getLong(rs, "specialty_source_concept_id"), provider::setSpecialtySourceConcept);
+		provider.setGenderSourceValue(rs.getString("gender_source_value"));
+		references.add(Concept.class, getLong(rs, "gender_source_concept_id"), provider::setGenderSourceConcept);
+
+		return provider;
+	}
+
+	@Override
+	protected Object[] getValues(Provider provider) {
+		return new Object[] {
+				provider.getProviderName(),
+				provider.getNpi(),
+				provider.getDea(),
+				id(provider.getSpecialtyConcept()),
+				id(provider.getCareSite()),
+				provider.getYearOfBirth(),
+				id(provider.getGenderConcept()),
+				provider.getProviderSourceValue(),
+				provider.getSpecialtySourceValue(),
+				id(provider.getSpecialtySourceConcept()),
+				provider.getGenderSourceValue(),
+				id(provider.getGenderSourceConcept())
+		};
+	}
 
+	@Override
+	protected void setId(Provider provider, Long id) {
+		provider.setId(id);
+	}
 }
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package edu.gatech.chai.omopv5.sqlrender.dao;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import edu.gatech.chai.omopv5.model.entity.BaseEntity;
+
+/**
+ * Loads the many-to-one references of the rows read by a query.
+ *
+ * While rows are mapped, each foreign key is registered here with the setter
+ * to call. resolve() then loads all referenced rows of a type with IN (...)
+ * queries, instead of one query per reference. The loaded rows can register
+ * their own references (visit -> care site -> location), so resolve() repeats
+ * until nothing is left.
+ *
+ * A row referenced more than once is loaded once and shared. A reference to a
+ * row that does not exist is left null.
+ *
+ * A resolver is used for one query (one page) and is not thread-safe.
+ */
+public class ReferenceResolver {
+	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ReferenceResolver.class);
+
+	private final DaoRegistry daoRegistry;
+	private Map<Class<? extends BaseEntity>, Map<Object, List<Consumer<BaseEntity>>>> pending = new LinkedHashMap<Class<? extends BaseEntity>, Map<Object, List<Consumer<BaseEntity>>>>();
+	private final Map<Class<? extends BaseEntity>, Map<Object, BaseEntity>> loaded = new HashMap<Class<? extends BaseEntity>, Map<Object, BaseEntity>>();
+
+	public ReferenceResolver(DaoRegistry daoRegistry) {
+		this.daoRegistry = daoRegistry;
+	}
+
+	@SuppressWarnings("unchecked")
+	public <R extends BaseEntity> void add(Class<R> type, Object id, Consumer<? super R> setter) {
+		if (id == null) return;
+
+		Map<Object, BaseEntity> loadedOfType = loaded.get(type);
+		if (loadedOfType != null && loadedOfType.containsKey(id)) {
+			BaseEntity entity = loadedOfType.get(id);
+			if (entity != null) {
+				((Consumer<BaseEntity>) setter).accept(entity);
+			}
+			return;
+		}
+
+		Map<Object, List<Consumer<BaseEntity>>> pendingOfType = pending.get(type);
+		if (pendingOfType == null) {
+			pendingOfType = new LinkedHashMap<Object, List<Consumer<BaseEntity>>>();
+			pending.put(type, pendingOfType);
+		}
+
+		List<Consumer<BaseEntity>> setters = pendingOfType.get(id);
+		if (setters == null) {
+			setters = new ArrayList<Consumer<BaseEntity>>();
+			pendingOfType.put(id, setters);
+		}
+		setters.add((Consumer<BaseEntity>) setter);
+	}
+
+	public void resolve() {
+		while (!pending.isEmpty()) {
+			Map<Class<? extends BaseEntity>, Map<Object, List<Consumer<BaseEntity>>>> current = pending;
+			pending = new LinkedHashMap<Class<? extends BaseEntity>, Map<Object, List<Consumer<BaseEntity>>>>();
+
+			for (Map.Entry<Class<? extends BaseEntity>, Map<Object, List<Consumer<BaseEntity>>>> entry : current
+					.entrySet()) {
+				resolve(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	private void resolve(Class<? extends BaseEntity> type, Map<Object, List<Consumer<BaseEntity>>> setters) {
+		Map<Object, BaseEntity> loadedOfType = loaded.get(type);
+		if (loadedOfType == null) {
+			loadedOfType = new HashMap<Object, BaseEntity>();
+			loaded.put(type, loadedOfType);
+		}
+
+		load(daoRegistry.getDao(type), new ArrayList<Object>(setters.keySet()), loadedOfType);
+
+		for (Map.Entry<Object, List<Consumer<BaseEntity>>> entry : setters.entrySet()) {
+			BaseEntity entity = loadedOfType.get(entry.getKey());
+			if (entity == null) {
+				logger.debug(type.getSimpleName() + " " + entry.getKey() + " is referenced but does not exist");
+				loadedOfType.put(entry.getKey(), null);
+				continue;
+			}
+
+			for (Consumer<BaseEntity> setter : entry.getValue()) {
+				setter.accept(entity);
+			}
+		}
+	}
+
+	private <E extends BaseEntity> void load(BaseEntityDao<E> dao, List<Object> ids, Map<Object, BaseEntity> loadedOfType) {
+		for (E entity : dao.findByIds(ids, this)) {
+			loadedOfType.put(dao.getId(entity), entity);
+		}
+	}
+}
@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package edu.gatech.chai.omopv5.sqlrender.dao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * Maps entity attributes to the columns of an OMOP table.
+ *
+ * Attribute names are the same as the entity field names (and the JPA
+ * attribute names in jpabase), so the ParameterWrapper paths and sort strings
+ * built by the mappers work without change.
+ *
+ * A reference is a many-to-one attribute. Its column is the foreign key, and
+ * its target mapping is used to resolve paths such as "fPerson.familyName".
+ *
+ * A mapping can have one joined table that shares the id column (f_person
+ * joined to person). Columns of the joined table are qualified with the alias
+ * of the main table + "j".
+ *
+ * Column order is the order of declaration. The DAOs return the values to
+ * write in this order, without the id.
+ *
+ * An attribute name can contain dots. This is used for the columns of a
+ * composite key ("id.concept1" in concept_relationship), which has no id
+ * column. Such a name is a column of this table, not a path.
+ */
+public class TableMapping {
+	public static final String ID_ATTRIBUTE = "id";
+
+	private final String table;
+	private final String idColumn;
+	private final Class<?> idType;
+	private final String sequence;
+	private String joinTable;
+	private final Map<String, Column> columns = new LinkedHashMap<String, Column>();
+	private final Map<String, TableMapping> references = new LinkedHashMap<String, TableMapping>();
+
+	public TableMapping(String table, String idColumn, Class<?> idType, String sequence) {
+		this.table = table;
+		this.idColumn = idColumn;
+		this.idType = idType;
+		this.sequence = sequence;
+
+		if (idColumn != null) {
+			columns.put(ID_ATTRIBUTE, new Column(idColumn, idType, false));
+		}
+	}
+
+	public TableMapping join(String joinTable) {
+		this.joinTable = joinTable;
+		return this;
+	}
+
+	public TableMapping column(String attribute, String column, Class<?> type) {
+		columns.put(attribute, new Column(column, type, false));
+		return this;
+	}
+
+	public TableMapping joinedColumn(String attribute, String column, Class<?> type) {
+		columns.put(attribute, new Column(column, type, true));
+		return this;
+	}
+
+	public TableMapping reference(String attribute, String column, TableMapping target) {
+		columns.put(attribute, new Column(column, target.getIdType(), false));
+		references.put(attribute, target);
+		return this;
+	}
+
+	public TableMapping joinedReference(String attribute, String column, TableMapping target) {
+		columns.put(attribute, new Column(column, target.getIdType(), true));
+		references.put(attribute, target);
+		return this;
+	}
+
+	public String getTable() {
+		return table;
+	}
+
+	public String getIdColumn() {
+		return idColumn;
+	}
+
+	public Class<?> getIdType() {
+		return idType;
+	}
+
+	public String getSequence() {
+		return sequence;
+	}
+
+	public String getJoinTable() {
+		return joinTable;
+	}
+
+	public boolean hasAttribute(String attribute) {
+		return columns.containsKey(attribute);
+	}
+
+	/**
+	 * Attribute names, in declaration order.
+	 */
+	public List<String> getAttributes() {
+		return new ArrayList<String>(columns.keySet());
+	}
+
+	public TableMapping getReference(String attribute) {
+		return references.get(attribute);
+	}
+
+	public Class<?> getType(String attribute) {
+		return getColumn(attribute).type;
+	}
+
+	/**
+	 * Column name of an attribute, without the alias. This is also its label in
+	 * the result set.
+	 */
+	public String getColumnName(String attribute) {
+		return getColumn(attribute).name;
+	}
+
+	/**
+	 * Qualified column of an attribute. Throws IllegalArgumentException for an
+	 * unknown attribute, like root.get() does in JPA.
+	 */
+	public String qualify(String alias, String attribute) {
+		Column column = getColumn(attribute);
+		return (column.joined ? alias + "j" : alias) + "." + column.name;
+	}
+
+	/**
+	 * FROM clause item for this table, with the joined table if there is one.
+	 */
+	public String from(String schemaPrefix, String alias) {
+		String from = schemaPrefix + table + " " + alias;
+		if (joinTable != null) {
+			from += " JOIN " + schemaPrefix + joinTable + " " + alias + "j ON " + alias + "j." + idColumn + " = "
+					+ alias + "." + idColumn;
+		}
+
+		return from;
+	}
+
+	/**
+	 * Columns to select, in declaration order.
+	 */
+	public String selectList(String alias) {
+		StringBuilder select = new StringBuilder();
+		for (String attribute : columns.keySet()) {
+			if (select.length() > 0) select.append(", ");
+			select.append(qualify(alias, attribute));
+		}
+
+		return select.toString();
+	}
+
+	/**
+	 * Columns to write (all but the id), in declaration order.
+	 */
+	public List<String> getWriteColumns(boolean joined) {
+		List<String> names = new ArrayList<String>();
+		for (Map.Entry<String, Column> entry : columns.entrySet()) {
+			if (ID_ATTRIBUTE.equals(entry.getKey())) continue;
+			if (entry.getValue().joined == joined) {
+				names.add(entry.getValue().name);
+			}
+		}
+
+		return names;
+	}
+
+	/**
+	 * For each column to write, true if it belongs to the joined table.
+	 */
+	public List<Boolean> getWriteColumnTables() {
+		List<Boolean> joined = new ArrayList<Boolean>();
+		for (Map.Entry<String, Column> entry : columns.entrySet()) {
+			if (ID_ATTRIBUTE.equals(entry.getKey())) continue;
+			joined.add(entry.getValue().joined);
+		}
+
+		return Collections.unmodifiableList(joined);
+	}
+
+	/**
+	 * Builds a condition on an attribute path. The condition gets the column at
+	 * the end of the path and its Java type.
+	 *
+	 * "a" is a column of this table. "a.id" is the foreign key of reference a.
+	 * Any other "a.b" becomes "fk IN (SELECT id FROM target WHERE condition on
+	 * b)", recursively, which is a semi-join in the database.
+	 */
+	public String condition(String schemaPrefix, String alias, String path,
+			BiFunction<String, Class<?>, String> condition) {
+		return condition(schemaPrefix, alias, path, condition, 1);
+	}
+
+	private String condition(String schemaPrefix, String alias, String path,
+			BiFunction<String, Class<?>, String> condition, int depth) {
+		int dot = path.indexOf('.');
+		if (dot < 0 || columns.containsKey(path)) {
+			return condition.apply(qualify(alias, path), getType(path));
+		}
+
+		String attribute = path.substring(0, dot);
+		String rest = path.substring(dot + 1);
+		TableMapping target = getTarget(attribute, path);
+		String foreignKey = qualify(alias, attribute);
+		if (ID_ATTRIBUTE.equals(rest)) {
+			return condition.apply(foreignKey, target.getIdType());
+		}
+
+		String subAlias = "s" + depth;
+		return foreignKey + " IN (SELECT " + target.qualify(subAlias, ID_ATTRIBUTE) + " FROM "
+				+ target.from(schemaPrefix, subAlias) + " WHERE "
+				+ target.condition(schemaPrefix, subAlias, rest, condition, depth + 1) + ")";
+	}
+
+	/**
+	 * Value expression of an attribute path, for ORDER BY. A path to another
+	 * table becomes a scalar subquery on the foreign key.
+	 */
+	public String expression(String schemaPrefix, String alias, String path) {
+		return expression(schemaPrefix, alias, path, 1);
+	}
+
+	private String expression(String schemaPrefix, String alias, String path, int depth) {
+		int dot = path.indexOf('.');
+		if (dot < 0 || columns.containsKey(path)) {
+			return qualify(alias, path);
+		}
+
+		String attribute = path.substring(0, dot);
+		String rest = path.substring(dot + 1);
+		TableMapping target = getTarget(attribute, path);
+		String foreignKey = qualify(alias, attribute);
+		if (ID_ATTRIBUTE.equals(rest)) {
+			return foreignKey;
+		}
+
+		String subAlias = "s" + depth;
+		return "(SELECT " + target.expression(schemaPrefix, subAlias, rest, depth + 1) + " FROM "
+				+ target.from(schemaPrefix, subAlias) + " WHERE " + target.qualify(subAlias, ID_ATTRIBUTE) + " = "
+				+ foreignKey + ")";
+	}
+
+	private TableMapping getTarget(String attribute, String path) {
+		TableMapping target = references.get(attribute);
+		if (target == null) {
+			throw new IllegalArgumentException("Unable to resolve attribute path [" + path + "] on table " + table);
+		}
+
+		return target;
+	}
+
+	private Column getColumn(String attribute) {
+		Column column = columns.get(attribute);
+		if (column == null) {
+			throw new IllegalArgumentException("Unable to locate attribute [" + attribute + "] on table " + table);
+		}
+
+		return column;
+	}
+
+	private static class Column {
+		final String name;
+		final Class<?> type;
+		final boolean joined;
+
+		Column(String name, Class<?> type, boolean joined) {
+			this.name = name;
+			this.type = type;
+			this.joined = joined;
+		}
+	}
+}
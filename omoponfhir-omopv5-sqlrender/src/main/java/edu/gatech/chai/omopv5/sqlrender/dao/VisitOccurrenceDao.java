@@ -16,11 +16,80 @@
  *******************************************************************************/
 package edu.gatech.chai.omopv5.sqlrender.dao;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+
 import org.springframework.stereotype.Repository;
 
+import edu.gatech.chai.omopv5.model.entity.CareSite;
+import edu.gatech.chai.omopv5.model.entity.Concept;
+import edu.gatech.chai.omopv5.model.entity.FPerson;
+import edu.gatech.chai.omopv5.model.entity.Provider;
 import edu.gatech.chai.omopv5.model.entity.VisitOccurrence;
 
 @Repository
 public class VisitOccurrenceDao extends BaseEntityDao<VisitOccurrence> {
+	public static final TableMapping MAPPING = new TableMapping("visit_occurrence", "visit_occurrence_id", Long.class, "visit_occurrence_id_seq")
+			.reference("fPerson", "person_id", FPersonDao.MAPPING)
+			.reference("visitConcept", "visit_concept_id", ConceptDao.MAPPING)
+			.column("startDate", "visit_start_date", Date.class)
+			.column("startTime", "visit_start_time", String.class)
+			.column("endDate", "visit_end_date", Date.class)
+			.column("endTime", "visit_end_time", String.class)
+			.reference("visitTypeConcept", "visit_type_concept_id", ConceptDao.MAPPING)
+			.reference("provider", "provider_id", ProviderDao.MAPPING)
+			.reference("careSite", "care_site_id", CareSiteDao.MAPPING)
+			.column("visitSourceValue", "visit_source_value", String.class)
+			.reference("visitSourceConcept", "visit_source_concept_id", ConceptDao.MAPPING);
+
+	public VisitOccurrenceDao() {
+		super(VisitOccurrence.class);
+	}
+
+	@Override
+	public TableMapping getMapping() {
+		return MAPPING;
+	}
+
+	@Override
+	protected VisitOccurrence mapRow(ResultSet rs, ReferenceResolver references) throws SQLException {
+		VisitOccurrence visitOccurrence = new VisitOccurrence();
+		visitOccurrence.setId(getLong(rs, "visit_occurrence_id"));
+		references.add(FPerson.class, getLong(rs, "person_id"), visitOccurrence::setFPerson);
+		references.add(Concept.class, getLong(rs, "visit_concept_id"), visitOccurrence::setVisitConcept);
+		visitOccurrence.setStartDate(getDate(rs, "visit_start_date"));
+		visitOccurrence.setStartTime(rs.getString("visit_start_time"));
+		visitOccurrence.setEndDate(getDate(rs, "visit_end_date"));
+		visitOccurrence.setEndTime(rs.getString("visit_end_time"));
+		references.add(Concept.class, getLong(rs, "visit_type_concept_id"), visitOccurrence::setVisitTypeConcept);
+		references.add(Provider.class, getLong(rs, "provider_id"), visitOccurrence::setProvider);
+		references.add(CareSite.class, getLong(rs, "care_site_id"), visitOccurrence::setCareSite);
+		visitOccurrence.setVisitSourceValue(rs.getString("visit_source_value"));
+		references.add(Concept.class, getLong(rs, "visit_source_concept_id"), visitOccurrence::setVisitSourceConcept);
+
+		return visitOccurrence;
+	}
+
+	@Override
+	protected Object[] getValues(VisitOccurrence visitOccurrence) {
+		return new Object[] {
+				id(visitOccurrence.getFPerson()),
+				id(visitOccurrence.getVisitConcept()),
+				visitOccurrence.getStartDate(),
+				visitOccurrence.getStartTime(),
+				visitOccurrence.getEndDate(),
+				visitOccurrence.getEndTime(),
+				id(visitOccurrence.getVisitTypeConcept()),
+				id(visitOccurrence.getProvider()),
+				id(visitOccurrence.getCareSite()),
+				visitOccurrence.getVisitSourceValue(),
+				id(visitOccurrence.getVisitSourceConcept())
+		};
+	}
 
+	@Override
+	protected void setId(VisitOccurrence visitOccurrence, Long id) {
+		visitOccurrence.setId(id);
+	}
 }
@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package edu.gatech.chai.omopv5.sqlrender.dao;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.springframework.stereotype.Repository;
+
+import edu.gatech.chai.omopv5.model.entity.Vocabulary;
+
+@Repository
+public class VocabularyDao extends BaseEntityDao<Vocabulary> {
+	public static final TableMapping MAPPING = new TableMapping("vocabulary", "vocabulary_id", String.class, null)
+			.column("name", "vocabulary_name", String.class)
+			.column("vocabularyReference", "vocabulary_reference", String.class);
+
+	public VocabularyDao() {
+		super(Vocabulary.class);
+	}
+
+	@Override
+	public TableMapping getMapping() {
+		return MAPPING;
+	}
+
+	@Override
+	protected Vocabulary mapRow(ResultSet rs, ReferenceResolver references) throws SQLException {
+		Vocabulary vocabulary = new Vocabulary();
+		vocabulary.setId(rs.getString("vocabulary_id"));
+		vocabulary.setName(rs.getString("vocabulary_name"));
+		vocabulary.setVocabularyReference(rs.getString("vocabulary_reference"));
+
+		return vocabulary;
+	}
+
+	@Override
+	protected Object[] getValues(Vocabulary vocabulary) {
+		return new Object[] {
+				vocabulary.getName(),
+				vocabulary.getVocabularyReference()
+		};
+	}
+
+	@Override
+	protected void setId(Vocabulary vocabulary, Long id) {
+		// Vocabulary ids are strings and are never generated.
+	}
+
+	@Override
+	public Object getId(Vocabulary vocabulary) {
+		return vocabulary.getId();
+	}
+}
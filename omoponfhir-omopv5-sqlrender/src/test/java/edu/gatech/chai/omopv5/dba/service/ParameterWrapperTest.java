@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package edu.gatech.chai.omopv5.dba.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.gatech.chai.omopv5.sqlrender.dao.DrugExposureDao;
+
+public class ParameterWrapperTest {
+	private static ParameterWrapper in(String paramType, List<String> values) {
+		return new ParameterWrapper(paramType, Arrays.asList("drugConcept.id"), Arrays.asList("in"), values, "or");
+	}
+
+	private static List<String> ids(int count) {
+		List<String> ids = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			ids.add(String.valueOf(1000 + i));
+		}
+
+		return ids;
+	}
+
+	private static String where(ParameterWrapper param, List<Object> args) {
+		return where(param, "sql server", args);
+	}
+
+	private static String where(ParameterWrapper param, String dialect, List<Object> args) {
+		return ParameterWrapper.constructWhere(Arrays.asList(param), DrugExposureDao.MAPPING, "", "t", dialect, args);
+	}
+
+	private static String placeholders(int count) {
+		return String.join(", ", Collections.nCopies(count, "?"));
+	}
+
+	@Test
+	public void numericInIsOneInList() {
+		List<Object> args = new ArrayList<Object>();
+		assertEquals("t.drug_concept_id IN (?, ?, ?)", where(in("Long", Arrays.asList("1", "2", "3")), args));
+		assertEquals(Arrays.<Object>asList(1L, 2L, 3L), args);
+	}
+
+	@Test
+	public void numericInWithoutValuesMatchesNothing() {
+		List<Object> args = new ArrayList<Object>();
+		assertEquals("1=0", where(in("Long", Collections.<String>emptyList()), args));
+		assertEquals(Collections.emptyList(), args);
+	}
+
+	@Test
+	public void numericInIsSplitAboveTheLimit() {
+		List<Object> args = new ArrayList<Object>();
+		int count = ParameterWrapper.IN_LIST_LIMIT + 1;
+		assertEquals("(t.drug_concept_id IN (" + placeholders(ParameterWrapper.IN_LIST_LIMIT)
+				+ ") OR t.drug_concept_id IN (?))", where(in("Long", ids(count)), args));
+		assertEquals(count, args.size());
+		assertEquals(1000L + count - 1, args.get(count - 1));
+	}
+
+	@Test
+	public void numericComparisonsAreUnchanged() {
+		List<Object> args = new ArrayList<Object>();
+		ParameterWrapper param = new ParameterWrapper("Long", Arrays.asList("drugConcept.id"),
+				Arrays.asList(">=", "<"), Arrays.asList("1", "9"), "and");
+		assertEquals("(t.drug_concept_id >= ? AND t.drug_concept_id < ?)", where(param, args));
+		assertEquals(Arrays.<Object>asList(1L, 9L), args);
+	}
+
+	@Test
+	public void numericInAboveTheLimitIsOneArrayOnPostgresql() {
+		List<Object> args = new ArrayList<Object>();
+		int count = ParameterWrapper.IN_LIST_LIMIT + 1;
+		assertEquals("t.drug_concept_id = ANY(CAST(? AS BIGINT[]))", where(in("Long", ids(count)), "postgresql", args));
+		assertEquals(1, args.size());
+		assertEquals("{1000,", ((String) args.get(0)).substring(0, 6));
+	}
+
+	@Test
+	public void numericInUpToTheLimitIsAnInListOnPostgresql() {
+		List<Object> args = new ArrayList<Object>();
+		assertEquals("t.drug_concept_id IN (?, ?)", where(in("Long", ids(2)), "postgresql", args));
+		assertEquals(Arrays.<Object>asList(1000L, 1001L), args);
+	}
+
+	@Test
+	public void codeInComparesTheCodeWithAllRemainingValues() {
+		List<Object> args = new ArrayList<Object>();
+		ParameterWrapper param = new ParameterWrapper("Code:In",
+				Arrays.asList("drugConcept.vocabulary.id", "drugConcept.conceptCode"), Arrays.asList("=", "in"),
+				Arrays.asList("RxNorm", "1049502", "1049640"), "and");
+		String where = where(param, args);
+		assertEquals(Arrays.<Object>asList("RxNorm", "1049502", "1049640"), args);
+		assertTrue(where.contains(".vocabulary_id = ?"));
+		assertTrue(where.contains(".concept_code IN (?, ?)"));
+	}
+}
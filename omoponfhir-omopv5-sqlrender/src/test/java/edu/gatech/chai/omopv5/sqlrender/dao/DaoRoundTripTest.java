@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *******************************************************************************/
+package edu.gatech.chai.omopv5.sqlrender.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import edu.gatech.chai.omopv5.model.entity.BaseEntity;
+
+/**
+ * Maps a row with a different value in every column, writes the entity back
+ * with getValues(), and checks that each value lands in the column it was
+ * read from. This catches mapRow() and getValues() getting out of the column
+ * order of the TableMapping, which the database would not report when the
+ * swapped columns have the same type.
+ */
+@RunWith(Parameterized.class)
+public class DaoRoundTripTest {
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> daos() {
+		List<Object[]> daos = new ArrayList<Object[]>();
+		for (BaseEntityDao<?> dao : Arrays.<BaseEntityDao<?>>asList(new CareSiteDao(), new ConceptDao(),
+				new ConceptRelationshipDao(), new ConditionOccurrenceDao(), new DeviceExposureDao(),
+				new DrugExposureDao(), new FactRelationshipDao(), new FObservationViewDao(), new FPersonDao(),
+				new LocationDao(), new MeasurementDao(), new NoteDao(), new ObservationDao(),
+				new ProcedureOccurrenceDao(), new ProviderDao(), new VisitOccurrenceDao(), new VocabularyDao())) {
+			daos.add(new Object[] { dao.getClass().getSimpleName(), dao });
+		}
+
+		return daos;
+	}
+
+	private final BaseEntityDao<BaseEntity> dao;
+
+	@SuppressWarnings("unchecked")
+	public DaoRoundTripTest(String name, BaseEntityDao<?> dao) {
+		this.dao = (BaseEntityDao<BaseEntity>) dao;
+	}
+
+	@Test
+	public void valuesAreWrittenToTheColumnsTheyWereReadFrom() throws SQLException {
+		TableMapping mapping = dao.getMapping();
+		Map<String, Object> row = new LinkedHashMap<String, Object>();
+		int i = 0;
+		for (String attribute : mapping.getAttributes()) {
+			row.put(mapping.getColumnName(attribute), sample(mapping.getType(attribute), i++));
+		}
+
+		ReferenceResolver references = new ReferenceResolver(new StubDaoRegistry());
+		BaseEntity entity = dao.mapRow(resultSet(row), references);
+		references.resolve();
+		assertNotNull(entity);
+
+		if (mapping.getIdColumn() != null) {
+			assertSame("id", row.get(mapping.getIdColumn()), dao.getId(entity));
+		}
+
+		List<String> columns = new ArrayList<String>();
+		for (String attribute : mapping.getAttributes()) {
+			if (!TableMapping.ID_ATTRIBUTE.equals(attribute)) {
+				columns.add(mapping.getColumnName(attribute));
+			}
+		}
+
+		Object[] values = dao.getValues(entity);
+		assertEquals("number of values", columns.size(), values.length);
+		for (int j = 0; j < values.length; j++) {
+			assertSame(columns.get(j), row.get(columns.get(j)), values[j]);
+		}
+	}
+
+	/**
+	 * A value of the column type that no other column of the row has. Strings
+	 * also start with a different character, for CHAR(1) columns.
+	 */
+	private static Object sample(Class<?> type, int i) {
+		if (type == Long.class) return 1000L + i;
+		if (type == Integer.class) return 1000 + i;
+		if (type == Short.class) return (short) (1000 + i);
+		if (type == Double.class) return 1000.5 + i;
+		if (type == BigDecimal.class) return new BigDecimal((1000 + i) + ".25");
+		if (type == Date.class) return new Date(86400000L * (1000 + i));
+
+		return String.valueOf((char) ('A' + i)) + i;
+	}
+
+	private static void assertSame(String column, Object expected, Object actual) {
+		if (actual instanceof Character) {
+			assertEquals(column, expected.toString().charAt(0), ((Character) actual).charValue());
+		} else if (actual instanceof Number) {
+			if (!(expected instanceof Number)
+					|| new BigDecimal(expected.toString()).compareTo(new BigDecimal(actual.toString())) != 0) {
+				fail(column + ": expected " + expected + " but was " + actual);
+			}
+		} else if (actual instanceof Date) {
+			if (!(expected instanceof Date) || ((Date) expected).getTime() != ((Date) actual).getTime()) {
+				fail(column + ": expected " + expected + " but was " + actual);
+			}
+		} else {
+			assertEquals(column, expected, actual);
+		}
+	}
+
+	/**
+	 * Result set over one row. Reading a column that is not in the mapping
+	 * fails the test.
+	 */
+	private static ResultSet resultSet(final Map<String, Object> row) {
+		final boolean[] wasNull = new boolean[1];
+		return (ResultSet) Proxy.newProxyInstance(DaoRoundTripTest.class.getClassLoader(),
+				new Class<?>[] { ResultSet.class }, (proxy, method, args) -> {
+					if ("wasNull".equals(method.getName())) return wasNull[0];
+					if (args == null || args.length != 1 || !(args[0] instanceof String)) {
+						throw new UnsupportedOperationException(method.getName());
+					}
+
+					String column = (String) args[0];
+					if (!row.containsKey(column)) {
+						throw new AssertionError("mapRow reads " + column + ", which is not in the mapping");
+					}
+					Object value = row.get(column);
+					wasNull[0] = value == null;
+
+					switch (method.getName()) {
+					case "getLong":
+						return value == null ? 0L : ((Number) value).longValue();
+					case "getInt":
+						return value == null ? 0 : ((Number) value).intValue();
+					case "getShort":
+						return value == null ? (short) 0 : ((Number) value).shortValue();
+					case "getDouble":
+						return value == null ? 0d : ((Number) value).doubleValue();
+					case "getBigDecimal":
+						return value == null ? null : new BigDecimal(value.toString());
+					case "getTimestamp":
+						return value == null ? null : new Timestamp(((Date) value).getTime());
+					case "getString":
+						return value == null ? null : value.toString();
+					case "getObject":
+						return value;
+					default:
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+	}
+
+	/**
+	 * Loads a referenced row as a new entity that only has its id.
+	 */
+	private static class StubDaoRegistry extends DaoRegistry {
+		@Override
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		public BaseEntityDao<? extends BaseEntity> getDao(Class<?> entityClass) {
+			return new StubDao(entityClass);
+		}
+	}
+
+	private static class StubDao<E extends BaseEntity> extends BaseEntityDao<E> {
+		StubDao(Class<E> entityClass) {
+			super(entityClass);
+		}
+
+		@Override
+		public List<E> findByIds(List<?> ids, ReferenceResolver references) {
+			List<E> entities = new ArrayList<E>();
+			try {
+				for (Object id : ids) {
+					E entity = getEntityClass().newInstance();
+					setter(id.getClass()).invoke(entity, id);
+					entities.add(entity);
+				}
+			} catch (ReflectiveOperationException e) {
+				throw new AssertionError(e);
+			}
+
+			return entities;
+		}
+
+		@Override
+		public Object getId(E entity) {
+			try {
+				return getEntityClass().getMethod("getId").invoke(entity);
+			} catch (ReflectiveOperationException e) {
+				throw new AssertionError(e);
+			}
+		}
+
+		private Method setter(Class<?> idType) throws NoSuchMethodException {
+			return getEntityClass().getMethod("setId", idType);
+		}
+
+		@Override
+		public TableMapping getMapping() {
+			return null;
+		}
+
+		@Override
+		protected E mapRow(ResultSet rs, ReferenceResolver references) {
+			return null;
+		}
+
+		@Override
+		protected Object[] getValues(E entity) {
+			return null;
+		}
+
+		@Override
+		protected void setId(E entity, Long id) {
+		}
+	}
+}
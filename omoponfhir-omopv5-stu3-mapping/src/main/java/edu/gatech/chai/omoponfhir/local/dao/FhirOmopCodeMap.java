@@ -17,4 +17,5 @@ public interface FhirOmopCodeMap {
 	public Long getOmopCodeFromFhirCoding(Coding fhirCoding);
 	public Coding getFhirCodingFromOmopConcept(Long omopConcept);
 	public Coding getFhirCodingFromOmopSourceString(String omopSourceString);
+	public void reload();
 }
@@ -5,13 +5,19 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.hl7.fhir.dstu3.model.Coding;
 
 import edu.gatech.chai.omoponfhir.local.model.FhirOmopCodeMapEntry;
 
 public class FhirOmopCodeMapImpl extends BaseFhirOmopMap implements FhirOmopCodeMap {
+	// All lookups of the map, shared by all instances. Lookups do not open
+	// the SQLite database.
+	private static volatile Snapshot snapshot = null;
 
 	@Override
 	public int save(FhirOmopCodeMapEntry codeMapEntry) {
@@ -32,6 +38,7 @@ public class FhirOmopCodeMapImpl extends BaseFhirOmopMap implements FhirOmopCode
 			logger.error(e.getMessage());
 			e.printStackTrace();
 		}
+		reload();
 
 		return 0;
 	}
@@ -52,6 +59,7 @@ public class FhirOmopCodeMapImpl extends BaseFhirOmopMap implements FhirOmopCode
 		} catch (SQLException e) {
 			System.out.println(e.getMessage());
 		}
+		reload();
 	}
 
 	@Override
@@ -65,6 +73,7 @@ public class FhirOmopCodeMapImpl extends BaseFhirOmopMap implements FhirOmopCode
 		} catch (SQLException e) {
 			System.out.println(e.getMessage());
 		}
+		reload();
 	}
 
 	@Override
@@ -94,7 +103,6 @@ public class FhirOmopCodeMapImpl extends BaseFhirOmopMap implements FhirOmopCode
 	@Override
 	public Long getOmopCodeFromFhirCoding(Coding fhirCoding) {
 		Long retv = 0L;
-		String sql = "SELECT * FROM FhirOmopCodeMap where fhir_system=? and fhir_code=?";
 
 		String fhirSystem = fhirCoding.getSystem();
 		String fhirCode = fhirCoding.getCode();
@@ -103,82 +111,112 @@ public class FhirOmopCodeMapImpl extends BaseFhirOmopMap implements FhirOmopCode
 			return retv;
 		}
 
-		try (Connection conn = this.connect(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
-			pstmt.setString(1, fhirSystem);
-			pstmt.setString(2, fhirCode);
-
-			ResultSet rs = pstmt.executeQuery();
-			if (rs.next()) {
-				retv = rs.getLong("omop_concept");
-			}
-			logger.debug("Omop Concept," + retv + " , found for " + fhirSystem + " and " + fhirCode);
-		} catch (SQLException e) {
-			System.out.println(e.getMessage());
+		Map<String, Long> codes = getSnapshot().fhirToOmop.get(fhirSystem);
+		if (codes != null && codes.containsKey(fhirCode)) {
+			retv = codes.get(fhirCode);
 		}
+		logger.debug("Omop Concept," + retv + " , found for " + fhirSystem + " and " + fhirCode);
 
 		return retv;
 	}
 
 	@Override
 	public Coding getFhirCodingFromOmopConcept(Long omopConcept) {
-		Coding retv = null;
-		String sql = "SELECT * FROM FhirOmopCodeMap where omop_concept=?";
+		Coding retv = toCoding(getSnapshot().omopToFhir.get(omopConcept));
+		logger.debug(" Fhir coding found " + retv + " for Omop Concept " + omopConcept);
 
-		try (Connection conn = this.connect(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
-			pstmt.setLong(1, omopConcept);
+		return retv;
+	}
 
-			ResultSet rs = pstmt.executeQuery();
-			String fhirSystem = "";
-			String fhirCode = "";
-			String fhirDisplay = "";
-			if (rs.next()) {
-				fhirSystem = rs.getString("fhir_system");
-				fhirCode = rs.getString("fhir_code");
-				fhirDisplay = rs.getString("fhir_display");
-
-				retv = new Coding();
-				retv.setSystem(fhirSystem);
-				retv.setCode(fhirCode);
-				retv.setDisplay(fhirDisplay);
-			}
-			logger.debug(" Fhir coding found " + fhirSystem + " and " + fhirCode + " and " + fhirDisplay
-					+ " for Omop Concept " + omopConcept);
-		} catch (SQLException e) {
-			System.out.println(e.getMessage());
-		}
+	@Override
+	public Coding getFhirCodingFromOmopSourceString(String omopSourceString) {
+		Coding retv = toCoding(getSnapshot().displayToFhir.get(omopSourceString));
+		logger.debug(" Fhir coding found " + retv + " for Omop Source String " + omopSourceString);
 
 		return retv;
 	}
 
+	/**
+	 * Reads the map table again. This is done after every save, update and
+	 * delete.
+	 */
 	@Override
-	public Coding getFhirCodingFromOmopSourceString(String omopSourceString) {
-		Coding retv = null;
-		String sql = "SELECT * FROM FhirOmopCodeMap where fhir_display=?";
+	public void reload() {
+		synchronized (FhirOmopCodeMapImpl.class) {
+			snapshot = load();
+		}
+	}
 
-		try (Connection conn = this.connect(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
-			pstmt.setString(1, omopSourceString);
+	private Coding toCoding(FhirOmopCodeMapEntry codeMapEntry) {
+		if (codeMapEntry == null) {
+			return null;
+		}
 
-			ResultSet rs = pstmt.executeQuery();
-			String fhirSystem = "";
-			String fhirCode = "";
-			String fhirDisplay = "";
-			if (rs.next()) {
-				fhirSystem = rs.getString("fhir_system");
-				fhirCode = rs.getString("fhir_code");
-				fhirDisplay = rs.getString("fhir_display");
-
-				retv = new Coding();
-				retv.setSystem(fhirSystem);
-				retv.setCode(fhirCode);
-				retv.setDisplay(fhirDisplay);
+		// Callers may change the coding, so each lookup gets its own.
+		Coding retv = new Coding();
+		retv.setSystem(codeMapEntry.getFhirSystem());
+		retv.setCode(codeMapEntry.getFhirCode());
+		retv.setDisplay(codeMapEntry.getFhirDisplay());
+
+		return retv;
+	}
+
+	private Snapshot getSnapshot() {
+		Snapshot current = snapshot;
+		if (current == null) {
+			synchronized (FhirOmopCodeMapImpl.class) {
+				current = snapshot;
+				if (current == null) {
+					current = load();
+					snapshot = current;
+				}
 			}
-			logger.debug(" Fhir coding found " + fhirSystem + " and " + fhirCode + " and " + fhirDisplay
-					+ " for Omop Source String " + omopSourceString);
-		} catch (SQLException e) {
-			System.out.println(e.getMessage());
 		}
 
-		return retv;
+		return current;
 	}
 
+	private Snapshot load() {
+		Map<String, Map<String, Long>> fhirToOmop = new HashMap<String, Map<String, Long>>();
+		Map<Long, FhirOmopCodeMapEntry> omopToFhir = new HashMap<Long, FhirOmopCodeMapEntry>();
+		Map<String, FhirOmopCodeMapEntry> displayToFhir = new HashMap<String, FhirOmopCodeMapEntry>();
+
+		// Rows are read in table order, and the first row wins as in the
+		// lookup queries.
+		for (FhirOmopCodeMapEntry entry : get()) {
+			if (entry.getFhirSystem() != null && entry.getFhirCode() != null) {
+				Map<String, Long> codes = fhirToOmop.get(entry.getFhirSystem());
+				if (codes == null) {
+					codes = new HashMap<String, Long>();
+					fhirToOmop.put(entry.getFhirSystem(), codes);
+				}
+				if (!codes.containsKey(entry.getFhirCode())) {
+					codes.put(entry.getFhirCode(), entry.getOmopConcept());
+				}
+			}
+
+			if (!omopToFhir.containsKey(entry.getOmopConcept())) {
+				omopToFhir.put(entry.getOmopConcept(), entry);
+			}
+
+			if (entry.getFhirDisplay() != null && !displayToFhir.containsKey(entry.getFhirDisplay())) {
+				displayToFhir.put(entry.getFhirDisplay(), entry);
+			}
+		}
+
+		return new Snapshot(fhirToOmop, omopToFhir, displayToFhir);
+	}
+
+	private static class Snapshot {
+		final Map<String, Map<String, Long>> fhirToOmop;
+		final Map<Long, FhirOmopCodeMapEntry> omopToFhir;
+		final Map<String, FhirOmopCodeMapEntry> displayToFhir;
+
+		Snapshot(Map<String, Map<String, Long>> fhirToOmop, Map<Long, FhirOmopCodeMapEntry> omopToFhir,
+				Map<String, FhirOmopCodeMapEntry> displayToFhir) {
+			this.fhirToOmop = Collections.unmodifiableMap(fhirToOmop);
+			this.omopToFhir = Collections.unmodifiableMap(omopToFhir);
+			this.displayToFhir = Collections.unmodifiableMap(displayToFhir);
+		}
+	}
 }
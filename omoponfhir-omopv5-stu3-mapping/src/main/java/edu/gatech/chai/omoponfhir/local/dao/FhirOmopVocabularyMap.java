@@ -29,5 +29,5 @@ public interface FhirOmopVocabularyMap {
 	public List<FhirOmopVocabularyMapEntry> get();
 	public String getOmopVocabularyFromFhirSystemName(String fhirSystemName);
 	public String getFhirSystemNameFromOmopVocabulary(String omopConceptCodeName);
-
+	public void reload();
 }
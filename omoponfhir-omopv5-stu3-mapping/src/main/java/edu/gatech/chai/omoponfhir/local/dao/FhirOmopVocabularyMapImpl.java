@@ -20,7 +20,10 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,6 +33,10 @@ import edu.gatech.chai.omoponfhir.local.model.FhirOmopVocabularyMapEntry;
 public class FhirOmopVocabularyMapImpl extends BaseFhirOmopMap implements FhirOmopVocabularyMap {
 	final static Logger logger = LoggerFactory.getLogger(FhirOmopVocabularyMapImpl.class);
 
+	// Both directions of the map, shared by all instances. Lookups do not
+	// open the SQLite database.
+	private static volatile Snapshot snapshot = null;
+
 	@Override
 	public int save(FhirOmopVocabularyMapEntry conceptMapEntry) {
 		String sql = "INSERT INTO FhirOmopVocabularyMap (omop_vocabulary_id, fhir_url_system, other_system) values (?,?,?)";
@@ -47,6 +54,7 @@ public class FhirOmopVocabularyMapImpl extends BaseFhirOmopMap implements FhirOm
 			logger.error(e.getMessage());
 			e.printStackTrace();
 		}
+		reload();
 
 		return 0;
 	}
@@ -65,6 +73,7 @@ public class FhirOmopVocabularyMapImpl extends BaseFhirOmopMap implements FhirOm
 		} catch (SQLException e) {
 			System.out.println(e.getMessage());
 		}
+		reload();
 	}
 
 	@Override
@@ -78,6 +87,7 @@ public class FhirOmopVocabularyMapImpl extends BaseFhirOmopMap implements FhirOm
 		} catch (SQLException e) {
 			System.out.println(e.getMessage());
 		}		
+		reload();
 	}
 
 	@Override
@@ -105,46 +115,88 @@ public class FhirOmopVocabularyMapImpl extends BaseFhirOmopMap implements FhirOm
 
 	@Override
 	public String getOmopVocabularyFromFhirSystemName(String fhirSystemName) {
-		String retv = "None";
-		String sql = "SELECT * FROM FhirOmopVocabularyMap where fhir_url_system=? or other_system=?";
-
-		try (Connection conn = this.connect(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
-			pstmt.setString(1, fhirSystemName.trim());
-			pstmt.setString(2, fhirSystemName.trim());
-			
-			ResultSet rs = pstmt.executeQuery();
-			if (rs.next()) {
-				retv = rs.getString("omop_vocabulary_id");
-			}
-			logger.debug("Omop Vocabulary,"+retv+" , found for "+fhirSystemName);
-		} catch (SQLException e) {
-			System.out.println(e.getMessage());
+		String retv = getSnapshot().fhirToOmop.get(fhirSystemName.trim());
+		if (retv == null) {
+			retv = "None";
 		}
+		logger.debug("Omop Vocabulary,"+retv+" , found for "+fhirSystemName);
 		
 		return retv;
 	}
 
 	@Override
 	public String getFhirSystemNameFromOmopVocabulary(String omopVocabulary) {
-		String retv = "None";
-		String sql = "SELECT * FROM FhirOmopVocabularyMap where omop_vocabulary_id=?";
+		String retv = getSnapshot().omopToFhir.get(omopVocabulary);
+		if (retv == null) {
+			retv = "None";
+		}
+		logger.debug("FHIR System name,"+retv+" , found for "+omopVocabulary);
+		
+		return retv;
+	}
 
-		try (Connection conn = this.connect(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
-			pstmt.setString(1, omopVocabulary);
-			
-			ResultSet rs = pstmt.executeQuery();
-			if (rs.next()) {
-				retv = rs.getString("fhir_url_system");
-				if (retv == null) {
-					retv = rs.getString("other_system");
+	/**
+	 * Reads the map table again. This is done after every save, update and
+	 * delete.
+	 */
+	@Override
+	public void reload() {
+		synchronized (FhirOmopVocabularyMapImpl.class) {
+			snapshot = load();
+		}
+	}
+
+	private Snapshot getSnapshot() {
+		Snapshot current = snapshot;
+		if (current == null) {
+			synchronized (FhirOmopVocabularyMapImpl.class) {
+				current = snapshot;
+				if (current == null) {
+					current = load();
+					snapshot = current;
 				}
 			}
-			logger.debug("FHIR System name,"+retv+" , found for "+omopVocabulary);
-		} catch (SQLException e) {
-			System.out.println(e.getMessage());
 		}
 		
-		return retv;
+		return current;
+	}
+
+	private Snapshot load() {
+		Map<String, String> omopToFhir = new HashMap<String, String>();
+		Map<String, String> fhirToOmop = new HashMap<String, String>();
+
+		// Rows are read in table order, and the first row wins as in the
+		// lookup queries.
+		for (FhirOmopVocabularyMapEntry entry : get()) {
+			String omopVocabulary = entry.getOmopConceptCodeName();
+			if (omopVocabulary == null) continue;
+			
+			String fhirSystemName = entry.getFhirUrlSystemName();
+			if (fhirSystemName == null) {
+				fhirSystemName = entry.getOtherSystemName();
+			}
+			if (fhirSystemName != null && !omopToFhir.containsKey(omopVocabulary)) {
+				omopToFhir.put(omopVocabulary, fhirSystemName);
+			}
+
+			if (entry.getFhirUrlSystemName() != null && !fhirToOmop.containsKey(entry.getFhirUrlSystemName())) {
+				fhirToOmop.put(entry.getFhirUrlSystemName(), omopVocabulary);
+			}
+			if (entry.getOtherSystemName() != null && !fhirToOmop.containsKey(entry.getOtherSystemName())) {
+				fhirToOmop.put(entry.getOtherSystemName(), omopVocabulary);
+			}
+		}
+
+		return new Snapshot(omopToFhir, fhirToOmop);
 	}
 
+	private static class Snapshot {
+		final Map<String, String> omopToFhir;
+		final Map<String, String> fhirToOmop;
+
+		Snapshot(Map<String, String> omopToFhir, Map<String, String> fhirToOmop) {
+			this.omopToFhir = Collections.unmodifiableMap(omopToFhir);
+			this.fhirToOmop = Collections.unmodifiableMap(fhirToOmop);
+		}
+	}
 }
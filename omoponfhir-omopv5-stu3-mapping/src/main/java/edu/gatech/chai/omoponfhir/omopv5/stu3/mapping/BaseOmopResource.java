@@ -15,20 +15,31 @@
  *******************************************************************************/
 package edu.gatech.chai.omoponfhir.omopv5.stu3.mapping;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.hl7.fhir.dstu3.model.IdType;
 import org.hl7.fhir.dstu3.model.Patient;
 import org.hl7.fhir.dstu3.model.Resource;
+import org.hl7.fhir.dstu3.model.ValueSet.ConceptReferenceComponent;
+import org.hl7.fhir.dstu3.model.ValueSet.ConceptSetComponent;
+import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.context.WebApplicationContext;
 
+import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
 import ca.uhn.fhir.rest.api.SortSpec;
 import edu.gatech.chai.omoponfhir.local.dao.FhirOmopCodeMapImpl;
 import edu.gatech.chai.omoponfhir.local.dao.FhirOmopVocabularyMapImpl;
+import edu.gatech.chai.omoponfhir.omopv5.stu3.utilities.ThrowFHIRExceptions;
+import edu.gatech.chai.omopv5.dba.service.ConceptLookupService;
+import edu.gatech.chai.omopv5.dba.service.EntityChunkCallback;
 import edu.gatech.chai.omopv5.dba.service.IService;
+import edu.gatech.chai.omopv5.dba.service.KeysetCursor;
 import edu.gatech.chai.omopv5.dba.service.ParameterWrapper;
 import edu.gatech.chai.omopv5.model.entity.BaseEntity;
 
@@ -37,11 +48,15 @@ public abstract class BaseOmopResource<v extends Resource, t extends BaseEntity,
 
 	protected FhirOmopVocabularyMapImpl fhirOmopVocabularyMap;
 	protected FhirOmopCodeMapImpl fhirOmopCodeMap;
+	protected ConceptLookupService conceptIdLookupService;
 	
 	private p myOmopService;
 	private Class<t> myEntityClass;
 	private Class<p> myServiceClass;
 	private String myFhirResourceType;
+	private SearchTotalModeEnum defaultTotalMode = SearchTotalModeEnum.ACCURATE;
+
+	protected static final int STREAM_CHUNK_SIZE = 100;
 
 	public static String MAP_EXCEPTION_FILTER = "FILTER";
 	public static String MAP_EXCEPTION_EXCLUDE = "EXCLUDE";
@@ -53,6 +68,17 @@ public abstract class BaseOmopResource<v extends Resource, t extends BaseEntity,
 		myFhirResourceType = fhirResourceType;
 		fhirOmopVocabularyMap = new FhirOmopVocabularyMapImpl();
 		fhirOmopCodeMap = new FhirOmopCodeMapImpl();
+		conceptIdLookupService = context.getBean(ConceptLookupService.class);
+
+		// Server default for _total (none, estimate or accurate) from web.xml.
+		if (context.getServletContext() != null) {
+			String totalMode = context.getServletContext().getInitParameter("defaultTotalMode");
+			if ("estimate".equalsIgnoreCase(totalMode)) {
+				defaultTotalMode = SearchTotalModeEnum.ESTIMATED;
+			} else if (totalMode != null && SearchTotalModeEnum.fromCode(totalMode.toLowerCase()) != null) {
+				defaultTotalMode = SearchTotalModeEnum.fromCode(totalMode.toLowerCase());
+			}
+		}
 	}
 
 	public String getMyFhirResourceType() {
@@ -90,6 +116,55 @@ public abstract class BaseOmopResource<v extends Resource, t extends BaseEntity,
 		return myOmopService.getSize(mapList);
 	}
 
+	public Long getSizeEstimate(List<ParameterWrapper> mapList) {
+		return myOmopService.getSizeEstimate(mapList);
+	}
+
+	/***
+	 * getSize for _total. NONE returns null (no total in the bundle). ESTIMATED
+	 * returns an estimate, or null if it cannot be estimated cheaply. ACCURATE
+	 * counts. If _total is not given, the server default is used.
+	 */
+	public Long getSize(List<ParameterWrapper> mapList, SearchTotalModeEnum totalMode) {
+		switch (getTotalMode(totalMode)) {
+		case NONE:
+			return null;
+		case ESTIMATED:
+			return getSizeEstimate(mapList);
+		default:
+			if (mapList.size() == 0) {
+				return getSize();
+			} else {
+				return getSize(mapList);
+			}
+		}
+	}
+
+	/***
+	 * getTotalMode: _total mode of a search. The server default if not given.
+	 */
+	public SearchTotalModeEnum getTotalMode(SearchTotalModeEnum totalMode) {
+		if (totalMode == null) {
+			return defaultTotalMode;
+		}
+
+		return totalMode;
+	}
+
+	/***
+	 * searchWithCount: searches one page and returns the total number of
+	 * matches, which the service reads together with the page. If the cursor
+	 * is given, it is moved to the end of the page, so the next page can seek.
+	 */
+	public Long searchWithCount(int fromIndex, int toIndex, List<ParameterWrapper> mapList,
+			List<IBaseResource> listResources, List<String> includes, String sort, KeysetCursor cursor) {
+		List<t> entities = new ArrayList<t>();
+		Long total = getMyOmopService().searchWithCount(fromIndex, toIndex, mapList, sort, entities, cursor);
+
+		constructResources(entities, listResources, includes);
+		return total;
+	}
+
 	/***
 	 * constructResource: Overwrite this if you want to implement includes.
 	 */
@@ -130,38 +205,91 @@ public abstract class BaseOmopResource<v extends Resource, t extends BaseEntity,
 
 	public void searchWithoutParams(int fromIndex, int toIndex, List<IBaseResource> listResources,
 			List<String> includes, String sort) {
-		List<t> entities = getMyOmopService().searchWithoutParams(fromIndex, toIndex, sort);
+		searchWithoutParams(fromIndex, toIndex, listResources, includes, sort, null);
+	}
+
+	public void searchWithoutParams(int fromIndex, int toIndex, List<IBaseResource> listResources,
+			List<String> includes, String sort, KeysetCursor cursor) {
+		List<t> entities = getMyOmopService().searchWithoutParams(fromIndex, toIndex, sort, cursor);
 
 		// We got the results back from OMOP database. Now, we need to construct
 		// the list of
 		// FHIR Patient resources to be included in the bundle.
-		for (t entity : entities) {
-			Long omopId = entity.getIdAsLong();
-			Long fhirId = IdMapping.getFHIRfromOMOP(omopId, getMyFhirResourceType());
-			v fhirResource = constructResource(fhirId, entity, includes);
-			if (fhirResource != null) {
-				listResources.add(fhirResource);
-				addRevIncludes(omopId, includes, listResources);
-			}
-		}
+		constructResources(entities, listResources, includes);
 	}
 
 	public void searchWithParams(int fromIndex, int toIndex, List<ParameterWrapper> mapList,
 			List<IBaseResource> listResources, List<String> includes, String sort) {
-		List<t> entities = getMyOmopService().searchWithParams(fromIndex, toIndex, mapList, sort);
-
-		for (t entity : entities) {
-			Long omopId = entity.getIdAsLong();
-			Long fhirId = IdMapping.getFHIRfromOMOP(omopId, getMyFhirResourceType());
-			v fhirResource = constructResource(fhirId, entity, includes);
-			if (fhirResource != null) {
-				listResources.add(fhirResource);
-				// Do the rev_include and add the resource to the list.
-				addRevIncludes(omopId, includes, listResources);
+		searchWithParams(fromIndex, toIndex, mapList, listResources, includes, sort, null);
+	}
+
+	/***
+	 * searchWithParams with keyset cursor. If the cursor is given, the next page
+	 * seeks from the last row of the previous page instead of using OFFSET.
+	 */
+	public void searchWithParams(int fromIndex, int toIndex, List<ParameterWrapper> mapList,
+			List<IBaseResource> listResources, List<String> includes, String sort, KeysetCursor cursor) {
+		List<t> entities = getMyOmopService().searchWithParams(fromIndex, toIndex, mapList, sort, cursor);
+
+		constructResources(entities, listResources, includes);
+	}
+
+	/***
+	 * streamWithParams: constructs FHIR resources for all entities that match
+	 * mapList. Use this instead of searchWithParams(0, 0, ...), which loads every
+	 * matching entity at once. Entities are streamed from the database and
+	 * constructed STREAM_CHUNK_SIZE at a time, so the prefetch hook still gets
+	 * a page. Each chunk is constructed before its entities are detached.
+	 */
+	public void streamWithParams(List<ParameterWrapper> mapList, final List<IBaseResource> listResources,
+			final List<String> includes, String sort) {
+		getMyOmopService().streamWithParams(mapList, sort, STREAM_CHUNK_SIZE, new EntityChunkCallback<t>() {
+			@Override
+			public boolean process(List<t> entities) {
+				constructResources(entities, listResources, includes);
+				return true;
+			}
+		});
+	}
+
+	/***
+	 * constructResources: constructs FHIR resources for a page of entities. The
+	 * prefetch hook is called once for the page before any constructFHIR call.
+	 */
+	protected void constructResources(List<t> entities, List<IBaseResource> listResources, List<String> includes) {
+		prefetch(entities);
+		try {
+			for (t entity : entities) {
+				Long omopId = entity.getIdAsLong();
+				Long fhirId = IdMapping.getFHIRfromOMOP(omopId, getMyFhirResourceType());
+				v fhirResource = constructResource(fhirId, entity, includes);
+				if (fhirResource != null) {
+					listResources.add(fhirResource);
+					// Do the rev_include and add the resource to the list.
+					addRevIncludes(omopId, includes, listResources);
+				}
 			}
+		} finally {
+			clearPrefetch();
 		}
 	}
 
+	/***
+	 * prefetch: Override this to load what constructFHIR needs for a whole page
+	 * in a few IN (...) queries instead of querying for every entity. Prefetched
+	 * data must be kept per thread as mappers are shared between requests.
+	 */
+	protected void prefetch(List<t> entities) {
+
+	}
+
+	/***
+	 * clearPrefetch: Override this to drop what prefetch loaded.
+	 */
+	protected void clearPrefetch() {
+
+	}
+
 	// Override the this method to provide rev_includes.
 	public void addRevIncludes(Long omopId, List<String> includes, List<IBaseResource> listResources) {
 
@@ -208,6 +336,80 @@ public abstract class BaseOmopResource<v extends Resource, t extends BaseEntity,
 		}
 	}
 	
+	/**
+	 * Maps a search on an OMOP vocabulary and code to the concept_ids of the
+	 * code. idAttribute is the concept id of the searched concept, such as
+	 * "drugConcept.id". The fact table is then filtered on its concept_id
+	 * column, without joining concept. The ids are cached by
+	 * ConceptLookupService.
+	 * 
+	 * Returns false, and leaves paramWrapper as it is, if the code can't be
+	 * resolved. The caller then searches on the vocabulary and code columns.
+	 * The lookup is exact, so searches that used "=" (Condition, Procedure,
+	 * DocumentReference) match the same concepts as before. A code in another
+	 * case is not resolved and still goes through the caller's own predicate,
+	 * so the case-insensitive "like" searches (Observation) are unchanged too.
+	 */
+	protected boolean putConceptIdsInParamWrapper(ParameterWrapper paramWrapper, String idAttribute,
+			String omopVocabulary, String code) {
+		if (omopVocabulary == null || "None".equals(omopVocabulary) || code == null || code.isEmpty()) return false;
+
+		List<Long> conceptIds = conceptIdLookupService.findConceptIdsByVocabularyIdAndCode(omopVocabulary, code);
+		if (conceptIds.isEmpty()) return false;
+
+		List<String> values = new ArrayList<String>();
+		for (Long conceptId : conceptIds) {
+			values.add(String.valueOf(conceptId));
+		}
+
+		paramWrapper.setParameterType("Long");
+		paramWrapper.setParameters(Arrays.asList(idAttribute));
+		paramWrapper.setOperators(Arrays.asList("in"));
+		paramWrapper.setValues(values);
+		paramWrapper.setRelationship("or");
+		return true;
+	}
+
+	/**
+	 * The concept_ids of the codes listed in value set includes or excludes.
+	 * Codes are looked up per system in batches, and cached by
+	 * ConceptLookupService. Codes that are not in OMOP are left out.
+	 * 
+	 * Only listed codes can be compiled. A concept set with a filter, or with
+	 * no codes (a whole system or another value set), is unprocessable.
+	 */
+	protected Set<Long> getValueSetConceptIds(List<ConceptSetComponent> conceptSets) {
+		Set<Long> conceptIds = new LinkedHashSet<Long>();
+		if (conceptSets == null) return conceptIds;
+
+		for (ConceptSetComponent conceptSet : conceptSets) {
+			String system = conceptSet.getSystem();
+			if (conceptSet.hasFilter() || !conceptSet.hasConcept()) {
+				ThrowFHIRExceptions.unprocessableEntityException(
+						"Only valuesets that list their codes are supported in code:in. " + system + " does not");
+			}
+
+			String omopVocabulary = "None";
+			try {
+				omopVocabulary = OmopCodeableConceptMapping.omopVocabularyforFhirUri(system);
+			} catch (FHIRException e) {
+				e.printStackTrace();
+			}
+			if ("None".equals(omopVocabulary)) {
+				ThrowFHIRExceptions.unprocessableEntityException(
+						"We don't understand the system, " + system + " in code:in valueset");
+			}
+
+			List<String> codes = new ArrayList<String>();
+			for (ConceptReferenceComponent concept : conceptSet.getConcept()) {
+				codes.add(concept.getCode());
+			}
+			conceptIds.addAll(conceptIdLookupService.findConceptIdsByVocabularyIdAndCodes(omopVocabulary, codes));
+		}
+
+		return conceptIds;
+	}
+
 	public String constructOrderParams(SortSpec theSort) {
 		String direction;
 		
@@ -23,7 +23,9 @@ import org.hl7.fhir.dstu3.model.Resource;
 import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 
+import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
 import ca.uhn.fhir.rest.api.SortSpec;
+import edu.gatech.chai.omopv5.dba.service.KeysetCursor;
 import edu.gatech.chai.omopv5.dba.service.ParameterWrapper;
 import edu.gatech.chai.omopv5.model.entity.BaseEntity;
 
@@ -34,10 +36,17 @@ public interface IResourceMapping<v extends Resource, t extends BaseEntity> {
 	public Long removeByFhirId (IdType fhirId) throws FHIRException;
 	public Long getSize();
 	public Long getSize(List<ParameterWrapper> mapList);
+	public Long getSizeEstimate(List<ParameterWrapper> mapList);
+	public Long getSize(List<ParameterWrapper> mapList, SearchTotalModeEnum totalMode);
+	public SearchTotalModeEnum getTotalMode(SearchTotalModeEnum totalMode);
 
 	public v constructResource(Long fhirId, t entity, List<String> includes);
 	public void searchWithoutParams(int fromIndex, int toIndex, List<IBaseResource> listResources, List<String> includes, String sort);
 	public void searchWithParams(int fromIndex, int toIndex, List<ParameterWrapper> map, List<IBaseResource> listResources, List<String> includes, String sort);
+	public void searchWithoutParams(int fromIndex, int toIndex, List<IBaseResource> listResources, List<String> includes, String sort, KeysetCursor cursor);
+	public void searchWithParams(int fromIndex, int toIndex, List<ParameterWrapper> map, List<IBaseResource> listResources, List<String> includes, String sort, KeysetCursor cursor);
+	public void streamWithParams(List<ParameterWrapper> map, List<IBaseResource> listResources, List<String> includes, String sort);
+	public Long searchWithCount(int fromIndex, int toIndex, List<ParameterWrapper> map, List<IBaseResource> listResources, List<String> includes, String sort, KeysetCursor cursor);
 
 	public List<ParameterWrapper> mapParameter(String parameter, Object value, boolean or);
 	public v constructFHIR(Long fhirId, t entity);
@@ -0,0 +1,549 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package edu.gatech.chai.omoponfhir.omopv5.stu3.mapping;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.springframework.web.context.ContextLoaderListener;
+import org.springframework.web.context.WebApplicationContext;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import edu.gatech.chai.omopv5.dba.service.FPersonService;
+import edu.gatech.chai.omopv5.dba.service.ParameterWrapper;
+import edu.gatech.chai.omopv5.model.entity.FPerson;
+
+/**
+ * FHIR Bulk Data export.
+ *
+ * A job exports each resource type to gzip'd NDJSON files in its own
+ * directory. Patient compartment types are split by person_id range
+ * (partitionSize persons each, whatever the gaps between ids), and every
+ * type/range is one task on a bounded pool, so the tables are read in
+ * parallel and the mappers stream one chunk of entities at a time. Jobs and
+ * their files are dropped retentionMillis after they finish.
+ *
+ * The pool's queue holds at most maxQueuedTasks. A new job is rejected when
+ * it is full. A job's planner runs the tasks that do not fit itself, so a
+ * large export does not fill the queue.
+ */
+public class OmopBulkExport {
+	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(OmopBulkExport.class);
+
+	public static final String NDJSON_SUFFIX = ".ndjson.gz";
+
+	/** Types in the Patient compartment, partitioned by person_id. */
+	public static final List<String> PATIENT_TYPES = Collections.unmodifiableList(Arrays.asList("Patient",
+			"Condition", "Device", "DeviceUseStatement", "DocumentReference", "Encounter", "MedicationRequest",
+			"MedicationStatement", "Observation", "Procedure"));
+
+	/** Types exported by a system level export. */
+	public static final List<String> SYSTEM_TYPES;
+	static {
+		List<String> types = new ArrayList<String>(PATIENT_TYPES);
+		types.add("Organization");
+		types.add("Practitioner");
+		SYSTEM_TYPES = Collections.unmodifiableList(types);
+	}
+
+	private final FhirContext fhirContext;
+	private final File directory;
+	private final long partitionSize;
+	private final long retentionMillis;
+	private final ThreadPoolExecutor executor;
+	private final ScheduledExecutorService cleanup;
+	private final Map<String, ExportJob> jobs = new ConcurrentHashMap<String, ExportJob>();
+	private FPersonService fPersonService;
+
+	public OmopBulkExport(FhirContext fhirContext, File directory, int threads, int maxQueuedTasks,
+			long partitionSize, long retentionMillis) {
+		this(ContextLoaderListener.getCurrentWebApplicationContext(), fhirContext, directory, threads, maxQueuedTasks,
+				partitionSize, retentionMillis);
+	}
+
+	public OmopBulkExport(WebApplicationContext context, FhirContext fhirContext, File directory, int threads,
+			int maxQueuedTasks, long partitionSize, long retentionMillis) {
+		this.fhirContext = fhirContext;
+		this.directory = directory;
+		this.partitionSize = partitionSize;
+		this.retentionMillis = retentionMillis;
+		fPersonService = context.getBean(FPersonService.class);
+
+		final AtomicInteger count = new AtomicInteger();
+		ThreadFactory threadFactory = new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "bulk-export-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+		executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(maxQueuedTasks), threadFactory);
+		executor.allowCoreThreadTimeOut(true);
+
+		cleanup = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "bulk-export-cleanup");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long period = Math.max(60000L, Math.min(retentionMillis, 3600000L));
+		cleanup.scheduleWithFixedDelay(this::removeExpiredJobs, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Starts a job for the types and returns right away. The types must be in
+	 * SYSTEM_TYPES. Throws RejectedExecutionException if the queue is full.
+	 */
+	public ExportJob submit(String request, List<String> types) {
+		ExportJob job = new ExportJob(UUID.randomUUID().toString(), request, types,
+				new File(directory, "export-" + System.currentTimeMillis() + "-" + UUID.randomUUID()));
+		try {
+			executor.execute(() -> plan(job));
+		} catch (RejectedExecutionException e) {
+			throw new RejectedExecutionException("Too many bulk export tasks are waiting", e);
+		}
+		jobs.put(job.getId(), job);
+
+		logger.info("Bulk export " + job.getId() + " accepted for " + types);
+		return job;
+	}
+
+	public ExportJob getJob(String id) {
+		if (id == null) return null;
+
+		return jobs.get(id);
+	}
+
+	/**
+	 * Output file of a finished job, or null if the job has no such output.
+	 */
+	public File getOutputFile(ExportJob job, String fileName) {
+		for (Output output : job.getOutputs()) {
+			if (output.getFileName().equals(fileName)) {
+				return new File(job.getDirectory(), fileName);
+			}
+		}
+
+		return null;
+	}
+
+	public void shutdown() {
+		cleanup.shutdownNow();
+		executor.shutdownNow();
+	}
+
+	private void plan(ExportJob job) {
+		try {
+			if (!job.getDirectory().mkdirs()) {
+				throw new IOException("Unable to create " + job.getDirectory());
+			}
+
+			List<Long[]> ranges = personRanges();
+			List<Runnable> tasks = new ArrayList<Runnable>();
+			for (String type : job.getTypes()) {
+				IResourceMapping<?, ?> mapper = getMapper(type);
+				String personAttribute = getPersonAttribute(type);
+				if (personAttribute == null) {
+					tasks.add(() -> export(job, mapper, type + NDJSON_SUFFIX, type,
+							idRange("id", Long.MIN_VALUE, null)));
+					continue;
+				}
+
+				for (int i = 0; i < ranges.size(); i++) {
+					Long[] range = ranges.get(i);
+					String fileName = type + "-" + (i + 1) + NDJSON_SUFFIX;
+					tasks.add(() -> export(job, mapper, fileName, type, idRange(personAttribute, range[0], range[1])));
+				}
+			}
+
+			if (tasks.isEmpty()) {
+				job.complete();
+				return;
+			}
+
+			job.setTotalTasks(tasks.size());
+			for (Runnable task : tasks) {
+				try {
+					executor.execute(task);
+				} catch (RejectedExecutionException e) {
+					if (executor.isShutdown()) throw e;
+
+					// The queue is full. Run it on this thread, which slows the
+					// planning down until the pool catches up.
+					task.run();
+				}
+			}
+		} catch (Throwable e) {
+			// Any failure must end the job, or it is polled forever.
+			logger.error("Bulk export " + job.getId() + " failed", e);
+			job.fail(e.getMessage() != null ? e.getMessage() : e.toString());
+		}
+	}
+
+	/**
+	 * person_id ranges [from, to) that cover all persons, with partitionSize
+	 * persons in each. The boundaries are found on the person_id index: each
+	 * range ends at the partitionSize'th person after its start, so sparse ids
+	 * do not make empty ranges. The last range is open (to is null).
+	 */
+	private List<Long[]> personRanges() {
+		List<Long[]> ranges = new ArrayList<Long[]>();
+
+		List<FPerson> first = fPersonService.searchWithoutParams(0, 1, "id ASC");
+		if (first.isEmpty()) {
+			return ranges;
+		}
+
+		int size = (int) Math.min(partitionSize, Integer.MAX_VALUE - 1);
+		Long from = first.get(0).getId();
+		while (from != null) {
+			List<FPerson> next = fPersonService.searchWithParams(size, size + 1, idRange("id", from, null), "id ASC");
+			Long to = next.isEmpty() ? null : next.get(0).getId();
+			ranges.add(new Long[] { from, to });
+			from = to;
+		}
+
+		return ranges;
+	}
+
+	private void export(ExportJob job, IResourceMapping<?, ?> mapper, String fileName, String type,
+			List<ParameterWrapper> paramList) {
+		if (job.isFinished()) return;
+
+		File file = new File(job.getDirectory(), fileName);
+		long count = 0;
+		try {
+			try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+					new GZIPOutputStream(Files.newOutputStream(file.toPath())), StandardCharsets.UTF_8))) {
+				NdjsonWriter ndjson = new NdjsonWriter(job, fhirContext.newJsonParser().setPrettyPrint(false),
+						writer);
+				mapper.streamWithParams(paramList, ndjson, new ArrayList<String>(), null);
+				count = ndjson.size();
+			}
+
+			if (count == 0) {
+				Files.deleteIfExists(file.toPath());
+			} else {
+				job.addOutput(new Output(type, fileName, count));
+			}
+			job.taskDone();
+		} catch (Throwable e) {
+			if (!job.isFinished()) {
+				logger.error("Bulk export " + job.getId() + " failed on " + fileName, e);
+			}
+			job.fail("Unable to export " + fileName + ": " + e.getMessage());
+		}
+	}
+
+	private void removeExpiredJobs() {
+		long now = System.currentTimeMillis();
+		for (Iterator<ExportJob> iter = jobs.values().iterator(); iter.hasNext();) {
+			ExportJob job = iter.next();
+			if (job.isFinished() && now - job.getFinishedTime() > retentionMillis) {
+				iter.remove();
+				deleteDirectory(job.getDirectory());
+				logger.debug("Bulk export " + job.getId() + " expired");
+			}
+		}
+	}
+
+	private static void deleteDirectory(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	/**
+	 * attribute >= from, and < to unless to is null.
+	 */
+	private static List<ParameterWrapper> idRange(String attribute, long from, Long to) {
+		ParameterWrapper paramWrapper = new ParameterWrapper();
+		paramWrapper.setParameterType("Long");
+		if (to == null) {
+			paramWrapper.setParameters(Arrays.asList(attribute));
+			paramWrapper.setOperators(Arrays.asList(">="));
+			paramWrapper.setValues(Arrays.asList(String.valueOf(from)));
+		} else {
+			paramWrapper.setParameters(Arrays.asList(attribute, attribute));
+			paramWrapper.setOperators(Arrays.asList(">=", "<"));
+			paramWrapper.setValues(Arrays.asList(String.valueOf(from), String.valueOf(to)));
+		}
+		paramWrapper.setRelationship("and");
+
+		List<ParameterWrapper> paramList = new ArrayList<ParameterWrapper>();
+		paramList.add(paramWrapper);
+		return paramList;
+	}
+
+	/**
+	 * Entity attribute that holds the person id, or null if the type is not
+	 * partitioned.
+	 */
+	private static String getPersonAttribute(String type) {
+		if ("Patient".equals(type)) return "id";
+		if (PATIENT_TYPES.contains(type)) return "fPerson.id";
+
+		return null;
+	}
+
+	private static IResourceMapping<?, ?> getMapper(String type) {
+		switch (type) {
+		case "Patient":
+			return OmopPatient.getInstance();
+		case "Condition":
+			return OmopCondition.getInstance();
+		case "Device":
+			return OmopDevice.getInstance();
+		case "DeviceUseStatement":
+			return OmopDeviceUseStatement.getInstance();
+		case "DocumentReference":
+			return OmopDocumentReference.getInstance();
+		case "Encounter":
+			return OmopEncounter.getInstance();
+		case "MedicationRequest":
+			return OmopMedicationRequest.getInstance();
+		case "MedicationStatement":
+			return OmopMedicationStatement.getInstance();
+		case "Observation":
+			return OmopObservation.getInstance();
+		case "Procedure":
+			return OmopProcedure.getInstance();
+		case "Organization":
+			return OmopOrganization.getInstance();
+		case "Practitioner":
+			return OmopPractitioner.getInstance();
+		default:
+			throw new IllegalArgumentException("Bulk export does not support " + type);
+		}
+	}
+
+	/**
+	 * Resource list that writes each resource as an NDJSON line instead of
+	 * keeping it. The mappers fill it like any other result list.
+	 */
+	private static class NdjsonWriter extends AbstractList<IBaseResource> {
+		private final ExportJob job;
+		private final IParser parser;
+		private final Writer writer;
+		private int count;
+
+		NdjsonWriter(ExportJob job, IParser parser, Writer writer) {
+			this.job = job;
+			this.parser = parser;
+			this.writer = writer;
+		}
+
+		@Override
+		public boolean add(IBaseResource resource) {
+			if (job.isFinished()) {
+				throw new IllegalStateException("Bulk export " + job.getId() + " was stopped");
+			}
+
+			try {
+				parser.encodeResourceToWriter(resource, writer);
+				writer.write('\n');
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			count++;
+			return true;
+		}
+
+		@Override
+		public IBaseResource get(int index) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int size() {
+			return count;
+		}
+	}
+
+	public enum Status {
+		IN_PROGRESS, COMPLETE, ERROR
+	}
+
+	/**
+	 * State of one export. Updated by the export tasks and read by the status
+	 * requests.
+	 */
+	public static class ExportJob {
+		private final String id;
+		private final String request;
+		private final List<String> types;
+		private final File directory;
+		private final Date transactionTime = new Date();
+		private final List<Output> outputs = Collections.synchronizedList(new ArrayList<Output>());
+		private final AtomicInteger doneTasks = new AtomicInteger();
+		private volatile int totalTasks = -1;
+		private volatile Status status = Status.IN_PROGRESS;
+		private volatile String error;
+		private volatile long finishedTime;
+
+		ExportJob(String id, String request, List<String> types, File directory) {
+			this.id = id;
+			this.request = request;
+			this.types = types;
+			this.directory = directory;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public String getRequest() {
+			return request;
+		}
+
+		public List<String> getTypes() {
+			return types;
+		}
+
+		public File getDirectory() {
+			return directory;
+		}
+
+		public Date getTransactionTime() {
+			return transactionTime;
+		}
+
+		public Status getStatus() {
+			return status;
+		}
+
+		public String getError() {
+			return error;
+		}
+
+		public boolean isFinished() {
+			return status != Status.IN_PROGRESS;
+		}
+
+		public long getFinishedTime() {
+			return finishedTime;
+		}
+
+		/** Outputs in type order. */
+		public List<Output> getOutputs() {
+			List<Output> sorted;
+			synchronized (outputs) {
+				sorted = new ArrayList<Output>(outputs);
+			}
+			sorted.sort((a, b) -> {
+				int order = Integer.compare(types.indexOf(a.getType()), types.indexOf(b.getType()));
+				return order != 0 ? order : a.getFileName().compareTo(b.getFileName());
+			});
+			return sorted;
+		}
+
+		/** Progress for the X-Progress header. */
+		public String getProgress() {
+			if (totalTasks < 0) return "planning";
+
+			return doneTasks.get() + " of " + totalTasks + " partitions";
+		}
+
+		void setTotalTasks(int totalTasks) {
+			this.totalTasks = totalTasks;
+		}
+
+		void addOutput(Output output) {
+			outputs.add(output);
+		}
+
+		void taskDone() {
+			if (doneTasks.incrementAndGet() == totalTasks) {
+				complete();
+			}
+		}
+
+		synchronized void complete() {
+			if (isFinished()) return;
+
+			finishedTime = System.currentTimeMillis();
+			status = Status.COMPLETE;
+			logger.info("Bulk export " + id + " complete: " + outputs.size() + " file(s)");
+		}
+
+		synchronized void fail(String message) {
+			if (isFinished()) return;
+
+			error = message;
+			finishedTime = System.currentTimeMillis();
+			status = Status.ERROR;
+		}
+	}
+
+	/**
+	 * One NDJSON file of a job.
+	 */
+	public static class Output {
+		private final String type;
+		private final String fileName;
+		private final long count;
+
+		Output(String type, String fileName, long count) {
+			this.type = type;
+			this.fileName = fileName;
+			this.count = count;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		public String getFileName() {
+			return fileName;
+		}
+
+		public long getCount() {
+			return count;
+		}
+	}
+}
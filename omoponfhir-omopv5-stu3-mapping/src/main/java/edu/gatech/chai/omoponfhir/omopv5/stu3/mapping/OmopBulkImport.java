@@ -0,0 +1,480 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package edu.gatech.chai.omoponfhir.omopv5.stu3.mapping;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import org.hl7.fhir.dstu3.model.Condition;
+import org.hl7.fhir.dstu3.model.Observation;
+import org.hl7.fhir.dstu3.model.Resource;
+import org.hl7.fhir.exceptions.FHIRException;
+import org.springframework.web.context.ContextLoaderListener;
+import org.springframework.web.context.WebApplicationContext;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import edu.gatech.chai.omoponfhir.omopv5.stu3.utilities.AllowedHosts;
+import edu.gatech.chai.omopv5.dba.service.TransactionService;
+import edu.gatech.chai.omopv5.model.entity.BaseEntity;
+import edu.gatech.chai.omopv5.model.entity.Measurement;
+
+/**
+ * FHIR Bulk Data import of NDJSON files.
+ *
+ * Each input file is one task on a bounded pool. A task reads the file a line
+ * at a time, maps each resource with the Omop* mappers (concepts come from the
+ * ConceptLookupService cache), and writes every batchSize resources with
+ * TransactionService.bulkInsert in one transaction. The next lines are read
+ * only after the batch is written, so a slow database slows the readers down
+ * instead of filling memory. When the queue of waiting files is full, new
+ * jobs are rejected.
+ *
+ * Observation (measurement or observation) and Condition
+ * (condition_occurrence) are supported. The method and comment of an
+ * Observation are written after its batch, as fact_relationship (and note)
+ * rows, one resource at a time. A resource that can't be mapped is counted as
+ * failed and the file goes on. If a batch can't be written, its resources are
+ * written one at a time, so only the lines that fail are counted as failed and
+ * reported.
+ */
+public class OmopBulkImport {
+	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(OmopBulkImport.class);
+
+	private static final int MAX_ERRORS_PER_FILE = 10;
+
+	private final FhirContext fhirContext;
+	private final int batchSize;
+	private final long retentionMillis;
+	private final int connectTimeoutMillis;
+	private final int readTimeoutMillis;
+	private final ThreadPoolExecutor executor;
+	private final ScheduledExecutorService cleanup;
+	private final Map<String, ImportJob> jobs = new ConcurrentHashMap<String, ImportJob>();
+	private TransactionService transactionService;
+
+	public OmopBulkImport(FhirContext fhirContext, int threads, int maxQueuedFiles, int batchSize,
+			long retentionMillis, int connectTimeoutMillis, int readTimeoutMillis) {
+		this(ContextLoaderListener.getCurrentWebApplicationContext(), fhirContext, threads, maxQueuedFiles,
+				batchSize, retentionMillis, connectTimeoutMillis, readTimeoutMillis);
+	}
+
+	public OmopBulkImport(WebApplicationContext context, FhirContext fhirContext, int threads, int maxQueuedFiles,
+			int batchSize, long retentionMillis, int connectTimeoutMillis, int readTimeoutMillis) {
+		this.fhirContext = fhirContext;
+		this.batchSize = batchSize;
+		this.retentionMillis = retentionMillis;
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.readTimeoutMillis = readTimeoutMillis;
+		transactionService = context.getBean(TransactionService.class);
+
+		final AtomicInteger count = new AtomicInteger();
+		ThreadFactory threadFactory = new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "bulk-import-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+		executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(maxQueuedFiles), threadFactory);
+		executor.allowCoreThreadTimeOut(true);
+
+		cleanup = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "bulk-import-cleanup");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long period = Math.max(60000L, Math.min(retentionMillis, 3600000L));
+		cleanup.scheduleWithFixedDelay(this::removeExpiredJobs, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Starts a job that imports the files and returns right away.
+	 *
+	 * @throws RejectedExecutionException if the files don't fit in the queue.
+	 */
+	public ImportJob submit(String request, List<URL> inputs) {
+		if (executor.getQueue().remainingCapacity() < inputs.size()) {
+			throw new RejectedExecutionException("Bulk import queue is full");
+		}
+
+		ImportJob job = new ImportJob(UUID.randomUUID().toString(), request);
+		for (URL input : inputs) {
+			job.inputs.add(new InputFile(input));
+		}
+		jobs.put(job.getId(), job);
+
+		for (InputFile input : job.getInputs()) {
+			try {
+				executor.execute(() -> importFile(job, input));
+			} catch (RejectedExecutionException e) {
+				input.fail("Bulk import queue is full");
+				job.fileDone();
+			}
+		}
+
+		logger.info("Bulk import " + job.getId() + " accepted for " + inputs.size() + " file(s)");
+		return job;
+	}
+
+	public ImportJob getJob(String id) {
+		if (id == null) return null;
+
+		return jobs.get(id);
+	}
+
+	public void shutdown() {
+		cleanup.shutdownNow();
+		executor.shutdownNow();
+	}
+
+	private void importFile(ImportJob job, InputFile input) {
+		input.status = Status.IN_PROGRESS;
+		IParser parser = fhirContext.newJsonParser();
+
+		boolean gzip = input.getUrl().getPath().endsWith(".gz");
+		try {
+			try (InputStream in = open(input.getUrl());
+					BufferedReader reader = new BufferedReader(new InputStreamReader(
+							gzip ? new GZIPInputStream(in) : in, StandardCharsets.UTF_8))) {
+				List<ImportRow> batch = new ArrayList<ImportRow>();
+				int batchEntities = 0;
+				long lineNumber = 0;
+				String line;
+				while ((line = reader.readLine()) != null) {
+					lineNumber++;
+					if (line.trim().isEmpty()) continue;
+
+					input.read.incrementAndGet();
+					try {
+						Resource resource = (Resource) parser.parseResource(line);
+						ImportRow row = new ImportRow(lineNumber, resource, toEntities(resource));
+						batch.add(row);
+						batchEntities += row.entities.size();
+					} catch (Exception e) {
+						input.failed.incrementAndGet();
+						input.addError("Line " + lineNumber + ": " + e.getMessage());
+					}
+
+					if (batchEntities >= batchSize) {
+						write(input, batch);
+						batch.clear();
+						batchEntities = 0;
+					}
+				}
+				write(input, batch);
+			}
+
+			input.status = Status.COMPLETE;
+		} catch (Throwable e) {
+			// Any failure must end the file, or the job is polled forever.
+			logger.error("Bulk import " + job.getId() + " failed on " + input.getUrl(), e);
+			input.fail(e.getMessage() != null ? e.getMessage() : e.toString());
+		} finally {
+			job.fileDone();
+		}
+	}
+
+	/**
+	 * Opens an input with connect and read timeouts, so a stalled server fails
+	 * the file instead of holding a thread. Redirects are not followed, since
+	 * they could lead to a host that is not allowed.
+	 */
+	private InputStream open(URL url) throws IOException {
+		if (!"http".equalsIgnoreCase(url.getProtocol()) && !"https".equalsIgnoreCase(url.getProtocol())) {
+			return url.openStream();
+		}
+
+		HttpURLConnection http = AllowedHosts.openConnection(url, connectTimeoutMillis, readTimeoutMillis);
+		int status = http.getResponseCode();
+		if (status != HttpURLConnection.HTTP_OK) {
+			http.disconnect();
+			throw new IOException("HTTP " + status + " from " + url);
+		}
+
+		return http.getInputStream();
+	}
+
+	private void write(InputFile input, List<ImportRow> batch) {
+		if (batch.isEmpty()) return;
+
+		List<BaseEntity> entities = new ArrayList<BaseEntity>();
+		for (ImportRow row : batch) {
+			entities.addAll(row.entities);
+		}
+
+		List<ImportRow> written;
+		try {
+			transactionService.bulkInsert(entities);
+			written = batch;
+		} catch (Exception e) {
+			logger.warn("Bulk import batch failed for " + input.getUrl() + ", retrying row by row: " + e.getMessage());
+			written = writeRows(input, batch);
+		}
+
+		for (ImportRow row : written) {
+			input.imported.incrementAndGet();
+			try {
+				writeRelationships(row);
+			} catch (Exception e) {
+				input.addError("Line " + row.line + ": imported without its method or comment: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Writes the rows one at a time after their batch failed. The entities of
+	 * the failed batch may have been given ids, so each row is mapped again.
+	 * Returns the rows that were written.
+	 */
+	private List<ImportRow> writeRows(InputFile input, List<ImportRow> batch) {
+		List<ImportRow> written = new ArrayList<ImportRow>();
+		for (ImportRow row : batch) {
+			try {
+				ImportRow retry = new ImportRow(row.line, row.resource, toEntities(row.resource));
+				transactionService.bulkInsert(retry.entities);
+				written.add(retry);
+			} catch (Exception e) {
+				input.failed.incrementAndGet();
+				input.addError("Line " + row.line + ": " + e.getMessage());
+			}
+		}
+
+		return written;
+	}
+
+	/**
+	 * fact_relationship rows for the method and comment of an Observation,
+	 * linked to the first row written for it.
+	 */
+	private void writeRelationships(ImportRow row) {
+		if (!(row.resource instanceof Observation) || row.entities.isEmpty()) return;
+
+		Observation observation = (Observation) row.resource;
+		if (!observation.hasMethod() && !observation.hasComment()) return;
+
+		BaseEntity entity = row.entities.get(0);
+		if (entity instanceof Measurement) {
+			Measurement measurement = (Measurement) entity;
+			OmopObservation.getInstance().writeMethodAndComment(observation, measurement.getId(), 21L,
+					measurement.getDate(), measurement.getFPerson());
+		} else if (entity instanceof edu.gatech.chai.omopv5.model.entity.Observation) {
+			edu.gatech.chai.omopv5.model.entity.Observation omopObservation = (edu.gatech.chai.omopv5.model.entity.Observation) entity;
+			OmopObservation.getInstance().writeMethodAndComment(observation, omopObservation.getId(), 27L,
+					omopObservation.getDate(), omopObservation.getFPerson());
+		}
+	}
+
+	/**
+	 * New OMOP rows for a resource.
+	 */
+	@SuppressWarnings("unchecked")
+	private List<BaseEntity> toEntities(Resource resource) throws FHIRException {
+		List<BaseEntity> entities = new ArrayList<BaseEntity>();
+		switch (resource.getResourceType()) {
+		case Observation:
+			Map<String, Object> entityMap = OmopObservation.getInstance().constructOmopMeasurementObservation(null,
+					(Observation) resource);
+			if (entityMap == null || entityMap.isEmpty()) {
+				throw new FHIRException("Observation could not be mapped");
+			}
+			if (((String) entityMap.get("type")).equalsIgnoreCase("Measurement")) {
+				for (Measurement measurement : (List<Measurement>) entityMap.get("entity")) {
+					if (measurement != null) {
+						entities.add(measurement);
+					}
+				}
+			} else {
+				entities.add((BaseEntity) entityMap.get("entity"));
+			}
+			break;
+		case Condition:
+			entities.add(OmopCondition.getInstance().constructOmop(null, (Condition) resource));
+			break;
+		default:
+			throw new FHIRException("Bulk import does not support " + resource.getResourceType());
+		}
+
+		return entities;
+	}
+
+	private void removeExpiredJobs() {
+		long now = System.currentTimeMillis();
+		for (Iterator<ImportJob> iter = jobs.values().iterator(); iter.hasNext();) {
+			ImportJob job = iter.next();
+			if (job.isFinished() && now - job.getFinishedTime() > retentionMillis) {
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * One resource of a batch and the rows mapped from it.
+	 */
+	private static class ImportRow {
+		final long line;
+		final Resource resource;
+		final List<BaseEntity> entities;
+
+		ImportRow(long line, Resource resource, List<BaseEntity> entities) {
+			this.line = line;
+			this.resource = resource;
+			this.entities = entities;
+		}
+	}
+
+	public enum Status {
+		QUEUED, IN_PROGRESS, COMPLETE, ERROR
+	}
+
+	/**
+	 * State of one import. Updated by the file tasks and read by the status
+	 * requests.
+	 */
+	public static class ImportJob {
+		private final String id;
+		private final String request;
+		private final Date transactionTime = new Date();
+		private final List<InputFile> inputs = new ArrayList<InputFile>();
+		private final AtomicInteger doneFiles = new AtomicInteger();
+		private volatile long finishedTime;
+
+		ImportJob(String id, String request) {
+			this.id = id;
+			this.request = request;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public String getRequest() {
+			return request;
+		}
+
+		public Date getTransactionTime() {
+			return transactionTime;
+		}
+
+		public List<InputFile> getInputs() {
+			return Collections.unmodifiableList(inputs);
+		}
+
+		public boolean isFinished() {
+			return doneFiles.get() >= inputs.size();
+		}
+
+		public long getFinishedTime() {
+			return finishedTime;
+		}
+
+		/** Progress for the X-Progress header. */
+		public String getProgress() {
+			long read = 0;
+			for (InputFile input : inputs) {
+				read += input.getRead();
+			}
+
+			return doneFiles.get() + " of " + inputs.size() + " files, " + read + " resources read";
+		}
+
+		void fileDone() {
+			if (doneFiles.incrementAndGet() == inputs.size()) {
+				finishedTime = System.currentTimeMillis();
+				logger.info("Bulk import " + id + " complete");
+			}
+		}
+	}
+
+	/**
+	 * Progress of one input file.
+	 */
+	public static class InputFile {
+		private final URL url;
+		private final AtomicLong read = new AtomicLong();
+		private final AtomicLong imported = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+		private final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+		private volatile Status status = Status.QUEUED;
+
+		InputFile(URL url) {
+			this.url = url;
+		}
+
+		public URL getUrl() {
+			return url;
+		}
+
+		public Status getStatus() {
+			return status;
+		}
+
+		public long getRead() {
+			return read.get();
+		}
+
+		public long getImported() {
+			return imported.get();
+		}
+
+		public long getFailed() {
+			return failed.get();
+		}
+
+		/** The first errors of the file. */
+		public List<String> getErrors() {
+			synchronized (errors) {
+				return new ArrayList<String>(errors);
+			}
+		}
+
+		void addError(String message) {
+			if (errors.size() < MAX_ERRORS_PER_FILE) {
+				errors.add(message);
+			}
+		}
+
+		void fail(String message) {
+			addError(message);
+			status = Status.ERROR;
+		}
+	}
+}
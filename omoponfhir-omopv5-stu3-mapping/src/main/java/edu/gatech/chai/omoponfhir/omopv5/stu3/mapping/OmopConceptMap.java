@@ -2,7 +2,9 @@ package edu.gatech.chai.omoponfhir.omopv5.stu3.mapping;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.hl7.fhir.dstu3.model.BooleanType;
 import org.hl7.fhir.dstu3.model.CodeType;
@@ -21,7 +23,9 @@ import org.springframework.web.context.WebApplicationContext;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.provider.ConceptMapResourceProvider;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.utilities.CodeableConceptUtil;
 import edu.gatech.chai.omopv5.dba.service.ConceptRelationshipService;
+import edu.gatech.chai.omopv5.dba.service.ConceptLookupService;
 import edu.gatech.chai.omopv5.dba.service.ConceptService;
+import edu.gatech.chai.omopv5.dba.service.EntityCallback;
 import edu.gatech.chai.omopv5.dba.service.ParameterWrapper;
 import edu.gatech.chai.omopv5.model.entity.Concept;
 import edu.gatech.chai.omopv5.model.entity.ConceptRelationship;
@@ -32,6 +36,7 @@ public class OmopConceptMap extends BaseOmopResource<ConceptMap, ConceptRelation
 	private static final Logger logger = LoggerFactory.getLogger(OmopConceptMap.class);
 	private static OmopConceptMap omopConceptMap = new OmopConceptMap();
 	private ConceptService conceptService;
+	private ConceptLookupService conceptLookupService;
 	
 	public OmopConceptMap(WebApplicationContext context) {
 		super(context, ConceptRelationship.class, ConceptRelationshipService.class, ConceptMapResourceProvider.getType());
@@ -45,6 +50,7 @@ public class OmopConceptMap extends BaseOmopResource<ConceptMap, ConceptRelation
 	
 	private void initialize(WebApplicationContext context) {
 		conceptService = context.getBean(ConceptService.class);
+		conceptLookupService = context.getBean(ConceptLookupService.class);
 	}
 	
 	@Override
@@ -87,7 +93,7 @@ public class OmopConceptMap extends BaseOmopResource<ConceptMap, ConceptRelation
 		logger.debug("$translate requested for "+relationshipId);
 		
 		// Find concept_id for source coding.
-		Concept omopSrcConcept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptService, omopSrcVocab, code);
+		Concept omopSrcConcept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptLookupService, omopSrcVocab, code);
 		if (omopSrcConcept == null) {
 			logger.error("$translate: could not find concept for "+system+"|"+code);
 			return retVal;
@@ -113,8 +119,16 @@ public class OmopConceptMap extends BaseOmopResource<ConceptMap, ConceptRelation
 				);
 		params.add(paramRelationshipId);
 		
-		List<ConceptRelationship> conceptRealationships = getMyOmopService().searchWithParams(0, 0, params, null);
-		if (conceptRealationships.isEmpty()) {
+		// Only concept_id_2 is needed. Stream the relationships instead of loading them.
+		final List<Long> targetConceptIds = new ArrayList<Long>();
+		getMyOmopService().streamWithParams(params, null, new EntityCallback<ConceptRelationship>() {
+			@Override
+			public boolean process(ConceptRelationship conceptRelationship) {
+				targetConceptIds.add(conceptRelationship.getId().getConcept2());
+				return true;
+			}
+		});
+		if (targetConceptIds.isEmpty()) {
 			logger.info("$translate: mapping information is not found ("+system+"|"+code+" to "+targetSystem+")");
 			return retVal;
 		}
@@ -130,15 +144,20 @@ public class OmopConceptMap extends BaseOmopResource<ConceptMap, ConceptRelation
 		partParameter.setName("equivalence");
 		partParameter.setValue(new CodeType("equivalent"));
 		
-		for (ConceptRelationship conceptRealationship: conceptRealationships) {
+		Map<Long, Concept> targetConcepts = new HashMap<Long, Concept>();
+		for (Concept targetConcept : conceptService.searchByIds(targetConceptIds)) {
+			targetConcepts.put(targetConcept.getId(), targetConcept);
+		}
+
+		for (Long targetConceptId : targetConceptIds) {
 			// We found the mapping. Populate this information in Parameters resource.
 			// concept_id_2 is the target concept.
+			Concept targetConcept = targetConcepts.get(targetConceptId);
+			if (targetConcept == null) continue;
+
 			partParameter = parameter.addPart();
 			partParameter.setName("concept");
 			
-			Long targetConceptId = conceptRealationship.getId().getConcept2();
-			Concept targetConcept = conceptService.findById(targetConceptId);
-			
 			logger.debug("$translate: target concept obtained with vocabulary_id="+targetConcept.getVocabulary().getId());
 			Coding targetCoding = CodeableConceptUtil.getCodingFromOmopConcept(targetConcept, getFhirOmopVocabularyMap());
 			partParameter.setValue(targetCoding);
@@ -50,6 +50,7 @@ public class OmopCondition extends BaseOmopResource<Condition, ConditionOccurren
 	private FPersonService fPersonService;
 	private ProviderService providerService;
 	private ConceptService conceptService;
+	private ConceptLookupService conceptLookupService;
 	private VisitOccurrenceService visitOccurrenceService;
 
 	public OmopCondition(WebApplicationContext context) {
@@ -70,6 +71,7 @@ public class OmopCondition extends BaseOmopResource<Condition, ConditionOccurren
 		fPersonService = context.getBean(FPersonService.class);
 		providerService = context.getBean(ProviderService.class);
 		conceptService = context.getBean(ConceptService.class);
+		conceptLookupService = context.getBean(ConceptLookupService.class);
 		visitOccurrenceService = context.getBean(VisitOccurrenceService.class);
 	}
 
@@ -198,7 +200,7 @@ public class OmopCondition extends BaseOmopResource<Condition, ConditionOccurren
 				paramWrapper.setParameters(Arrays.asList("conceptId.vocabulary.id"));
 				paramWrapper.setOperators(Arrays.asList("="));
 				paramWrapper.setValues(Arrays.asList(omopVocabulary));
-			} else {
+			} else if (!putConceptIdsInParamWrapper(paramWrapper, "conceptId.id", omopVocabulary, code)) {
 				paramWrapper.setParameters(Arrays.asList("conceptId.vocabulary.id", "conceptId.conceptCode"));
 				paramWrapper.setOperators(Arrays.asList("=", "="));
 				paramWrapper.setValues(Arrays.asList(omopVocabulary, code));
@@ -458,7 +460,7 @@ public class OmopCondition extends BaseOmopResource<Condition, ConditionOccurren
 			Concept omopConcept;
 			// there is only one so get the first
 			try {
-				omopConcept = CodeableConceptUtil.getOmopConceptWithFhirConcept(conceptService, codes.get(0));
+				omopConcept = CodeableConceptUtil.getOmopConceptWithFhirConcept(conceptLookupService, codes.get(0));
 				// set the concept
 				conditionOccurrence.setConceptId(omopConcept);
 			} catch (FHIRException e) {
@@ -500,7 +502,7 @@ public class OmopCondition extends BaseOmopResource<Condition, ConditionOccurren
 			Concept omopTypeConcept;
 			// there is only one so get the first
 			try {
-				omopTypeConcept = CodeableConceptUtil.getOmopConceptWithFhirConcept(conceptService,
+				omopTypeConcept = CodeableConceptUtil.getOmopConceptWithFhirConcept(conceptLookupService,
 						categories.get(0).getCodingFirstRep());
 				conditionOccurrence.setTypeConceptId(omopTypeConcept);
 			} catch (FHIRException e) {
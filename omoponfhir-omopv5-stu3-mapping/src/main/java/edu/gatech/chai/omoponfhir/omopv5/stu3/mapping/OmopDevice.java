@@ -221,6 +221,9 @@ public class OmopDevice extends BaseOmopResource<Device, DeviceExposure, DeviceE
 					paramWrapper.setValues(Arrays.asList(omopVocabulary));
 					paramWrapper.setRelationship("or");
 					mapList.add(paramWrapper);
+				} else if (putConceptIdsInParamWrapper(paramWrapper, "deviceConcept.id", omopVocabulary, code)) {
+					// We have both system and code, and the code is in the vocabulary.
+					mapList.add(paramWrapper);
 				} else {
 					// We have both system and code.
 					paramWrapper.setParameterType("String");
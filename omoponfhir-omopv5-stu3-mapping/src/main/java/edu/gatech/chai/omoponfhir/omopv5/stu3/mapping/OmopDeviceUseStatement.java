@@ -45,6 +45,7 @@ import edu.gatech.chai.omoponfhir.omopv5.stu3.model.MyDeviceUseStatement;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.provider.DeviceUseStatementResourceProvider;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.provider.PatientResourceProvider;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.provider.PractitionerResourceProvider;
+import edu.gatech.chai.omopv5.dba.service.ConceptLookupService;
 import edu.gatech.chai.omopv5.dba.service.ConceptService;
 import edu.gatech.chai.omopv5.dba.service.DeviceExposureService;
 import edu.gatech.chai.omopv5.dba.service.FPersonService;
@@ -62,6 +63,7 @@ public class OmopDeviceUseStatement extends BaseOmopResource<MyDeviceUseStatemen
 	private static OmopDeviceUseStatement omopDeviceUseStatement = new OmopDeviceUseStatement();
 
 	private ConceptService conceptService;
+	private ConceptLookupService conceptLookupService;
 	private FPersonService fPersonService;
 	private ProviderService providerService;
 
@@ -77,6 +79,7 @@ public class OmopDeviceUseStatement extends BaseOmopResource<MyDeviceUseStatemen
 	
 	private void initialize(WebApplicationContext context) {
 		conceptService = context.getBean(ConceptService.class);
+		conceptLookupService = context.getBean(ConceptLookupService.class);
 		fPersonService = context.getBean(FPersonService.class);
 		providerService = context.getBean(ProviderService.class);
 	}
@@ -337,7 +340,7 @@ public class OmopDeviceUseStatement extends BaseOmopResource<MyDeviceUseStatemen
 			if (deviceType != null && !deviceType.isEmpty()) {
 				Coding deviceTypeCoding = deviceType.getCodingFirstRep();
 				try {
-					Concept concept = CodeableConceptUtil.getOmopConceptWithFhirConcept(conceptService, deviceTypeCoding);
+					Concept concept = CodeableConceptUtil.getOmopConceptWithFhirConcept(conceptLookupService, deviceTypeCoding);
 					if (concept != null) {
 						deviceExposure.setDeviceConcept(concept);
 						if (concept.getId() != 0L) {
@@ -49,6 +49,7 @@ import edu.gatech.chai.omoponfhir.omopv5.stu3.provider.PatientResourceProvider;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.provider.PractitionerResourceProvider;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.utilities.DateUtil;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.utilities.ThrowFHIRExceptions;
+import edu.gatech.chai.omopv5.dba.service.ConceptLookupService;
 import edu.gatech.chai.omopv5.dba.service.ConceptService;
 import edu.gatech.chai.omopv5.dba.service.FPersonService;
 import edu.gatech.chai.omopv5.dba.service.NoteService;
@@ -74,6 +75,7 @@ public class OmopDocumentReference extends BaseOmopResource<DocumentReference, N
 
 	private static OmopDocumentReference omopDocumentReference = new OmopDocumentReference();
 	private ConceptService conceptService;
+	private ConceptLookupService conceptLookupService;
 	private FPersonService fPersonService;
 	private ProviderService providerService;
 	private VisitOccurrenceService visitOccurrenceService;
@@ -91,6 +93,7 @@ public class OmopDocumentReference extends BaseOmopResource<DocumentReference, N
 
 	private void initialize(WebApplicationContext context) {
 		conceptService = context.getBean(ConceptService.class);
+		conceptLookupService = context.getBean(ConceptLookupService.class);
 		fPersonService = context.getBean(FPersonService.class);
 		providerService = context.getBean(ProviderService.class);
 		visitOccurrenceService = context.getBean(VisitOccurrenceService.class);
@@ -209,7 +212,7 @@ public class OmopDocumentReference extends BaseOmopResource<DocumentReference, N
 					// If this is LOINC, we can try to convert this to Note Type.
 					if ("LOINC".equals(omopVocabulary)) {
 						// Get concept id.
-						Concept loincConcept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptService, omopVocabulary, code);
+						Concept loincConcept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptLookupService, omopVocabulary, code);
 						Long omopConceptId = OmopNoteTypeMapping.getOmopConceptIdFor(loincConcept.getId());
 						if (!omopConceptId.equals(0L)) {
 							// We found the mapping. Use this to compare with concept id.
@@ -236,7 +239,7 @@ public class OmopDocumentReference extends BaseOmopResource<DocumentReference, N
 				paramWrapper.setParameters(Arrays.asList("typeConcept.vocabulary.id"));
 				paramWrapper.setOperators(Arrays.asList("="));
 				paramWrapper.setValues(Arrays.asList(omopVocabulary));				
-			} else {
+			} else if (!putConceptIdsInParamWrapper(paramWrapper, "typeConcept.id", omopVocabulary, code)) {
 				paramWrapper.setParameters(Arrays.asList("typeConcept.vocabulary.id", "typeConcept.conceptCode"));
 				paramWrapper.setOperators(Arrays.asList("=","="));
 				paramWrapper.setValues(Arrays.asList(omopVocabulary, code));
@@ -283,7 +286,7 @@ public class OmopDocumentReference extends BaseOmopResource<DocumentReference, N
 		if (typeCodeableConcept != null & !typeCodeableConcept.isEmpty()) {
 			for (Coding coding: typeCodeableConcept.getCoding()) {
 				try {
-					typeFhirConcept = CodeableConceptUtil.getOmopConceptWithFhirConcept(conceptService, coding);
+					typeFhirConcept = CodeableConceptUtil.getOmopConceptWithFhirConcept(conceptLookupService, coding);
 				} catch (FHIRException e) {
 					typeFhirConcept = null;
 					e.printStackTrace();
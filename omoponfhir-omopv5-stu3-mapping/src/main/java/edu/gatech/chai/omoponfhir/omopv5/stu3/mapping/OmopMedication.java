@@ -18,6 +18,7 @@ package edu.gatech.chai.omoponfhir.omopv5.stu3.mapping;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import org.hl7.fhir.dstu3.model.CodeableConcept;
 import org.hl7.fhir.dstu3.model.IdType;
@@ -32,6 +33,7 @@ import ca.uhn.fhir.rest.param.TokenParam;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.utilities.CodeableConceptUtil;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.provider.MedicationResourceProvider;
 import edu.gatech.chai.omopv5.dba.service.ConceptService;
+import edu.gatech.chai.omopv5.dba.service.KeysetCursor;
 import edu.gatech.chai.omopv5.dba.service.ParameterWrapper;
 import edu.gatech.chai.omopv5.model.entity.Concept;
 
@@ -39,6 +41,9 @@ public class OmopMedication extends BaseOmopResource<Medication, Concept, Concep
 		implements IResourceMapping<Medication, Concept> {
 
 	private static OmopMedication omopMedication = new OmopMedication();
+
+	// Ingredients of the page being mapped. See prefetch().
+	private ThreadLocal<Map<Long, List<Concept>>> prefetchedIngredients = new ThreadLocal<Map<Long, List<Concept>>>();
 	
 	public OmopMedication(WebApplicationContext context) {
 		super(context, Concept.class, ConceptService.class, MedicationResourceProvider.getType());
@@ -81,7 +86,14 @@ public class OmopMedication extends BaseOmopResource<Medication, Concept, Concep
 		medication.setCode(medicationCodeableConcept);
 
 		// See if we can add ingredient version of this medication.
-		List<Concept> ingredients = getMyOmopService().getIngredient(entity);
+		List<Concept> ingredients = null;
+		Map<Long, List<Concept>> ingredientsMap = prefetchedIngredients.get();
+		if (ingredientsMap != null) {
+			ingredients = ingredientsMap.get(entity.getId());
+		}
+		if (ingredients == null) {
+			ingredients = getMyOmopService().getIngredient(entity);
+		}
 		if (ingredients.size() > 0) {
 			CodeableConcept ingredientCodeableConcept;
 			try {
@@ -144,7 +156,7 @@ public class OmopMedication extends BaseOmopResource<Medication, Concept, Concep
 				paramWrapper.setParameters(Arrays.asList("vocabulary.id"));
 				paramWrapper.setOperators(Arrays.asList("like"));
 				paramWrapper.setValues(Arrays.asList(omopVocabulary));				
-			} else {
+			} else if (!putConceptIdsInParamWrapper(paramWrapper, "id", omopVocabulary, code)) {
 				paramWrapper.setParameters(Arrays.asList("vocabulary.id", "conceptCode"));
 				paramWrapper.setOperators(Arrays.asList("like","like"));
 				paramWrapper.setValues(Arrays.asList(omopVocabulary, code));
@@ -180,34 +192,60 @@ public class OmopMedication extends BaseOmopResource<Medication, Concept, Concep
 		return getMyOmopService().getSize(paramList);
 	}
 
+	@Override
+	public Long getSizeEstimate(List<ParameterWrapper> paramList) {
+		List<ParameterWrapper> estimateList = new ArrayList<ParameterWrapper>(paramList);
+		estimateList.add(filterParam);
+
+		return getMyOmopService().getSizeEstimate(estimateList);
+	}
+
 	@Override
 	public void searchWithoutParams(int fromIndex, int toIndex, List<IBaseResource> listResources,
-			List<String> includes, String sort) {
+			List<String> includes, String sort, KeysetCursor cursor) {
 
 		// This is read all. But, since we will add an exception conditions to add filter.
 		// we will call the search with params method.
 		List<ParameterWrapper> mapList = new ArrayList<ParameterWrapper> ();
-		searchWithParams (fromIndex, toIndex, mapList, listResources, includes, sort);
+		searchWithParams (fromIndex, toIndex, mapList, listResources, includes, sort, cursor);
 	}
 
 	@Override
 	public void searchWithParams(int fromIndex, int toIndex, List<ParameterWrapper> mapList,
-			List<IBaseResource> listResources, List<String> includes, String sort) {
+			List<IBaseResource> listResources, List<String> includes, String sort, KeysetCursor cursor) {
 		mapList.add(filterParam);
 
-		List<Concept> entities = getMyOmopService().searchWithParams(fromIndex, toIndex, mapList, sort);
+		List<Concept> entities = getMyOmopService().searchWithParams(fromIndex, toIndex, mapList, sort, cursor);
 
-		for (Concept entity : entities) {
-			Long omopId = entity.getIdAsLong();
-			Long fhirId = IdMapping.getFHIRfromOMOP(omopId, getMyFhirResourceType());
-			Medication fhirResource = constructResource(fhirId, entity, includes);
-			if (fhirResource != null) {
-				listResources.add(fhirResource);			
-				// Do the rev_include and add the resource to the list.
-				addRevIncludes(omopId, includes, listResources);
-			}
+		constructResources(entities, listResources, includes);
+	}
 
-		}
+	@Override
+	public void streamWithParams(List<ParameterWrapper> mapList, List<IBaseResource> listResources, List<String> includes,
+			String sort) {
+		List<ParameterWrapper> streamList = new ArrayList<ParameterWrapper>(mapList);
+		streamList.add(filterParam);
+
+		super.streamWithParams(streamList, listResources, includes, sort);
+	}
+
+	@Override
+	public Long searchWithCount(int fromIndex, int toIndex, List<ParameterWrapper> mapList,
+			List<IBaseResource> listResources, List<String> includes, String sort, KeysetCursor cursor) {
+		List<ParameterWrapper> countList = new ArrayList<ParameterWrapper>(mapList);
+		countList.add(filterParam);
+
+		return super.searchWithCount(fromIndex, toIndex, countList, listResources, includes, sort, cursor);
+	}
+
+	@Override
+	protected void prefetch(List<Concept> entities) {
+		prefetchedIngredients.set(getMyOmopService().getIngredients(entities));
+	}
+
+	@Override
+	protected void clearPrefetch() {
+		prefetchedIngredients.remove();
 	}
 
 	@Override
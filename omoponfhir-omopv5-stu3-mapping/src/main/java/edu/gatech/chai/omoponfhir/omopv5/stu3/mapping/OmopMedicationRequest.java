@@ -47,9 +47,11 @@ import edu.gatech.chai.omoponfhir.omopv5.stu3.provider.MedicationRequestResource
 import edu.gatech.chai.omoponfhir.omopv5.stu3.provider.MedicationStatementResourceProvider;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.provider.PatientResourceProvider;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.provider.PractitionerResourceProvider;
+import edu.gatech.chai.omopv5.dba.service.ConceptLookupService;
 import edu.gatech.chai.omopv5.dba.service.ConceptService;
 import edu.gatech.chai.omopv5.dba.service.DrugExposureService;
 import edu.gatech.chai.omopv5.dba.service.FPersonService;
+import edu.gatech.chai.omopv5.dba.service.KeysetCursor;
 import edu.gatech.chai.omopv5.dba.service.ParameterWrapper;
 import edu.gatech.chai.omopv5.dba.service.ProviderService;
 import edu.gatech.chai.omopv5.dba.service.VisitOccurrenceService;
@@ -90,6 +92,7 @@ public class OmopMedicationRequest extends BaseOmopResource<MedicationRequest, D
 	private static OmopMedicationRequest omopMedicationRequest = new OmopMedicationRequest();
 	private VisitOccurrenceService visitOccurrenceService;
 	private ConceptService conceptService;
+	private ConceptLookupService conceptLookupService;
 	private ProviderService providerService;
 	private FPersonService fPersonService;
 
@@ -106,6 +109,7 @@ public class OmopMedicationRequest extends BaseOmopResource<MedicationRequest, D
 	private void initialize(WebApplicationContext context) {
 		visitOccurrenceService = context.getBean(VisitOccurrenceService.class);
 		conceptService = context.getBean(ConceptService.class);
+		conceptLookupService = context.getBean(ConceptLookupService.class);
 		providerService = context.getBean(ProviderService.class);
 		fPersonService = context.getBean(FPersonService.class);
 	}
@@ -332,7 +336,7 @@ public class OmopMedicationRequest extends BaseOmopResource<MedicationRequest, D
 				paramWrapper.setOperators(Arrays.asList("like"));
 				paramWrapper.setValues(Arrays.asList(omopVocabulary));
 				paramWrapper.setRelationship("or");
-			} else {
+			} else if (!putConceptIdsInParamWrapper(paramWrapper, "drugConcept.id", omopVocabulary, code)) {
 				paramWrapper.setParameters(Arrays.asList("drugConcept.vocabulary.id", "drugConcept.conceptCode"));
 				paramWrapper.setOperators(Arrays.asList("like","like"));
 				paramWrapper.setValues(Arrays.asList(omopVocabulary, code));
@@ -425,22 +429,30 @@ public class OmopMedicationRequest extends BaseOmopResource<MedicationRequest, D
 		return getMyOmopService().getSize(paramList);
 	}
 
+	@Override
+	public Long getSizeEstimate(List<ParameterWrapper> paramList) {
+		List<ParameterWrapper> estimateList = new ArrayList<ParameterWrapper>(paramList);
+		estimateList.add(filterParam);
+
+		return getMyOmopService().getSizeEstimate(estimateList);
+	}
+
 	@Override
 	public void searchWithoutParams(int fromIndex, int toIndex, List<IBaseResource> listResources,
-			List<String> includes, String sort) {
+			List<String> includes, String sort, KeysetCursor cursor) {
 
 		// This is read all. But, since we will add an exception conditions to add filter.
 		// we will call the search with params method.
 		List<ParameterWrapper> paramList = new ArrayList<ParameterWrapper> ();
-		searchWithParams (fromIndex, toIndex, paramList, listResources, includes, sort);
+		searchWithParams (fromIndex, toIndex, paramList, listResources, includes, sort, cursor);
 	}
 
 	@Override
 	public void searchWithParams(int fromIndex, int toIndex, List<ParameterWrapper> mapList,
-			List<IBaseResource> listResources, List<String> includes, String sort) {
+			List<IBaseResource> listResources, List<String> includes, String sort, KeysetCursor cursor) {
 		mapList.add(filterParam);
 
-		List<DrugExposure> entities = getMyOmopService().searchWithParams(fromIndex, toIndex, mapList, sort);
+		List<DrugExposure> entities = getMyOmopService().searchWithParams(fromIndex, toIndex, mapList, sort, cursor);
 
 		for (DrugExposure entity : entities) {
 			Long omopId = entity.getIdAsLong();
@@ -455,6 +467,24 @@ public class OmopMedicationRequest extends BaseOmopResource<MedicationRequest, D
 		}
 	}
 
+	@Override
+	public void streamWithParams(List<ParameterWrapper> mapList, List<IBaseResource> listResources, List<String> includes,
+			String sort) {
+		List<ParameterWrapper> streamList = new ArrayList<ParameterWrapper>(mapList);
+		streamList.add(filterParam);
+
+		super.streamWithParams(streamList, listResources, includes, sort);
+	}
+
+	@Override
+	public Long searchWithCount(int fromIndex, int toIndex, List<ParameterWrapper> mapList,
+			List<IBaseResource> listResources, List<String> includes, String sort, KeysetCursor cursor) {
+		List<ParameterWrapper> countList = new ArrayList<ParameterWrapper>(mapList);
+		countList.add(filterParam);
+
+		return super.searchWithCount(fromIndex, toIndex, countList, listResources, includes, sort, cursor);
+	}
+
 	@Override
 	public DrugExposure constructOmop(Long omopId, MedicationRequest fhirResource) {
 		DrugExposure drugExposure = null;
@@ -569,7 +599,7 @@ public class OmopMedicationRequest extends BaseOmopResource<MedicationRequest, D
 		}
 
 		try {
-			omopConcept = CodeableConceptUtil.searchConcept(conceptService, medicationCodeableConcept);
+			omopConcept = CodeableConceptUtil.searchConcept(conceptLookupService, medicationCodeableConcept);
 			if (omopConcept == null) {
 				throw new FHIRException("Medication[CodeableConcept or Reference] could not be found");
 			} else {
@@ -624,7 +654,7 @@ public class OmopMedicationRequest extends BaseOmopResource<MedicationRequest, D
 				String doseSystem = doseQty.getSystem();
 				String vocabId = OmopCodeableConceptMapping.omopVocabularyforFhirUri(doseSystem);
 				Concept unitConcept = 
-						CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptService, vocabId, doseCode);
+						CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptLookupService, vocabId, doseCode);
 				drugExposure.setDoseUnitConcept(unitConcept);
 				break;
 			} catch (FHIRException e) {
@@ -650,7 +680,7 @@ public class OmopMedicationRequest extends BaseOmopResource<MedicationRequest, D
 				try {
 					vocabId = OmopCodeableConceptMapping.omopVocabularyforFhirUri(doseSystem);
 					Concept unitConcept = 
-							CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptService, vocabId, doseCode);
+							CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptLookupService, vocabId, doseCode);
 					drugExposure.setDoseUnitConcept(unitConcept);
 				} catch (FHIRException e) {
 					// TODO Auto-generated catch block
@@ -21,6 +21,7 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.hl7.fhir.dstu3.model.Annotation;
 import org.hl7.fhir.dstu3.model.CodeableConcept;
@@ -38,7 +39,6 @@ import org.hl7.fhir.dstu3.model.Reference;
 import org.hl7.fhir.dstu3.model.Resource;
 import org.hl7.fhir.dstu3.model.SimpleQuantity;
 import org.hl7.fhir.dstu3.model.Type;
-import org.hl7.fhir.dstu3.model.ValueSet.ConceptReferenceComponent;
 import org.hl7.fhir.dstu3.model.ValueSet.ConceptSetComponent;
 import org.hl7.fhir.exceptions.FHIRException;
 import org.springframework.web.context.ContextLoaderListener;
@@ -57,6 +57,7 @@ import edu.gatech.chai.omoponfhir.omopv5.stu3.provider.PatientResourceProvider;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.provider.PractitionerResourceProvider;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.utilities.TerminologyServiceClient;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.utilities.ThrowFHIRExceptions;
+import edu.gatech.chai.omopv5.dba.service.ConceptLookupService;
 import edu.gatech.chai.omopv5.dba.service.ConceptService;
 import edu.gatech.chai.omopv5.dba.service.DrugExposureService;
 import edu.gatech.chai.omopv5.dba.service.FPersonService;
@@ -103,6 +104,7 @@ public class OmopMedicationStatement extends BaseOmopResource<MedicationStatemen
 	private static OmopMedicationStatement omopMedicationStatement = new OmopMedicationStatement();
 	private VisitOccurrenceService visitOccurrenceService;
 	private ConceptService conceptService;
+	private ConceptLookupService conceptLookupService;
 	private ProviderService providerService;
 	private FPersonService fPersonService;
 
@@ -120,6 +122,7 @@ public class OmopMedicationStatement extends BaseOmopResource<MedicationStatemen
 	private void initialize(WebApplicationContext context) {
 		visitOccurrenceService = context.getBean(VisitOccurrenceService.class);
 		conceptService = context.getBean(ConceptService.class);
+		conceptLookupService = context.getBean(ConceptLookupService.class);
 		providerService = context.getBean(ProviderService.class);
 		fPersonService = context.getBean(FPersonService.class);
 	}
@@ -411,65 +414,25 @@ public class OmopMedicationStatement extends BaseOmopResource<MedicationStatemen
 				// code has URI for the valueset search.
 				TerminologyServiceClient terminologyService = TerminologyServiceClient.getInstance();
 				Map<String, List<ConceptSetComponent>> theIncExcl = terminologyService.getValueSetByUrl(code);
-				
-				List<ConceptSetComponent> includes = theIncExcl.get("include");				
-				List<String> values = new ArrayList<String>();
-				for (ConceptSetComponent include : includes) {
-					// We need to loop 
-					ParameterWrapper myParamWrapper = new ParameterWrapper();
-					myParamWrapper.setParameterType("Code:In");
-					myParamWrapper.setParameters(Arrays.asList("drugConcept.vocabulary.id", "drugConcept.conceptCode"));
-					myParamWrapper.setOperators(Arrays.asList("=", "in"));
-
-					String valueSetSystem = include.getSystem();
-					try {
-						omopVocabulary = OmopCodeableConceptMapping.omopVocabularyforFhirUri(valueSetSystem);
-					} catch (FHIRException e) {
-						e.printStackTrace();
-					}
-					if ("None".equals(omopVocabulary)) {
-						ThrowFHIRExceptions.unprocessableEntityException("We don't understand the system, "+valueSetSystem+" in code:in valueset");
-					}
-					values.add(valueSetSystem);
-					
-					List<ConceptReferenceComponent> concepts = include.getConcept();
-					for (ConceptReferenceComponent concept : concepts) {
-						String valueSetCode = concept.getCode();
-						values.add(valueSetCode);
-					}
-					myParamWrapper.setValues(values);
-					myParamWrapper.setUpperRelationship("or");
-					mapList.add(myParamWrapper);
+				if (theIncExcl.get("include") == null) {
+					ThrowFHIRExceptions.unprocessableEntityException("Valueset " + code + " has no codes to search");
 				}
-				
-				List<ConceptSetComponent> excludes = theIncExcl.get("exclude");
-				for (ConceptSetComponent exclude : excludes) {
-					// We need to loop 
-					ParameterWrapper myParamWrapper = new ParameterWrapper();
-					myParamWrapper.setParameterType("Code:In");
-					myParamWrapper.setParameters(Arrays.asList("drugConcept.vocabulary.id", "drugConcept.conceptCode"));
-					myParamWrapper.setOperators(Arrays.asList("=", "out"));
-
-					String valueSetSystem = exclude.getSystem();
-					try {
-						omopVocabulary = OmopCodeableConceptMapping.omopVocabularyforFhirUri(valueSetSystem);
-					} catch (FHIRException e) {
-						e.printStackTrace();
-					}
-					if ("None".equals(omopVocabulary)) {
-						ThrowFHIRExceptions.unprocessableEntityException("We don't understand the system, "+valueSetSystem+" in code:in valueset");
-					}
-					values.add(valueSetSystem);
-					
-					List<ConceptReferenceComponent> concepts = exclude.getConcept();
-					for (ConceptReferenceComponent concept : concepts) {
-						String valueSetCode = concept.getCode();
-						values.add(valueSetCode);
-					}
-					myParamWrapper.setValues(values);
-					myParamWrapper.setUpperRelationship("and");
-					mapList.add(myParamWrapper);
+
+				// The valueset is compiled to the drug concept_ids that it includes
+				// and does not exclude, and searched with one IN on drug_concept_id.
+				Set<Long> conceptIds = getValueSetConceptIds(theIncExcl.get("include"));
+				conceptIds.removeAll(getValueSetConceptIds(theIncExcl.get("exclude")));
+
+				List<String> values = new ArrayList<String>();
+				for (Long conceptId : conceptIds) {
+					values.add(String.valueOf(conceptId));
 				}
+				paramWrapper.setParameterType("Long");
+				paramWrapper.setParameters(Arrays.asList("drugConcept.id"));
+				paramWrapper.setOperators(Arrays.asList("in"));
+				paramWrapper.setValues(values);
+				paramWrapper.setRelationship("or");
+				mapList.add(paramWrapper);
 			} else {
 				if (system != null && !system.isEmpty()) {
 					try {
@@ -489,7 +452,7 @@ public class OmopMedicationStatement extends BaseOmopResource<MedicationStatemen
 					paramWrapper.setParameters(Arrays.asList("drugConcept.vocabulary.id"));
 					paramWrapper.setOperators(Arrays.asList("like"));
 					paramWrapper.setValues(Arrays.asList(omopVocabulary));
-				} else {
+				} else if (!putConceptIdsInParamWrapper(paramWrapper, "drugConcept.id", omopVocabulary, code)) {
 					paramWrapper.setParameters(Arrays.asList("drugConcept.vocabulary.id", "drugConcept.conceptCode"));
 					paramWrapper.setOperators(Arrays.asList("like", "like"));
 					paramWrapper.setValues(Arrays.asList(omopVocabulary, code));
@@ -700,7 +663,7 @@ public class OmopMedicationStatement extends BaseOmopResource<MedicationStatemen
 					if (rNTCodingDisplay == null || rNTCodingDisplay.isEmpty()) {
 						Concept rNTOmopConcept;
 						try {
-							rNTOmopConcept = CodeableConceptUtil.getOmopConceptWithFhirConcept(conceptService,
+							rNTOmopConcept = CodeableConceptUtil.getOmopConceptWithFhirConcept(conceptLookupService,
 									rNTCoding);
 							if (rNTOmopConcept != null) {
 								reasonsForStopped = reasonsForStopped.concat(" " + rNTOmopConcept.getName());
@@ -777,7 +740,7 @@ public class OmopMedicationStatement extends BaseOmopResource<MedicationStatemen
 		}
 
 		try {
-			omopConcept = CodeableConceptUtil.searchConcept(conceptService, medicationCodeableConcept);
+			omopConcept = CodeableConceptUtil.searchConcept(conceptLookupService, medicationCodeableConcept);
 			if (omopConcept == null) {
 				throw new FHIRException("Medication[CodeableConcept or Reference] could not be found");
 			} else {
@@ -895,14 +858,14 @@ public class OmopMedicationStatement extends BaseOmopResource<MedicationStatemen
 						drugExposure.setDoseUnitSourceValue(unit);
 
 					CodeableConcept routeFhirConcept = dosage.getRoute();
-					routeConcept = CodeableConceptUtil.searchConcept(conceptService, routeFhirConcept);
+					routeConcept = CodeableConceptUtil.searchConcept(conceptLookupService, routeFhirConcept);
 					if (routeConcept != null) {
 						drugExposure.setRouteConcept(routeConcept);
 					}
 
 					if (system != null && !system.isEmpty() && code != null && !code.isEmpty()) {
 						String omopVocabularyId = OmopCodeableConceptMapping.omopVocabularyforFhirUri(system);
-						unitConcept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptService,
+						unitConcept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptLookupService,
 								omopVocabularyId, code);
 						if (unitConcept != null) {
 							drugExposure.setDoseUnitConcept(unitConcept);
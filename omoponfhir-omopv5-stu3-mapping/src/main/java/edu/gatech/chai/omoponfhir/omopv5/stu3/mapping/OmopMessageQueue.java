@@ -0,0 +1,485 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package edu.gatech.chai.omoponfhir.omopv5.stu3.mapping;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.CodeableConcept;
+import org.hl7.fhir.dstu3.model.IntegerType;
+import org.hl7.fhir.dstu3.model.OperationOutcome;
+import org.hl7.fhir.dstu3.model.OperationOutcome.IssueSeverity;
+import org.hl7.fhir.dstu3.model.Parameters;
+import org.hl7.fhir.dstu3.model.Parameters.ParametersParameterComponent;
+import org.hl7.fhir.dstu3.model.Resource;
+import org.hl7.fhir.dstu3.model.UriType;
+import org.springframework.web.context.WebApplicationContext;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import edu.gatech.chai.omoponfhir.omopv5.stu3.utilities.AllowedHosts;
+
+/**
+ * Durable queue for asynchronous $process-message.
+ *
+ * A message is written to pending/ under the queue directory, as Parameters
+ * with its content and response-url, and synced to disk before it is
+ * acknowledged. One drain thread claims up to batchSize messages at a time by
+ * moving them to processing/, and a bounded pool adds them with
+ * OmopServerOperations. The response message is written to done/, where it is
+ * read by message id, and is POSTed to the response-url if there is one.
+ *
+ * The response-url must be on an allowed host, and redirects are not
+ * followed. A POST that fails is kept in outbox/ and tried again with a
+ * doubling delay, up to MAX_POST_ATTEMPTS times.
+ *
+ * Messages left in processing/ by a shutdown are queued again on start, so a
+ * message is processed at least once. Responses are dropped retentionMillis
+ * after they are written.
+ */
+public class OmopMessageQueue {
+	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(OmopMessageQueue.class);
+
+	private static final String SUFFIX = ".json";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final long DRAIN_PERIOD_MILLIS = 1000L;
+	private static final long RETRY_PERIOD_MILLIS = 10000L;
+	private static final long FIRST_RETRY_DELAY_MILLIS = 30000L;
+	private static final long MAX_RETRY_DELAY_MILLIS = 3600000L;
+	private static final int MAX_POST_ATTEMPTS = 10;
+	private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+	private static final int READ_TIMEOUT_MILLIS = 30000;
+
+	private final FhirContext fhirContext;
+	private final OmopServerOperations serverOperations;
+	private final File pendingDirectory;
+	private final File processingDirectory;
+	private final File doneDirectory;
+	private final File outboxDirectory;
+	private final AllowedHosts responseHosts;
+	private final int batchSize;
+	private final long retentionMillis;
+	private final ThreadPoolExecutor workers;
+	private final ScheduledExecutorService drainer;
+	private final ScheduledExecutorService retrier;
+	private final AtomicBoolean drainRequested = new AtomicBoolean();
+
+	public OmopMessageQueue(WebApplicationContext context, FhirContext fhirContext, File directory,
+			AllowedHosts responseHosts, int threads, int batchSize, long retentionMillis) throws IOException {
+		this.fhirContext = fhirContext;
+		this.responseHosts = responseHosts;
+		this.batchSize = batchSize;
+		this.retentionMillis = retentionMillis;
+		serverOperations = new OmopServerOperations(context);
+
+		pendingDirectory = createDirectory(new File(directory, "pending"));
+		processingDirectory = createDirectory(new File(directory, "processing"));
+		doneDirectory = createDirectory(new File(directory, "done"));
+		outboxDirectory = createDirectory(new File(directory, "outbox"));
+		recover();
+
+		final AtomicInteger count = new AtomicInteger();
+		ThreadFactory threadFactory = new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "process-message-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+		// The drain thread hands over at most one batch at a time, so the
+		// pool's queue stays small.
+		workers = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				threadFactory);
+		workers.allowCoreThreadTimeOut(true);
+
+		drainer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "process-message-drain");
+			thread.setDaemon(true);
+			return thread;
+		});
+		drainer.scheduleWithFixedDelay(this::drain, 0L, DRAIN_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+		long period = Math.max(60000L, Math.min(retentionMillis, 3600000L));
+		drainer.scheduleWithFixedDelay(this::removeExpiredResponses, period, period, TimeUnit.MILLISECONDS);
+
+		// Its own thread, so a slow response-url does not hold up the drain.
+		retrier = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "process-message-retry");
+			thread.setDaemon(true);
+			return thread;
+		});
+		retrier.scheduleWithFixedDelay(this::retryPosts, RETRY_PERIOD_MILLIS, RETRY_PERIOD_MILLIS,
+				TimeUnit.MILLISECONDS);
+	}
+
+	public enum Status {
+		QUEUED, IN_PROGRESS, COMPLETE
+	}
+
+	/**
+	 * Stores the message and returns its id. The message is on disk when this
+	 * returns.
+	 */
+	public String enqueue(Bundle theContent, String responseUrl) throws IOException {
+		String id = UUID.randomUUID().toString();
+
+		Parameters parameters = new Parameters();
+		parameters.addParameter().setName("content").setResource(theContent);
+		if (responseUrl != null) {
+			parameters.addParameter().setName("response-url").setValue(new UriType(responseUrl));
+		}
+		write(parameters, new File(pendingDirectory, id + SUFFIX));
+
+		if (drainRequested.compareAndSet(false, true)) {
+			drainer.execute(this::drain);
+		}
+
+		return id;
+	}
+
+	/**
+	 * Where the message is, or null if there is no such message.
+	 */
+	public Status getStatus(String id) {
+		if (!isMessageId(id)) return null;
+
+		// In the order a message moves, so a move between checks is not missed.
+		if (new File(pendingDirectory, id + SUFFIX).isFile()) return Status.QUEUED;
+		if (new File(processingDirectory, id + SUFFIX).isFile()) return Status.IN_PROGRESS;
+		if (new File(doneDirectory, id + SUFFIX).isFile()) return Status.COMPLETE;
+
+		return null;
+	}
+
+	/**
+	 * The response of a processed message: the response Bundle, or an
+	 * OperationOutcome if the message could not be processed.
+	 */
+	public Resource getResponse(String id) throws IOException {
+		if (!isMessageId(id)) return null;
+
+		File file = new File(doneDirectory, id + SUFFIX);
+		if (!file.isFile()) return null;
+
+		try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			return (Resource) fhirContext.newJsonParser().parseResource(reader);
+		}
+	}
+
+	public void shutdown() {
+		drainer.shutdownNow();
+		retrier.shutdownNow();
+		workers.shutdownNow();
+	}
+
+	private void drain() {
+		drainRequested.set(false);
+
+		try {
+			// Files that could not be claimed stay in pending/. They are skipped
+			// for the rest of this drain, or they would be listed again forever.
+			Set<String> unclaimed = new HashSet<String>();
+			List<File> batch;
+			while (!(batch = nextBatch(unclaimed)).isEmpty()) {
+				List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+				for (File file : batch) {
+					File claimed = new File(processingDirectory, file.getName());
+					try {
+						Files.move(file.toPath(), claimed.toPath(), StandardCopyOption.ATOMIC_MOVE);
+					} catch (IOException e) {
+						if (file.exists()) {
+							logger.error("Message " + file.getName() + " could not be moved to " + processingDirectory, e);
+						}
+						unclaimed.add(file.getName());
+						continue;
+					}
+					tasks.add(() -> {
+						process(claimed);
+						return null;
+					});
+				}
+				workers.invokeAll(tasks);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Throwable e) {
+			// Keep the scheduled drain running.
+			logger.error("Draining the message queue failed", e);
+		}
+	}
+
+	private List<File> nextBatch(Set<String> skip) {
+		File[] files = pendingDirectory.listFiles((dir, name) -> name.endsWith(SUFFIX) && !skip.contains(name));
+		if (files == null || files.length == 0) return new ArrayList<File>();
+
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+
+		return new ArrayList<File>(Arrays.asList(files).subList(0, Math.min(batchSize, files.length)));
+	}
+
+	private void process(File claimed) {
+		String id = claimed.getName().substring(0, claimed.getName().length() - SUFFIX.length());
+		String responseUrl = null;
+		Resource response;
+		try {
+			Parameters parameters;
+			try (Reader reader = Files.newBufferedReader(claimed.toPath(), StandardCharsets.UTF_8)) {
+				parameters = fhirContext.newJsonParser().parseResource(Parameters.class, reader);
+			}
+
+			Bundle content = null;
+			for (ParametersParameterComponent parameter : parameters.getParameter()) {
+				if ("content".equals(parameter.getName())) {
+					content = (Bundle) parameter.getResource();
+				} else if ("response-url".equals(parameter.getName())) {
+					responseUrl = parameter.getValue().primitiveValue();
+				}
+			}
+
+			response = serverOperations.processMessage(content);
+		} catch (Exception e) {
+			// The message is not retried. The failure is its response.
+			logger.error("Message " + id + " could not be processed", e);
+			OperationOutcome outcome = new OperationOutcome();
+			CodeableConcept detailCode = new CodeableConcept();
+			detailCode.setText(e.getMessage() != null ? e.getMessage() : e.toString());
+			outcome.addIssue().setSeverity(IssueSeverity.ERROR).setDetails(detailCode);
+			response = outcome;
+		}
+
+		try {
+			write(response, new File(doneDirectory, id + SUFFIX));
+			Files.delete(claimed.toPath());
+		} catch (IOException e) {
+			// Left in processing/, so it is queued again on the next start.
+			logger.error("Response to message " + id + " could not be stored", e);
+			return;
+		}
+
+		if (responseUrl != null && !postResponse(id, responseUrl, response)) {
+			storePost(id, responseUrl, 1);
+		}
+	}
+
+	/**
+	 * POSTs the response to the response-url. Returns false if the POST
+	 * failed in a way that may pass later, so that it should be tried again.
+	 */
+	private boolean postResponse(String id, String responseUrl, Resource response) {
+		// Checked again here, as the allowed hosts may have changed since the
+		// message was queued.
+		if (!responseHosts.isAllowed(responseUrl)) {
+			logger.warn("Response to message " + id + " not sent. The host of " + responseUrl + " is not allowed");
+			return true;
+		}
+
+		byte[] body = fhirContext.newJsonParser().encodeResourceToString(response).getBytes(StandardCharsets.UTF_8);
+		HttpURLConnection http = null;
+		try {
+			http = AllowedHosts.openConnection(new URL(responseUrl), CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS);
+			http.setRequestMethod("POST");
+			http.setDoOutput(true);
+			http.setFixedLengthStreamingMode(body.length);
+			http.setRequestProperty("Content-Type", "application/fhir+json;charset=UTF-8");
+			try (OutputStream out = http.getOutputStream()) {
+				out.write(body);
+			}
+
+			int status = http.getResponseCode();
+			if (status >= 200 && status < 300) return true;
+
+			// The response can still be read by message id.
+			logger.warn("Response to message " + id + " was refused by " + responseUrl + " with HTTP " + status);
+			return status < 500 && status != 408 && status != 429;
+		} catch (IOException e) {
+			logger.warn("Response to message " + id + " could not be sent to " + responseUrl + ": " + e.getMessage());
+			return false;
+		} finally {
+			if (http != null) {
+				http.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Keeps a failed POST in outbox/. The file's modification time is set to
+	 * the time of the next attempt.
+	 */
+	private void storePost(String id, String responseUrl, int attempts) {
+		Parameters post = new Parameters();
+		post.addParameter().setName("response-url").setValue(new UriType(responseUrl));
+		post.addParameter().setName("attempts").setValue(new IntegerType(attempts));
+
+		File file = new File(outboxDirectory, id + SUFFIX);
+		long delay = Math.min(FIRST_RETRY_DELAY_MILLIS << Math.min(attempts - 1, 20), MAX_RETRY_DELAY_MILLIS);
+		try {
+			write(post, file);
+			if (!file.setLastModified(System.currentTimeMillis() + delay)) {
+				logger.debug("Could not set the next attempt time of " + file);
+			}
+		} catch (IOException e) {
+			logger.error("Response to message " + id + " could not be kept for another attempt", e);
+		}
+	}
+
+	/**
+	 * Tries the POSTs in outbox/ that are due again. A POST is dropped after
+	 * MAX_POST_ATTEMPTS, or when its response has expired.
+	 */
+	private void retryPosts() {
+		try {
+			long now = System.currentTimeMillis();
+			File[] files = outboxDirectory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+			for (File file : files == null ? new File[0] : files) {
+				if (Thread.currentThread().isInterrupted()) return;
+				if (file.lastModified() > now) continue;
+
+				String id = file.getName().substring(0, file.getName().length() - SUFFIX.length());
+				try {
+					retryPost(id, file);
+				} catch (Exception e) {
+					logger.error("Response to message " + id + " could not be sent again", e);
+					Files.deleteIfExists(file.toPath());
+				}
+			}
+		} catch (Throwable e) {
+			// Keep the scheduled retries running.
+			logger.error("Retrying message responses failed", e);
+		}
+	}
+
+	private void retryPost(String id, File file) throws IOException {
+		Parameters post;
+		try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			post = fhirContext.newJsonParser().parseResource(Parameters.class, reader);
+		}
+
+		String responseUrl = null;
+		int attempts = 0;
+		for (ParametersParameterComponent parameter : post.getParameter()) {
+			if ("response-url".equals(parameter.getName())) {
+				responseUrl = parameter.getValue().primitiveValue();
+			} else if ("attempts".equals(parameter.getName())) {
+				attempts = ((IntegerType) parameter.getValue()).getValue();
+			}
+		}
+
+		Resource response = getResponse(id);
+		if (response == null) {
+			logger.warn("Response to message " + id + " expired before it could be sent to " + responseUrl);
+		} else if (!postResponse(id, responseUrl, response)) {
+			if (attempts + 1 < MAX_POST_ATTEMPTS) {
+				storePost(id, responseUrl, attempts + 1);
+				return;
+			}
+			logger.error("Response to message " + id + " was not sent to " + responseUrl + " after " + (attempts + 1)
+					+ " attempts");
+		}
+
+		Files.deleteIfExists(file.toPath());
+	}
+
+	/**
+	 * Writes a temporary file, syncs it, and renames it into place, so that a
+	 * crash never leaves a partial message or response.
+	 */
+	private void write(Resource resource, File file) throws IOException {
+		File temp = new File(file.getParentFile(), file.getName() + TEMP_SUFFIX);
+		IParser parser = fhirContext.newJsonParser();
+		try (FileOutputStream out = new FileOutputStream(temp)) {
+			Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+			parser.encodeResourceToWriter(resource, writer);
+			writer.flush();
+			out.getFD().sync();
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Queues the messages that were being processed at shutdown again, and
+	 * drops temporary files that were never acknowledged.
+	 */
+	private void recover() throws IOException {
+		for (File directory : Arrays.asList(pendingDirectory, processingDirectory, doneDirectory, outboxDirectory)) {
+			File[] temps = directory.listFiles((dir, name) -> name.endsWith(TEMP_SUFFIX));
+			for (File temp : temps == null ? new File[0] : temps) {
+				Files.deleteIfExists(temp.toPath());
+			}
+		}
+
+		File[] claimed = processingDirectory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+		for (File file : claimed == null ? new File[0] : claimed) {
+			Files.move(file.toPath(), new File(pendingDirectory, file.getName()).toPath(),
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+		if (claimed != null && claimed.length > 0) {
+			logger.info("Queued " + claimed.length + " interrupted message(s) again");
+		}
+	}
+
+	private void removeExpiredResponses() {
+		long now = System.currentTimeMillis();
+		File[] files = doneDirectory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+		for (File file : files == null ? new File[0] : files) {
+			if (now - file.lastModified() > retentionMillis && !file.delete()) {
+				logger.warn("Could not delete " + file);
+			}
+		}
+	}
+
+	private static File createDirectory(File directory) throws IOException {
+		Files.createDirectories(directory.toPath());
+
+		return directory;
+	}
+
+	private static boolean isMessageId(String id) {
+		if (id == null) return false;
+
+		try {
+			return UUID.fromString(id).toString().equals(id);
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+}
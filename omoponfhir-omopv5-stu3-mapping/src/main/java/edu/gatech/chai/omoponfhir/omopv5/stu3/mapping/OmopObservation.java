@@ -57,12 +57,15 @@ import edu.gatech.chai.omoponfhir.omopv5.stu3.provider.EncounterResourceProvider
 import edu.gatech.chai.omoponfhir.omopv5.stu3.provider.ObservationResourceProvider;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.provider.PatientResourceProvider;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.provider.PractitionerResourceProvider;
+import edu.gatech.chai.omopv5.dba.service.ConceptLookupService;
 import edu.gatech.chai.omopv5.dba.service.ConceptService;
+import edu.gatech.chai.omopv5.dba.service.EntityCallback;
 import edu.gatech.chai.omopv5.dba.service.FObservationViewService;
 import edu.gatech.chai.omopv5.dba.service.FactRelationshipService;
 import edu.gatech.chai.omopv5.dba.service.MeasurementService;
 import edu.gatech.chai.omopv5.dba.service.NoteService;
 import edu.gatech.chai.omopv5.dba.service.ObservationService;
+import edu.gatech.chai.omopv5.dba.service.KeysetCursor;
 import edu.gatech.chai.omopv5.dba.service.ParameterWrapper;
 import edu.gatech.chai.omopv5.dba.service.VisitOccurrenceService;
 import edu.gatech.chai.omopv5.model.entity.BaseEntity;
@@ -88,12 +91,17 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 	public static final String BP_SYSTOLIC_DIASTOLIC_DISPLAY = "Blood pressure systolic & diastolic";
 
 	private ConceptService conceptService;
+	private ConceptLookupService conceptLookupService;
 	private MeasurementService measurementService;
 	private ObservationService observationService;
 	private VisitOccurrenceService visitOccurrenceService;
 	private NoteService noteService;
 	private FactRelationshipService factRelationshipService;
 
+	// Methods and comments of the page being mapped. See prefetch().
+	private ThreadLocal<Map<Long, List<BaseEntity>>> prefetchedMethods = new ThreadLocal<Map<Long, List<BaseEntity>>>();
+	private ThreadLocal<Map<Long, List<Note>>> prefetchedComments = new ThreadLocal<Map<Long, List<Note>>>();
+
 	public OmopObservation(WebApplicationContext context) {
 		super(context, FObservationView.class, FObservationViewService.class, ObservationResourceProvider.getType());
 		initialize(context);
@@ -108,6 +116,7 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 	private void initialize(WebApplicationContext context) {
 		// Get bean for other services that we need for mapping.
 		conceptService = context.getBean(ConceptService.class);
+		conceptLookupService = context.getBean(ConceptLookupService.class);
 		measurementService = context.getBean(MeasurementService.class);
 		observationService = context.getBean(ObservationService.class);
 		visitOccurrenceService = context.getBean(VisitOccurrenceService.class);
@@ -145,7 +154,7 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 			// see if we can get the unit from source column.
 			unitSource = fObservationView.getUnitSourceValue();
 			if (unitSource != null && !unitSource.isEmpty()) {
-				unitConcept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptService, OmopCodeableConceptMapping.UCUM.getOmopVocabulary(), unitSource);
+				unitConcept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptLookupService, OmopCodeableConceptMapping.UCUM.getOmopVocabulary(), unitSource);
 			}
 		}
 		
@@ -239,7 +248,7 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 					} else {
 						String diastolicUnitSource = diastolicDb.getUnitSourceValue();
 						if (diastolicUnitSource != null && !diastolicUnitSource.isEmpty()) {
-							Concept diastolicUnitConcept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptService, OmopCodeableConceptMapping.UCUM.getOmopVocabulary(), unitSource);
+							Concept diastolicUnitConcept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptLookupService, OmopCodeableConceptMapping.UCUM.getOmopVocabulary(), unitSource);
 							if (diastolicUnitConcept != null && diastolicUnitConcept.getId() != 0L) {
 								quantity.setUnit(diastolicUnitConcept.getName());
 								quantity.setCode(diastolicUnitConcept.getConceptCode());
@@ -398,30 +407,57 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 		}
 
 		if (fObservationView.getId() > 0) {
-			List<BaseEntity> methods = factRelationshipService.searchMeasurementUsingMethod(fObservationView.getId());
-			if (methods != null && methods.size() > 0) {
-				for (BaseEntity method : methods) {
-					if (method instanceof Note) {
-						Note note = (Note) method;
-						String methodString = noteService.findById(note.getId()).getNoteText();
-						CodeableConcept methodCodeable = new CodeableConcept();
-						methodCodeable.setText(methodString);
-						observation.setMethod(methodCodeable);
-					} else if (method instanceof Concept) {
-						Concept concept = (Concept) method;
-						CodeableConcept methodCodeable = CodeableConceptUtil
-								.getCodeableConceptFromOmopConcept(conceptService.findById(concept.getId()));
-						observation.setMethod(methodCodeable);
-					} else {
-						logger.error("Method couldn't be retrieved. Method class type undefined");
+			// Use what prefetch loaded for this page. If we are not in a page
+			// (eg. read), look up the methods and comments now.
+			List<BaseEntity> methods;
+			List<Note> notes;
+			Map<Long, List<BaseEntity>> methodsMap = prefetchedMethods.get();
+			Map<Long, List<Note>> commentsMap = prefetchedComments.get();
+			if (methodsMap != null && commentsMap != null) {
+				methods = methodsMap.getOrDefault(fObservationView.getId(), new ArrayList<BaseEntity>());
+				notes = commentsMap.getOrDefault(fObservationView.getId(), new ArrayList<Note>());
+			} else {
+				methods = new ArrayList<BaseEntity>();
+				List<BaseEntity> methodRefs = factRelationshipService.searchMeasurementUsingMethod(fObservationView.getId());
+				if (methodRefs != null) {
+					for (BaseEntity methodRef : methodRefs) {
+						if (methodRef instanceof Note) {
+							methods.add(noteService.findById(((Note) methodRef).getId()));
+						} else if (methodRef instanceof Concept) {
+							methods.add(conceptService.findById(((Concept) methodRef).getId()));
+						} else {
+							methods.add(methodRef);
+						}
+					}
+				}
+
+				notes = new ArrayList<Note>();
+				for (Note note : factRelationshipService.searchMeasurementContainsComments(fObservationView.getId())) {
+					Note comment = noteService.findById(note.getId());
+					if (comment != null) {
+						notes.add(comment);
 					}
 				}
 			}
 
-			List<Note> notes = factRelationshipService.searchMeasurementContainsComments(fObservationView.getId());
+			for (BaseEntity method : methods) {
+				if (method instanceof Note) {
+					String methodString = ((Note) method).getNoteText();
+					CodeableConcept methodCodeable = new CodeableConcept();
+					methodCodeable.setText(methodString);
+					observation.setMethod(methodCodeable);
+				} else if (method instanceof Concept) {
+					CodeableConcept methodCodeable = CodeableConceptUtil
+							.getCodeableConceptFromOmopConcept((Concept) method);
+					observation.setMethod(methodCodeable);
+				} else {
+					logger.error("Method couldn't be retrieved. Method class type undefined");
+				}
+			}
+
 			String comments = "";
 			for (Note note : notes) {
-				comments = comments.concat(noteService.findById(note.getId()).getNoteText());
+				comments = comments.concat(note.getNoteText());
 			}
 			if (!comments.isEmpty()) {
 				observation.setComment(comments);
@@ -624,13 +660,13 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 //					String omopVocabularyId = OmopCodeableConceptMapping.omopVocabularyforFhirUri(unitSystem);
 					String omopVocabularyId = fhirOmopVocabularyMap.getOmopVocabularyFromFhirSystemName(unitSystem);
 					if (omopVocabularyId != null) {
-						Concept unitConcept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptService,
+						Concept unitConcept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptLookupService,
 								omopVocabularyId, unitCode);
 						systolicMeasurement.setUnitConcept(unitConcept);
 					}
 					systolicMeasurement.setValueSourceValue(((Quantity) systolicValue).getValue().toString());
 				} else if (systolicValue instanceof CodeableConcept) {
-					Concept systolicValueConcept = CodeableConceptUtil.searchConcept(conceptService,
+					Concept systolicValueConcept = CodeableConceptUtil.searchConcept(conceptLookupService,
 							(CodeableConcept) systolicValue);
 					systolicMeasurement.setValueAsConcept(systolicValueConcept);
 					systolicMeasurement.setValueSourceValue(((CodeableConcept) systolicValue).toString());
@@ -661,13 +697,13 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 //					String omopVocabularyId = OmopCodeableConceptMapping.omopVocabularyforFhirUri(unitSystem);
 					String omopVocabularyId = fhirOmopVocabularyMap.getOmopVocabularyFromFhirSystemName(unitSystem);
 					if (omopVocabularyId != null) {
-						Concept unitConcept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptService,
+						Concept unitConcept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptLookupService,
 								omopVocabularyId, unitCode);
 						diastolicMeasurement.setUnitConcept(unitConcept);
 					}
 					diastolicMeasurement.setValueSourceValue(((Quantity) diastolicValue).getValue().toString());
 				} else if (diastolicValue instanceof CodeableConcept) {
-					Concept diastolicValueConcept = CodeableConceptUtil.searchConcept(conceptService,
+					Concept diastolicValueConcept = CodeableConceptUtil.searchConcept(conceptLookupService,
 							(CodeableConcept) diastolicValue);
 					diastolicMeasurement.setValueAsConcept(diastolicValueConcept);
 					diastolicMeasurement.setValueSourceValue(((CodeableConcept) diastolicValue).toString());
@@ -1016,7 +1052,7 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 		Concept concept = null;
 		if (codingFound != null) {
 			// Find the concept id for this coding.
-			concept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptService,
+			concept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptLookupService,
 					OmopCodeableConceptMapping.LOINC.getOmopVocabulary(), codingFound.getCode());
 //				if (concept == null) {
 //					throw new FHIRException("We couldn't map the code - "
@@ -1025,7 +1061,7 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 		} else if (codingSecondChoice != null) {
 			// This is not our first choice. But, found one that we can
 			// map.
-			concept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptService, omopSystem,
+			concept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptLookupService, omopSystem,
 					codingSecondChoice.getCode());
 //				if (concept == null) {
 //					throw new FHIRException("We couldn't map the code - "
@@ -1071,7 +1107,7 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 //						omopVocabulary = OmopCodeableConceptMapping.omopVocabularyforFhirUri(unitSystem);
 						omopVocabulary = fhirOmopVocabularyMap.getOmopVocabularyFromFhirSystemName(unitSystem);
 					}
-					concept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptService, omopVocabulary,
+					concept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptLookupService, omopVocabulary,
 							unitCode);
 				}
 
@@ -1102,7 +1138,7 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 
 //					String omopVocabulary = OmopCodeableConceptMapping.omopVocabularyforFhirUri(fhirSystem);
 					String omopVocabulary = fhirOmopVocabularyMap.getOmopVocabularyFromFhirSystemName(fhirSystem);
-					concept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptService, omopVocabulary,
+					concept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptLookupService, omopVocabulary,
 							fhirCode);
 
 					if (concept == null) {
@@ -1152,7 +1188,7 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 							omopVocabulary = fhirOmopVocabularyMap
 									.getOmopVocabularyFromFhirSystemName(high.getSystem());
 						}
-						rangeUnitConcept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptService,
+						rangeUnitConcept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptLookupService,
 								omopVocabulary, high.getCode());
 					}
 
@@ -1175,7 +1211,7 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 						} else {
 							omopVocabulary = fhirOmopVocabularyMap.getOmopVocabularyFromFhirSystemName(low.getSystem());
 						}
-						rangeUnitConcept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptService,
+						rangeUnitConcept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptLookupService,
 								omopVocabulary, low.getCode());
 					}
 
@@ -1343,7 +1379,7 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 		Concept concept = null;
 		if (codingFound != null) {
 			// Find the concept id for this coding.
-			concept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptService,
+			concept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptLookupService,
 					OmopCodeableConceptMapping.LOINC.getOmopVocabulary(), codingFound.getCode());
 //				if (concept == null) {
 //					throw new FHIRException("We couldn't map the code - "
@@ -1353,7 +1389,7 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 		if (codingSecondChoice != null) {
 			// This is not our first choice. But, found one that we can
 			// map.
-			concept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptService, OmopSystem,
+			concept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptLookupService, OmopSystem,
 					codingSecondChoice.getCode());
 //				if (concept == null) {
 //					throw new FHIRException("We couldn't map the code - "
@@ -1400,7 +1436,7 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 						e.printStackTrace();
 					}
 				}
-				concept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptService, omopVocabulary,
+				concept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptLookupService, omopVocabulary,
 						unitCode);
 			}
 
@@ -1431,7 +1467,7 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 				try {
 //					String omopVocabulary = OmopCodeableConceptMapping.omopVocabularyforFhirUri(fhirSystem);
 					String omopVocabulary = fhirOmopVocabularyMap.getOmopVocabularyFromFhirSystemName(fhirSystem);
-					concept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptService, omopVocabulary,
+					concept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptLookupService, omopVocabulary,
 							fhirCode);
 
 					if (concept == null) {
@@ -1657,6 +1693,63 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 
 	@Override
 	public Long toDbase(Observation fhirResource, IdType fhirId) throws FHIRException {
+		return writeOmop(fhirResource, constructOmopForWrite(fhirResource, fhirId));
+	}
+
+	/**
+	 * Patient, effective date and codings of fhirResource, or null if it has no
+	 * patient or date. Two observations with the same key pass the duplicate
+	 * check of constructOmopForWrite() on the same entry. Used to find
+	 * duplicates within a transaction bundle, whose entries are not in the
+	 * database yet when they are checked.
+	 */
+	public String duplicateKey(Observation fhirResource) {
+		Long patientFhirId = fhirResource.getSubject().getReferenceElement().getIdPartAsLong();
+
+		Date date = null;
+		if (fhirResource.getEffective() instanceof DateTimeType) {
+			date = ((DateTimeType) fhirResource.getEffective()).getValue();
+		} else if (fhirResource.getEffective() instanceof Period) {
+			date = ((Period) fhirResource.getEffective()).getStart();
+		}
+
+		if (patientFhirId == null || date == null) return null;
+
+		StringBuilder key = new StringBuilder();
+		key.append(patientFhirId).append('|').append(date.getTime());
+		for (Coding coding : fhirResource.getCode().getCoding()) {
+			key.append('|').append(coding.getSystem()).append(' ').append(coding.getCode()).append(' ')
+					.append(coding.getDisplay());
+		}
+
+		return key.toString();
+	}
+
+	/**
+	 * constructOmopForWrite() for an observation whose duplicate check would
+	 * find the entry written earlier in the same transaction, with FHIR id
+	 * duplicateOfFhirId. The entry is updated, as it would be if it had been
+	 * found in the database.
+	 */
+	public Map<String, Object> constructOmopForDuplicate(Observation fhirResource, Long duplicateOfFhirId)
+			throws FHIRException {
+		Long omopId = IdMapping.getOMOPfromFHIR(duplicateOfFhirId, ObservationResourceProvider.getType());
+		if (omopId < 0) {
+			// This is observation table data in OMOP.
+			omopId = -omopId; // convert to positive number;
+		}
+
+		validation(fhirResource, null);
+
+		return constructOmopMeasurementObservation(omopId, fhirResource);
+	}
+
+	/**
+	 * First half of toDbase(). Checks for an existing entry and constructs the
+	 * OMOP entities for fhirResource, as constructOmopMeasurementObservation()
+	 * does, without writing anything. Pass the result to writeOmop().
+	 */
+	public Map<String, Object> constructOmopForWrite(Observation fhirResource, IdType fhirId) throws FHIRException {
 		Long fhirIdLong = null;
 		Long omopId = null;
 		if (fhirId != null) {
@@ -1694,7 +1787,7 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 //					omopSystem = OmopCodeableConceptMapping.omopVocabularyforFhirUri(fhirSystem);
 					omopSystem = fhirOmopVocabularyMap.getOmopVocabularyFromFhirSystemName(fhirSystem);
 					if (omopSystem != null)
-						concept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptService, omopSystem,
+						concept = CodeableConceptUtil.getOmopConceptWithOmopVacabIdAndCode(conceptLookupService, omopSystem,
 								code);
 				}
 				if (concept != null)
@@ -1726,13 +1819,19 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 					paramList.addAll(mapParameter(Observation.SP_CODE, tokenParam, false));
 				}
 
-				List<IBaseResource> resources = new ArrayList<IBaseResource>();
-				List<String> includes = new ArrayList<String>();
+				paramList.add(exceptionParam4Search);
 
-				searchWithParams(0, 0, paramList, resources, includes, null);
-				if (resources.size() > 0) {
-					IBaseResource res = resources.get(0);
-					fhirIdLong = res.getIdElement().getIdPartAsLong();
+				// We only need the first match. Stop the stream there.
+				final List<Long> foundIds = new ArrayList<Long>();
+				getMyOmopService().streamWithParams(paramList, null, new EntityCallback<FObservationView>() {
+					@Override
+					public boolean process(FObservationView fObservationView) {
+						foundIds.add(fObservationView.getId());
+						return false;
+					}
+				});
+				if (foundIds.size() > 0) {
+					fhirIdLong = IdMapping.getFHIRfromOMOP(foundIds.get(0), ObservationResourceProvider.getType());
 					omopId = IdMapping.getOMOPfromFHIR(fhirIdLong, ObservationResourceProvider.getType());
 					if (omopId < 0) {
 						// This is observation table data in OMOP.
@@ -1745,10 +1844,17 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 
 		validation(fhirResource, fhirId);
 
+		return constructOmopMeasurementObservation(omopId, fhirResource);
+	}
+
+	/**
+	 * Second half of toDbase(). Writes the entities from constructOmopForWrite()
+	 * with the method and comment of fhirResource, and returns the FHIR id.
+	 */
+	public Long writeOmop(Observation fhirResource, Map<String, Object> entityMap) throws FHIRException {
 		List<Measurement> measurements = null;
 		edu.gatech.chai.omopv5.model.entity.Observation observation = null;
 
-		Map<String, Object> entityMap = constructOmopMeasurementObservation(omopId, fhirResource);
 		Long retId = null;
 
 		Date date = null;
@@ -1801,6 +1907,19 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 		if (retId == null)
 			return null;
 
+		writeMethodAndComment(fhirResource, retId, domainConceptId, date, fPerson);
+
+		Long retFhirId = IdMapping.getFHIRfromOMOP(retId, ObservationResourceProvider.getType());
+		return retFhirId;
+	}
+
+	/**
+	 * Writes the method and the comment of the observation as fact_relationship
+	 * rows (and note rows for text) for the row retId of domainConceptId
+	 * (21 measurement, 27 observation) that was written for it.
+	 */
+	public void writeMethodAndComment(Observation fhirResource, Long retId, Long domainConceptId, Date date,
+			FPerson fPerson) {
 		// Check method in FHIR. If we have method, check the concept ID if it's
 		// codeable concept and put
 		// entry in the relationship table. If text, use Note table and put the
@@ -1810,7 +1929,7 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 		String methodString = methodCodeable.getText();
 		if (methodCodings != null && !methodCodings.isEmpty()) {
 			for (Coding methodCoding : methodCodings) {
-				Concept methodConcept = CodeableConceptUtil.getOmopConceptWithFhirConcept(conceptService, methodCoding);
+				Concept methodConcept = CodeableConceptUtil.getOmopConceptWithFhirConcept(conceptLookupService, methodCoding);
 				if (methodConcept == null) {
 					String methodCodingDisplay = methodCoding.getDisplay();
 					if (methodCodingDisplay != null && !methodCodingDisplay.isEmpty()) {
@@ -1888,9 +2007,6 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 //			factRelationship.setRelationshipConcept(new Concept(44818721L));
 //			factRelationshipService.create(factRelationship);
 		}
-
-		Long retFhirId = IdMapping.getFHIRfromOMOP(retId, ObservationResourceProvider.getType());
-		return retFhirId;
 	}
 
 	private void createFactRelationship(Date noteDate, FPerson noteFPerson, String noteText, Long domainConceptId1,
@@ -2003,12 +2119,20 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 		return getMyOmopService().getSize(mapList);
 	}
 
+	@Override
+	public Long getSizeEstimate(List<ParameterWrapper> mapList) {
+		List<ParameterWrapper> estimateList = new ArrayList<ParameterWrapper>(mapList);
+		estimateList.add(exceptionParam4Search);
+
+		return getMyOmopService().getSizeEstimate(estimateList);
+	}
+
 	@Override
 	public void searchWithoutParams(int fromIndex, int toIndex, List<IBaseResource> listResources,
-			List<String> includes, String sort) {
+			List<String> includes, String sort, KeysetCursor cursor) {
 
 		List<ParameterWrapper> paramList = new ArrayList<ParameterWrapper>();
-		searchWithParams(fromIndex, toIndex, paramList, listResources, includes, sort);
+		searchWithParams(fromIndex, toIndex, paramList, listResources, includes, sort, cursor);
 
 		// List<ParameterWrapper> exceptions = new
 		// ArrayList<ParameterWrapper>();
@@ -2039,22 +2163,99 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 
 	@Override
 	public void searchWithParams(int fromIndex, int toIndex, List<ParameterWrapper> paramList,
-			List<IBaseResource> listResources, List<String> includes, String sort) {
+			List<IBaseResource> listResources, List<String> includes, String sort, KeysetCursor cursor) {
 		paramList.add(exceptionParam4Search);
 
 		List<FObservationView> fObservationViews = getMyOmopService().searchWithParams(fromIndex, toIndex, paramList,
-				sort);
+				sort, cursor);
+
+		constructResources(fObservationViews, listResources, includes);
+	}
+
+	@Override
+	public void streamWithParams(List<ParameterWrapper> paramList, List<IBaseResource> listResources, List<String> includes,
+			String sort) {
+		List<ParameterWrapper> streamList = new ArrayList<ParameterWrapper>(paramList);
+		streamList.add(exceptionParam4Search);
+
+		super.streamWithParams(streamList, listResources, includes, sort);
+	}
 
+	@Override
+	public Long searchWithCount(int fromIndex, int toIndex, List<ParameterWrapper> paramList,
+			List<IBaseResource> listResources, List<String> includes, String sort, KeysetCursor cursor) {
+		List<ParameterWrapper> countList = new ArrayList<ParameterWrapper>(paramList);
+		countList.add(exceptionParam4Search);
+
+		return super.searchWithCount(fromIndex, toIndex, countList, listResources, includes, sort, cursor);
+	}
+
+	@Override
+	protected void prefetch(List<FObservationView> fObservationViews) {
+		List<Long> factIds = new ArrayList<Long>();
 		for (FObservationView fObservationView : fObservationViews) {
-			Long omopId = fObservationView.getId();
-			Long fhirId = IdMapping.getFHIRfromOMOP(omopId, ObservationResourceProvider.getType());
-			Observation fhirResource = constructResource(fhirId, fObservationView, includes);
-			if (fhirResource != null) {
-				listResources.add(fhirResource);
-				// Do the rev_include and add the resource to the list.
-				addRevIncludes(omopId, includes, listResources);
+			if (fObservationView.getId() > 0) {
+				factIds.add(fObservationView.getId());
 			}
 		}
+
+		Map<Long, List<BaseEntity>> methodsMap = new HashMap<Long, List<BaseEntity>>();
+		Map<Long, List<Note>> commentsMap = new HashMap<Long, List<Note>>();
+		if (!factIds.isEmpty()) {
+			List<FactRelationship> factRelationships = factRelationshipService
+					.searchMeasurementMethodsAndComments(factIds);
+
+			// Collect notes and method concepts to load them in one query each.
+			List<Long> noteIds = new ArrayList<Long>();
+			List<Long> conceptIds = new ArrayList<Long>();
+			for (FactRelationship factRelationship : factRelationships) {
+				if (factRelationship.getDomainConcept2() == 26L) {
+					noteIds.add(factRelationship.getFactId2());
+				} else if (factRelationship.getDomainConcept2() == 58L) {
+					conceptIds.add(factRelationship.getFactId2());
+				}
+			}
+
+			Map<Long, Note> notes = new HashMap<Long, Note>();
+			for (Note note : noteService.searchByIds(noteIds)) {
+				notes.put(note.getId(), note);
+			}
+			Map<Long, Concept> concepts = new HashMap<Long, Concept>();
+			for (Concept concept : conceptService.searchByIds(conceptIds)) {
+				concepts.put(concept.getId(), concept);
+			}
+
+			// 44818800 = Using finding method, 44818721 = Contains
+			for (FactRelationship factRelationship : factRelationships) {
+				Long factId = factRelationship.getFactId1();
+				Long relationshipId = factRelationship.getRelationshipConcept().getId();
+				if (relationshipId == 44818800L) {
+					BaseEntity method = null;
+					if (factRelationship.getDomainConcept2() == 26L) {
+						method = notes.get(factRelationship.getFactId2());
+					} else if (factRelationship.getDomainConcept2() == 58L) {
+						method = concepts.get(factRelationship.getFactId2());
+					}
+					if (method != null) {
+						methodsMap.computeIfAbsent(factId, k -> new ArrayList<BaseEntity>()).add(method);
+					}
+				} else if (relationshipId == 44818721L && factRelationship.getDomainConcept2() == 26L) {
+					Note note = notes.get(factRelationship.getFactId2());
+					if (note != null) {
+						commentsMap.computeIfAbsent(factId, k -> new ArrayList<Note>()).add(note);
+					}
+				}
+			}
+		}
+
+		prefetchedMethods.set(methodsMap);
+		prefetchedComments.set(commentsMap);
+	}
+
+	@Override
+	protected void clearPrefetch() {
+		prefetchedMethods.remove();
+		prefetchedComments.remove();
 	}
 
 	private static Date createDateTime(FObservationView fObservationView) {
@@ -2171,12 +2372,17 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 						// We search for systolic. When constructing FHIR<,
 						// constructFHIR
 						// will search matching diastolic value.
-						paramWrapper.setParameterType("String");
-						paramWrapper.setParameters(
-								Arrays.asList("observationConcept.vocabulary.id", "observationConcept.conceptCode"));
-						paramWrapper.setOperators(Arrays.asList("like", "like"));
-						paramWrapper.setValues(Arrays.asList(omopVocabulary, SYSTOLIC_LOINC_CODE));
-						paramWrapper.setRelationship("and");
+						if (!putConceptIdsInParamWrapper(paramWrapper, "observationConcept.id", omopVocabulary,
+								SYSTOLIC_LOINC_CODE)) {
+							paramWrapper.setParameterType("String");
+							paramWrapper.setParameters(
+									Arrays.asList("observationConcept.vocabulary.id", "observationConcept.conceptCode"));
+							paramWrapper.setOperators(Arrays.asList("like", "like"));
+							paramWrapper.setValues(Arrays.asList(omopVocabulary, SYSTOLIC_LOINC_CODE));
+							paramWrapper.setRelationship("and");
+						}
+						mapList.add(paramWrapper);
+					} else if (putConceptIdsInParamWrapper(paramWrapper, "observationConcept.id", omopVocabulary, code)) {
 						mapList.add(paramWrapper);
 					} else {
 						paramWrapper.setParameterType("String");
@@ -2222,6 +2428,9 @@ public class OmopObservation extends BaseOmopResource<Observation, FObservationV
 						paramWrapper.setValues(Arrays.asList(omopVocabulary));
 						paramWrapper.setRelationship("or");
 						mapList.add(paramWrapper);
+					} else if (putConceptIdsInParamWrapper(paramWrapper, "observationConcept.id", omopVocabulary, code)) {
+						// We have both system and code, and the code is in the vocabulary.
+						mapList.add(paramWrapper);
 					} else {
 						// We have both system and code.
 						paramWrapper.setParameterType("String");
@@ -61,6 +61,7 @@ import edu.gatech.chai.omoponfhir.omopv5.stu3.provider.PatientResourceProvider;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.provider.PractitionerResourceProvider;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.utilities.AddressUtil;
 import edu.gatech.chai.omopv5.dba.service.ConceptService;
+import edu.gatech.chai.omopv5.dba.service.EntityCallback;
 import edu.gatech.chai.omopv5.dba.service.FPersonService;
 import edu.gatech.chai.omopv5.dba.service.LocationService;
 import edu.gatech.chai.omopv5.dba.service.ParameterWrapper;
@@ -474,13 +475,16 @@ public class OmopPatient extends BaseOmopResource<USCorePatient, FPerson, FPerso
 
 			mapList.add(revIncludeparam);
 
-			List<VisitOccurrence> VisitOccurrences = visitOccurrenceService.searchWithParams(0, 0, mapList, null);
-			for (VisitOccurrence visitOccurrence : VisitOccurrences) {
-				Long fhirId = IdMapping.getFHIRfromOMOP(visitOccurrence.getId(), EncounterResourceProvider.getType());
-				Encounter enc = OmopEncounter.getInstance().constructFHIR(fhirId, visitOccurrence);
-				if (enc != null)
-					listResources.add(enc);
-			}
+			visitOccurrenceService.streamWithParams(mapList, null, new EntityCallback<VisitOccurrence>() {
+				@Override
+				public boolean process(VisitOccurrence visitOccurrence) {
+					Long fhirId = IdMapping.getFHIRfromOMOP(visitOccurrence.getId(), EncounterResourceProvider.getType());
+					Encounter enc = OmopEncounter.getInstance().constructFHIR(fhirId, visitOccurrence);
+					if (enc != null)
+						listResources.add(enc);
+					return true;
+				}
+			});
 		}
 		if (includes.contains("Observation:subject")) {
 
@@ -1110,6 +1114,17 @@ public class OmopPatient extends BaseOmopResource<USCorePatient, FPerson, FPerso
 	}
 
 	public void getEverthingfor(List<IBaseResource> resources, Long patientId, Date startDate, Date endDate) {
+		for (EverythingSearch search : getEverythingSearches(patientId, startDate, endDate)) {
+			search.getMapper().streamWithParams(search.getParamList(), resources, new ArrayList<String>(), null);
+		}
+	}
+
+	/**
+	 * Returns one search per OMOP table that references the patient, in the
+	 * order they appear in $everything. Each search can be counted and paged
+	 * on its own.
+	 */
+	public List<EverythingSearch> getEverythingSearches(Long patientId, Date startDate, Date endDate) {
 		// OMOP Tables that references the patient are as follows.
 		// * condition_occurrence : Condition
 		// * death : death on FHIR (need to revisit) TODO
@@ -1120,6 +1135,8 @@ public class OmopPatient extends BaseOmopResource<USCorePatient, FPerson, FPerso
 		// * procedure_occurrence : Procecure
 		// * visit_occurrence: : Encounter
 
+		List<EverythingSearch> searches = new ArrayList<EverythingSearch>();
+
 		ParameterWrapper paramWrapper = new ParameterWrapper();
 		String pId = String.valueOf(patientId);
 		paramWrapper.setParameterType("Long");
@@ -1137,9 +1154,7 @@ public class OmopPatient extends BaseOmopResource<USCorePatient, FPerson, FPerso
 		if (dateParamWrapper != null) {
 			conditionMapList.add(dateParamWrapper);
 		}
-
-		OmopCondition omopConditionMapper = OmopCondition.getInstance();
-		omopConditionMapper.searchWithParams(0, 0, conditionMapList, resources, new ArrayList<String>(), null);
+		searches.add(new EverythingSearch(OmopCondition.getInstance(), conditionMapList));
 
 		// device_exposure : DeviceUseStatement
 		List<ParameterWrapper> deviceMapList = new ArrayList<ParameterWrapper>();
@@ -1149,9 +1164,7 @@ public class OmopPatient extends BaseOmopResource<USCorePatient, FPerson, FPerso
 		if (dateParamWrapper != null) {
 			deviceMapList.add(dateParamWrapper);
 		}
-
-		OmopDeviceUseStatement omopDeviceUseStatementMapper = OmopDeviceUseStatement.getInstance();
-		omopDeviceUseStatementMapper.searchWithParams(0, 0, deviceMapList, resources, new ArrayList<String>(), null);
+		searches.add(new EverythingSearch(OmopDeviceUseStatement.getInstance(), deviceMapList));
 
 		// drug_exposure : Medication[x]
 		List<ParameterWrapper> medicationStatementMapList = new ArrayList<ParameterWrapper>();
@@ -1161,10 +1174,7 @@ public class OmopPatient extends BaseOmopResource<USCorePatient, FPerson, FPerso
 		if (dateParamWrapper != null) {
 			medicationStatementMapList.add(dateParamWrapper);
 		}
-
-		OmopMedicationStatement omopMedicationStatementMapper = OmopMedicationStatement.getInstance();
-		omopMedicationStatementMapper.searchWithParams(0, 0, medicationStatementMapList, resources,
-				new ArrayList<String>(), null);
+		searches.add(new EverythingSearch(OmopMedicationStatement.getInstance(), medicationStatementMapList));
 
 		// measurement & observation : Observation
 		List<ParameterWrapper> fobservationMapList = new ArrayList<ParameterWrapper>();
@@ -1173,9 +1183,7 @@ public class OmopPatient extends BaseOmopResource<USCorePatient, FPerson, FPerso
 		if (dateParamWrapper != null) {
 			fobservationMapList.add(dateParamWrapper);
 		}
-
-		OmopObservation omopObservationMapper = OmopObservation.getInstance();
-		omopObservationMapper.searchWithParams(0, 0, fobservationMapList, resources, new ArrayList<String>(), null);
+		searches.add(new EverythingSearch(OmopObservation.getInstance(), fobservationMapList));
 
 		// note : DocumentReference
 		List<ParameterWrapper> noteMapList = new ArrayList<ParameterWrapper>();
@@ -1183,9 +1191,7 @@ public class OmopPatient extends BaseOmopResource<USCorePatient, FPerson, FPerso
 		if (dateParamWrapper != null) {
 			noteMapList.add(dateParamWrapper);
 		}
-
-		OmopDocumentReference omopDocumentReferenceMapper = OmopDocumentReference.getInstance();
-		omopDocumentReferenceMapper.searchWithParams(0, 0, noteMapList, resources, new ArrayList<String>(), null);
+		searches.add(new EverythingSearch(OmopDocumentReference.getInstance(), noteMapList));
 
 		// procedure_occurrence : Procecure
 		List<ParameterWrapper> procedureMapList = new ArrayList<ParameterWrapper>();
@@ -1194,9 +1200,7 @@ public class OmopPatient extends BaseOmopResource<USCorePatient, FPerson, FPerso
 		if (dateParamWrapper != null) {
 			procedureMapList.add(dateParamWrapper);
 		}
-
-		OmopProcedure omopProcedureMapper = OmopProcedure.getInstance();
-		omopProcedureMapper.searchWithParams(0, 0, procedureMapList, resources, new ArrayList<String>(), null);
+		searches.add(new EverythingSearch(OmopProcedure.getInstance(), procedureMapList));
 
 		// * visit_occurrence: : Encounter
 		List<ParameterWrapper> visitMapList = new ArrayList<ParameterWrapper>();
@@ -1205,9 +1209,30 @@ public class OmopPatient extends BaseOmopResource<USCorePatient, FPerson, FPerso
 		if (dateParamWrapper != null) {
 			visitMapList.add(dateParamWrapper);
 		}
+		searches.add(new EverythingSearch(OmopEncounter.getInstance(), visitMapList));
+
+		return searches;
+	}
+
+	/**
+	 * One OMOP table search of $everything: the mapper and its parameters.
+	 */
+	public static class EverythingSearch {
+		private final IResourceMapping<?, ?> mapper;
+		private final List<ParameterWrapper> paramList;
+
+		public EverythingSearch(IResourceMapping<?, ?> mapper, List<ParameterWrapper> paramList) {
+			this.mapper = mapper;
+			this.paramList = paramList;
+		}
 
-		OmopEncounter omopEncounterMapper = OmopEncounter.getInstance();
-		omopEncounterMapper.searchWithParams(0, 0, visitMapList, resources, new ArrayList<String>(), null);
+		public IResourceMapping<?, ?> getMapper() {
+			return mapper;
+		}
+
+		public List<ParameterWrapper> getParamList() {
+			return paramList;
+		}
 	}
 
 	// // Move below to Address
@@ -44,6 +44,7 @@ import edu.gatech.chai.omoponfhir.omopv5.stu3.provider.EncounterResourceProvider
 import edu.gatech.chai.omoponfhir.omopv5.stu3.provider.PatientResourceProvider;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.provider.PractitionerResourceProvider;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.provider.ProcedureResourceProvider;
+import edu.gatech.chai.omopv5.dba.service.ConceptLookupService;
 import edu.gatech.chai.omopv5.dba.service.ConceptService;
 import edu.gatech.chai.omopv5.dba.service.FPersonService;
 import edu.gatech.chai.omopv5.dba.service.ParameterWrapper;
@@ -61,6 +62,7 @@ public class OmopProcedure extends BaseOmopResource<Procedure, ProcedureOccurren
 
 	private static OmopProcedure omopProcedure = new OmopProcedure();
 	private ConceptService conceptService;
+	private ConceptLookupService conceptLookupService;
 	private FPersonService fPersonService;
 	private VisitOccurrenceService visitOccurrenceService;
 	private ProviderService providerService;
@@ -79,6 +81,7 @@ public class OmopProcedure extends BaseOmopResource<Procedure, ProcedureOccurren
 	
 	private void initialize(WebApplicationContext context) {
 		conceptService = context.getBean(ConceptService.class);
+		conceptLookupService = context.getBean(ConceptLookupService.class);
 		fPersonService = context.getBean(FPersonService.class);
 		visitOccurrenceService = context.getBean(VisitOccurrenceService.class);
 		providerService = context.getBean(ProviderService.class);
@@ -273,7 +276,7 @@ public class OmopProcedure extends BaseOmopResource<Procedure, ProcedureOccurren
 				paramWrapper.setParameters(Arrays.asList("procedureConcept.vocabulary.id"));
 				paramWrapper.setOperators(Arrays.asList("="));
 				paramWrapper.setValues(Arrays.asList(omopVocabulary));				
-			} else {
+			} else if (!putConceptIdsInParamWrapper(paramWrapper, "procedureConcept.id", omopVocabulary, code)) {
 				paramWrapper.setParameters(Arrays.asList("procedureConcept.vocabulary.id", "procedureConcept.conceptCode"));
 				paramWrapper.setOperators(Arrays.asList("=","="));
 				paramWrapper.setValues(Arrays.asList(omopVocabulary, code));
@@ -385,7 +388,7 @@ public class OmopProcedure extends BaseOmopResource<Procedure, ProcedureOccurren
 //		if (!categoryCodeableConcept.isEmpty()) {
 //			List<Coding> codings = categoryCodeableConcept.getCoding();
 //			for (Coding coding: codings) {
-//				procedureTypeConcept = CodeableConceptUtil.getOmopConceptWithFhirConcept(conceptService, coding);
+//				procedureTypeConcept = CodeableConceptUtil.getOmopConceptWithFhirConcept(conceptLookupService, coding);
 //				if (procedureTypeConcept != null) break;
 //			}
 //		}		
@@ -404,7 +407,7 @@ public class OmopProcedure extends BaseOmopResource<Procedure, ProcedureOccurren
 			List<Coding> codings = codeCodeableConcept.getCoding();
 			for (Coding coding: codings) {
 				try {
-					procedureConcept = CodeableConceptUtil.getOmopConceptWithFhirConcept(conceptService, coding);
+					procedureConcept = CodeableConceptUtil.getOmopConceptWithFhirConcept(conceptLookupService, coding);
 					if (procedureConcept != null) break;
 				} catch (FHIRException e) {
 					e.printStackTrace();
@@ -477,7 +480,7 @@ public class OmopProcedure extends BaseOmopResource<Procedure, ProcedureOccurren
 					for (Coding coding: codings) {
 						if (!coding.isEmpty()) {
 							try {
-								specialtyConcept = CodeableConceptUtil.getOmopConceptWithFhirConcept(conceptService, coding);
+								specialtyConcept = CodeableConceptUtil.getOmopConceptWithFhirConcept(conceptLookupService, coding);
 							} catch (FHIRException e) {
 								e.printStackTrace();
 							}
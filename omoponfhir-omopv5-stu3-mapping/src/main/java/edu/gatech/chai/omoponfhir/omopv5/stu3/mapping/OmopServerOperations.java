@@ -21,14 +21,24 @@ import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.CodeableConcept;
+import org.hl7.fhir.dstu3.model.Coding;
 import org.hl7.fhir.dstu3.model.IdType;
+import org.hl7.fhir.dstu3.model.MessageHeader;
 import org.hl7.fhir.dstu3.model.Observation;
+import org.hl7.fhir.dstu3.model.OperationOutcome;
 import org.hl7.fhir.dstu3.model.Reference;
 import org.hl7.fhir.dstu3.model.Resource;
 import org.hl7.fhir.dstu3.model.ResourceType;
+import org.hl7.fhir.dstu3.model.Enumerations.MessageEvent;
+import org.hl7.fhir.dstu3.model.MessageHeader.MessageHeaderResponseComponent;
+import org.hl7.fhir.dstu3.model.MessageHeader.ResponseType;
+import org.hl7.fhir.dstu3.model.OperationOutcome.IssueSeverity;
 import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent;
 import org.hl7.fhir.dstu3.model.Bundle.BundleEntryResponseComponent;
+import org.hl7.fhir.dstu3.model.Bundle.BundleType;
 import org.hl7.fhir.instance.model.api.IIdType;
 import org.springframework.web.context.ContextLoaderListener;
 import org.springframework.web.context.WebApplicationContext;
@@ -36,7 +46,9 @@ import org.springframework.web.context.WebApplicationContext;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.parser.IParser;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.model.USCorePatient;
+import edu.gatech.chai.omoponfhir.omopv5.stu3.utilities.CodeableConceptUtil;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.utilities.ExtensionUtil;
+import edu.gatech.chai.omoponfhir.omopv5.stu3.utilities.ThrowFHIRExceptions;
 import edu.gatech.chai.omopv5.dba.service.FPersonService;
 import edu.gatech.chai.omopv5.dba.service.MeasurementService;
 import edu.gatech.chai.omopv5.dba.service.ObservationService;
@@ -122,6 +134,84 @@ public class OmopServerOperations {
 		return entryBundle;
 	}
 
+	/**
+	 * Checks a $process-message content and returns the resources after its
+	 * MessageHeader. Only observation-provide messages are supported.
+	 */
+	public List<Resource> getMessageResources(Bundle theContent) {
+		List<Resource> resources = new ArrayList<Resource>();
+
+		if (theContent == null || theContent.getType() != BundleType.MESSAGE) {
+			ThrowFHIRExceptions.unprocessableEntityException("The bundle must be a MESSAGE type");
+		}
+
+		List<BundleEntryComponent> entries = theContent.getEntry();
+		// Evaluate the first entry, which must be MessageHeader
+		if (entries == null || entries.isEmpty() || entries.get(0).getResource() == null
+				|| entries.get(0).getResource().getResourceType() != ResourceType.MessageHeader) {
+			ThrowFHIRExceptions.unprocessableEntityException("The first entry must be a MessageHeader");
+		}
+
+		MessageHeader messageHeader = (MessageHeader) entries.get(0).getResource();
+		// We handle observation-type.
+		// TODO: Add other types later.
+		Coding event = messageHeader.getEvent();
+		Coding obsprovided = new Coding(MessageEvent.OBSERVATIONPROVIDE.getSystem(),
+				MessageEvent.OBSERVATIONPROVIDE.toCode(), MessageEvent.OBSERVATIONPROVIDE.getDefinition());
+		if (CodeableConceptUtil.compareCodings(event, obsprovided) == 0) {
+			// This is lab report. they are all to be added to the server.
+			for (int i = 1; i < entries.size(); i++) {
+				resources.add(entries.get(i).getResource());
+			}
+		} else {
+			ThrowFHIRExceptions.unprocessableEntityException(
+					"We currently support only observation-provided Message event");
+		}
+
+		return resources;
+	}
+
+	/**
+	 * Adds the resources of a message and returns the response message: the
+	 * MessageHeader with its response, followed by an entry per resource.
+	 */
+	public Bundle processMessage(Bundle theContent) {
+		List<Resource> resources = getMessageResources(theContent);
+		MessageHeader messageHeader = (MessageHeader) theContent.getEntryFirstRep().getResource();
+
+		MessageHeaderResponseComponent messageHeaderResponse = new MessageHeaderResponseComponent();
+		messageHeaderResponse.setId(messageHeader.getId());
+
+		List<BundleEntryComponent> resultEntries = null;
+		try {
+			resultEntries = createEntries(resources);
+			messageHeaderResponse.setCode(ResponseType.OK);
+		} catch (FHIRException e) {
+			e.printStackTrace();
+			messageHeaderResponse.setCode(ResponseType.OK);
+			OperationOutcome outcome = new OperationOutcome();
+			CodeableConcept detailCode = new CodeableConcept();
+			detailCode.setText(e.getMessage());
+			outcome.addIssue().setSeverity(IssueSeverity.ERROR).setDetails(detailCode);
+			messageHeaderResponse.setDetailsTarget(outcome);
+		}
+
+		messageHeader.setResponse(messageHeaderResponse);
+		BundleEntryComponent responseMessageEntry = new BundleEntryComponent();
+		UUID uuid = UUID.randomUUID();
+		responseMessageEntry.setFullUrl("urn:uuid:" + uuid.toString());
+		responseMessageEntry.setResource(messageHeader);
+
+		if (resultEntries == null) resultEntries = new ArrayList<BundleEntryComponent>();
+
+		resultEntries.add(0, responseMessageEntry);
+
+		Bundle retVal = new Bundle();
+		retVal.setEntry(resultEntries);
+
+		return retVal;
+	}
+
 	public List<BundleEntryComponent> createEntries(List<Resource> resources) throws FHIRException {
 		List<BundleEntryComponent> responseEntries = new ArrayList<BundleEntryComponent>();
 		Map<String, Long> patientMap = new HashMap<String, Long>();
@@ -142,7 +142,21 @@ public class OmopTransaction {
 		responseEntries.add(entryBundle);
 	}
 
-	public List<BundleEntryComponent> executeRequests(Map<HTTPVerb, Object> entries) throws FHIRException {
+	/**
+	 * Writes all entries in one database transaction. If an entry fails with
+	 * an exception, nothing is written.
+	 */
+	public List<BundleEntryComponent> executeRequests(final Map<HTTPVerb, Object> entries) throws FHIRException {
+		try {
+			return myService.runInTransaction(() -> doExecuteRequests(entries));
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new FHIRException(e);
+		}
+	}
+
+	private List<BundleEntryComponent> doExecuteRequests(Map<HTTPVerb, Object> entries) throws FHIRException {
 		List<BundleEntryComponent> responseEntries = new ArrayList<BundleEntryComponent>();
 
 		List<Resource> postList = (List<Resource>) entries.get(HTTPVerb.POST);
@@ -151,6 +165,15 @@ public class OmopTransaction {
 
 		Map<String, Long> patientMap = new HashMap<String, Long>();
 
+		// Reserve the ids of the new patients in one round trip.
+		int newPatients = 0;
+		for (Resource resource : postList) {
+			if (resource.getResourceType() == ResourceType.Patient) {
+				newPatients++;
+			}
+		}
+		myService.reserveIds(FPerson.class, newPatients);
+
 		// do patient first.
 		for (Resource resource : postList) {
 			if (resource.getResourceType() == ResourceType.Patient) {
@@ -168,7 +191,17 @@ public class OmopTransaction {
 			}
 		}
 
-		// Now process the rest.
+		// Now process the rest. The observations are all constructed, with
+		// their duplicate checks, before any of them is written. Then their
+		// ids are reserved per table and they are written.
+		//
+		// The database check can't see an earlier entry of this bundle, so
+		// a duplicate of one is found here by its key. It is constructed
+		// after that entry is written, as an update of it.
+		List<Observation> observations = new ArrayList<Observation>();
+		List<Map<String, Object>> observationEntities = new ArrayList<Map<String, Object>>();
+		List<Integer> duplicateOf = new ArrayList<Integer>();
+		Map<String, Integer> firstByKey = new HashMap<String, Integer>();
 		for (Resource resource : postList) {
 			if (resource.getResourceType() == ResourceType.Patient) {
 				// already done.
@@ -183,13 +216,39 @@ public class OmopTransaction {
 					continue;
 				observation.setSubject(new Reference(refIdType));
 
-				Long fhirId = OmopObservation.getInstance().toDbase(observation, null);
-				if (fhirId == null)
-					addResponseEntry(responseEntries, "400 Bad Request", null);
-				else
-					addResponseEntry(responseEntries, "201 Created", "Observation/" + fhirId);
+				String key = OmopObservation.getInstance().duplicateKey(observation);
+				Integer first = key == null ? null : firstByKey.get(key);
+				if (first == null && key != null) {
+					firstByKey.put(key, observations.size());
+				}
+
+				observations.add(observation);
+				duplicateOf.add(first);
+				observationEntities.add(first == null
+						? OmopObservation.getInstance().constructOmopForWrite(observation, null)
+						: null);
+			}
+		}
 
+		reserveIds(observationEntities);
+
+		List<Long> observationFhirIds = new ArrayList<Long>();
+		for (int i = 0; i < observations.size(); i++) {
+			Map<String, Object> entityMap = observationEntities.get(i);
+			Integer first = duplicateOf.get(i);
+			if (first != null) {
+				Long firstFhirId = observationFhirIds.get(first);
+				entityMap = firstFhirId == null
+						? OmopObservation.getInstance().constructOmopForWrite(observations.get(i), null)
+						: OmopObservation.getInstance().constructOmopForDuplicate(observations.get(i), firstFhirId);
 			}
+
+			Long fhirId = OmopObservation.getInstance().writeOmop(observations.get(i), entityMap);
+			observationFhirIds.add(fhirId);
+			if (fhirId == null)
+				addResponseEntry(responseEntries, "400 Bad Request", null);
+			else
+				addResponseEntry(responseEntries, "201 Created", "Observation/" + fhirId);
 		}
 
 		for (Resource resource : putList) {
@@ -221,6 +280,36 @@ public class OmopTransaction {
 		return responseEntries;
 	}
 
+	/**
+	 * Reserves the ids of the new measurements and observations in
+	 * entityMaps, from constructOmopMeasurementObservation(), in one round trip
+	 * per table.
+	 */
+	@SuppressWarnings("unchecked")
+	private void reserveIds(List<Map<String, Object>> entityMaps) {
+		int newMeasurements = 0;
+		int newObservations = 0;
+		for (Map<String, Object> entityMap : entityMaps) {
+			if (entityMap == null || entityMap.isEmpty())
+				continue;
+
+			if (((String) entityMap.get("type")).equalsIgnoreCase("Measurement")) {
+				for (Measurement measurement : (List<Measurement>) entityMap.get("entity")) {
+					if (measurement != null && measurement.getId() == null)
+						newMeasurements++;
+				}
+			} else {
+				edu.gatech.chai.omopv5.model.entity.Observation observation = (edu.gatech.chai.omopv5.model.entity.Observation) entityMap
+						.get("entity");
+				if (observation != null && observation.getId() == null)
+					newObservations++;
+			}
+		}
+
+		myService.reserveIds(Measurement.class, newMeasurements);
+		myService.reserveIds(edu.gatech.chai.omopv5.model.entity.Observation.class, newObservations);
+	}
+
 	/**
 	 * 
 	 * @param entries
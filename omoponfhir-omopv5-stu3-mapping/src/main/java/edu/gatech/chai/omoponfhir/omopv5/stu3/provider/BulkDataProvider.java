@@ -0,0 +1,466 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package edu.gatech.chai.omoponfhir.omopv5.stu3.provider;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.hl7.fhir.dstu3.model.InstantType;
+import org.hl7.fhir.dstu3.model.OperationOutcome;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.dstu3.model.StringType;
+import org.hl7.fhir.dstu3.model.UriType;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.web.context.ContextLoaderListener;
+import org.springframework.web.context.WebApplicationContext;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.annotation.Operation;
+import ca.uhn.fhir.rest.annotation.OperationParam;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import ca.uhn.fhir.rest.server.exceptions.UnclassifiedServerFailureException;
+import edu.gatech.chai.omoponfhir.omopv5.stu3.mapping.OmopBulkExport;
+import edu.gatech.chai.omoponfhir.omopv5.stu3.mapping.OmopBulkExport.ExportJob;
+import edu.gatech.chai.omoponfhir.omopv5.stu3.mapping.OmopBulkExport.Output;
+import edu.gatech.chai.omoponfhir.omopv5.stu3.mapping.OmopBulkImport;
+import edu.gatech.chai.omoponfhir.omopv5.stu3.mapping.OmopBulkImport.ImportJob;
+import edu.gatech.chai.omoponfhir.omopv5.stu3.mapping.OmopBulkImport.InputFile;
+import edu.gatech.chai.omoponfhir.omopv5.stu3.utilities.AllowedHosts;
+
+/**
+ * FHIR Bulk Data export: $export and Patient/$export start a job and answer
+ * 202 with the status URL in Content-Location. $export-poll-status answers
+ * 202 with X-Progress until the job is done, and then the manifest. The files
+ * are read with $export-download.
+ *
+ * $import loads NDJSON files, given by http(s) URL on a host listed in
+ * bulkImportAllowedHosts or by path under bulkImportDirectory, and is polled
+ * the same way with $import-poll-status.
+ *
+ * These operations write their own responses, so ManualResponseInterceptor
+ * must be registered.
+ */
+public class BulkDataProvider {
+	public static final String NDJSON_CONTENT_TYPE = "application/fhir+ndjson";
+	private static final List<String> OUTPUT_FORMATS = Arrays.asList(NDJSON_CONTENT_TYPE, "application/ndjson",
+			"ndjson");
+
+	private static final int DEFAULT_THREADS = 4;
+	private static final int DEFAULT_QUEUE_SIZE = 256;
+	private static final long DEFAULT_PARTITION_SIZE = 10000L;
+	private static final long DEFAULT_RETENTION_HOURS = 24L;
+	private static final int DEFAULT_IMPORT_THREADS = 2;
+	private static final int DEFAULT_IMPORT_QUEUE_SIZE = 16;
+	private static final int DEFAULT_IMPORT_BATCH_SIZE = 1000;
+	private static final long DEFAULT_IMPORT_CONNECT_TIMEOUT_SECONDS = 30L;
+	private static final long DEFAULT_IMPORT_READ_TIMEOUT_SECONDS = 300L;
+	private static final int RETRY_AFTER_SECONDS = 10;
+
+	private WebApplicationContext myAppCtx;
+	private OmopBulkExport myExport;
+	private OmopBulkImport myImport;
+	private File importDirectory;
+	private AllowedHosts importAllowedHosts;
+
+	public BulkDataProvider(FhirContext fhirContext) {
+		myAppCtx = ContextLoaderListener.getCurrentWebApplicationContext();
+
+		String directory = myAppCtx.getServletContext().getInitParameter("bulkExportDirectory");
+		File exportDirectory;
+		if (directory != null && directory.isEmpty() == false) {
+			exportDirectory = new File(directory);
+		} else {
+			exportDirectory = new File(System.getProperty("java.io.tmpdir"), "omoponfhir-export");
+		}
+
+		int threads = (int) getLongInitParameter("bulkExportThreads", DEFAULT_THREADS);
+		int queueSize = (int) getLongInitParameter("bulkExportQueueSize", DEFAULT_QUEUE_SIZE);
+		long partitionSize = getLongInitParameter("bulkExportPartitionSize", DEFAULT_PARTITION_SIZE);
+		long retentionHours = getLongInitParameter("bulkExportRetentionHours", DEFAULT_RETENTION_HOURS);
+
+		myExport = new OmopBulkExport(myAppCtx, fhirContext, exportDirectory, threads, queueSize, partitionSize,
+				retentionHours * 3600000L);
+
+		// Without an import directory, only http(s) inputs can be imported.
+		String importDir = myAppCtx.getServletContext().getInitParameter("bulkImportDirectory");
+		if (importDir != null && importDir.isEmpty() == false) {
+			importDirectory = new File(importDir);
+		}
+
+		// Without allowed hosts, only file inputs can be imported.
+		importAllowedHosts = new AllowedHosts(
+				myAppCtx.getServletContext().getInitParameter("bulkImportAllowedHosts"));
+
+		int importThreads = (int) getLongInitParameter("bulkImportThreads", DEFAULT_IMPORT_THREADS);
+		int importQueueSize = (int) getLongInitParameter("bulkImportQueueSize", DEFAULT_IMPORT_QUEUE_SIZE);
+		int importBatchSize = (int) getLongInitParameter("bulkImportBatchSize", DEFAULT_IMPORT_BATCH_SIZE);
+		long connectTimeout = getLongInitParameter("bulkImportConnectTimeoutSeconds",
+				DEFAULT_IMPORT_CONNECT_TIMEOUT_SECONDS);
+		long readTimeout = getLongInitParameter("bulkImportReadTimeoutSeconds", DEFAULT_IMPORT_READ_TIMEOUT_SECONDS);
+
+		myImport = new OmopBulkImport(myAppCtx, fhirContext, importThreads, importQueueSize, importBatchSize,
+				retentionHours * 3600000L, (int) (connectTimeout * 1000L), (int) (readTimeout * 1000L));
+	}
+
+	/**
+	 * Stops the job threads. Called when the servlet is destroyed.
+	 */
+	public void shutdown() {
+		myExport.shutdown();
+		myImport.shutdown();
+	}
+
+	private long getLongInitParameter(String name, long defaultValue) {
+		String value = myAppCtx.getServletContext().getInitParameter(name);
+		if (value != null && value.isEmpty() == false) {
+			long longValue = Long.parseLong(value.trim());
+			if (longValue > 0) {
+				return longValue;
+			}
+		}
+
+		return defaultValue;
+	}
+
+	/**
+	 * System level $export: all supported types.
+	 */
+	@Operation(name = "$export", idempotent = true)
+	public OperationOutcome exportOperation(RequestDetails theRequestDetails, HttpServletRequest theRequest,
+			HttpServletResponse theResponse, @OperationParam(name = "_outputFormat") StringType theOutputFormat,
+			@OperationParam(name = "_since") InstantType theSince, @OperationParam(name = "_type") StringType theType) {
+		return kickOff(theRequestDetails, theResponse, theOutputFormat, theSince, theType,
+				OmopBulkExport.SYSTEM_TYPES);
+	}
+
+	/**
+	 * Patient/$export: the Patient compartment types of all patients.
+	 */
+	@Operation(name = "$export", idempotent = true, type = Patient.class)
+	public OperationOutcome patientExportOperation(RequestDetails theRequestDetails, HttpServletRequest theRequest,
+			HttpServletResponse theResponse, @OperationParam(name = "_outputFormat") StringType theOutputFormat,
+			@OperationParam(name = "_since") InstantType theSince, @OperationParam(name = "_type") StringType theType) {
+		return kickOff(theRequestDetails, theResponse, theOutputFormat, theSince, theType,
+				OmopBulkExport.PATIENT_TYPES);
+	}
+
+	@Operation(name = "$export-poll-status", idempotent = true)
+	public OperationOutcome exportPollStatusOperation(RequestDetails theRequestDetails,
+			HttpServletRequest theRequest, HttpServletResponse theResponse,
+			@OperationParam(name = "_jobId") StringType theJobId) {
+		ExportJob job = getJob(theJobId);
+
+		switch (job.getStatus()) {
+		case IN_PROGRESS:
+			theResponse.setStatus(HttpServletResponse.SC_ACCEPTED);
+			theResponse.setHeader("X-Progress", job.getProgress());
+			theResponse.setHeader("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+			flush(theResponse);
+			break;
+		case ERROR:
+			throw new InternalErrorException("Bulk export failed: " + job.getError());
+		case COMPLETE:
+			String downloadUrl = theRequestDetails.getFhirServerBase() + "/$export-download?_jobId=" + job.getId()
+					+ "&_file=";
+
+			JSONArray output = new JSONArray();
+			for (Output file : job.getOutputs()) {
+				JSONObject outputJson = new JSONObject();
+				outputJson.put("type", file.getType());
+				outputJson.put("url", downloadUrl + file.getFileName());
+				outputJson.put("count", file.getCount());
+				output.put(outputJson);
+			}
+
+			JSONObject manifest = new JSONObject();
+			manifest.put("transactionTime", new InstantType(job.getTransactionTime()).getValueAsString());
+			manifest.put("request", job.getRequest());
+			manifest.put("requiresAccessToken", theRequest.getHeader("Authorization") != null);
+			manifest.put("output", output);
+			manifest.put("error", new JSONArray());
+
+			theResponse.setStatus(HttpServletResponse.SC_OK);
+			theResponse.setContentType("application/json");
+			theResponse.setCharacterEncoding("UTF-8");
+			try {
+				theResponse.getWriter().write(manifest.toString());
+			} catch (IOException e) {
+				throw new InternalErrorException(e);
+			}
+			flush(theResponse);
+			break;
+		}
+
+		return new OperationOutcome();
+	}
+
+	/**
+	 * One NDJSON file of a complete job. The file is sent gzip'd when the client
+	 * accepts it.
+	 */
+	@Operation(name = "$export-download", idempotent = true)
+	public OperationOutcome exportDownloadOperation(HttpServletRequest theRequest, HttpServletResponse theResponse,
+			@OperationParam(name = "_jobId") StringType theJobId, @OperationParam(name = "_file") StringType theFile) {
+		ExportJob job = getJob(theJobId);
+
+		File file = null;
+		if (job.getStatus() == OmopBulkExport.Status.COMPLETE && theFile != null) {
+			file = myExport.getOutputFile(job, theFile.getValue());
+		}
+		if (file == null) {
+			throw new ResourceNotFoundException("Bulk export file " + (theFile == null ? "" : theFile.getValue()));
+		}
+
+		String acceptEncoding = theRequest.getHeader("Accept-Encoding");
+		boolean gzip = acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+
+		theResponse.setStatus(HttpServletResponse.SC_OK);
+		theResponse.setContentType(NDJSON_CONTENT_TYPE);
+		try (InputStream in = gzip ? Files.newInputStream(file.toPath())
+				: new GZIPInputStream(Files.newInputStream(file.toPath()))) {
+			if (gzip) {
+				theResponse.setHeader("Content-Encoding", "gzip");
+				theResponse.setContentLengthLong(file.length());
+			}
+
+			OutputStream out = theResponse.getOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		} catch (IOException e) {
+			throw new InternalErrorException(e);
+		}
+		flush(theResponse);
+
+		return new OperationOutcome();
+	}
+
+	/**
+	 * $import of NDJSON files. Each input is an http(s) URL on a host in
+	 * bulkImportAllowedHosts, or a path (or file: URL) under bulkImportDirectory.
+	 * Files ending in .gz are read as gzip.
+	 */
+	@Operation(name = "$import")
+	public OperationOutcome importOperation(RequestDetails theRequestDetails, HttpServletResponse theResponse,
+			@OperationParam(name = "inputFormat") StringType theInputFormat,
+			@OperationParam(name = "input", min = 1, max = OperationParam.MAX_UNLIMITED) List<UriType> theInputs) {
+		if (theInputFormat != null && !OUTPUT_FORMATS.contains(theInputFormat.getValue())) {
+			throw new InvalidRequestException("Unsupported inputFormat: " + theInputFormat.getValue() + ". Use "
+					+ NDJSON_CONTENT_TYPE);
+		}
+
+		List<URL> inputs = new ArrayList<URL>();
+		if (theInputs != null) {
+			for (UriType input : theInputs) {
+				if (input != null && !input.isEmpty()) {
+					inputs.add(toInputUrl(input.getValue()));
+				}
+			}
+		}
+		if (inputs.isEmpty()) {
+			throw new InvalidRequestException("At least one input is required");
+		}
+
+		ImportJob job;
+		try {
+			job = myImport.submit(theRequestDetails.getCompleteUrl(), inputs);
+		} catch (RejectedExecutionException e) {
+			UnclassifiedServerFailureException busy = new UnclassifiedServerFailureException(429,
+					e.getMessage() + ". Try again later.");
+			busy.addResponseHeader("Retry-After", String.valueOf(RETRY_AFTER_SECONDS * 6));
+			throw busy;
+		}
+
+		theResponse.setStatus(HttpServletResponse.SC_ACCEPTED);
+		theResponse.setHeader("Content-Location",
+				theRequestDetails.getFhirServerBase() + "/$import-poll-status?_jobId=" + job.getId());
+		flush(theResponse);
+
+		return new OperationOutcome();
+	}
+
+	/**
+	 * Progress of each input file. 202 while the job runs, and 200 once every
+	 * file is done.
+	 */
+	@Operation(name = "$import-poll-status", idempotent = true)
+	public OperationOutcome importPollStatusOperation(HttpServletResponse theResponse,
+			@OperationParam(name = "_jobId") StringType theJobId) {
+		ImportJob job = myImport.getJob(theJobId == null ? null : theJobId.getValue());
+		if (job == null) {
+			throw new ResourceNotFoundException("Bulk import job " + (theJobId == null ? "" : theJobId.getValue()));
+		}
+
+		JSONArray output = new JSONArray();
+		JSONArray error = new JSONArray();
+		for (InputFile input : job.getInputs()) {
+			JSONObject outputJson = new JSONObject();
+			outputJson.put("inputUrl", input.getUrl().toString());
+			outputJson.put("status", input.getStatus().name().toLowerCase());
+			outputJson.put("read", input.getRead());
+			outputJson.put("count", input.getImported());
+			output.put(outputJson);
+
+			if (input.getFailed() > 0 || !input.getErrors().isEmpty()) {
+				JSONObject errorJson = new JSONObject();
+				errorJson.put("inputUrl", input.getUrl().toString());
+				errorJson.put("count", input.getFailed());
+				errorJson.put("messages", new JSONArray(input.getErrors()));
+				error.put(errorJson);
+			}
+		}
+
+		JSONObject manifest = new JSONObject();
+		manifest.put("transactionTime", new InstantType(job.getTransactionTime()).getValueAsString());
+		manifest.put("request", job.getRequest());
+		manifest.put("output", output);
+		manifest.put("error", error);
+
+		if (job.isFinished()) {
+			theResponse.setStatus(HttpServletResponse.SC_OK);
+		} else {
+			theResponse.setStatus(HttpServletResponse.SC_ACCEPTED);
+			theResponse.setHeader("X-Progress", job.getProgress());
+			theResponse.setHeader("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+		}
+		theResponse.setContentType("application/json");
+		theResponse.setCharacterEncoding("UTF-8");
+		try {
+			theResponse.getWriter().write(manifest.toString());
+		} catch (IOException e) {
+			throw new InternalErrorException(e);
+		}
+		flush(theResponse);
+
+		return new OperationOutcome();
+	}
+
+	private URL toInputUrl(String input) {
+		try {
+			URI uri = new URI(input);
+			String scheme = uri.getScheme();
+			if ("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme)) {
+				// The server fetches the input, so only hosts that are allowed.
+				if (!importAllowedHosts.isAllowed(uri)) {
+					throw new InvalidRequestException("Input host is not allowed on this server: " + input);
+				}
+				return uri.toURL();
+			}
+			if (scheme != null && !"file".equalsIgnoreCase(scheme)) {
+				throw new InvalidRequestException("Unsupported input " + input);
+			}
+			if (importDirectory == null) {
+				throw new InvalidRequestException("File inputs are not enabled on this server: " + input);
+			}
+
+			File file = scheme == null ? new File(importDirectory, input) : new File(uri);
+			file = file.getCanonicalFile();
+			if (!file.toPath().startsWith(importDirectory.getCanonicalFile().toPath())) {
+				throw new InvalidRequestException("Input is not in the import directory: " + input);
+			}
+			if (!file.isFile()) {
+				throw new InvalidRequestException("Input not found: " + input);
+			}
+
+			return file.toURI().toURL();
+		} catch (URISyntaxException | IOException | IllegalArgumentException e) {
+			throw new InvalidRequestException("Invalid input " + input + ": " + e.getMessage());
+		}
+	}
+
+	private OperationOutcome kickOff(RequestDetails theRequestDetails, HttpServletResponse theResponse,
+			StringType theOutputFormat, InstantType theSince, StringType theType, List<String> supportedTypes) {
+		if (theOutputFormat != null && !OUTPUT_FORMATS.contains(theOutputFormat.getValue())) {
+			throw new InvalidRequestException("Unsupported _outputFormat: " + theOutputFormat.getValue()
+					+ ". Use " + NDJSON_CONTENT_TYPE);
+		}
+
+		if (theSince != null && !theSince.isEmpty()) {
+			// OMOP tables do not record when a row was last changed.
+			throw new InvalidRequestException("_since is not supported");
+		}
+
+		List<String> types = new ArrayList<String>();
+		if (theType != null && !theType.isEmpty()) {
+			for (String type : theType.getValue().split(",")) {
+				type = type.trim();
+				if (type.isEmpty() || types.contains(type)) continue;
+				if (!supportedTypes.contains(type)) {
+					throw new InvalidRequestException("Unsupported _type: " + type + ". Supported types are "
+							+ String.join(",", supportedTypes));
+				}
+				types.add(type);
+			}
+		}
+		if (types.isEmpty()) {
+			types.addAll(supportedTypes);
+		}
+
+		ExportJob job;
+		try {
+			job = myExport.submit(theRequestDetails.getCompleteUrl(), types);
+		} catch (RejectedExecutionException e) {
+			UnclassifiedServerFailureException busy = new UnclassifiedServerFailureException(429,
+					e.getMessage() + ". Try again later.");
+			busy.addResponseHeader("Retry-After", String.valueOf(RETRY_AFTER_SECONDS * 6));
+			throw busy;
+		}
+
+		theResponse.setStatus(HttpServletResponse.SC_ACCEPTED);
+		theResponse.setHeader("Content-Location",
+				theRequestDetails.getFhirServerBase() + "/$export-poll-status?_jobId=" + job.getId());
+		flush(theResponse);
+
+		return new OperationOutcome();
+	}
+
+	private ExportJob getJob(StringType theJobId) {
+		ExportJob job = myExport.getJob(theJobId == null ? null : theJobId.getValue());
+		if (job == null) {
+			throw new ResourceNotFoundException("Bulk export job " + (theJobId == null ? "" : theJobId.getValue()));
+		}
+
+		return job;
+	}
+
+	private static void flush(HttpServletResponse theResponse) {
+		try {
+			theResponse.flushBuffer();
+		} catch (IOException e) {
+			throw new InternalErrorException(e);
+		}
+	}
+}
@@ -17,6 +17,7 @@ package edu.gatech.chai.omoponfhir.omopv5.stu3.provider;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import edu.gatech.chai.omoponfhir.omopv5.stu3.mapping.OmopCondition;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.utilities.ThrowFHIRExceptions;
@@ -29,6 +30,7 @@ import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.springframework.web.context.ContextLoaderListener;
 import org.springframework.web.context.WebApplicationContext;
 
+import ca.uhn.fhir.model.api.Include;
 import ca.uhn.fhir.model.primitive.IdDt;
 import ca.uhn.fhir.rest.annotation.Create;
 import ca.uhn.fhir.rest.annotation.Delete;
@@ -44,6 +46,7 @@ import ca.uhn.fhir.rest.annotation.ResourceParam;
 import ca.uhn.fhir.rest.annotation.Search;
 import ca.uhn.fhir.rest.annotation.Update;
 import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.param.ReferenceParam;
 import ca.uhn.fhir.rest.param.TokenOrListParam;
@@ -59,7 +62,7 @@ import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
  * See the MyOrganization definition to see how the custom resource definition
  * works.
  */
-public class ConditionResourceProvider implements IResourceProvider {
+public class ConditionResourceProvider implements IBundleProviderFactory {
 	// private CareSiteService careSiteService;
 	private WebApplicationContext myAppCtx;
 	private String myDbType;
@@ -92,17 +95,6 @@ public class ConditionResourceProvider implements IResourceProvider {
 		return myMapper;
 	}
 
-	private Integer getTotalSize(List<ParameterWrapper> paramList) {
-		final Long totalSize;
-		if (paramList.size() == 0) {
-			totalSize = getMyMapper().getSize();
-		} else {
-			totalSize = getMyMapper().getSize(paramList);
-		}
-		
-		return totalSize.intValue();
-	}
-	
 	/**
 	 * The "@Create" annotation indicates that this method implements
 	 * "create=type", which adds a new instance of a resource to the server.
@@ -159,7 +151,8 @@ public class ConditionResourceProvider implements IResourceProvider {
 
 	@Search()
 	public IBundleProvider findConditionById(
-			@RequiredParam(name = Condition.SP_RES_ID) TokenParam theConditionId
+			@RequiredParam(name = Condition.SP_RES_ID) TokenParam theConditionId,
+			SearchTotalModeEnum theSearchTotalMode
 			) {
 		List<ParameterWrapper> paramList = new ArrayList<ParameterWrapper>();
 
@@ -168,7 +161,7 @@ public class ConditionResourceProvider implements IResourceProvider {
 		}
 		
 		MyBundleProvider myBundleProvider = new MyBundleProvider(paramList);
-		myBundleProvider.setTotalSize(getTotalSize(paramList));
+		myBundleProvider.initTotalSize(getMyMapper(), theSearchTotalMode);
 		myBundleProvider.setPreferredPageSize(preferredPageSize);
 
 		return myBundleProvider;
@@ -178,7 +171,8 @@ public class ConditionResourceProvider implements IResourceProvider {
 	public IBundleProvider findConditionByParams(
 			@OptionalParam(name = Condition.SP_CODE) TokenOrListParam theOrCodes,
 			@OptionalParam(name = Condition.SP_SUBJECT) ReferenceParam theSubjectId,
-			@OptionalParam(name = Condition.SP_PATIENT) ReferenceParam thePatientId) {
+			@OptionalParam(name = Condition.SP_PATIENT) ReferenceParam thePatientId,
+			SearchTotalModeEnum theSearchTotalMode) {
 		List<ParameterWrapper> paramList = new ArrayList<ParameterWrapper>();
 
 		if (theOrCodes != null) {
@@ -203,7 +197,7 @@ public class ConditionResourceProvider implements IResourceProvider {
 		}
 
 		MyBundleProvider myBundleProvider = new MyBundleProvider(paramList);
-		myBundleProvider.setTotalSize(getTotalSize(paramList));
+		myBundleProvider.initTotalSize(getMyMapper(), theSearchTotalMode);
 		myBundleProvider.setPreferredPageSize(preferredPageSize);
 
 		return myBundleProvider;
@@ -266,9 +260,15 @@ public class ConditionResourceProvider implements IResourceProvider {
 	private void validateResource(Condition theCondition) {
 	}
 
+	@Override
+	public OmopFhirBundleProvider createBundleProvider(List<ParameterWrapper> paramList, Set<Include> theIncludes,
+			Set<Include> theReverseIncludes) {
+		return new MyBundleProvider(paramList);
+	}
+
 	class MyBundleProvider extends OmopFhirBundleProvider implements IBundleProvider {
 		public MyBundleProvider(List<ParameterWrapper> paramList) {
-			super(paramList);
+			super(getType(), paramList, null, null);
 			setPreferredPageSize (preferredPageSize);
 		}
 
@@ -279,11 +279,7 @@ public class ConditionResourceProvider implements IResourceProvider {
 			// _Include
 			List<String> includes = new ArrayList<String>();
 
-			if (paramList.size() == 0) {
-				myMapper.searchWithoutParams(fromIndex, toIndex, retv, includes, null);
-			} else {
-				myMapper.searchWithParams(fromIndex, toIndex, paramList, retv, includes, null);
-			}
+			search(myMapper, fromIndex, toIndex, retv, includes, null);
 
 			return retv;
 		}
@@ -17,6 +17,7 @@ package edu.gatech.chai.omoponfhir.omopv5.stu3.provider;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import org.hl7.fhir.dstu3.model.Device;
 import org.hl7.fhir.dstu3.model.IdType;
@@ -26,6 +27,7 @@ import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.springframework.web.context.ContextLoaderListener;
 import org.springframework.web.context.WebApplicationContext;
 
+import ca.uhn.fhir.model.api.Include;
 import ca.uhn.fhir.rest.annotation.Delete;
 import ca.uhn.fhir.rest.annotation.IdParam;
 import ca.uhn.fhir.rest.annotation.OptionalParam;
@@ -35,17 +37,17 @@ import ca.uhn.fhir.rest.annotation.ResourceParam;
 import ca.uhn.fhir.rest.annotation.Search;
 import ca.uhn.fhir.rest.annotation.Update;
 import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.param.ReferenceParam;
 import ca.uhn.fhir.rest.param.TokenOrListParam;
 import ca.uhn.fhir.rest.param.TokenParam;
-import ca.uhn.fhir.rest.server.IResourceProvider;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.mapping.OmopDevice;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.model.MyDevice;
 import edu.gatech.chai.omopv5.dba.service.ParameterWrapper;
 
-public class DeviceResourceProvider implements IResourceProvider {
+public class DeviceResourceProvider implements IBundleProviderFactory {
 
 	private WebApplicationContext myAppCtx;
 	private OmopDevice myMapper;
@@ -78,17 +80,6 @@ public class DeviceResourceProvider implements IResourceProvider {
     	return myMapper;
     }
 
-	private Integer getTotalSize(List<ParameterWrapper> paramList) {
-		final Long totalSize;
-		if (paramList.size() == 0) {
-			totalSize = getMyMapper().getSize();
-		} else {
-			totalSize = getMyMapper().getSize(paramList);
-		}
-		
-		return totalSize.intValue();
-	}
-
 	/**
 	 * The "@Create" annotation indicates that this method implements "create=type", which adds a 
 	 * new instance of a resource to the server.
@@ -120,7 +111,8 @@ public class DeviceResourceProvider implements IResourceProvider {
 
 	@Search()
 	public IBundleProvider findDevicesById(
-			@RequiredParam(name=Device.SP_RES_ID) TokenParam theDeviceId) {
+			@RequiredParam(name=Device.SP_RES_ID) TokenParam theDeviceId,
+			SearchTotalModeEnum theSearchTotalMode) {
 		List<ParameterWrapper> paramList = new ArrayList<ParameterWrapper> ();
 
 		if (theDeviceId != null) {
@@ -128,7 +120,7 @@ public class DeviceResourceProvider implements IResourceProvider {
 		}
 		
 		MyBundleProvider myBundleProvider = new MyBundleProvider(paramList);
-		myBundleProvider.setTotalSize(getTotalSize(paramList));
+		myBundleProvider.initTotalSize(getMyMapper(), theSearchTotalMode);
 		myBundleProvider.setPreferredPageSize(preferredPageSize);
 		
 		return myBundleProvider;
@@ -137,7 +129,8 @@ public class DeviceResourceProvider implements IResourceProvider {
 	@Search()
 	public IBundleProvider findDevicesByParams(
 			@OptionalParam(name=Device.SP_PATIENT, chainWhitelist={"", Patient.SP_NAME}) ReferenceParam thePatient, 
-			@OptionalParam(name=Device.SP_TYPE) TokenOrListParam theOrTypes
+			@OptionalParam(name=Device.SP_TYPE) TokenOrListParam theOrTypes,
+			SearchTotalModeEnum theSearchTotalMode
 			) {
 		List<ParameterWrapper> paramList = new ArrayList<ParameterWrapper> ();
 
@@ -167,7 +160,7 @@ public class DeviceResourceProvider implements IResourceProvider {
 		}
 
 		MyBundleProvider myBundleProvider = new MyBundleProvider(paramList);
-		myBundleProvider.setTotalSize(getTotalSize(paramList));
+		myBundleProvider.initTotalSize(getMyMapper(), theSearchTotalMode);
 		myBundleProvider.setPreferredPageSize(preferredPageSize);
 		
 		return myBundleProvider;
@@ -209,9 +202,15 @@ public class DeviceResourceProvider implements IResourceProvider {
 	private void validateResource(Device theDevice) {
 	}
 
+	@Override
+	public OmopFhirBundleProvider createBundleProvider(List<ParameterWrapper> paramList, Set<Include> theIncludes,
+			Set<Include> theReverseIncludes) {
+		return new MyBundleProvider(paramList);
+	}
+
 	class MyBundleProvider extends OmopFhirBundleProvider implements IBundleProvider {
 		public MyBundleProvider(List<ParameterWrapper> paramList) {
-			super(paramList);
+			super(getType(), paramList, null, null);
 			setPreferredPageSize (preferredPageSize);
 		}
 
@@ -222,11 +221,7 @@ public class DeviceResourceProvider implements IResourceProvider {
 			// _Include
 			List<String> includes = new ArrayList<String>();
 
-			if (paramList.size() == 0) {
-				getMyMapper().searchWithoutParams(theFromIndex, theToIndex, retv, includes, null);
-			} else {
-				getMyMapper().searchWithParams(theFromIndex, theToIndex, paramList, retv, includes, null);
-			}
+			search(getMyMapper(), theFromIndex, theToIndex, retv, includes, null);
 
 			return retv;
 		}
@@ -46,17 +46,17 @@ import ca.uhn.fhir.rest.annotation.ResourceParam;
 import ca.uhn.fhir.rest.annotation.Search;
 import ca.uhn.fhir.rest.annotation.Update;
 import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.param.ReferenceParam;
 import ca.uhn.fhir.rest.param.TokenParam;
-import ca.uhn.fhir.rest.server.IResourceProvider;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.mapping.OmopDeviceUseStatement;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.model.MyDeviceUseStatement;
 import edu.gatech.chai.omopv5.dba.service.ParameterWrapper;
 
-public class DeviceUseStatementResourceProvider implements IResourceProvider {
+public class DeviceUseStatementResourceProvider implements IBundleProviderFactory {
 
 	private WebApplicationContext myAppCtx;
 	private OmopDeviceUseStatement myMapper;
@@ -89,17 +89,6 @@ public class DeviceUseStatementResourceProvider implements IResourceProvider {
     	return myMapper;
     }
 	
-	private Integer getTotalSize(List<ParameterWrapper> paramList) {
-		final Long totalSize;
-		if (paramList.size() == 0) {
-			totalSize = getMyMapper().getSize();
-		} else {
-			totalSize = getMyMapper().getSize(paramList);
-		}
-		
-		return totalSize.intValue();
-	}
-	
 	/***
 	 * 
 	 * @param theDeviceUseStatement
@@ -151,7 +140,8 @@ public class DeviceUseStatementResourceProvider implements IResourceProvider {
 			@OptionalParam(name=DeviceUseStatement.SP_SUBJECT, chainWhitelist={"", Patient.SP_NAME}) ReferenceParam theSubject,
 			
 			@IncludeParam(allow={"DeviceUseStatement:device"})
-			final Set<Include> theIncludes
+			final Set<Include> theIncludes,
+			SearchTotalModeEnum theSearchTotalMode
 
 			) {
 		List<ParameterWrapper> paramList = new ArrayList<ParameterWrapper> ();
@@ -191,7 +181,7 @@ public class DeviceUseStatementResourceProvider implements IResourceProvider {
 		}
 
 		MyBundleProvider myBundleProvider = new MyBundleProvider(paramList, theIncludes);
-		myBundleProvider.setTotalSize(getTotalSize(paramList));
+		myBundleProvider.initTotalSize(getMyMapper(), theSearchTotalMode);
 		myBundleProvider.setPreferredPageSize(preferredPageSize);
 		
 		return myBundleProvider;
@@ -241,11 +231,17 @@ public class DeviceUseStatementResourceProvider implements IResourceProvider {
 		throw new UnprocessableEntityException(FhirContext.forDstu3(), outcome);		
 	}
 
+	@Override
+	public OmopFhirBundleProvider createBundleProvider(List<ParameterWrapper> paramList, Set<Include> theIncludes,
+			Set<Include> theReverseIncludes) {
+		return new MyBundleProvider(paramList, theIncludes);
+	}
+
 	class MyBundleProvider extends OmopFhirBundleProvider implements IBundleProvider {
 		Set<Include> theIncludes;
 
 		public MyBundleProvider(List<ParameterWrapper> paramList, Set<Include> theIncludes) {
-			super(paramList);
+			super(getType(), paramList, theIncludes, null);
 			setPreferredPageSize (preferredPageSize);
 			this.theIncludes = theIncludes;
 		}
@@ -260,11 +256,7 @@ public class DeviceUseStatementResourceProvider implements IResourceProvider {
 				includes.add("DeviceUseStatement:device");
 			}
 
-			if (paramList.size() == 0) {
-				getMyMapper().searchWithoutParams(theFromIndex, theToIndex, retv, includes, null);
-			} else {
-				getMyMapper().searchWithParams(theFromIndex, theToIndex, paramList, retv, includes, null);
-			}
+			search(getMyMapper(), theFromIndex, theToIndex, retv, includes, null);
 
 			return retv;
 		}
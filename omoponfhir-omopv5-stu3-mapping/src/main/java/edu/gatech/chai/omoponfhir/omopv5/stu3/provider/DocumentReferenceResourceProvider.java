@@ -40,18 +40,18 @@ import ca.uhn.fhir.rest.annotation.ResourceParam;
 import ca.uhn.fhir.rest.annotation.Search;
 import ca.uhn.fhir.rest.annotation.Update;
 import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.param.DateParam;
 import ca.uhn.fhir.rest.param.ReferenceParam;
 import ca.uhn.fhir.rest.param.TokenOrListParam;
 import ca.uhn.fhir.rest.param.TokenParam;
-import ca.uhn.fhir.rest.server.IResourceProvider;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.mapping.OmopDocumentReference;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.utilities.ThrowFHIRExceptions;
 import edu.gatech.chai.omopv5.dba.service.ParameterWrapper;
 
-public class DocumentReferenceResourceProvider implements IResourceProvider {
+public class DocumentReferenceResourceProvider implements IBundleProviderFactory {
 
 	private WebApplicationContext myAppCtx;
 	private String myDbType;
@@ -89,17 +89,6 @@ public class DocumentReferenceResourceProvider implements IResourceProvider {
 		return myMapper;
 	}
 	
-	private Integer getTotalSize(List<ParameterWrapper> paramList) {
-		final Long totalSize;
-		if (paramList.size() == 0) {
-			totalSize = getMyMapper().getSize();
-		} else {
-			totalSize = getMyMapper().getSize(paramList);
-		}
-		
-		return totalSize.intValue();
-	}
-
 	@Create()
 	public MethodOutcome createDocumentReference(@ResourceParam DocumentReference theDocumentReference) {
 		validateResource(theDocumentReference);
@@ -158,7 +147,8 @@ public class DocumentReferenceResourceProvider implements IResourceProvider {
 			final Set<Include> theIncludes,
 			
 			@IncludeParam(reverse=true)
-            final Set<Include> theReverseIncludes
+            final Set<Include> theReverseIncludes,
+			SearchTotalModeEnum theSearchTotalMode
 			) {
 		List<ParameterWrapper> paramList = new ArrayList<ParameterWrapper> ();
 
@@ -167,7 +157,7 @@ public class DocumentReferenceResourceProvider implements IResourceProvider {
 		}
 
 		MyBundleProvider myBundleProvider = new MyBundleProvider(paramList, theIncludes, theReverseIncludes);
-		myBundleProvider.setTotalSize(getTotalSize(paramList));
+		myBundleProvider.initTotalSize(getMyMapper(), theSearchTotalMode);
 		myBundleProvider.setPreferredPageSize(preferredPageSize);
 		return myBundleProvider;
 	}
@@ -186,7 +176,8 @@ public class DocumentReferenceResourceProvider implements IResourceProvider {
 			final Set<Include> theIncludes,
 			
 			@IncludeParam(reverse=true)
-            final Set<Include> theReverseIncludes
+            final Set<Include> theReverseIncludes,
+			SearchTotalModeEnum theSearchTotalMode
 			) {
 		List<ParameterWrapper> paramList = new ArrayList<ParameterWrapper> ();
 
@@ -241,18 +232,24 @@ public class DocumentReferenceResourceProvider implements IResourceProvider {
 		}
 
 		MyBundleProvider myBundleProvider = new MyBundleProvider(paramList, theIncludes, theReverseIncludes);
-		myBundleProvider.setTotalSize(getTotalSize(paramList));
+		myBundleProvider.initTotalSize(getMyMapper(), theSearchTotalMode);
 		myBundleProvider.setPreferredPageSize(preferredPageSize);
 		return myBundleProvider;		
 	}
 	
+	@Override
+	public OmopFhirBundleProvider createBundleProvider(List<ParameterWrapper> paramList, Set<Include> theIncludes,
+			Set<Include> theReverseIncludes) {
+		return new MyBundleProvider(paramList, theIncludes, theReverseIncludes);
+	}
+
 	class MyBundleProvider extends OmopFhirBundleProvider implements IBundleProvider {
 		Set<Include> theIncludes;
 		Set<Include> theReverseIncludes;
 
 		public MyBundleProvider(List<ParameterWrapper> paramList, Set<Include> theIncludes,
 				Set<Include> theReverseIncludes) {
-			super(paramList);
+			super(getType(), paramList, theIncludes, theReverseIncludes);
 			setPreferredPageSize(preferredPageSize);
 			this.theIncludes = theIncludes;
 			this.theReverseIncludes = theReverseIncludes;
@@ -277,11 +274,7 @@ public class DocumentReferenceResourceProvider implements IResourceProvider {
 				includes.add("DocumentReference:subject");
 			}
 
-			if (paramList.size() == 0) {
-				getMyMapper().searchWithoutParams(fromIndex, toIndex, retv, includes, null);
-			} else {
-				getMyMapper().searchWithParams(fromIndex, toIndex, paramList, retv, includes, null);
-			}
+			search(getMyMapper(), fromIndex, toIndex, retv, includes, null);
 
 			return retv;
 		}
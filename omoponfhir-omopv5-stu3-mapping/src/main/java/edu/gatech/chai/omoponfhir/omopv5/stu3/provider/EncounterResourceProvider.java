@@ -39,16 +39,16 @@ import ca.uhn.fhir.rest.annotation.ResourceParam;
 import ca.uhn.fhir.rest.annotation.Search;
 import ca.uhn.fhir.rest.annotation.Update;
 import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.param.ReferenceParam;
 import ca.uhn.fhir.rest.param.TokenParam;
-import ca.uhn.fhir.rest.server.IResourceProvider;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.mapping.OmopEncounter;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.utilities.ThrowFHIRExceptions;
 import edu.gatech.chai.omopv5.dba.service.ParameterWrapper;
 
-public class EncounterResourceProvider implements IResourceProvider {
+public class EncounterResourceProvider implements IBundleProviderFactory {
 
 	private WebApplicationContext myAppCtx;
 	private String myDbType;
@@ -81,17 +81,6 @@ public class EncounterResourceProvider implements IResourceProvider {
 		return myMapper;
 	}
 
-	private Integer getTotalSize(List<ParameterWrapper> paramList) {
-		final Long totalSize;
-		if (paramList.size() == 0) {
-			totalSize = getMyMapper().getSize();
-		} else {
-			totalSize = getMyMapper().getSize(paramList);
-		}
-
-		return totalSize.intValue();
-	}
-
 	/**
 	 * The "@Create" annotation indicates that this method implements "create=type",
 	 * which adds a new instance of a resource to the server.
@@ -128,7 +117,8 @@ public class EncounterResourceProvider implements IResourceProvider {
 					"Encounter:service-provider", "Encounter:patient", "Encounter:practitioner",
 					"Encounter:subject" }) final Set<Include> theIncludes,
 
-			@IncludeParam(reverse = true) final Set<Include> theReverseIncludes) {
+			@IncludeParam(reverse = true) final Set<Include> theReverseIncludes,
+			SearchTotalModeEnum theSearchTotalMode) {
 		List<ParameterWrapper> paramList = new ArrayList<ParameterWrapper>();
 
 		if (theEncounterId != null) {
@@ -170,7 +160,7 @@ public class EncounterResourceProvider implements IResourceProvider {
 		}
 
 		MyBundleProvider myBundleProvider = new MyBundleProvider(paramList, theIncludes, theReverseIncludes);
-		myBundleProvider.setTotalSize(getTotalSize(paramList));
+		myBundleProvider.initTotalSize(getMyMapper(), theSearchTotalMode);
 		myBundleProvider.setPreferredPageSize(preferredPageSize);
 
 		return myBundleProvider;
@@ -232,13 +222,19 @@ public class EncounterResourceProvider implements IResourceProvider {
 		return Encounter.class;
 	}
 
+	@Override
+	public OmopFhirBundleProvider createBundleProvider(List<ParameterWrapper> paramList, Set<Include> theIncludes,
+			Set<Include> theReverseIncludes) {
+		return new MyBundleProvider(paramList, theIncludes, theReverseIncludes);
+	}
+
 	class MyBundleProvider extends OmopFhirBundleProvider implements IBundleProvider {
 		Set<Include> theIncludes;
 		Set<Include> theReverseIncludes;
 
 		public MyBundleProvider(List<ParameterWrapper> paramList, Set<Include> theIncludes,
 				Set<Include> theReverseIncludes) {
-			super(paramList);
+			super(getType(), paramList, theIncludes, theReverseIncludes);
 			setPreferredPageSize(preferredPageSize);
 			this.theIncludes = theIncludes;
 			this.theReverseIncludes = theReverseIncludes;
@@ -291,11 +287,7 @@ public class EncounterResourceProvider implements IResourceProvider {
 				includes.add("Encounter:subject");
 			}
 
-			if (paramList.size() == 0) {
-				myMapper.searchWithoutParams(fromIndex, toIndex, retv, includes, null);
-			} else {
-				myMapper.searchWithParams(fromIndex, toIndex, paramList, retv, includes, null);
-			}
+			search(myMapper, fromIndex, toIndex, retv, includes, null);
 
 			return retv;
 		}
@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package edu.gatech.chai.omoponfhir.omopv5.stu3.provider;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.interceptor.InterceptorAdapter;
+
+/**
+ * Lets an operation write its own HTTP response, such as the 202 and NDJSON
+ * responses of $export. If the operation has already committed the response,
+ * HAPI does not write the returned resource.
+ *
+ * Register this before any interceptor that writes responses, such as
+ * ResponseHighlighterInterceptor.
+ */
+public class ManualResponseInterceptor extends InterceptorAdapter {
+
+	@Override
+	public boolean outgoingResponse(RequestDetails theRequestDetails, IBaseResource theResponseObject,
+			HttpServletRequest theServletRequest, HttpServletResponse theServletResponse) {
+		return !theServletResponse.isCommitted();
+	}
+}
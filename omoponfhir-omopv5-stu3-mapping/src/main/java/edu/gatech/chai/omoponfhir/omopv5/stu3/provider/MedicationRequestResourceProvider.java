@@ -17,6 +17,7 @@ package edu.gatech.chai.omoponfhir.omopv5.stu3.provider;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import org.hl7.fhir.dstu3.model.CodeableConcept;
 import org.hl7.fhir.dstu3.model.IdType;
@@ -29,6 +30,7 @@ import org.springframework.web.context.ContextLoaderListener;
 import org.springframework.web.context.WebApplicationContext;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.api.Include;
 import ca.uhn.fhir.model.primitive.IdDt;
 import ca.uhn.fhir.rest.annotation.Create;
 import ca.uhn.fhir.rest.annotation.Delete;
@@ -40,19 +42,19 @@ import ca.uhn.fhir.rest.annotation.ResourceParam;
 import ca.uhn.fhir.rest.annotation.Search;
 import ca.uhn.fhir.rest.annotation.Update;
 import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.param.DateParam;
 import ca.uhn.fhir.rest.param.ReferenceParam;
 import ca.uhn.fhir.rest.param.TokenOrListParam;
 import ca.uhn.fhir.rest.param.TokenParam;
-import ca.uhn.fhir.rest.server.IResourceProvider;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.mapping.OmopMedicationRequest;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.utilities.ThrowFHIRExceptions;
 import edu.gatech.chai.omopv5.dba.service.ParameterWrapper;
 
-public class MedicationRequestResourceProvider implements IResourceProvider {
+public class MedicationRequestResourceProvider implements IBundleProviderFactory {
 
 	private WebApplicationContext myAppCtx;
 	private String myDbType;
@@ -85,17 +87,6 @@ public class MedicationRequestResourceProvider implements IResourceProvider {
     	return myMapper;
     }
 
-	private Integer getTotalSize(List<ParameterWrapper> paramList) {
-		final Long totalSize;
-		if (paramList.size() == 0) {
-			totalSize = getMyMapper().getSize();
-		} else {
-			totalSize = getMyMapper().getSize(paramList);
-		}
-		
-		return totalSize.intValue();
-	}
-
 	@Override
 	public Class<? extends IBaseResource> getResourceType() {
 		return MedicationRequest.class;
@@ -164,7 +155,8 @@ public class MedicationRequestResourceProvider implements IResourceProvider {
 	
 	@Search()
 	public IBundleProvider findMedicationRequetsById(
-			@RequiredParam(name = MedicationRequest.SP_RES_ID) TokenParam theMedicationRequestId
+			@RequiredParam(name = MedicationRequest.SP_RES_ID) TokenParam theMedicationRequestId,
+			SearchTotalModeEnum theSearchTotalMode
 			) {
 		List<ParameterWrapper> paramList = new ArrayList<ParameterWrapper> ();
 
@@ -173,7 +165,7 @@ public class MedicationRequestResourceProvider implements IResourceProvider {
 		}
 				
 		MyBundleProvider myBundleProvider = new MyBundleProvider(paramList);
-		myBundleProvider.setTotalSize(getTotalSize(paramList));
+		myBundleProvider.initTotalSize(getMyMapper(), theSearchTotalMode);
 		myBundleProvider.setPreferredPageSize(preferredPageSize);
 
 		return myBundleProvider;
@@ -185,7 +177,8 @@ public class MedicationRequestResourceProvider implements IResourceProvider {
 			@OptionalParam(name = MedicationRequest.SP_CONTEXT) ReferenceParam theContext,
 			@OptionalParam(name = MedicationRequest.SP_AUTHOREDON) DateParam theDate,
 			@OptionalParam(name = MedicationRequest.SP_PATIENT) ReferenceParam thePatient,
-			@OptionalParam(name = MedicationRequest.SP_SUBJECT) ReferenceParam theSubject
+			@OptionalParam(name = MedicationRequest.SP_SUBJECT) ReferenceParam theSubject,
+			SearchTotalModeEnum theSearchTotalMode
 			) {
 		List<ParameterWrapper> paramList = new ArrayList<ParameterWrapper> ();
 		
@@ -220,7 +213,7 @@ public class MedicationRequestResourceProvider implements IResourceProvider {
 		}
 
 		MyBundleProvider myBundleProvider = new MyBundleProvider(paramList);
-		myBundleProvider.setTotalSize(getTotalSize(paramList));
+		myBundleProvider.initTotalSize(getMyMapper(), theSearchTotalMode);
 		myBundleProvider.setPreferredPageSize(preferredPageSize);
 		
 		return myBundleProvider;
@@ -237,9 +230,15 @@ public class MedicationRequestResourceProvider implements IResourceProvider {
 		// TODO: implement validation method
 	}
 	
+	@Override
+	public OmopFhirBundleProvider createBundleProvider(List<ParameterWrapper> paramList, Set<Include> theIncludes,
+			Set<Include> theReverseIncludes) {
+		return new MyBundleProvider(paramList);
+	}
+
 	class MyBundleProvider extends OmopFhirBundleProvider implements IBundleProvider {
 		public MyBundleProvider(List<ParameterWrapper> paramList) {
-			super(paramList);
+			super(getType(), paramList, null, null);
 			setPreferredPageSize (preferredPageSize);
 		}
 
@@ -250,11 +249,7 @@ public class MedicationRequestResourceProvider implements IResourceProvider {
 			// _Include
 			List<String> includes = new ArrayList<String>();
 
-			if (paramList.size() == 0) {
-				myMapper.searchWithoutParams(fromIndex, toIndex, retv, includes, null);
-			} else {
-				myMapper.searchWithParams(fromIndex, toIndex, paramList, retv, includes, null);
-			}
+			search(myMapper, fromIndex, toIndex, retv, includes, null);
 
 			return retv;
 		}		
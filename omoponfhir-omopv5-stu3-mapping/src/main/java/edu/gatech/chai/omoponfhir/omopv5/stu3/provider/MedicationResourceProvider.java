@@ -17,6 +17,7 @@ package edu.gatech.chai.omoponfhir.omopv5.stu3.provider;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import org.hl7.fhir.dstu3.model.CodeableConcept;
 import org.hl7.fhir.dstu3.model.IdType;
@@ -28,23 +29,24 @@ import org.springframework.web.context.ContextLoaderListener;
 import org.springframework.web.context.WebApplicationContext;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.api.Include;
 import ca.uhn.fhir.rest.annotation.Delete;
 import ca.uhn.fhir.rest.annotation.IdParam;
 import ca.uhn.fhir.rest.annotation.OptionalParam;
 import ca.uhn.fhir.rest.annotation.Read;
 import ca.uhn.fhir.rest.annotation.RequiredParam;
 import ca.uhn.fhir.rest.annotation.Search;
+import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.param.TokenOrListParam;
 import ca.uhn.fhir.rest.param.TokenParam;
-import ca.uhn.fhir.rest.server.IResourceProvider;
 import ca.uhn.fhir.rest.server.exceptions.MethodNotAllowedException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.mapping.OmopMedication;
 import edu.gatech.chai.omopv5.dba.service.ParameterWrapper;
 
-public class MedicationResourceProvider implements IResourceProvider {
+public class MedicationResourceProvider implements IBundleProviderFactory {
 
 	private WebApplicationContext myAppCtx;
 	private String myDbType;
@@ -77,17 +79,6 @@ public class MedicationResourceProvider implements IResourceProvider {
 		return myMapper;
 	}
 
-	private Integer getTotalSize(List<ParameterWrapper> paramList) {
-		final Long totalSize;
-		if (paramList.size() == 0) {
-			totalSize = getMyMapper().getSize();
-		} else {
-			totalSize = getMyMapper().getSize(paramList);
-		}
-
-		return totalSize.intValue();
-	}
-
 	@Delete()
 	public void deleteMedication(@IdParam IdType theId) {
 		throw new MethodNotAllowedException("Medication Delete is not Allowed.");
@@ -105,7 +96,8 @@ public class MedicationResourceProvider implements IResourceProvider {
 
 	@Search()
 	public IBundleProvider findMedicationById(
-			@RequiredParam(name = Medication.SP_RES_ID) TokenParam theMedicationId
+			@RequiredParam(name = Medication.SP_RES_ID) TokenParam theMedicationId,
+			SearchTotalModeEnum theSearchTotalMode
 			) {
 		List<ParameterWrapper> paramList = new ArrayList<ParameterWrapper>();
 		
@@ -114,7 +106,7 @@ public class MedicationResourceProvider implements IResourceProvider {
 		}
 
 		MyBundleProvider myBundleProvider = new MyBundleProvider(paramList);
-		myBundleProvider.setTotalSize(getTotalSize(paramList));
+		myBundleProvider.initTotalSize(getMyMapper(), theSearchTotalMode);
 		myBundleProvider.setPreferredPageSize(preferredPageSize);
 		
 		return myBundleProvider;
@@ -122,7 +114,8 @@ public class MedicationResourceProvider implements IResourceProvider {
 	
 	@Search()
 	public IBundleProvider findMedicationByParams(
-			@OptionalParam(name = Medication.SP_CODE) TokenOrListParam theOrCodes			
+			@OptionalParam(name = Medication.SP_CODE) TokenOrListParam theOrCodes,
+			SearchTotalModeEnum theSearchTotalMode			
 			) {
 		List<ParameterWrapper> paramList = new ArrayList<ParameterWrapper>();
 
@@ -137,7 +130,7 @@ public class MedicationResourceProvider implements IResourceProvider {
 		}
 
 		MyBundleProvider myBundleProvider = new MyBundleProvider(paramList);
-		myBundleProvider.setTotalSize(getTotalSize(paramList));
+		myBundleProvider.initTotalSize(getMyMapper(), theSearchTotalMode);
 		myBundleProvider.setPreferredPageSize(preferredPageSize);
 		
 		return myBundleProvider;
@@ -179,9 +172,15 @@ public class MedicationResourceProvider implements IResourceProvider {
 		// }
 	}
 
+	@Override
+	public OmopFhirBundleProvider createBundleProvider(List<ParameterWrapper> paramList, Set<Include> theIncludes,
+			Set<Include> theReverseIncludes) {
+		return new MyBundleProvider(paramList);
+	}
+
 	class MyBundleProvider extends OmopFhirBundleProvider implements IBundleProvider {
 		public MyBundleProvider(List<ParameterWrapper> paramList) {
-			super(paramList);
+			super(getType(), paramList, null, null);
 			setPreferredPageSize(preferredPageSize);
 		}
 
@@ -192,11 +191,7 @@ public class MedicationResourceProvider implements IResourceProvider {
 			// _Include
 			List<String> includes = new ArrayList<String>();
 
-			if (paramList.size() == 0) {
-				myMapper.searchWithoutParams(fromIndex, toIndex, retv, includes, null);
-			} else {
-				myMapper.searchWithParams(fromIndex, toIndex, paramList, retv, includes, null);
-			}
+			search(myMapper, fromIndex, toIndex, retv, includes, null);
 
 			return retv;
 		}
@@ -17,6 +17,7 @@ package edu.gatech.chai.omoponfhir.omopv5.stu3.provider;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import org.hl7.fhir.dstu3.model.CodeableConcept;
 import org.hl7.fhir.dstu3.model.IdType;
@@ -29,6 +30,7 @@ import org.springframework.web.context.ContextLoaderListener;
 import org.springframework.web.context.WebApplicationContext;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.api.Include;
 import ca.uhn.fhir.model.primitive.IdDt;
 import ca.uhn.fhir.rest.annotation.Create;
 import ca.uhn.fhir.rest.annotation.Delete;
@@ -40,19 +42,19 @@ import ca.uhn.fhir.rest.annotation.ResourceParam;
 import ca.uhn.fhir.rest.annotation.Search;
 import ca.uhn.fhir.rest.annotation.Update;
 import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.param.DateParam;
 import ca.uhn.fhir.rest.param.ReferenceParam;
 import ca.uhn.fhir.rest.param.TokenOrListParam;
 import ca.uhn.fhir.rest.param.TokenParam;
 import ca.uhn.fhir.rest.param.TokenParamModifier;
-import ca.uhn.fhir.rest.server.IResourceProvider;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.mapping.OmopMedicationStatement;
 import edu.gatech.chai.omopv5.dba.service.ParameterWrapper;
 
-public class MedicationStatementResourceProvider implements IResourceProvider {
+public class MedicationStatementResourceProvider implements IBundleProviderFactory {
 
 	private WebApplicationContext myAppCtx;
 	private String myDbType;
@@ -86,17 +88,6 @@ public class MedicationStatementResourceProvider implements IResourceProvider {
 		
 	}
 	
-	private Integer getTotalSize(List<ParameterWrapper> paramList) {
-		final Long totalSize;
-		if (paramList.size() == 0) {
-			totalSize = getMyMapper().getSize();
-		} else {
-			totalSize = getMyMapper().getSize(paramList);
-		}
-		
-		return totalSize.intValue();
-	}
-
 	/**
 	 * The "@Create" annotation indicates that this method implements "create=type", which adds a 
 	 * new instance of a resource to the server.
@@ -161,7 +152,8 @@ public class MedicationStatementResourceProvider implements IResourceProvider {
 
 	@Search()
 	public IBundleProvider findMedicationStatementsById(
-			@RequiredParam(name = MedicationStatement.SP_RES_ID) TokenParam theMedicationStatementId
+			@RequiredParam(name = MedicationStatement.SP_RES_ID) TokenParam theMedicationStatementId,
+			SearchTotalModeEnum theSearchTotalMode
 			) {
 		List<ParameterWrapper> paramList = new ArrayList<ParameterWrapper> ();
 
@@ -170,7 +162,7 @@ public class MedicationStatementResourceProvider implements IResourceProvider {
 		}
 
 		MyBundleProvider myBundleProvider = new MyBundleProvider(paramList);
-		myBundleProvider.setTotalSize(getTotalSize(paramList));
+		myBundleProvider.initTotalSize(getMyMapper(), theSearchTotalMode);
 		myBundleProvider.setPreferredPageSize(preferredPageSize);
 		return myBundleProvider;
 	}
@@ -182,7 +174,8 @@ public class MedicationStatementResourceProvider implements IResourceProvider {
 			@OptionalParam(name = MedicationStatement.SP_EFFECTIVE) DateParam theDate,
 			@OptionalParam(name = MedicationStatement.SP_PATIENT) ReferenceParam thePatient,
 			@OptionalParam(name = MedicationStatement.SP_SUBJECT) ReferenceParam theSubject,
-			@OptionalParam(name = MedicationStatement.SP_SOURCE) ReferenceParam theSource
+			@OptionalParam(name = MedicationStatement.SP_SOURCE) ReferenceParam theSource,
+			SearchTotalModeEnum theSearchTotalMode
 			) {
 		List<ParameterWrapper> paramList = new ArrayList<ParameterWrapper> ();
 		
@@ -228,7 +221,7 @@ public class MedicationStatementResourceProvider implements IResourceProvider {
 		}
 
 		MyBundleProvider myBundleProvider = new MyBundleProvider(paramList);
-		myBundleProvider.setTotalSize(getTotalSize(paramList));
+		myBundleProvider.initTotalSize(getMyMapper(), theSearchTotalMode);
 		myBundleProvider.setPreferredPageSize(preferredPageSize);
 		return myBundleProvider;
 		
@@ -266,10 +259,16 @@ public class MedicationStatementResourceProvider implements IResourceProvider {
 //		}
 	}
 
+	@Override
+	public OmopFhirBundleProvider createBundleProvider(List<ParameterWrapper> paramList, Set<Include> theIncludes,
+			Set<Include> theReverseIncludes) {
+		return new MyBundleProvider(paramList);
+	}
+
 	class MyBundleProvider extends OmopFhirBundleProvider implements IBundleProvider {
 
 		public MyBundleProvider(List<ParameterWrapper> paramList) {
-			super(paramList);
+			super(getType(), paramList, null, null);
 		}
 
 		@Override
@@ -279,11 +278,7 @@ public class MedicationStatementResourceProvider implements IResourceProvider {
 			// _Include
 			List<String> includes = new ArrayList<String>();
 
-			if (paramList.size() == 0) {
-				myMapper.searchWithoutParams(fromIndex, toIndex, retv, includes, null);
-			} else {
-				myMapper.searchWithParams(fromIndex, toIndex, paramList, retv, includes, null);
-			}
+			search(myMapper, fromIndex, toIndex, retv, includes, null);
 
 			return retv;
 		}
@@ -46,20 +46,20 @@ import ca.uhn.fhir.rest.annotation.Search;
 import ca.uhn.fhir.rest.annotation.Sort;
 import ca.uhn.fhir.rest.annotation.Update;
 import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
 import ca.uhn.fhir.rest.api.SortSpec;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.param.DateParam;
 import ca.uhn.fhir.rest.param.ReferenceParam;
 import ca.uhn.fhir.rest.param.TokenOrListParam;
 import ca.uhn.fhir.rest.param.TokenParam;
-import ca.uhn.fhir.rest.server.IResourceProvider;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.mapping.OmopObservation;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.utilities.ThrowFHIRExceptions;
 import edu.gatech.chai.omopv5.dba.service.ParameterWrapper;
 
-public class ObservationResourceProvider implements IResourceProvider {
+public class ObservationResourceProvider implements IBundleProviderFactory {
 
 	private WebApplicationContext myAppCtx;
 	private String myDbType;
@@ -92,17 +92,6 @@ public class ObservationResourceProvider implements IResourceProvider {
 		return myMapper;
 	}
 	
-	private Integer getTotalSize(List<ParameterWrapper> paramList) {
-		final Long totalSize;
-		if (paramList.size() == 0) {
-			totalSize = getMyMapper().getSize();
-		} else {
-			totalSize = getMyMapper().getSize(paramList);
-		}
-		
-		return totalSize.intValue();
-	}
-
 
 	/**
 	 * The "@Create" annotation indicates that this method implements "create=type", which adds a 
@@ -149,7 +138,8 @@ public class ObservationResourceProvider implements IResourceProvider {
 			final Set<Include> theIncludes,
 			
 			@IncludeParam(reverse=true)
-            final Set<Include> theReverseIncludes
+            final Set<Include> theReverseIncludes,
+			SearchTotalModeEnum theSearchTotalMode
 			) {
 		List<ParameterWrapper> paramList = new ArrayList<ParameterWrapper> ();
 
@@ -160,7 +150,7 @@ public class ObservationResourceProvider implements IResourceProvider {
 		String orderParams = getMyMapper().constructOrderParams(theSort);
 
 		MyBundleProvider myBundleProvider = new MyBundleProvider(paramList, theIncludes, theReverseIncludes);
-		myBundleProvider.setTotalSize(getTotalSize(paramList));
+		myBundleProvider.initTotalSize(getMyMapper(), theSearchTotalMode);
 		myBundleProvider.setPreferredPageSize(preferredPageSize);
 		myBundleProvider.setOrderParams(orderParams);
 		return myBundleProvider;
@@ -181,7 +171,8 @@ public class ObservationResourceProvider implements IResourceProvider {
 			final Set<Include> theIncludes,
 			
 			@IncludeParam(reverse=true)
-            final Set<Include> theReverseIncludes
+            final Set<Include> theReverseIncludes,
+			SearchTotalModeEnum theSearchTotalMode
 			) {		
 		List<ParameterWrapper> paramList = new ArrayList<ParameterWrapper> ();
 
@@ -234,7 +225,7 @@ public class ObservationResourceProvider implements IResourceProvider {
 		String orderParams = getMyMapper().constructOrderParams(theSort);
 
 		MyBundleProvider myBundleProvider = new MyBundleProvider(paramList, theIncludes, theReverseIncludes);
-		myBundleProvider.setTotalSize(getTotalSize(paramList));
+		myBundleProvider.initTotalSize(getMyMapper(), theSearchTotalMode);
 		myBundleProvider.setPreferredPageSize(preferredPageSize);
 		myBundleProvider.setOrderParams(orderParams);
 		return myBundleProvider;
@@ -318,12 +309,18 @@ public class ObservationResourceProvider implements IResourceProvider {
 		return Observation.class;
 	}
 
+	@Override
+	public OmopFhirBundleProvider createBundleProvider(List<ParameterWrapper> paramList, Set<Include> theIncludes,
+			Set<Include> theReverseIncludes) {
+		return new MyBundleProvider(paramList, theIncludes, theReverseIncludes);
+	}
+
 	class MyBundleProvider extends OmopFhirBundleProvider implements IBundleProvider {
 		Set<Include> theIncludes;
 		Set<Include> theReverseIncludes;
 
 		public MyBundleProvider(List<ParameterWrapper> paramList, Set<Include> theIncludes, Set<Include>theReverseIncludes) {
-			super(paramList);
+			super(getType(), paramList, theIncludes, theReverseIncludes);
 			setPreferredPageSize (preferredPageSize);
 			this.theIncludes = theIncludes;
 			this.theReverseIncludes = theReverseIncludes;
@@ -372,11 +369,7 @@ public class ObservationResourceProvider implements IResourceProvider {
 				includes.add("Observation:subject");
 			}
 
-			if (paramList.size() == 0) {
-				getMyMapper().searchWithoutParams(fromIndex, toIndex, retv, includes, orderParams);
-			} else {
-				getMyMapper().searchWithParams(fromIndex, toIndex, paramList, retv, includes, orderParams);
-			}
+			search(getMyMapper(), fromIndex, toIndex, retv, includes, orderParams);
 
 			return retv;
 		}
@@ -15,13 +15,22 @@
  *******************************************************************************/
 package edu.gatech.chai.omoponfhir.omopv5.stu3.provider;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
 
 import org.hl7.fhir.dstu3.model.InstantType;
+import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.springframework.web.context.ContextLoaderListener;
+import org.springframework.web.context.WebApplicationContext;
 
+import ca.uhn.fhir.model.api.Include;
+import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import edu.gatech.chai.omoponfhir.omopv5.stu3.mapping.IResourceMapping;
+import edu.gatech.chai.omopv5.dba.service.KeysetCursor;
 import edu.gatech.chai.omopv5.dba.service.ParameterWrapper;
 
 public abstract class OmopFhirBundleProvider implements IBundleProvider {
@@ -30,10 +39,46 @@ public abstract class OmopFhirBundleProvider implements IBundleProvider {
 	Integer preferredPageSize;
 	Integer totalSize;
 	String orderParams = null;
+	KeysetCursor keysetCursor = null;
+	String resourceType = null;
+	Set<Include> includes = null;
+	Set<Include> reverseIncludes = null;
+
+	// Combined count: the total is read with the first page and cached here.
+	boolean combinedCount = false;
+	IResourceMapping<?, ?> countMapper = null;
+	SearchTotalModeEnum countTotalMode = null;
+	boolean counting = false;
+	Long countedTotal = null;
+	List<IBaseResource> firstPage = null;
+	int firstPageTo = 0;
 
 	public OmopFhirBundleProvider (List<ParameterWrapper> paramList) {
+		this(null, paramList, null, null);
+	}
+
+	public OmopFhirBundleProvider (String resourceType, List<ParameterWrapper> paramList, Set<Include> includes,
+			Set<Include> reverseIncludes) {
 		this.searchTime = InstantType.withCurrentTime();
+		this.resourceType = resourceType;
 		this.paramList = paramList;
+		this.includes = includes;
+		this.reverseIncludes = reverseIncludes;
+
+		// Keyset paging is on unless it's disabled with keysetPaging=false in web.xml.
+		WebApplicationContext myAppCtx = ContextLoaderListener.getCurrentWebApplicationContext();
+		String keysetPaging = null;
+		String combinedCount = null;
+		if (myAppCtx != null) {
+			keysetPaging = myAppCtx.getServletContext().getInitParameter("keysetPaging");
+			combinedCount = myAppCtx.getServletContext().getInitParameter("combinedCount");
+		}
+		if (keysetPaging == null || !keysetPaging.equalsIgnoreCase("false")) {
+			this.keysetCursor = new KeysetCursor();
+		}
+
+		// Combined count is off unless it's enabled with combinedCount=true in web.xml.
+		this.combinedCount = combinedCount != null && combinedCount.equalsIgnoreCase("true");
 	}
 	
 	public void setPreferredPageSize(Integer preferredPageSize) {
@@ -44,6 +89,29 @@ public abstract class OmopFhirBundleProvider implements IBundleProvider {
 		this.totalSize = totalSize;
 	}
 
+	/**
+	 * Sets the total for the _total mode. With combinedCount, an accurate total
+	 * is not counted here. It is read together with the first page when size()
+	 * is called, and that page is kept for the getResources() that follows.
+	 */
+	public void initTotalSize(IResourceMapping<?, ?> mapper, SearchTotalModeEnum totalMode) {
+		if (combinedCount && mapper.getTotalMode(totalMode) == SearchTotalModeEnum.ACCURATE) {
+			this.countMapper = mapper;
+			this.countTotalMode = totalMode;
+			return;
+		}
+
+		setTotalSize(toInteger(mapper.getSize(paramList, totalMode)));
+	}
+
+	private static Integer toInteger(Long value) {
+		if (value == null) {
+			return null;
+		}
+
+		return value.intValue();
+	}
+
 	@Override
 	public IPrimitiveType<Date> getPublished() {
 		return searchTime;
@@ -62,9 +130,52 @@ public abstract class OmopFhirBundleProvider implements IBundleProvider {
 
 	@Override
 	public Integer size() {
+		if (this.totalSize == null && this.countMapper != null) {
+			IResourceMapping<?, ?> mapper = this.countMapper;
+			this.countMapper = null;
+			if (this.preferredPageSize == null) {
+				setTotalSize(toInteger(mapper.getSize(paramList, countTotalMode)));
+			} else {
+				this.counting = true;
+				try {
+					List<IBaseResource> page = getResources(0, this.preferredPageSize);
+					this.firstPage = page;
+					this.firstPageTo = this.preferredPageSize;
+					setTotalSize(toInteger(this.countedTotal));
+				} finally {
+					this.counting = false;
+				}
+			}
+		}
+
 		return this.totalSize;
 	}
 
+	/**
+	 * Searches a page for getResources(). The first page read by size() is
+	 * returned once if it covers the requested range. It is dropped otherwise.
+	 */
+	protected void search(IResourceMapping<?, ?> mapper, int fromIndex, int toIndex, List<IBaseResource> retv,
+			List<String> includes, String sort) {
+		List<IBaseResource> cached = this.firstPage;
+		this.firstPage = null;
+		if (cached != null && fromIndex == 0 && this.totalSize != null && (toIndex == this.firstPageTo
+				|| (this.totalSize <= this.firstPageTo && toIndex >= this.totalSize))) {
+			retv.addAll(cached);
+			return;
+		}
+
+		if (this.counting) {
+			this.countedTotal = mapper.searchWithCount(fromIndex, toIndex,
+					paramList == null ? new ArrayList<ParameterWrapper>() : paramList, retv, includes, sort,
+					getKeysetCursor());
+		} else if (paramList == null || paramList.size() == 0) {
+			mapper.searchWithoutParams(fromIndex, toIndex, retv, includes, sort, getKeysetCursor());
+		} else {
+			mapper.searchWithParams(fromIndex, toIndex, paramList, retv, includes, sort, getKeysetCursor());
+		}
+	}
+
 	public String getOrderParams() {
 		return this.orderParams;
 	}
@@ -72,5 +183,47 @@ public abstract class OmopFhirBundleProvider implements IBundleProvider {
 	public void setOrderParams(String orderParams) {
 		this.orderParams = orderParams;
 	}
+
+	public KeysetCursor getKeysetCursor() {
+		return this.keysetCursor;
+	}
+
+	public String getResourceType() {
+		return this.resourceType;
+	}
+
+	public List<ParameterWrapper> getParamList() {
+		return this.paramList;
+	}
+
+	public Set<Include> getIncludes() {
+		return this.includes;
+	}
+
+	public Set<Include> getReverseIncludes() {
+		return this.reverseIncludes;
+	}
+
+	public void setSearchTime(InstantType searchTime) {
+		this.searchTime = searchTime;
+	}
+
+	/**
+	 * Rough heap size of this provider in bytes, as kept in a paging store.
+	 * Only the search parameters, sort and cursor are kept here. Resources are
+	 * read per page. The first page cached by size() is not counted: the server
+	 * reads it right after the search is stored, and search() drops it then.
+	 */
+	public long getApproximateSize() {
+		long size = 512;
+		if (paramList != null) {
+			size += 256L * paramList.size();
+		}
+		if (orderParams != null) {
+			size += 2L * orderParams.length();
+		}
+
+		return size;
+	}
 	
 }
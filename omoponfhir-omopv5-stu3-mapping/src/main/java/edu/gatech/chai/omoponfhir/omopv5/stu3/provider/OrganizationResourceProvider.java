@@ -42,6 +42,7 @@ import ca.uhn.fhir.rest.annotation.ResourceParam;
 import ca.uhn.fhir.rest.annotation.Search;
 import ca.uhn.fhir.rest.annotation.Update;
 import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.param.StringParam;
 import ca.uhn.fhir.rest.param.TokenParam;
@@ -59,7 +60,7 @@ import edu.gatech.chai.omopv5.dba.service.ParameterWrapper;
  * See the MyOrganization definition to see how the custom resource definition
  * works.
  */
-public class OrganizationResourceProvider implements IResourceProvider {
+public class OrganizationResourceProvider implements IBundleProviderFactory {
 	// private CareSiteService careSiteService;
 	private WebApplicationContext myAppCtx;
 	private String myDbType;
@@ -93,17 +94,6 @@ public class OrganizationResourceProvider implements IResourceProvider {
 		return myMapper;
 	}
 	
-	private Integer getTotalSize(List<ParameterWrapper> paramList) {
-		final Long totalSize;
-		if (paramList.size() == 0) {
-			totalSize = getMyMapper().getSize();
-		} else {
-			totalSize = getMyMapper().getSize(paramList);
-		}
-		
-		return totalSize.intValue();
-	}
-
 
 	/**
 	 * The "@Create" annotation indicates that this method implements
@@ -166,7 +156,8 @@ public class OrganizationResourceProvider implements IResourceProvider {
 			@OptionalParam(name = MyOrganization.SP_NAME) StringParam theName,
 			
 			@IncludeParam(allow={"Organization:partof"})
-			final Set<Include> theIncludes
+			final Set<Include> theIncludes,
+			SearchTotalModeEnum theSearchTotalMode
 			) {
 		List<ParameterWrapper> paramList = new ArrayList<ParameterWrapper> ();
 
@@ -178,7 +169,7 @@ public class OrganizationResourceProvider implements IResourceProvider {
 		}
 		
 		MyBundleProvider myBundleProvider = new MyBundleProvider(paramList, theIncludes, null);
-		myBundleProvider.setTotalSize(getTotalSize(paramList));
+		myBundleProvider.initTotalSize(getMyMapper(), theSearchTotalMode);
 		myBundleProvider.setPreferredPageSize(preferredPageSize);
 		return myBundleProvider;
 	}
@@ -235,12 +226,18 @@ public class OrganizationResourceProvider implements IResourceProvider {
 	private void validateResource(MyOrganization theOrganization) {
 	}
 
+	@Override
+	public OmopFhirBundleProvider createBundleProvider(List<ParameterWrapper> paramList, Set<Include> theIncludes,
+			Set<Include> theReverseIncludes) {
+		return new MyBundleProvider(paramList, theIncludes, theReverseIncludes);
+	}
+
 	class MyBundleProvider extends OmopFhirBundleProvider implements IBundleProvider {
 		Set<Include> theIncludes;
 		Set<Include> theReverseIncludes;
 
 		public MyBundleProvider(List<ParameterWrapper> paramList, Set<Include> theIncludes, Set<Include>theReverseIncludes) {
-			super(paramList);
+			super(getType(), paramList, theIncludes, theReverseIncludes);
 			setPreferredPageSize (preferredPageSize);
 			this.theIncludes = theIncludes;
 			this.theReverseIncludes = theReverseIncludes;
@@ -256,11 +253,7 @@ public class OrganizationResourceProvider implements IResourceProvider {
 				includes.add("Organization:partof");
 			}
 
-			if (paramList.size() == 0) {
-				myMapper.searchWithoutParams(fromIndex, toIndex, retv, includes, null);
-			} else {
-				myMapper.searchWithParams(fromIndex, toIndex, paramList, retv, includes, null);
-			}
+			search(myMapper, fromIndex, toIndex, retv, includes, null);
 
 			return retv;
 		}
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package edu.gatech.chai.omoponfhir.omopv5.stu3.provider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import edu.gatech.chai.omoponfhir.omopv5.stu3.mapping.OmopPatient.EverythingSearch;
+import edu.gatech.chai.omoponfhir.omopv5.stu3.utilities.ThrowFHIRExceptions;
+import edu.gatech.chai.omopv5.dba.service.KeysetCursor;
+import edu.gatech.chai.omopv5.dba.service.ParameterWrapper;
+
+/**
+ * Bundle provider for Patient/$everything.
+ *
+ * The patient comes first, followed by each OMOP table search in order. The
+ * tables are counted concurrently when the bundle is created. A page is then
+ * read from only the tables it covers, each with its own keyset cursor, so
+ * only one page of resources is in memory at a time. When a page spans more
+ * than one table, the tables are read concurrently.
+ *
+ * The executor is shared by all $everything requests and bounds the number of
+ * table queries running at the same time.
+ */
+public class PatientEverythingBundleProvider extends OmopFhirBundleProvider {
+	private final IBaseResource patient;
+	private final List<EverythingSearch> searches;
+	private final ExecutorService executor;
+	private final int[] sizes;
+	private final KeysetCursor[] cursors;
+
+	public PatientEverythingBundleProvider(IBaseResource patient, List<EverythingSearch> searches,
+			ExecutorService executor) {
+		super(new ArrayList<ParameterWrapper>());
+		this.patient = patient;
+		this.searches = searches;
+		this.executor = executor;
+		this.sizes = new int[searches.size()];
+		this.cursors = new KeysetCursor[searches.size()];
+
+		List<Future<Long>> counts = new ArrayList<Future<Long>>();
+		for (final EverythingSearch search : searches) {
+			counts.add(executor.submit(new Callable<Long>() {
+				@Override
+				public Long call() {
+					return search.getMapper().getSize(new ArrayList<ParameterWrapper>(search.getParamList()));
+				}
+			}));
+		}
+
+		int total = patient == null ? 0 : 1;
+		for (int i = 0; i < searches.size(); i++) {
+			Long count = getResult(counts.get(i));
+			sizes[i] = count == null ? 0 : count.intValue();
+			total += sizes[i];
+
+			if (getKeysetCursor() != null) {
+				cursors[i] = new KeysetCursor();
+			}
+		}
+
+		setTotalSize(total);
+	}
+
+	@Override
+	public List<IBaseResource> getResources(int fromIndex, int toIndex) {
+		List<IBaseResource> retv = new ArrayList<IBaseResource>();
+
+		int offset = 0;
+		if (patient != null) {
+			if (fromIndex == 0 && toIndex > 0) {
+				retv.add(patient);
+			}
+			offset = 1;
+		}
+
+		// Map the page onto the tables it covers.
+		List<Future<List<IBaseResource>>> pages = new ArrayList<Future<List<IBaseResource>>>();
+		for (int i = 0; i < searches.size() && offset < toIndex; i++) {
+			int from = Math.max(fromIndex - offset, 0);
+			int to = Math.min(toIndex - offset, sizes[i]);
+			offset += sizes[i];
+
+			if (from >= to) continue;
+			pages.add(submitPage(searches.get(i), from, to, cursors[i]));
+		}
+
+		for (Future<List<IBaseResource>> page : pages) {
+			retv.addAll(getResult(page));
+		}
+
+		return retv;
+	}
+
+	private Future<List<IBaseResource>> submitPage(final EverythingSearch search, final int from, final int to,
+			final KeysetCursor cursor) {
+		return executor.submit(new Callable<List<IBaseResource>>() {
+			@Override
+			public List<IBaseResource> call() {
+				List<IBaseResource> resources = new ArrayList<IBaseResource>();
+				search.getMapper().searchWithParams(from, to, new ArrayList<ParameterWrapper>(search.getParamList()),
+						resources, new ArrayList<String>(), null, cursor);
+				return resources;
+			}
+		});
+	}
+
+	private <T> T getResult(Future<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw ThrowFHIRExceptions.internalErrorException("Patient $everything was interrupted");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw ThrowFHIRExceptions.internalErrorException(cause.getMessage());
+		}
+	}
+
+	@Override
+	public long getApproximateSize() {
+		return super.getApproximateSize() + 256L * searches.size() + 4096;
+	}
+}
@@ -19,6 +19,12 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.hl7.fhir.dstu3.model.CodeableConcept;
 import org.hl7.fhir.dstu3.model.DateType;
@@ -31,7 +37,6 @@ import org.springframework.web.context.WebApplicationContext;
 import org.hl7.fhir.dstu3.model.Patient;
 import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.instance.model.api.IBaseResource;
-import org.hl7.fhir.instance.model.api.IPrimitiveType;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.model.api.Include;
@@ -49,6 +54,7 @@ import ca.uhn.fhir.rest.annotation.Search;
 import ca.uhn.fhir.rest.annotation.Sort;
 import ca.uhn.fhir.rest.annotation.Update;
 import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
 import ca.uhn.fhir.rest.api.SortSpec;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
@@ -69,12 +75,16 @@ import edu.gatech.chai.omopv5.dba.service.ParameterWrapper;
  * HashMap. This is obviously not a production-ready solution for many reasons,
  * but it is useful to help illustrate how to build a fully-functional server.
  */
-public class PatientResourceProvider implements IResourceProvider {
+public class PatientResourceProvider implements IBundleProviderFactory {
 
 	private WebApplicationContext myAppCtx;
 	private String myDbType;
 	private OmopPatient myMapper;
 	private int preferredPageSize = 30;
+	private ExecutorService everythingExecutor;
+
+	private static final int DEFAULT_EVERYTHING_THREADS = 4;
+	private static final int EVERYTHING_QUEUE_PER_THREAD = 16;
 
 	public PatientResourceProvider() {
 		myAppCtx = ContextLoaderListener.getCurrentWebApplicationContext();
@@ -92,6 +102,47 @@ public class PatientResourceProvider implements IResourceProvider {
 				preferredPageSize = pageSize;
 			}
 		}
+
+		int everythingThreads = DEFAULT_EVERYTHING_THREADS;
+		String everythingThreadsStr = myAppCtx.getServletContext().getInitParameter("everythingThreads");
+		if (everythingThreadsStr != null && everythingThreadsStr.isEmpty() == false) {
+			int threads = Integer.parseInt(everythingThreadsStr);
+			if (threads > 0) {
+				everythingThreads = threads;
+			}
+		}
+		everythingExecutor = createEverythingExecutor(everythingThreads);
+	}
+
+	/**
+	 * Stops the $everything threads. Called when the servlet is destroyed.
+	 */
+	public void shutdown() {
+		everythingExecutor.shutdownNow();
+	}
+
+	/**
+	 * Bounded pool for the $everything table queries. When all threads are busy
+	 * and the queue is full, the request thread runs the query itself.
+	 */
+	private static ExecutorService createEverythingExecutor(int threads) {
+		ThreadFactory threadFactory = new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "patient-everything-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(threads * EVERYTHING_QUEUE_PER_THREAD), threadFactory,
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.allowCoreThreadTimeOut(true);
+
+		return executor;
 	}
 
 	/**
@@ -111,17 +162,6 @@ public class PatientResourceProvider implements IResourceProvider {
 		return myMapper;
 	}
 
-	private Integer getTotalSize(List<ParameterWrapper> paramList) {
-		final Long totalSize;
-		if (paramList.size() == 0) {
-			totalSize = getMyMapper().getSize();
-		} else {
-			totalSize = getMyMapper().getSize(paramList);
-		}
-
-		return totalSize.intValue();
-	}
-
 	/**
 	 * The "@Create" annotation indicates that this method implements "create=type",
 	 * which adds a new instance of a resource to the server.
@@ -206,7 +246,8 @@ public class PatientResourceProvider implements IResourceProvider {
 					"Patient:link" }) final Set<Include> theIncludes,
 
 			@IncludeParam(allow = { "Encounter:subject",
-					"Observation:subject" }, reverse = true) final Set<Include> theReverseIncludes) {
+					"Observation:subject" }, reverse = true) final Set<Include> theReverseIncludes,
+			SearchTotalModeEnum theSearchTotalMode) {
 		
 		/*
 		 * Create parameter map, which will be used later to construct predicate. The
@@ -286,7 +327,7 @@ public class PatientResourceProvider implements IResourceProvider {
 		System.out.println("MYSORT!!! "+orderParams);
 
 		MyBundleProvider myBundleProvider = new MyBundleProvider(paramList, theIncludes, theReverseIncludes);
-		myBundleProvider.setTotalSize(getTotalSize(paramList));
+		myBundleProvider.initTotalSize(getMyMapper(), theSearchTotalMode);
 		myBundleProvider.setPreferredPageSize(preferredPageSize);
 		myBundleProvider.setOrderParams(orderParams);
 		
@@ -358,44 +399,17 @@ public class PatientResourceProvider implements IResourceProvider {
 		Date endDate = null;
 		if (theEnd != null) endDate = theEnd.getValue();
 
-//		final IdType patientId = thePatientId;
-//		final String baseUrl = theRequestDetails.getFhirServerBase();
-		
-		List<IBaseResource> resources = new ArrayList<IBaseResource>();
-		resources.add(getMyMapper().toFHIR(thePatientId));
-
-		getMyMapper().getEverthingfor(resources, thePatientId.getIdPartAsLong(), startDate, endDate);
-		
-		final List<IBaseResource> retv = resources;
-		final Integer totalsize = retv.size();
-		final Integer pageSize = totalsize; // Some clients do not support pagination. preferredPageSize;
-		
-		return new IBundleProvider() {
-			@Override
-			public IPrimitiveType<Date> getPublished() {
-				return null;
-			}
-
-			@Override
-			public List<IBaseResource> getResources(int theFromIndex, int theToIndex) {
-				return retv.subList(theFromIndex, theToIndex);
-			}
-
-			@Override
-			public String getUuid() {
-				return null;
-			}
+		IBaseResource patient = getMyMapper().toFHIR(thePatientId);
+		if (patient == null) {
+			throw new ResourceNotFoundException(thePatientId);
+		}
 
-			@Override
-			public Integer preferredPageSize() {
-				return pageSize;
-			}
+		PatientEverythingBundleProvider myBundleProvider = new PatientEverythingBundleProvider(patient,
+				getMyMapper().getEverythingSearches(thePatientId.getIdPartAsLong(), startDate, endDate),
+				everythingExecutor);
+		myBundleProvider.setPreferredPageSize(preferredPageSize);
 
-			@Override
-			public Integer size() {
-				return totalsize;
-			}
-		};
+		return myBundleProvider;
 	}
 
 	/**
@@ -418,6 +432,12 @@ public class PatientResourceProvider implements IResourceProvider {
 		}
 	}
 
+	@Override
+	public OmopFhirBundleProvider createBundleProvider(List<ParameterWrapper> paramList, Set<Include> theIncludes,
+			Set<Include> theReverseIncludes) {
+		return new MyBundleProvider(paramList, theIncludes, theReverseIncludes);
+	}
+
 	class MyBundleProvider extends OmopFhirBundleProvider implements IBundleProvider {
 		Set<Include> theIncludes;
 		Set<Include> theReverseIncludes;
@@ -425,7 +445,7 @@ public class PatientResourceProvider implements IResourceProvider {
 
 		public MyBundleProvider(List<ParameterWrapper> paramList, Set<Include> theIncludes,
 				Set<Include> theReverseIncludes) {
-			super(paramList);
+			super(getType(), paramList, theIncludes, theReverseIncludes);
 			setPreferredPageSize(preferredPageSize);
 			this.theIncludes = theIncludes;
 			this.theReverseIncludes = theReverseIncludes;
@@ -499,11 +519,7 @@ public class PatientResourceProvider implements IResourceProvider {
 			}
 
 			System.out.println("SORT!!!!!! "+orderParams);
-			if (paramList.size() == 0) {
-				getMyMapper().searchWithoutParams(fromIndex, toIndex, retv, includes, orderParams);
-			} else {
-				getMyMapper().searchWithParams(fromIndex, toIndex, paramList, retv, includes, orderParams);
-			}
+			search(getMyMapper(), fromIndex, toIndex, retv, includes, orderParams);
 
 			return retv;
 		}
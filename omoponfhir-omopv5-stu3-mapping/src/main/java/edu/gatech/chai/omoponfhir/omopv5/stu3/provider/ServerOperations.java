@@ -15,105 +15,181 @@
  *******************************************************************************/
 package edu.gatech.chai.omoponfhir.omopv5.stu3.provider;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.UUID;
+import java.io.File;
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletResponse;
 
 import org.hl7.fhir.dstu3.model.BooleanType;
 import org.hl7.fhir.dstu3.model.Bundle;
-import org.hl7.fhir.dstu3.model.CodeableConcept;
-import org.hl7.fhir.dstu3.model.Coding;
-import org.hl7.fhir.dstu3.model.Enumerations.MessageEvent;
-import org.hl7.fhir.dstu3.model.MessageHeader;
 import org.hl7.fhir.dstu3.model.OperationOutcome;
-import org.hl7.fhir.dstu3.model.MessageHeader.MessageHeaderResponseComponent;
-import org.hl7.fhir.dstu3.model.MessageHeader.ResponseType;
-import org.hl7.fhir.dstu3.model.OperationOutcome.IssueSeverity;
-import org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent;
-import org.hl7.fhir.dstu3.model.Bundle.BundleType;
 import org.hl7.fhir.dstu3.model.Resource;
-import org.hl7.fhir.dstu3.model.ResourceType;
+import org.hl7.fhir.dstu3.model.StringType;
 import org.hl7.fhir.dstu3.model.UriType;
-import org.hl7.fhir.exceptions.FHIRException;
+import org.springframework.web.context.ContextLoaderListener;
+import org.springframework.web.context.WebApplicationContext;
 
+import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.rest.annotation.Operation;
 import ca.uhn.fhir.rest.annotation.OperationParam;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import edu.gatech.chai.omoponfhir.omopv5.stu3.mapping.OmopMessageQueue;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.mapping.OmopServerOperations;
-import edu.gatech.chai.omoponfhir.omopv5.stu3.utilities.CodeableConceptUtil;
-import edu.gatech.chai.omoponfhir.omopv5.stu3.utilities.ThrowFHIRExceptions;
+import edu.gatech.chai.omoponfhir.omopv5.stu3.utilities.AllowedHosts;
 
+/**
+ * $process-message. With async=true, the message is stored in a durable queue
+ * and acknowledged with 202 and a $process-message-status URL in
+ * Content-Location. Async messages need messageQueueDirectory, and a
+ * response-url must be on one of messageResponseAllowedHosts. The response message is POSTed to response-url, if given,
+ * and can be read with $process-message-status.
+ *
+ * The async responses are written by the operations, so
+ * ManualResponseInterceptor must be registered.
+ */
 public class ServerOperations {
+	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ServerOperations.class);
+
+	private static final int DEFAULT_THREADS = 2;
+	private static final int DEFAULT_BATCH_SIZE = 20;
+	private static final long DEFAULT_RETENTION_HOURS = 24L;
+	private static final int RETRY_AFTER_SECONDS = 5;
+
+	private WebApplicationContext myAppCtx;
 	private OmopServerOperations myMapper;
-	
-	public ServerOperations() {
-		myMapper = new OmopServerOperations();
+	private OmopMessageQueue myQueue;
+	private AllowedHosts myResponseHosts;
+
+	public ServerOperations(FhirContext fhirContext) {
+		myAppCtx = ContextLoaderListener.getCurrentWebApplicationContext();
+		myMapper = new OmopServerOperations(myAppCtx);
+
+		// The queue must survive a restart, so it is only enabled with a
+		// configured directory. A temporary directory may be cleaned.
+		String directory = myAppCtx.getServletContext().getInitParameter("messageQueueDirectory");
+		if (directory == null || directory.trim().isEmpty()) {
+			logger.warn("messageQueueDirectory is not set. Async $process-message is disabled");
+			return;
+		}
+		File queueDirectory = new File(directory.trim());
+		myResponseHosts = new AllowedHosts(
+				myAppCtx.getServletContext().getInitParameter("messageResponseAllowedHosts"));
+
+		int threads = (int) getLongInitParameter("messageQueueThreads", DEFAULT_THREADS);
+		int batchSize = (int) getLongInitParameter("messageQueueBatchSize", DEFAULT_BATCH_SIZE);
+		long retentionHours = getLongInitParameter("messageQueueRetentionHours", DEFAULT_RETENTION_HOURS);
+
+		try {
+			myQueue = new OmopMessageQueue(myAppCtx, fhirContext, queueDirectory, myResponseHosts, threads,
+					batchSize, retentionHours * 3600000L);
+		} catch (IOException e) {
+			throw new IllegalStateException("Message queue directory " + queueDirectory + " can not be used", e);
+		}
 	}
-	
+
+	/**
+	 * Stops the message queue threads. Called when the servlet is destroyed.
+	 */
+	public void shutdown() {
+		if (myQueue != null) {
+			myQueue.shutdown();
+		}
+	}
+
+	private long getLongInitParameter(String name, long defaultValue) {
+		String value = myAppCtx.getServletContext().getInitParameter(name);
+		if (value != null && value.isEmpty() == false) {
+			long longValue = Long.parseLong(value.trim());
+			if (longValue > 0) {
+				return longValue;
+			}
+		}
+
+		return defaultValue;
+	}
+
 	@Operation(name="$process-message")
 	public Bundle processMessageOperation(
+			RequestDetails theRequestDetails,
+			HttpServletResponse theResponse,
 			@OperationParam(name="content") Bundle theContent,
 			@OperationParam(name="async") BooleanType theAsync,
 			@OperationParam(name="response-url") UriType theUri			
 			) {
-		Bundle retVal = new Bundle();
-		MessageHeader messageHeader = null;
-		List<Resource> resources = new ArrayList<Resource>();
-		
-		if (theContent.getType() == BundleType.MESSAGE) {
-			List<BundleEntryComponent> entries = theContent.getEntry();
-			// Evaluate the first entry, which must be MessageHeader
-//			BundleEntryComponent entry1 = theContent.getEntryFirstRep();
-//			Resource resource = entry1.getResource();
-			if (entries != null && entries.size() > 0 && 
-					entries.get(0).getResource() != null &&
-					entries.get(0).getResource().getResourceType() == ResourceType.MessageHeader) {
-				messageHeader = (MessageHeader) entries.get(0).getResource();
-				// We handle observation-type.
-				// TODO: Add other types later.
-				Coding event = messageHeader.getEvent();
-				Coding obsprovided = new Coding(MessageEvent.OBSERVATIONPROVIDE.getSystem(), MessageEvent.OBSERVATIONPROVIDE.toCode(), MessageEvent.OBSERVATIONPROVIDE.getDefinition());
-				if (CodeableConceptUtil.compareCodings(event, obsprovided) == 0) {
-					// This is lab report. they are all to be added to the server.
-					for (int i=1; i<entries.size(); i++) {
-						resources.add(entries.get(i).getResource());
-					}
-				} else {
-					ThrowFHIRExceptions.unprocessableEntityException(
-							"We currently support only observation-provided Message event");
-				}
+		if (theAsync == null || !theAsync.booleanValue()) {
+			return myMapper.processMessage(theContent);
+		}
+
+		if (myQueue == null) {
+			throw new InvalidRequestException("Async messages are not enabled on this server");
+		}
+
+		// Reject bad messages now, while the sender is still waiting.
+		myMapper.getMessageResources(theContent);
+
+		String responseUrl = null;
+		if (theUri != null && !theUri.isEmpty()) {
+			responseUrl = theUri.getValue();
+			// The server POSTs to it, so only hosts that are allowed.
+			if (!myResponseHosts.isAllowed(responseUrl)) {
+				throw new InvalidRequestException("response-url host is not allowed on this server: " + responseUrl);
 			}
-		} else {
-			ThrowFHIRExceptions.unprocessableEntityException(
-					"The bundle must be a MESSAGE type");
 		}
-		MessageHeaderResponseComponent messageHeaderResponse = new MessageHeaderResponseComponent();
-		messageHeaderResponse.setId(messageHeader.getId());
 
-		List<BundleEntryComponent> resultEntries = null;
+		String messageId;
+		try {
+			messageId = myQueue.enqueue(theContent, responseUrl);
+		} catch (IOException e) {
+			throw new InternalErrorException("The message could not be queued", e);
+		}
+
+		theResponse.setStatus(HttpServletResponse.SC_ACCEPTED);
+		theResponse.setHeader("Content-Location",
+				theRequestDetails.getFhirServerBase() + "/$process-message-status?_messageId=" + messageId);
+		flush(theResponse);
+
+		return new Bundle();
+	}
+
+	/**
+	 * 202 while an async message is queued or being processed, and then its
+	 * response message.
+	 */
+	@Operation(name="$process-message-status", idempotent=true)
+	public Resource processMessageStatusOperation(
+			HttpServletResponse theResponse,
+			@OperationParam(name="_messageId") StringType theMessageId
+			) {
+		String messageId = theMessageId == null ? null : theMessageId.getValue();
+		OmopMessageQueue.Status status = myQueue == null ? null : myQueue.getStatus(messageId);
+		if (status == null) {
+			throw new ResourceNotFoundException("Message " + (messageId == null ? "" : messageId));
+		}
+
+		if (status != OmopMessageQueue.Status.COMPLETE) {
+			theResponse.setStatus(HttpServletResponse.SC_ACCEPTED);
+			theResponse.setHeader("X-Progress", status.name().toLowerCase());
+			theResponse.setHeader("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+			flush(theResponse);
+
+			return new OperationOutcome();
+		}
+
+		try {
+			return myQueue.getResponse(messageId);
+		} catch (IOException e) {
+			throw new InternalErrorException(e);
+		}
+	}
+
+	private static void flush(HttpServletResponse theResponse) {
 		try {
-			resultEntries = myMapper.createEntries(resources);
-			messageHeaderResponse.setCode(ResponseType.OK);
-		} catch (FHIRException e) {
-			e.printStackTrace();
-			messageHeaderResponse.setCode(ResponseType.OK);
-			OperationOutcome outcome = new OperationOutcome();
-			CodeableConcept detailCode = new CodeableConcept();
-			detailCode.setText(e.getMessage());
-			outcome.addIssue().setSeverity(IssueSeverity.ERROR).setDetails(detailCode);
-			messageHeaderResponse.setDetailsTarget(outcome);
+			theResponse.flushBuffer();
+		} catch (IOException e) {
+			throw new InternalErrorException(e);
 		}
-		
-		messageHeader.setResponse(messageHeaderResponse);
-		BundleEntryComponent responseMessageEntry = new BundleEntryComponent();
-		UUID uuid = UUID.randomUUID();
-		responseMessageEntry.setFullUrl("urn:uuid:"+uuid.toString());
-		responseMessageEntry.setResource(messageHeader);
-		
-		if (resultEntries == null) resultEntries = new ArrayList<BundleEntryComponent>();
-		
-		resultEntries.add(0, responseMessageEntry);
-		retVal.setEntry(resultEntries);
-		
-		return retVal;
 	}
 }
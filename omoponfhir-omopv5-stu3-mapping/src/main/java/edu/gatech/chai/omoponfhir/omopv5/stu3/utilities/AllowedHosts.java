@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package edu.gatech.chai.omoponfhir.omopv5.stu3.utilities;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Hosts that the server may send requests to on behalf of a client, such as
+ * $import inputs and $process-message response-urls. Only http(s) URLs on
+ * these hosts are allowed.
+ *
+ * Connections opened with openConnection have timeouts and do not follow
+ * redirects, since a redirect could lead to a host that is not allowed.
+ */
+public class AllowedHosts {
+	private final Set<String> hosts = new HashSet<String>();
+
+	/**
+	 * hosts is a comma separated list. If it is null or empty, no host is
+	 * allowed.
+	 */
+	public AllowedHosts(String hosts) {
+		if (hosts == null) return;
+
+		for (String host : hosts.split(",")) {
+			if (host.trim().isEmpty() == false) {
+				this.hosts.add(host.trim().toLowerCase());
+			}
+		}
+	}
+
+	public boolean isEmpty() {
+		return hosts.isEmpty();
+	}
+
+	public boolean isAllowed(URI uri) {
+		String scheme = uri.getScheme();
+		if (!"http".equalsIgnoreCase(scheme) && !"https".equalsIgnoreCase(scheme)) return false;
+
+		return uri.getHost() != null && hosts.contains(uri.getHost().toLowerCase());
+	}
+
+	public boolean isAllowed(String url) {
+		if (url == null) return false;
+
+		try {
+			return isAllowed(new URI(url));
+		} catch (URISyntaxException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Opens an http(s) connection with connect and read timeouts and without
+	 * redirects. The caller checks the URL with isAllowed first.
+	 */
+	public static HttpURLConnection openConnection(URL url, int connectTimeoutMillis, int readTimeoutMillis)
+			throws IOException {
+		URLConnection connection = url.openConnection();
+		if (!(connection instanceof HttpURLConnection)) {
+			throw new IOException("Not an http(s) URL: " + url);
+		}
+
+		HttpURLConnection http = (HttpURLConnection) connection;
+		http.setConnectTimeout(connectTimeoutMillis);
+		http.setReadTimeout(readTimeoutMillis);
+		http.setInstanceFollowRedirects(false);
+
+		return http;
+	}
+}
@@ -15,8 +15,6 @@
  *******************************************************************************/
 package edu.gatech.chai.omoponfhir.omopv5.stu3.utilities;
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import org.hl7.fhir.dstu3.model.CodeableConcept;
@@ -26,8 +24,7 @@ import org.hl7.fhir.exceptions.FHIRException;
 import edu.gatech.chai.omoponfhir.local.dao.FhirOmopVocabularyMapImpl;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.mapping.BaseOmopResource;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.mapping.OmopCodeableConceptMapping;
-import edu.gatech.chai.omopv5.dba.service.ConceptService;
-import edu.gatech.chai.omopv5.dba.service.ParameterWrapper;
+import edu.gatech.chai.omopv5.dba.service.ConceptLookupService;
 import edu.gatech.chai.omopv5.model.entity.Concept;
 
 public class CodeableConceptUtil {
@@ -59,42 +56,26 @@ public class CodeableConceptUtil {
 		return codeableConcept;
 	}
 	
-	public static Concept getOmopConceptWithOmopVacabIdAndCode(ConceptService conceptService, String omopVocabularyId, String code) {
+	public static Concept getOmopConceptWithOmopVacabIdAndCode(ConceptLookupService conceptLookupService, String omopVocabularyId, String code) {
 		if (omopVocabularyId == null) return null;
 		
-		ParameterWrapper param = new ParameterWrapper(
-				"String",
-				Arrays.asList("vocabulary.id", "conceptCode"),
-				Arrays.asList("like", "like"),
-				Arrays.asList(omopVocabularyId, code),
-				"and"
-				);
-		
-		List<ParameterWrapper> params = new ArrayList<ParameterWrapper>();
-		params.add(param);
-
-		List<Concept> conceptIds = conceptService.searchWithParams(0, 0, params, null);
-		if (conceptIds.isEmpty()) {
-			return null;
-		}
-		
-		// We should have only one entry... so... 
-		return conceptIds.get(0);
+		// Exact (vocabulary_id, concept_code) lookup. This is cached in the service.
+		return conceptLookupService.findByVocabularyIdAndCode(omopVocabularyId, code);
 	}
 	
-	public static Concept getOmopConceptWithFhirConcept(ConceptService conceptService, Coding fhirCoding) throws FHIRException {
+	public static Concept getOmopConceptWithFhirConcept(ConceptLookupService conceptLookupService, Coding fhirCoding) throws FHIRException {
 		String system = fhirCoding.getSystem();
 		String code = fhirCoding.getCode();
 		
 		String omopVocabularyId = OmopCodeableConceptMapping.omopVocabularyforFhirUri(system);
-		return getOmopConceptWithOmopVacabIdAndCode(conceptService, omopVocabularyId, code);
+		return getOmopConceptWithOmopVacabIdAndCode(conceptLookupService, omopVocabularyId, code);
 	}
 	
-	public static Concept searchConcept(ConceptService conceptService, CodeableConcept codeableConcept) throws FHIRException {
+	public static Concept searchConcept(ConceptLookupService conceptLookupService, CodeableConcept codeableConcept) throws FHIRException {
 		List<Coding> codings = codeableConcept.getCoding();
 		for (Coding coding : codings) {
 			// get OMOP Vocabulary from mapping.
-			Concept ret = getOmopConceptWithFhirConcept(conceptService, coding);
+			Concept ret = getOmopConceptWithFhirConcept(conceptLookupService, coding);
 			if (ret != null) return ret;
 		}
 		return null;
@@ -20,8 +20,11 @@ import java.util.Properties;
 import javax.persistence.EntityManagerFactory;
 import javax.sql.DataSource;
 
+import org.hibernate.cache.ehcache.ConfigSettings;
+import org.hibernate.cache.ehcache.internal.EhcacheRegionFactory;
 import org.hibernate.jpa.HibernatePersistenceProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.ComponentScans;
@@ -31,6 +34,14 @@ import org.springframework.orm.jpa.JpaTransactionManager;
 import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
 
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.DiskStoreConfiguration;
+import net.sf.ehcache.config.PersistenceConfiguration;
+import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
+
+import edu.gatech.chai.omopv5.jpa.utility.ReadOnlyHibernateJpaDialect;
+
 //import edu.gatech.chai.omopv5.jpa.service.CareSiteService;
 //import edu.gatech.chai.omopv5.jpa.service.CareSiteServiceImp;
 
@@ -39,13 +50,41 @@ import org.springframework.transaction.annotation.EnableTransactionManagement;
 @ComponentScans(value = { @ComponentScan("edu.gatech.chai.omopv5.jpa.dao"),
 		@ComponentScan("edu.gatech.chai.omopv5.dba.service"),
 		@ComponentScan("edu.gatech.chai.smart.jpa.dao"),
-		@ComponentScan("edu.gatech.chai.smart.jpa.service")})
+		@ComponentScan("edu.gatech.chai.smart.jpa.service"),
+		@ComponentScan("edu.gatech.chai.paging.jpa.dao"),
+		@ComponentScan("edu.gatech.chai.paging.jpa.service")})
 @ImportResource({
     "classpath:database-config.xml"
 })
 public class FhirServerConfig {
+	/***
+	 * Second-level cache regions for the OMOP vocabulary tables. These tables are
+	 * read-only, so entities and query results can be kept until evicted.
+	 */
+	private static final String[] VOCABULARY_CACHE_REGIONS = { "concept", "vocabulary", "concept_relationship",
+			"concept_ancestor", "vocabulary_query" };
+
 	@Autowired
 	DataSource dataSource;
+
+	@Value("${vocabulary.cache.maxEntriesLocalHeap:100000}")
+	private int vocabularyCacheMaxEntriesLocalHeap;
+
+	@Value("${vocabulary.cache.ttlSeconds:0}")
+	private long vocabularyCacheTtlSeconds;
+
+	@Value("${vocabulary.cache.overflowToDisk:false}")
+	private boolean vocabularyCacheOverflowToDisk;
+
+	@Value("${vocabulary.cache.maxEntriesLocalDisk:1000000}")
+	private int vocabularyCacheMaxEntriesLocalDisk;
+
+	@Value("${jdbc.fetchSize:500}")
+	private int jdbcFetchSize;
+
+	@Value("${hibernate.batchFetchSize:100}")
+	private int batchFetchSize;
+
 //	@Bean(destroyMethod = "close")
 //	public DataSource dataSource() {
 //		BasicDataSource retVal = new BasicDataSource();
@@ -62,24 +101,84 @@ public class FhirServerConfig {
 		retVal.setPersistenceUnitName("GT-FHIR2");
 //		retVal.setDataSource(dataSource());
 		retVal.setDataSource(dataSource);
-		retVal.setPackagesToScan("edu.gatech.chai.omopv5.model.entity", "edu.gatech.chai.smart.jpa.entity");
+		retVal.setPackagesToScan("edu.gatech.chai.omopv5.model.entity", "edu.gatech.chai.smart.jpa.entity",
+				"edu.gatech.chai.paging.jpa.entity");
 		retVal.setPersistenceProvider(new HibernatePersistenceProvider());
+		// Read-only transactions load entities without dirty checking snapshots.
+		retVal.setJpaDialect(new ReadOnlyHibernateJpaDialect());
 		retVal.setJpaProperties(jpaProperties());
 		return retVal;
 	}
 
+	@Bean(destroyMethod = "shutdown")
+	public CacheManager vocabularyCacheManager() {
+		net.sf.ehcache.config.Configuration config = new net.sf.ehcache.config.Configuration()
+				.name("omoponfhir-vocabulary").updateCheck(false);
+		if (vocabularyCacheOverflowToDisk) {
+			config.diskStore(new DiskStoreConfiguration().path("java.io.tmpdir"));
+		}
+
+		// Anything else Hibernate asks for (such as the update timestamps region)
+		// gets a small default cache.
+		config.defaultCache(new CacheConfiguration().maxEntriesLocalHeap(10000).eternal(true)
+				.persistence(new PersistenceConfiguration().strategy(PersistenceConfiguration.Strategy.NONE)));
+
+		for (String region : VOCABULARY_CACHE_REGIONS) {
+			config.cache(vocabularyCacheConfiguration(region));
+		}
+
+		return new CacheManager(config);
+	}
+
+	private CacheConfiguration vocabularyCacheConfiguration(String region) {
+		CacheConfiguration cacheConfig = new CacheConfiguration().name(region)
+				.maxEntriesLocalHeap(vocabularyCacheMaxEntriesLocalHeap)
+				.memoryStoreEvictionPolicy(MemoryStoreEvictionPolicy.LRU);
+
+		if (vocabularyCacheTtlSeconds > 0) {
+			cacheConfig.eternal(false).timeToLiveSeconds(vocabularyCacheTtlSeconds);
+		} else {
+			cacheConfig.eternal(true);
+		}
+
+		if (vocabularyCacheOverflowToDisk) {
+			cacheConfig.maxEntriesLocalDisk(vocabularyCacheMaxEntriesLocalDisk)
+					.persistence(new PersistenceConfiguration().strategy(PersistenceConfiguration.Strategy.LOCALTEMPSWAP));
+		} else {
+			cacheConfig.persistence(new PersistenceConfiguration().strategy(PersistenceConfiguration.Strategy.NONE));
+		}
+
+		return cacheConfig;
+	}
+
 	private Properties jpaProperties() {
 		Properties extraProperties = new Properties();
-		extraProperties.put("hibernate.dialect", org.hibernate.dialect.PostgreSQL94Dialect.class.getName());
-//		extraProperties.put("hibernate.dialect", edu.gatech.chai.omopv5.jpa.enity.noomop.OmopPostgreSQLDialect.class.getName());
+		// PostgreSQL94Dialect with count_over() for reading a page and its total in one query.
+		extraProperties.put("hibernate.dialect", edu.gatech.chai.omopv5.jpa.utility.OmopPostgreSQLDialect.class.getName());
 		extraProperties.put("hibernate.format_sql", "true");
 		extraProperties.put("hibernate.show_sql", "false");
 		extraProperties.put("hibernate.hbm2ddl.auto", "update");
 //		extraProperties.put("hibernate.hbm2ddl.auto", "none");
 //		extraProperties.put("hibernate.enable_lazy_load_no_trans", "true");
 		extraProperties.put("hibernate.jdbc.batch_size", "20");
-		extraProperties.put("hibernate.cache.use_query_cache", "false");
-		extraProperties.put("hibernate.cache.use_second_level_cache", "false");
+		// Rows per round trip. The PostgreSQL driver reads whole result sets otherwise.
+		if (jdbcFetchSize > 0) {
+			extraProperties.put("hibernate.jdbc.fetch_size", String.valueOf(jdbcFetchSize));
+		}
+		// Associations outside the fetch plans (see BaseEntityServiceImp.applyFetchPlan)
+		// are loaded for up to this many rows per select.
+		if (batchFetchSize > 0) {
+			extraProperties.put("hibernate.default_batch_fetch_size", String.valueOf(batchFetchSize));
+		}
+		// Group inserts and updates by table so that they can be sent as batches.
+		extraProperties.put("hibernate.order_inserts", "true");
+		extraProperties.put("hibernate.order_updates", "true");
+		extraProperties.put("hibernate.cache.use_query_cache", "true");
+		extraProperties.put("hibernate.cache.use_second_level_cache", "true");
+		extraProperties.put("hibernate.cache.region.factory_class", EhcacheRegionFactory.class.getName());
+		extraProperties.put(ConfigSettings.CACHE_MANAGER, vocabularyCacheManager());
+		// Only entities marked @Cacheable (the vocabulary tables) are cached.
+		extraProperties.put("javax.persistence.sharedCache.mode", "ENABLE_SELECTIVE");
 		extraProperties.put("hibernate.cache.use_structured_entries", "false");
 		extraProperties.put("hibernate.cache.use_minimal_puts", "false");
 		// extraProperties.put("hibernate.search.model_mapping",
@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package edu.gatech.chai.omoponfhir.datasource;
+
+import java.util.Map;
+
+/**
+ * JMX view of a connection pool. Registered as
+ * edu.gatech.chai.omoponfhir:type=PoolMetrics,pool=(pool name).
+ */
+public interface PoolMetricsMXBean {
+	public int getActiveConnections();
+	public int getIdleConnections();
+	public int getPendingThreads();
+	public int getTotalConnections();
+	public int getMaxConnections();
+
+	public long getAcquireCount();
+	public double getAcquireMeanMillis();
+	public double getAcquireMaxMillis();
+	/** Number of acquires per latency bucket. Keys are upper bounds such as "le 10ms". */
+	public Map<String, Long> getAcquireHistogram();
+	public long getTimeoutCount();
+	public double getUsageMeanMillis();
+	public double getCreateMeanMillis();
+
+	public void reset();
+}
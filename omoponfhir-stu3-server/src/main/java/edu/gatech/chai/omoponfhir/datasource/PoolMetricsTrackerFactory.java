@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package edu.gatech.chai.omoponfhir.datasource;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+/**
+ * Hikari metrics tracker that publishes each pool on JMX (PoolMetricsMXBean):
+ * active, idle, waiting and total connections, and an acquire latency
+ * histogram with fixed buckets.
+ */
+public class PoolMetricsTrackerFactory implements MetricsTrackerFactory {
+	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(PoolMetricsTrackerFactory.class);
+
+	public static final String JMX_DOMAIN = "edu.gatech.chai.omoponfhir";
+
+	/** Upper bounds of the acquire latency buckets in milliseconds. The last bucket is unbounded. */
+	static final long[] ACQUIRE_BUCKETS_MILLIS = { 1, 5, 10, 25, 50, 100, 250, 500, 1000, 5000 };
+
+	@Override
+	public IMetricsTracker create(String poolName, PoolStats poolStats) {
+		PoolMetrics metrics = new PoolMetrics(poolName, poolStats);
+		metrics.register();
+		return metrics;
+	}
+
+	public static class PoolMetrics implements IMetricsTracker, PoolMetricsMXBean {
+		private final String poolName;
+		private final PoolStats poolStats;
+		private ObjectName objectName;
+
+		private final AtomicLongArray acquireBuckets = new AtomicLongArray(ACQUIRE_BUCKETS_MILLIS.length + 1);
+		private final AtomicLong acquireCount = new AtomicLong();
+		private final AtomicLong acquireTotalNanos = new AtomicLong();
+		private final AtomicLong acquireMaxNanos = new AtomicLong();
+		private final AtomicLong timeoutCount = new AtomicLong();
+		private final AtomicLong usageCount = new AtomicLong();
+		private final AtomicLong usageTotalMillis = new AtomicLong();
+		private final AtomicLong createCount = new AtomicLong();
+		private final AtomicLong createTotalMillis = new AtomicLong();
+
+		PoolMetrics(String poolName, PoolStats poolStats) {
+			this.poolName = poolName;
+			this.poolStats = poolStats;
+		}
+
+		void register() {
+			try {
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				ObjectName name = new ObjectName(JMX_DOMAIN + ":type=PoolMetrics,pool=" + ObjectName.quote(poolName));
+				if (server.isRegistered(name)) {
+					server.unregisterMBean(name);
+				}
+				server.registerMBean(this, name);
+				objectName = name;
+			} catch (Exception e) {
+				logger.warn("Unable to register pool metrics for " + poolName + ": " + e.getMessage());
+			}
+		}
+
+		@Override
+		public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+			acquireCount.incrementAndGet();
+			acquireTotalNanos.addAndGet(elapsedAcquiredNanos);
+			acquireMaxNanos.accumulateAndGet(elapsedAcquiredNanos, Math::max);
+
+			long millis = TimeUnit.NANOSECONDS.toMillis(elapsedAcquiredNanos);
+			int bucket = 0;
+			while (bucket < ACQUIRE_BUCKETS_MILLIS.length && millis > ACQUIRE_BUCKETS_MILLIS[bucket]) {
+				bucket++;
+			}
+			acquireBuckets.incrementAndGet(bucket);
+		}
+
+		@Override
+		public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+			usageCount.incrementAndGet();
+			usageTotalMillis.addAndGet(elapsedBorrowedMillis);
+		}
+
+		@Override
+		public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+			createCount.incrementAndGet();
+			createTotalMillis.addAndGet(connectionCreatedMillis);
+		}
+
+		@Override
+		public void recordConnectionTimeout() {
+			timeoutCount.incrementAndGet();
+		}
+
+		@Override
+		public void close() {
+			if (objectName == null) return;
+
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} catch (Exception e) {
+				logger.debug("Unable to unregister pool metrics for " + poolName + ": " + e.getMessage());
+			}
+			objectName = null;
+		}
+
+		@Override
+		public int getActiveConnections() {
+			return poolStats.getActiveConnections();
+		}
+
+		@Override
+		public int getIdleConnections() {
+			return poolStats.getIdleConnections();
+		}
+
+		@Override
+		public int getPendingThreads() {
+			return poolStats.getPendingThreads();
+		}
+
+		@Override
+		public int getTotalConnections() {
+			return poolStats.getTotalConnections();
+		}
+
+		@Override
+		public int getMaxConnections() {
+			return poolStats.getMaxConnections();
+		}
+
+		@Override
+		public long getAcquireCount() {
+			return acquireCount.get();
+		}
+
+		@Override
+		public double getAcquireMeanMillis() {
+			long count = acquireCount.get();
+			if (count == 0) return 0;
+
+			return acquireTotalNanos.get() / (count * 1000000.0);
+		}
+
+		@Override
+		public double getAcquireMaxMillis() {
+			return acquireMaxNanos.get() / 1000000.0;
+		}
+
+		@Override
+		public Map<String, Long> getAcquireHistogram() {
+			Map<String, Long> histogram = new LinkedHashMap<String, Long>();
+			for (int i = 0; i < ACQUIRE_BUCKETS_MILLIS.length; i++) {
+				histogram.put("le " + ACQUIRE_BUCKETS_MILLIS[i] + "ms", acquireBuckets.get(i));
+			}
+			histogram.put("gt " + ACQUIRE_BUCKETS_MILLIS[ACQUIRE_BUCKETS_MILLIS.length - 1] + "ms",
+					acquireBuckets.get(ACQUIRE_BUCKETS_MILLIS.length));
+
+			return histogram;
+		}
+
+		@Override
+		public long getTimeoutCount() {
+			return timeoutCount.get();
+		}
+
+		@Override
+		public double getUsageMeanMillis() {
+			long count = usageCount.get();
+			if (count == 0) return 0;
+
+			return (double) usageTotalMillis.get() / count;
+		}
+
+		@Override
+		public double getCreateMeanMillis() {
+			long count = createCount.get();
+			if (count == 0) return 0;
+
+			return (double) createTotalMillis.get() / count;
+		}
+
+		@Override
+		public void reset() {
+			for (int i = 0; i < acquireBuckets.length(); i++) {
+				acquireBuckets.set(i, 0);
+			}
+			acquireCount.set(0);
+			acquireTotalNanos.set(0);
+			acquireMaxNanos.set(0);
+			timeoutCount.set(0);
+			usageCount.set(0);
+			usageTotalMillis.set(0);
+			createCount.set(0);
+			createTotalMillis.set(0);
+		}
+	}
+}
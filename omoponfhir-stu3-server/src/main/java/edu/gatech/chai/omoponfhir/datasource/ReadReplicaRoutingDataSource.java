@@ -0,0 +1,252 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package edu.gatech.chai.omoponfhir.datasource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Sends connections of read-only transactions to read replicas and everything
+ * else to the primary.
+ *
+ * Replicas are given as a comma separated list of JDBC URLs (replicaUrls).
+ * Each gets its own pool with the settings of replicaConfig. A replica is
+ * picked round-robin or by the fewest active connections (strategy).
+ * Replicas are checked every
+ * healthCheckSeconds. A replica that fails the check, or fails to give a
+ * connection, is skipped until it passes again. With no healthy replica, the
+ * primary is used.
+ *
+ * The read-only flag of a transaction is set after the transaction manager
+ * opens its connection, so this must be wrapped in a
+ * LazyConnectionDataSourceProxy. The real connection is then fetched on the
+ * first statement, when the flag is known.
+ */
+public class ReadReplicaRoutingDataSource extends AbstractDataSource implements InitializingBean, DisposableBean {
+	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ReadReplicaRoutingDataSource.class);
+
+	public static final String ROUND_ROBIN = "round-robin";
+	public static final String LEAST_CONNECTIONS = "least-connections";
+
+	private DataSource primary;
+	private String replicaUrls;
+	private HikariConfig replicaConfig;
+	private String strategy = ROUND_ROBIN;
+	private int healthCheckSeconds = 30;
+	private int validationTimeoutSeconds = 5;
+
+	private final List<Replica> replicas = new ArrayList<Replica>();
+	private final AtomicInteger next = new AtomicInteger();
+	private ScheduledExecutorService healthCheck;
+
+	public void setPrimary(DataSource primary) {
+		this.primary = primary;
+	}
+
+	public void setReplicaUrls(String replicaUrls) {
+		this.replicaUrls = replicaUrls;
+	}
+
+	public void setReplicaConfig(HikariConfig replicaConfig) {
+		this.replicaConfig = replicaConfig;
+	}
+
+	public void setStrategy(String strategy) {
+		this.strategy = strategy;
+	}
+
+	public void setHealthCheckSeconds(int healthCheckSeconds) {
+		this.healthCheckSeconds = healthCheckSeconds;
+	}
+
+	public void setValidationTimeoutSeconds(int validationTimeoutSeconds) {
+		this.validationTimeoutSeconds = validationTimeoutSeconds;
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		if (primary == null) {
+			throw new IllegalArgumentException("primary data source is required");
+		}
+		if (!ROUND_ROBIN.equalsIgnoreCase(strategy) && !LEAST_CONNECTIONS.equalsIgnoreCase(strategy)) {
+			throw new IllegalArgumentException("Unknown replica strategy: " + strategy);
+		}
+
+		if (replicaUrls != null) {
+			for (String url : replicaUrls.split(",")) {
+				if (url.trim().isEmpty()) continue;
+				String poolName = "replica-" + (replicas.size() + 1);
+				replicas.add(new Replica(url.trim(), createReplicaDataSource(poolName, url.trim())));
+			}
+		}
+
+		if (replicas.isEmpty()) {
+			logger.info("No read replicas. All transactions use the primary.");
+			return;
+		}
+
+		logger.info(replicas.size() + " read replica(s), " + strategy + ", health check every "
+				+ healthCheckSeconds + "s");
+		if (healthCheckSeconds > 0) {
+			healthCheck = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "replica-health-check");
+				thread.setDaemon(true);
+				return thread;
+			});
+			healthCheck.scheduleWithFixedDelay(this::checkReplicas, 0, healthCheckSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	protected HikariDataSource createReplicaDataSource(String poolName, String url) {
+		HikariConfig config = new HikariConfig();
+		if (replicaConfig != null) {
+			replicaConfig.copyStateTo(config);
+		}
+		config.setPoolName(poolName);
+		config.setJdbcUrl(url);
+		config.setReadOnly(true);
+		// A replica that is down at startup is marked down by the health check
+		// instead of failing the server.
+		config.setInitializationFailTimeout(-1);
+		return new HikariDataSource(config);
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		if (healthCheck != null) {
+			healthCheck.shutdownNow();
+		}
+		for (Replica replica : replicas) {
+			replica.dataSource.close();
+		}
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		Replica replica = selectReplica();
+		while (replica != null) {
+			try {
+				return replica.dataSource.getConnection();
+			} catch (SQLException e) {
+				markDown(replica, e);
+			}
+			replica = selectReplica();
+		}
+
+		return primary.getConnection();
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		// Replicas are pooled with their own credentials. Explicit credentials go to the primary.
+		return primary.getConnection(username, password);
+	}
+
+	/**
+	 * Replica for the current transaction. null means the primary: the
+	 * transaction is not read-only, or no replica is healthy.
+	 */
+	protected Replica selectReplica() {
+		if (replicas.isEmpty() || !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+			return null;
+		}
+
+		List<Replica> healthy = new ArrayList<Replica>(replicas.size());
+		for (Replica replica : replicas) {
+			if (replica.healthy) {
+				healthy.add(replica);
+			}
+		}
+		if (healthy.isEmpty()) {
+			return null;
+		}
+
+		if (LEAST_CONNECTIONS.equalsIgnoreCase(strategy)) {
+			Replica least = null;
+			for (Replica replica : healthy) {
+				if (least == null || activeConnections(replica) < activeConnections(least)) {
+					least = replica;
+				}
+			}
+			return least;
+		}
+
+		return healthy.get(Math.floorMod(next.getAndIncrement(), healthy.size()));
+	}
+
+	private int activeConnections(Replica replica) {
+		if (replica.dataSource.getHikariPoolMXBean() == null) {
+			return 0;
+		}
+
+		return replica.dataSource.getHikariPoolMXBean().getActiveConnections();
+	}
+
+	protected void checkReplicas() {
+		for (Replica replica : replicas) {
+			try (Connection connection = replica.dataSource.getConnection()) {
+				if (connection.isValid(validationTimeoutSeconds)) {
+					if (!replica.healthy) {
+						logger.info("Read replica " + replica.url + " is up");
+					}
+					replica.healthy = true;
+				} else {
+					markDown(replica, null);
+				}
+			} catch (SQLException e) {
+				markDown(replica, e);
+			} catch (RuntimeException e) {
+				// Keep the scheduled check running.
+				markDown(replica, e);
+			}
+		}
+	}
+
+	private void markDown(Replica replica, Exception e) {
+		if (replica.healthy) {
+			logger.warn("Read replica " + replica.url + " is down. Using the primary or other replicas"
+					+ (e == null ? "" : ": " + e.getMessage()));
+		}
+		replica.healthy = false;
+	}
+
+	static class Replica {
+		final String url;
+		final HikariDataSource dataSource;
+		volatile boolean healthy = true;
+
+		Replica(String url, HikariDataSource dataSource) {
+			this.url = url;
+			this.dataSource = dataSource;
+		}
+	}
+}
@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package edu.gatech.chai.omoponfhir.paging;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.server.BasePagingProvider;
+import ca.uhn.fhir.rest.server.IPagingProvider;
+import edu.gatech.chai.omoponfhir.datasource.PoolMetricsTrackerFactory;
+import edu.gatech.chai.omoponfhir.omopv5.stu3.provider.OmopFhirBundleProvider;
+
+/**
+ * In-memory paging provider bounded by the number of searches and by their
+ * approximate size in bytes.
+ *
+ * Searches are kept in LRU order. A search that has not been read for
+ * ttlMillis expires. When either bound is exceeded, the least recently used
+ * searches are evicted. A page request for a search that is gone returns 410
+ * as before.
+ *
+ * OMOP searches (OmopFhirBundleProvider) only hold their parameters and cursor,
+ * so they are small. Other bundle providers may hold their resources, so they
+ * are sized by the number of resources.
+ *
+ * The counters are published on JMX (PagingMetricsMXBean) once register() is
+ * called.
+ */
+public class BoundedMemoryPagingProvider extends BasePagingProvider implements IPagingProvider, PagingMetricsMXBean {
+	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(BoundedMemoryPagingProvider.class);
+
+	private static final long DEFAULT_ENTRY_BYTES = 1024;
+	private static final long BYTES_PER_RESOURCE = 4096;
+
+	private final int maxEntries;
+	private final long maxBytes;
+	private final long ttlMillis;
+	private final LinkedHashMap<String, StoredSearch> searches;
+	private long totalBytes = 0;
+	private ObjectName objectName;
+
+	private long storeCount = 0;
+	private long hitCount = 0;
+	private long missCount = 0;
+	private long evictionCount = 0;
+	private long expirationCount = 0;
+
+	public BoundedMemoryPagingProvider(int maxEntries, long maxBytes, long ttlMillis) {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		this.ttlMillis = ttlMillis;
+		this.searches = new LinkedHashMap<String, StoredSearch>(16, 0.75f, true);
+	}
+
+	/**
+	 * Publishes the counters on JMX. A store registered before under the same
+	 * name (e.g. by a previous deployment) is replaced.
+	 */
+	public void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(PoolMetricsTrackerFactory.JMX_DOMAIN + ":type=PagingMetrics,store=memory");
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(this, name);
+			objectName = name;
+		} catch (Exception e) {
+			logger.warn("Unable to register paging metrics: " + e.getMessage());
+		}
+	}
+
+	public void unregister() {
+		if (objectName == null) return;
+
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (Exception e) {
+			logger.debug("Unable to unregister paging metrics: " + e.getMessage());
+		}
+		objectName = null;
+	}
+
+	@Override
+	public synchronized IBundleProvider retrieveResultList(String theId) {
+		expire();
+
+		StoredSearch search = searches.get(theId);
+		if (search == null) {
+			missCount++;
+			return null;
+		}
+
+		search.lastAccess = System.currentTimeMillis();
+		hitCount++;
+		return search.bundleProvider;
+	}
+
+	@Override
+	public synchronized String storeResultList(IBundleProvider theList) {
+		String id = UUID.randomUUID().toString();
+		storeResultList(id, theList);
+
+		return id;
+	}
+
+	/**
+	 * Stores the search with the given id. This is used when the id comes from
+	 * another store.
+	 */
+	public synchronized void storeResultList(String theId, IBundleProvider theList) {
+		expire();
+
+		StoredSearch search = new StoredSearch(theList, approximateSize(theList));
+		StoredSearch old = searches.put(theId, search);
+		if (old != null) {
+			totalBytes -= old.bytes;
+		}
+		totalBytes += search.bytes;
+		storeCount++;
+
+		evict();
+	}
+
+	private long approximateSize(IBundleProvider theList) {
+		if (theList instanceof OmopFhirBundleProvider) {
+			return ((OmopFhirBundleProvider) theList).getApproximateSize();
+		}
+
+		Integer size = theList.size();
+		if (size != null) {
+			return DEFAULT_ENTRY_BYTES + BYTES_PER_RESOURCE * size;
+		}
+
+		return DEFAULT_ENTRY_BYTES;
+	}
+
+	private void expire() {
+		if (ttlMillis <= 0) return;
+
+		// Oldest access first. Stop at the first one that is still alive.
+		long expiredBefore = System.currentTimeMillis() - ttlMillis;
+		Iterator<StoredSearch> iter = searches.values().iterator();
+		while (iter.hasNext()) {
+			StoredSearch search = iter.next();
+			if (search.lastAccess >= expiredBefore) break;
+
+			totalBytes -= search.bytes;
+			iter.remove();
+			expirationCount++;
+		}
+	}
+
+	private void evict() {
+		// Keep at least the search that was just stored.
+		Iterator<Map.Entry<String, StoredSearch>> iter = searches.entrySet().iterator();
+		while (searches.size() > 1 && (searches.size() > maxEntries || (maxBytes > 0 && totalBytes > maxBytes))) {
+			Map.Entry<String, StoredSearch> eldest = iter.next();
+			totalBytes -= eldest.getValue().bytes;
+			iter.remove();
+			evictionCount++;
+			logger.debug("Paging search " + eldest.getKey() + " evicted. searches=" + searches.size() + ", bytes="
+					+ totalBytes);
+		}
+	}
+
+	@Override
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	@Override
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	@Override
+	public long getTtlMillis() {
+		return ttlMillis;
+	}
+
+	@Override
+	public synchronized int getSearchCount() {
+		return searches.size();
+	}
+
+	@Override
+	public synchronized long getApproximateBytes() {
+		return totalBytes;
+	}
+
+	@Override
+	public synchronized long getStoreCount() {
+		return storeCount;
+	}
+
+	@Override
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	@Override
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	@Override
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	@Override
+	public synchronized long getExpirationCount() {
+		return expirationCount;
+	}
+
+	private static class StoredSearch {
+		final IBundleProvider bundleProvider;
+		final long bytes;
+		long lastAccess;
+
+		StoredSearch(IBundleProvider bundleProvider, long bytes) {
+			this.bundleProvider = bundleProvider;
+			this.bytes = bytes;
+			this.lastAccess = System.currentTimeMillis();
+		}
+	}
+}
@@ -0,0 +1,368 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package edu.gatech.chai.omoponfhir.paging;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hl7.fhir.dstu3.model.InstantType;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import ca.uhn.fhir.model.api.Include;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.server.BasePagingProvider;
+import ca.uhn.fhir.rest.server.IPagingProvider;
+import ca.uhn.fhir.rest.server.IResourceProvider;
+import edu.gatech.chai.omoponfhir.omopv5.stu3.provider.IBundleProviderFactory;
+import edu.gatech.chai.omoponfhir.omopv5.stu3.provider.OmopFhirBundleProvider;
+import edu.gatech.chai.omopv5.dba.service.KeysetCursor;
+import edu.gatech.chai.omopv5.dba.service.ParameterWrapper;
+import edu.gatech.chai.paging.jpa.entity.PagingSearch;
+import edu.gatech.chai.paging.jpa.service.PagingSearchService;
+
+/**
+ * Paging provider that keeps searches in the paging_search table so that any
+ * server node can serve any page of a search.
+ *
+ * Only the search state is stored: resource type, parameters, sort, includes,
+ * total and page size. On a node that does not have the search in memory, the
+ * bundle provider is rebuilt from this state by the resource provider
+ * (IBundleProviderFactory). Searches are also kept in a local memory store, so
+ * the node that ran the search (or already loaded it) does not read the table
+ * again, and keeps its keyset cursor.
+ *
+ * Reading a search from the local store touches the shared copy at most once
+ * every ttlMillis/2, so that it does not expire while it is being paged on this
+ * node. The touch also saves the keyset cursor, so a node that restores the
+ * search seeks from there. If pages were read after the last touch, the first
+ * page served by the other node uses OFFSET and anchors the cursor again.
+ *
+ * Bundle providers that cannot be rebuilt (not OMOP searches, e.g.
+ * Patient/$everything) are kept in the local memory store only. Their next
+ * page links only work on the node that ran the search, so a load balancer
+ * must keep the client on that node (sticky sessions) to page them.
+ */
+public class DatabasePagingProvider extends BasePagingProvider implements IPagingProvider {
+	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(DatabasePagingProvider.class);
+
+	private static final long CLEANUP_INTERVAL_MILLIS = 60 * 1000;
+
+	private final PagingSearchService pagingSearchService;
+	private final BoundedMemoryPagingProvider localStore;
+	private final long ttlMillis;
+	private final Map<String, IBundleProviderFactory> factories = new HashMap<String, IBundleProviderFactory>();
+	private final Map<String, Long> lastTouched = new ConcurrentHashMap<String, Long>();
+	private volatile long lastCleanup = 0;
+
+	public DatabasePagingProvider(PagingSearchService pagingSearchService, List<IResourceProvider> providers,
+			BoundedMemoryPagingProvider localStore, long ttlMillis) {
+		this.pagingSearchService = pagingSearchService;
+		this.localStore = localStore;
+		this.ttlMillis = ttlMillis;
+
+		for (IResourceProvider provider : providers) {
+			if (provider instanceof IBundleProviderFactory) {
+				factories.put(provider.getResourceType().getSimpleName(), (IBundleProviderFactory) provider);
+			}
+		}
+	}
+
+	@Override
+	public IBundleProvider retrieveResultList(String theId) {
+		IBundleProvider bundleProvider = localStore.retrieveResultList(theId);
+		if (bundleProvider != null) {
+			if (bundleProvider instanceof OmopFhirBundleProvider) {
+				touch(theId, (OmopFhirBundleProvider) bundleProvider);
+			}
+			return bundleProvider;
+		}
+
+		PagingSearch search = pagingSearchService.getSearch(theId);
+		if (search == null) {
+			return null;
+		}
+
+		IBundleProviderFactory factory = factories.get(search.getResourceType());
+		if (factory == null) {
+			logger.warn("No resource provider to restore the " + search.getResourceType() + " search " + theId);
+			return null;
+		}
+
+		OmopFhirBundleProvider restored;
+		try {
+			restored = restoreBundleProvider(factory, new JSONObject(search.getSearchState()));
+		} catch (JSONException e) {
+			logger.error("Invalid state for the search " + theId, e);
+			return null;
+		}
+
+		lastTouched.put(theId, System.currentTimeMillis());
+		localStore.storeResultList(theId, restored);
+		return restored;
+	}
+
+	@Override
+	public String storeResultList(IBundleProvider theList) {
+		if (!(theList instanceof OmopFhirBundleProvider)
+				|| !factories.containsKey(((OmopFhirBundleProvider) theList).getResourceType())) {
+			return localStore.storeResultList(theList);
+		}
+
+		OmopFhirBundleProvider bundleProvider = (OmopFhirBundleProvider) theList;
+		String id = UUID.randomUUID().toString();
+
+		PagingSearch search = new PagingSearch();
+		search.setSearchId(id);
+		search.setResourceType(bundleProvider.getResourceType());
+		search.setSearchState(getSearchState(bundleProvider).toString());
+		pagingSearchService.saveSearch(search);
+		lastTouched.put(id, System.currentTimeMillis());
+
+		localStore.storeResultList(id, bundleProvider);
+
+		deleteExpired();
+		return id;
+	}
+
+	/**
+	 * Keeps the shared copy alive for the other nodes, and saves the cursor.
+	 * Skipped if the search was touched less than ttlMillis/2 ago.
+	 */
+	private void touch(String id, OmopFhirBundleProvider bundleProvider) {
+		long now = System.currentTimeMillis();
+		Long touched = lastTouched.get(id);
+		if (touched != null && now - touched < ttlMillis / 2) return;
+		lastTouched.put(id, now);
+
+		pagingSearchService.touchSearch(id, getSearchState(bundleProvider).toString());
+	}
+
+	private void deleteExpired() {
+		if (ttlMillis <= 0) return;
+
+		long now = System.currentTimeMillis();
+		if (now - lastCleanup < CLEANUP_INTERVAL_MILLIS) return;
+		lastCleanup = now;
+
+		lastTouched.values().removeIf(touched -> now - touched >= ttlMillis);
+
+		int deleted = pagingSearchService.deleteExpired(ttlMillis);
+		if (deleted > 0) {
+			logger.debug(deleted + " expired paging searches deleted");
+		}
+	}
+
+	private JSONObject getSearchState(OmopFhirBundleProvider bundleProvider) {
+		JSONObject state = new JSONObject();
+		state.put("searchTime", bundleProvider.getPublished().getValueAsString());
+		state.put("totalSize", bundleProvider.size() == null ? JSONObject.NULL : bundleProvider.size());
+		state.put("preferredPageSize",
+				bundleProvider.preferredPageSize() == null ? JSONObject.NULL : bundleProvider.preferredPageSize());
+		state.put("orderParams", bundleProvider.getOrderParams() == null ? JSONObject.NULL : bundleProvider.getOrderParams());
+
+		JSONArray params = new JSONArray();
+		if (bundleProvider.getParamList() != null) {
+			for (ParameterWrapper param : bundleProvider.getParamList()) {
+				JSONObject paramJson = new JSONObject();
+				paramJson.put("parameterType", param.getParameterType());
+				paramJson.put("parameters", param.getParameters());
+				paramJson.put("operators", param.getOperators());
+				paramJson.put("values", param.getValues());
+				paramJson.put("relationship", param.getRelationship());
+				paramJson.put("upperRelationship", param.getUpperRelationship());
+				params.put(paramJson);
+			}
+		}
+		state.put("paramList", params);
+
+		state.put("includes", getIncludesState(bundleProvider.getIncludes()));
+		state.put("reverseIncludes", getIncludesState(bundleProvider.getReverseIncludes()));
+		state.put("keysetCursor", getCursorState(bundleProvider.getKeysetCursor()));
+
+		return state;
+	}
+
+	/**
+	 * The cursor with the type of its last sort value, or null if there is no
+	 * cursor or the type cannot be saved.
+	 */
+	private Object getCursorState(KeysetCursor cursor) {
+		if (cursor == null) {
+			return JSONObject.NULL;
+		}
+
+		String sort;
+		int nextIndex;
+		Object lastSortValue;
+		Long lastId;
+		synchronized (cursor) {
+			nextIndex = cursor.getNextIndex();
+			lastSortValue = cursor.getLastSortValue();
+			lastId = cursor.getLastId();
+			sort = cursor.getSort();
+		}
+
+		if (lastSortValue == null || lastId == null) {
+			return JSONObject.NULL;
+		}
+
+		// Timestamp keeps its nanoseconds in toString(). getTime() would cut
+		// them, and the seek would then skip or repeat rows.
+		String type;
+		String value;
+		if (lastSortValue instanceof Timestamp || lastSortValue instanceof java.sql.Date
+				|| lastSortValue instanceof String || lastSortValue instanceof Long || lastSortValue instanceof Integer
+				|| lastSortValue instanceof Double || lastSortValue instanceof BigDecimal) {
+			type = lastSortValue.getClass().getName();
+			value = lastSortValue.toString();
+		} else if (lastSortValue.getClass() == Date.class) {
+			type = Date.class.getName();
+			value = String.valueOf(((Date) lastSortValue).getTime());
+		} else {
+			return JSONObject.NULL;
+		}
+
+		JSONObject cursorJson = new JSONObject();
+		cursorJson.put("sort", sort == null ? JSONObject.NULL : sort);
+		cursorJson.put("nextIndex", nextIndex);
+		cursorJson.put("lastSortType", type);
+		cursorJson.put("lastSortValue", value);
+		cursorJson.put("lastId", lastId);
+
+		return cursorJson;
+	}
+
+	private void restoreCursor(KeysetCursor cursor, JSONObject cursorJson) {
+		if (cursor == null || cursorJson == null) {
+			return;
+		}
+
+		String type = cursorJson.getString("lastSortType");
+		String value = cursorJson.getString("lastSortValue");
+		Object lastSortValue;
+		if (Timestamp.class.getName().equals(type)) {
+			lastSortValue = Timestamp.valueOf(value);
+		} else if (java.sql.Date.class.getName().equals(type)) {
+			lastSortValue = java.sql.Date.valueOf(value);
+		} else if (Date.class.getName().equals(type)) {
+			lastSortValue = new Date(Long.parseLong(value));
+		} else if (Long.class.getName().equals(type)) {
+			lastSortValue = Long.valueOf(value);
+		} else if (Integer.class.getName().equals(type)) {
+			lastSortValue = Integer.valueOf(value);
+		} else if (Double.class.getName().equals(type)) {
+			lastSortValue = Double.valueOf(value);
+		} else if (BigDecimal.class.getName().equals(type)) {
+			lastSortValue = new BigDecimal(value);
+		} else if (String.class.getName().equals(type)) {
+			lastSortValue = value;
+		} else {
+			return;
+		}
+
+		cursor.advance(cursorJson.isNull("sort") ? null : cursorJson.getString("sort"), cursorJson.getInt("nextIndex"),
+				lastSortValue, cursorJson.getLong("lastId"));
+	}
+
+	private Object getIncludesState(Set<Include> includes) {
+		if (includes == null) {
+			return JSONObject.NULL;
+		}
+
+		JSONArray includesJson = new JSONArray();
+		for (Include include : includes) {
+			JSONObject includeJson = new JSONObject();
+			includeJson.put("value", include.getValue());
+			includeJson.put("recurse", include.isRecurse());
+			includesJson.put(includeJson);
+		}
+
+		return includesJson;
+	}
+
+	private OmopFhirBundleProvider restoreBundleProvider(IBundleProviderFactory factory, JSONObject state) {
+		List<ParameterWrapper> paramList = new ArrayList<ParameterWrapper>();
+		JSONArray params = state.getJSONArray("paramList");
+		for (int i = 0; i < params.length(); i++) {
+			JSONObject paramJson = params.getJSONObject(i);
+			ParameterWrapper param = new ParameterWrapper();
+			param.setParameterType(paramJson.optString("parameterType", null));
+			param.setParameters(getStringList(paramJson.optJSONArray("parameters")));
+			param.setOperators(getStringList(paramJson.optJSONArray("operators")));
+			param.setValues(getStringList(paramJson.optJSONArray("values")));
+			param.setRelationship(paramJson.optString("relationship", null));
+			param.setUpperRelationship(paramJson.optString("upperRelationship", null));
+			paramList.add(param);
+		}
+
+		OmopFhirBundleProvider bundleProvider = factory.createBundleProvider(paramList,
+				getIncludes(state.optJSONArray("includes")), getIncludes(state.optJSONArray("reverseIncludes")));
+
+		bundleProvider.setSearchTime(new InstantType(state.getString("searchTime")));
+		if (!state.isNull("totalSize")) {
+			bundleProvider.setTotalSize(state.getInt("totalSize"));
+		} else {
+			bundleProvider.setTotalSize(null);
+		}
+		if (!state.isNull("preferredPageSize")) {
+			bundleProvider.setPreferredPageSize(state.getInt("preferredPageSize"));
+		}
+		if (!state.isNull("orderParams")) {
+			bundleProvider.setOrderParams(state.getString("orderParams"));
+		}
+		restoreCursor(bundleProvider.getKeysetCursor(), state.optJSONObject("keysetCursor"));
+
+		return bundleProvider;
+	}
+
+	private List<String> getStringList(JSONArray array) {
+		if (array == null) {
+			return null;
+		}
+
+		List<String> values = new ArrayList<String>();
+		for (int i = 0; i < array.length(); i++) {
+			values.add(array.isNull(i) ? null : array.getString(i));
+		}
+
+		return values;
+	}
+
+	private Set<Include> getIncludes(JSONArray array) {
+		Set<Include> includes = new HashSet<Include>();
+		if (array == null) {
+			return includes;
+		}
+
+		for (int i = 0; i < array.length(); i++) {
+			JSONObject includeJson = array.getJSONObject(i);
+			includes.add(new Include(includeJson.getString("value"), includeJson.optBoolean("recurse")));
+		}
+
+		return includes;
+	}
+}
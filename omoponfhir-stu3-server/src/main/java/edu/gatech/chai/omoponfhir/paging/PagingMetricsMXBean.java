@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package edu.gatech.chai.omoponfhir.paging;
+
+/**
+ * JMX view of the in-memory paging store. Registered as
+ * edu.gatech.chai.omoponfhir:type=PagingMetrics,store=memory.
+ */
+public interface PagingMetricsMXBean {
+	public int getMaxEntries();
+	public long getMaxBytes();
+	public long getTtlMillis();
+
+	public int getSearchCount();
+	public long getApproximateBytes();
+
+	public long getStoreCount();
+	public long getHitCount();
+	public long getMissCount();
+	public long getEvictionCount();
+	public long getExpirationCount();
+}
@@ -21,9 +21,15 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -31,6 +37,7 @@ import javax.servlet.http.HttpServletRequest;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.codec.binary.StringUtils;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.oltu.oauth2.common.exception.OAuthProblemException;
 import org.apache.oltu.oauth2.common.exception.OAuthSystemException;
 import org.apache.oltu.oauth2.common.message.types.ParameterStyle;
@@ -43,6 +50,7 @@ import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
 //import ca.uhn.fhir.model.dstu.valueset.RestfulOperationTypeEnum;
@@ -70,6 +78,13 @@ public class Authorization {
 	private boolean is_admin = false;
 	private Set<String> scopeSet;
 
+	// Introspection results are shared by all requests, keyed by the token hash.
+	private static volatile IntrospectionCache<IntrospectionResult> introspectionCache =
+			new IntrospectionCache<IntrospectionResult>(10000, 300 * 1000L);
+	private static final ConcurrentMap<String, FutureTask<IntrospectionResult>> introspectionsInFlight =
+			new ConcurrentHashMap<String, FutureTask<IntrospectionResult>>();
+	private static final RestTemplate restTemplate = createRestTemplate();
+
 	public Authorization(String url) {
 		this.url = url;
 		this.clientId = "client";
@@ -90,6 +105,18 @@ public class Authorization {
 		return userId;
 	}
 		
+	/**
+	 * One RestTemplate for all requests. HttpURLConnection keeps the connections
+	 * to the authorization server alive and reuses them.
+	 */
+	private static RestTemplate createRestTemplate() {
+		SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+		requestFactory.setConnectTimeout(10000);
+		requestFactory.setReadTimeout(30000);
+
+		return new RestTemplate(requestFactory);
+	}
+
 	private HttpHeaders createHeaders () {
 		HttpHeaders httpHeaders = new HttpHeaders();
 		String auth = clientId+":"+clientSecret;
@@ -122,7 +149,7 @@ public class Authorization {
 			}
 									
 		} catch (OAuthSystemException | OAuthProblemException e) {
-			e.printStackTrace();
+			logger.error("Invalid auth request", e);
 			return "Invalid Auth Request";
 		}
 
@@ -138,59 +165,42 @@ public class Authorization {
 		// Save the token for a future use.
 		this.token = token;
 		
-		// Introspect the token
-		RestTemplate restTemplate = new RestTemplate();
-		HttpEntity<String> reqAuth = new HttpEntity<String>(createHeaders());
-		ResponseEntity<String> response;
-		
-		String introspectTokenUrl = url+"?token="+this.token;
-		response = restTemplate.exchange(introspectTokenUrl, HttpMethod.POST, reqAuth, String.class);
-		HttpStatus statusCode = response.getStatusCode();
-		if (statusCode.is2xxSuccessful() == false) {
+		// Introspect the token, unless we already did it for this token.
+		String key = DigestUtils.sha256Hex(url + " " + token);
+		IntrospectionResult result = introspectionCache.get(key);
+		if (result == null) {
+			result = introspectOnce(key, token);
+		}
+
+		if (result == null) {
 			return false;
 		}
-		
-		System.out.println("IntrospectToken: "+response.getBody());
-		
-		// First check the token status. Turn the body into JSON.
-		JSONObject jsonObject = new JSONObject(response.getBody());
-		if (jsonObject.getBoolean("active") != true) {
+
+		if (result.active == false) {
 			// This is not active token.
 			active = false;
 			return false;
 		}
 		active = true;
 		
-		// Get the expiration time.
-//		DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
-		Date expDate;
-		try {
-			int exp_ts = jsonObject.getInt("exp");
-			expDate = new java.util.Date((long)exp_ts*1000);
-//			expDate = df.parse(exp_str);
-		} catch (JSONException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		if (result.expDate == null) {
 			expired = true;
 			return false;
 		}
 	
 		Date minAllowableExpirationTime = new Date(System.currentTimeMillis()-(myTimeSkewAllowance * 1000L));
-		if (expDate != null && expDate.before(minAllowableExpirationTime)) {
+		if (result.expDate.before(minAllowableExpirationTime)) {
 			// expired.
 			expired = true;
 			return false;
 		}
+		expired = false;
 		
 		// Store the received information such as scope, user_id, client_id, etc...
-		userId = jsonObject.getString("sub");
-		clientId = jsonObject.getString("client_id");
-		token_type = jsonObject.getString("token_type");
-
-		String[] scopeValues = jsonObject.getString("scope")
-				.trim().replaceAll("\\+", " ")
-				.split(" ");
-		scopeSet = new HashSet<String>(Arrays.asList(scopeValues));
+		userId = result.userId;
+		clientId = result.clientId;
+		token_type = result.tokenType;
+		scopeSet = result.scopeSet;
 		if (scopeSet.isEmpty()) return false;
 		
 		if (scopeSet.contains("user/*.*")) {
@@ -199,6 +209,97 @@ public class Authorization {
 		
 		return true;
 	}
+
+	/**
+	 * Introspects the token once for all the requests that ask for it at the
+	 * same time. The first request calls the introspection endpoint and the
+	 * others wait for its result.
+	 */
+	private IntrospectionResult introspectOnce(String key, final String token) {
+		FutureTask<IntrospectionResult> task = new FutureTask<IntrospectionResult>(
+				new Callable<IntrospectionResult>() {
+					@Override
+					public IntrospectionResult call() {
+						return requestIntrospection(token);
+					}
+				});
+
+		FutureTask<IntrospectionResult> running = introspectionsInFlight.putIfAbsent(key, task);
+		if (running == null) {
+			running = task;
+			try {
+				task.run();
+			} finally {
+				introspectionsInFlight.remove(key, task);
+			}
+		}
+
+		try {
+			IntrospectionResult result = running.get();
+			if (result != null && result.active && result.expDate != null) {
+				introspectionCache.put(key, result, result.expDate.getTime());
+			}
+			return result;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	private IntrospectionResult requestIntrospection(String token) {
+		HttpEntity<String> reqAuth = new HttpEntity<String>(createHeaders());
+		ResponseEntity<String> response;
+		
+		String introspectTokenUrl = url+"?token="+token;
+		response = restTemplate.exchange(introspectTokenUrl, HttpMethod.POST, reqAuth, String.class);
+		HttpStatus statusCode = response.getStatusCode();
+		if (statusCode.is2xxSuccessful() == false) {
+			return null;
+		}
+		
+		logger.debug("IntrospectToken: "+response.getBody());
+		
+		// First check the token status. Turn the body into JSON.
+		JSONObject jsonObject = new JSONObject(response.getBody());
+		if (jsonObject.getBoolean("active") != true) {
+			return IntrospectionResult.INACTIVE;
+		}
+		
+		// Get the expiration time.
+		Date expDate;
+		try {
+			int exp_ts = jsonObject.getInt("exp");
+			expDate = new java.util.Date((long)exp_ts*1000);
+		} catch (JSONException e) {
+			logger.error("Introspection response has no valid exp", e);
+			expDate = null;
+		}
+
+		String[] scopeValues = jsonObject.getString("scope")
+				.trim().replaceAll("\\+", " ")
+				.split(" ");
+
+		return new IntrospectionResult(true, expDate, jsonObject.getString("sub"), jsonObject.getString("client_id"),
+				jsonObject.getString("token_type"), new HashSet<String>(Arrays.asList(scopeValues)));
+	}
+
+	/**
+	 * Sets the size and the time to live of the introspection cache. A cached
+	 * token never outlives its exp.
+	 */
+	public static void configureIntrospectionCache(int maxEntries, long ttlMillis) {
+		introspectionCache = new IntrospectionCache<IntrospectionResult>(maxEntries, ttlMillis);
+	}
+
+	public static IntrospectionCache<IntrospectionResult> getIntrospectionCache() {
+		return introspectionCache;
+	}
 	
 	public boolean checkBearer() {
 		if (token_type != null && token_type.equalsIgnoreCase("Bearer")) {
@@ -301,6 +402,27 @@ public class Authorization {
 			return false;
 	}
 	
+	private static class IntrospectionResult {
+		static final IntrospectionResult INACTIVE = new IntrospectionResult(false, null, null, null, null, null);
+
+		final boolean active;
+		final Date expDate;
+		final String userId;
+		final String clientId;
+		final String tokenType;
+		final Set<String> scopeSet;
+
+		IntrospectionResult(boolean active, Date expDate, String userId, String clientId, String tokenType,
+				Set<String> scopeSet) {
+			this.active = active;
+			this.expDate = expDate;
+			this.userId = userId;
+			this.clientId = clientId;
+			this.tokenType = tokenType;
+			this.scopeSet = scopeSet == null ? null : Collections.unmodifiableSet(scopeSet);
+		}
+	}
+
 	public boolean asBearerAuth(HttpServletRequest request) {
 		OAuthAccessResourceRequest oauthRequest;
 		try {
@@ -309,7 +431,7 @@ public class Authorization {
 	        String accessToken = oauthRequest.getAccessToken();
 	        return introspectToken(accessToken);
 		} catch (OAuthSystemException | OAuthProblemException e) {
-			e.printStackTrace();
+			logger.error("Invalid bearer auth request", e);
 			return false;
 		}
 	}
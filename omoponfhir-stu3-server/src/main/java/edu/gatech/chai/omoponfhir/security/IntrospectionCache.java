@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package edu.gatech.chai.omoponfhir.security;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of token introspection results, keyed by the token hash.
+ *
+ * maxEntries bounds the number of entries. When it's full, the least recently
+ * used entry is evicted. An entry expires at the time it is put with, capped
+ * by ttlMillis (ttlMillis <= 0 means no cap).
+ */
+public class IntrospectionCache<V> {
+	private final int maxEntries;
+	private final long ttlMillis;
+	private final LinkedHashMap<String, CacheEntry<V>> entries;
+
+	private long hitCount = 0;
+	private long missCount = 0;
+
+	public IntrospectionCache(int maxEntries, long ttlMillis) {
+		this.maxEntries = maxEntries;
+		this.ttlMillis = ttlMillis;
+		this.entries = new LinkedHashMap<String, CacheEntry<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry<V>> eldest) {
+				return size() > IntrospectionCache.this.maxEntries;
+			}
+		};
+	}
+
+	public synchronized V get(String key) {
+		CacheEntry<V> entry = entries.get(key);
+		if (entry == null) {
+			missCount++;
+			return null;
+		}
+
+		if (entry.expiresAt > 0 && entry.expiresAt < System.currentTimeMillis()) {
+			entries.remove(key);
+			missCount++;
+			return null;
+		}
+
+		hitCount++;
+		return entry.value;
+	}
+
+	/**
+	 * Puts an entry that expires at the given time (in milliseconds), or after
+	 * ttlMillis if that comes first.
+	 */
+	public synchronized void put(String key, V value, long expiresAt) {
+		if (ttlMillis > 0) {
+			long maxExpiresAt = System.currentTimeMillis() + ttlMillis;
+			if (expiresAt <= 0 || expiresAt > maxExpiresAt) {
+				expiresAt = maxExpiresAt;
+			}
+		}
+		entries.put(key, new CacheEntry<V>(value, expiresAt));
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	private static class CacheEntry<V> {
+		final V value;
+		final long expiresAt;
+
+		CacheEntry(V value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
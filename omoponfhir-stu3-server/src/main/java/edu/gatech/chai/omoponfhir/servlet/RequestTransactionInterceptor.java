@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (c) 2019 Georgia Tech Research Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package edu.gatech.chai.omoponfhir.servlet;
+
+import java.util.concurrent.Semaphore;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.rest.server.interceptor.InterceptorAdapter;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+
+/**
+ * Runs the provider call of each FHIR read (read, search, history, next page)
+ * in one read-only transaction. The service calls made while a page is mapped
+ * join it, so they share one persistence context and one connection, and an
+ * entity that is loaded again in the same request (the same FPerson, Provider
+ * or Concept) comes from the persistence context.
+ *
+ * The transaction ends in outgoingResponse, once the bundle has been built and
+ * before it is serialized, so the connection is not held while the response is
+ * written to the client. Operations such as $everything are not wrapped: their
+ * work runs on other threads, which cannot join the transaction.
+ *
+ * The connection is fetched on the first statement. Writes made during a read,
+ * such as the paging_search rows, run in their own transaction and need a
+ * second connection. To keep connections for those, at most
+ * maxConcurrentTransactions requests hold a request transaction at a time. The
+ * others run with a transaction per service call. RequestTransactionFilter
+ * ends the transaction if the request leaves HAPI without reaching a hook.
+ *
+ * Register this before any interceptor that writes the response itself.
+ */
+public class RequestTransactionInterceptor extends InterceptorAdapter {
+	private static final String ATTRIBUTE = RequestTransactionInterceptor.class.getName();
+
+	private final PlatformTransactionManager transactionManager;
+	private final DefaultTransactionDefinition definition;
+	private final Semaphore permits;
+
+	public RequestTransactionInterceptor(PlatformTransactionManager transactionManager, int maxConcurrent) {
+		this.transactionManager = transactionManager;
+		this.permits = new Semaphore(Math.max(maxConcurrent, 0));
+
+		definition = new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_REQUIRED);
+		definition.setReadOnly(true);
+		definition.setName(RequestTransactionInterceptor.class.getName());
+	}
+
+	@Override
+	public void incomingRequestPreHandled(RestOperationTypeEnum theOperation, ActionRequestDetails theProcessedRequest) {
+		if (!isRead(theOperation) || !(theProcessedRequest.getRequestDetails() instanceof ServletRequestDetails)) {
+			return;
+		}
+
+		HttpServletRequest request = ((ServletRequestDetails) theProcessedRequest.getRequestDetails())
+				.getServletRequest();
+		String method = request.getMethod();
+		if (!"GET".equals(method) && !"HEAD".equals(method)) return;
+		if (request.getAttribute(ATTRIBUTE) != null || TransactionSynchronizationManager.isActualTransactionActive()
+				|| !permits.tryAcquire()) {
+			return;
+		}
+
+		try {
+			request.setAttribute(ATTRIBUTE, new RequestTransaction(transactionManager.getTransaction(definition)));
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	@Override
+	public boolean outgoingResponse(RequestDetails theRequestDetails, IBaseResource theResponseObject,
+			HttpServletRequest theServletRequest, HttpServletResponse theServletResponse) {
+		end(theServletRequest);
+		return true;
+	}
+
+	@Override
+	public boolean handleException(RequestDetails theRequestDetails, BaseServerResponseException theException,
+			HttpServletRequest theServletRequest, HttpServletResponse theServletResponse) {
+		end(theServletRequest);
+		return true;
+	}
+
+	@Override
+	public void processingCompletedNormally(ServletRequestDetails theRequestDetails) {
+		end(theRequestDetails.getServletRequest());
+	}
+
+	/**
+	 * Ends the request transaction, if there is one. Must be called on the
+	 * thread that started it.
+	 */
+	static void end(ServletRequest request) {
+		RequestTransaction transaction = (RequestTransaction) request.getAttribute(ATTRIBUTE);
+		if (transaction == null || transaction.status == null) return;
+
+		TransactionStatus status = transaction.status;
+		transaction.status = null;
+		try {
+			// Nothing is written in a read-only transaction.
+			transaction.manager().rollback(status);
+		} finally {
+			transaction.permits().release();
+		}
+	}
+
+	private static boolean isRead(RestOperationTypeEnum theOperation) {
+		if (theOperation == null) return false;
+
+		switch (theOperation) {
+		case READ:
+		case VREAD:
+		case SEARCH_TYPE:
+		case SEARCH_SYSTEM:
+		case GET_PAGE:
+		case HISTORY_INSTANCE:
+		case HISTORY_TYPE:
+		case HISTORY_SYSTEM:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private class RequestTransaction {
+		TransactionStatus status;
+
+		RequestTransaction(TransactionStatus status) {
+			this.status = status;
+		}
+
+		PlatformTransactionManager manager() {
+			return transactionManager;
+		}
+
+		Semaphore permits() {
+			return permits;
+		}
+	}
+}
@@ -17,10 +17,16 @@ package edu.gatech.chai.omoponfhir.servlet;
 
 import java.util.*;
 
+import edu.gatech.chai.omoponfhir.paging.BoundedMemoryPagingProvider;
+import edu.gatech.chai.omoponfhir.paging.DatabasePagingProvider;
+import edu.gatech.chai.omoponfhir.security.Authorization;
 import edu.gatech.chai.omoponfhir.security.OIDCInterceptor;
 import edu.gatech.chai.omoponfhir.omopv5.stu3.provider.*;
 import edu.gatech.chai.omoponfhir.stu3.security.SMARTonFHIRConformanceStatement;
+import edu.gatech.chai.paging.jpa.service.PagingSearchService;
 
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.context.ContextLoaderListener;
 import org.springframework.web.context.WebApplicationContext;
 import org.springframework.web.cors.CorsConfiguration;
 
@@ -28,7 +34,7 @@ import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.narrative.DefaultThymeleafNarrativeGenerator;
 import ca.uhn.fhir.narrative.INarrativeGenerator;
 import ca.uhn.fhir.rest.api.EncodingEnum;
-import ca.uhn.fhir.rest.server.FifoMemoryPagingProvider;
+import ca.uhn.fhir.rest.server.BasePagingProvider;
 import ca.uhn.fhir.rest.server.HardcodedServerAddressStrategy;
 import ca.uhn.fhir.rest.server.IResourceProvider;
 import ca.uhn.fhir.rest.server.IServerAddressStrategy;
@@ -43,6 +49,10 @@ public class RestfulServlet extends RestfulServer {
 
 	private static final long serialVersionUID = 1L;
 	private WebApplicationContext myAppCtx;
+	private ServerOperations serverOperations;
+	private BulkDataProvider bulkDataProvider;
+	private PatientResourceProvider patientResourceProvider;
+	private BoundedMemoryPagingProvider memoryPagingProvider;
 
 	/**
 	 * Constructor
@@ -81,7 +91,8 @@ public class RestfulServlet extends RestfulServer {
 		 */
 		List<Object> plainProviders = new ArrayList<Object>();
 		SystemTransactionProvider systemTransactionProvider = new SystemTransactionProvider();
-		ServerOperations serverOperations = new ServerOperations();
+		serverOperations = new ServerOperations(getFhirContext());
+		bulkDataProvider = new BulkDataProvider(getFhirContext());
 
 		/*
 		 * Define resource providers 
@@ -112,7 +123,7 @@ public class RestfulServlet extends RestfulServer {
 		PractitionerResourceProvider practitionerResourceProvider = new PractitionerResourceProvider();
 		providers.add(practitionerResourceProvider);
 		
-		PatientResourceProvider patientResourceProvider = new PatientResourceProvider();
+		patientResourceProvider = new PatientResourceProvider();
 		providers.add(patientResourceProvider);
 		
 		ProcedureResourceProvider procedureResourceProvider = new ProcedureResourceProvider();
@@ -138,6 +149,7 @@ public class RestfulServlet extends RestfulServer {
 		 */
 		plainProviders.add(systemTransactionProvider);
 		plainProviders.add(serverOperations);
+		plainProviders.add(bulkDataProvider);
 		
 		setPlainProviders(plainProviders);
 		
@@ -150,9 +162,27 @@ public class RestfulServlet extends RestfulServer {
 		setServerConformanceProvider(capbilityProvider);
 		
 		/*
-		 * Add page provider. Use memory based on for now.
+		 * Add page provider. Searches are kept in memory, bounded by count, size
+		 * and idle time.
 		 */
-		FifoMemoryPagingProvider pp = new FifoMemoryPagingProvider(5);
+		int pagingMaxEntries = getIntInitParameter("pagingMaxEntries", 1000);
+		long pagingMaxBytes = getIntInitParameter("pagingMaxBytes", 64 * 1024 * 1024);
+		long pagingTtlMillis = getIntInitParameter("pagingTtlSeconds", 1800) * 1000L;
+		memoryPagingProvider = new BoundedMemoryPagingProvider(pagingMaxEntries, pagingMaxBytes, pagingTtlMillis);
+		memoryPagingProvider.register();
+
+		/*
+		 * With pagingStore=database, searches are also saved in the database so
+		 * that any node behind a load balancer can serve the next page.
+		 */
+		BasePagingProvider pp;
+		if ("database".equalsIgnoreCase(getServletConfig().getInitParameter("pagingStore"))) {
+			PagingSearchService pagingSearchService = ContextLoaderListener.getCurrentWebApplicationContext()
+					.getBean(PagingSearchService.class);
+			pp = new DatabasePagingProvider(pagingSearchService, providers, memoryPagingProvider, pagingTtlMillis);
+		} else {
+			pp = memoryPagingProvider;
+		}
 		pp.setDefaultPageSize(50);
 		pp.setMaximumPageSize(100000);
 		setPagingProvider(pp);
@@ -175,9 +205,24 @@ public class RestfulServlet extends RestfulServer {
 		config.addAllowedOrigin("*");
 		config.addExposedHeader("Location");
 		config.addExposedHeader("Content-Location");
+		config.addExposedHeader("X-Progress");
 		config.setAllowedMethods(Arrays.asList("GET", "POST", "PUT", "DELETE", "OPTIONS"));
 		registerInterceptor(corsInterceptor);
 
+		/*
+		 * Runs the provider call of each read in one read-only transaction. It
+		 * ends the transaction before the response is written, so this must
+		 * come before the interceptors that write responses.
+		 */
+		registerInterceptor(new RequestTransactionInterceptor(ContextLoaderListener.getCurrentWebApplicationContext()
+				.getBean(PlatformTransactionManager.class), getIntInitParameter("maxConcurrentTransactions", 5)));
+
+		/*
+		 * Lets $export write its own responses. This must come before the
+		 * response highlighter.
+		 */
+		registerInterceptor(new ManualResponseInterceptor());
+
 		/*
 		 * This server interceptor causes the server to return nicely formatter
 		 * and coloured responses instead of plain JSON/XML if the request is
@@ -210,6 +255,9 @@ public class RestfulServlet extends RestfulServer {
     	if (read_only == null) 
     		read_only = getServletConfig().getInitParameter("readOnly");
     	
+		Authorization.configureIntrospectionCache(getIntInitParameter("introspectionCacheMaxEntries", 10000),
+				getIntInitParameter("introspectionCacheTtlSeconds", 300) * 1000L);
+
 		OIDCInterceptor oIDCInterceptor = new OIDCInterceptor();
 		oIDCInterceptor.setIntrospectUrl(url);
 		oIDCInterceptor.setAuthType(authType);
@@ -232,4 +280,34 @@ public class RestfulServlet extends RestfulServer {
 		
 	}
 
+	/**
+	 * Stops the threads of the providers, so they do not outlive an undeploy.
+	 */
+	@Override
+	public void destroy() {
+		if (serverOperations != null) {
+			serverOperations.shutdown();
+		}
+		if (bulkDataProvider != null) {
+			bulkDataProvider.shutdown();
+		}
+		if (patientResourceProvider != null) {
+			patientResourceProvider.shutdown();
+		}
+		if (memoryPagingProvider != null) {
+			memoryPagingProvider.unregister();
+		}
+
+		super.destroy();
+	}
+
+	private int getIntInitParameter(String name, int defaultValue) {
+		String value = getServletConfig().getInitParameter(name);
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+
+		return Integer.parseInt(value.trim());
+	}
+
 }